@@ -0,0 +1,68 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+/**
+ * The algorithms that can fill an all-pairs distance matrix, and the planner
+ * that picks one of them from the density of the graph.
+ */
+enum AllPairsEngine
+{
+    /**
+     * O(|V|^3) regardless of the number of relationships.
+     * @see BlockedFloydWarshall
+     */
+    FLOYD_WARSHALL,
+    /**
+     * O(|V| |E| log |V|), one Dijkstra per source.
+     * @see SparseAllPairs
+     */
+    DIJKSTRA;
+
+    /**
+     * Density |E|/|V|^2 below which repeated Dijkstra is expected to beat
+     * Floyd-Warshall.
+     */
+    public static final double DEFAULT_DENSITY_THRESHOLD = 0.01;
+
+    /**
+     * @param name
+     *            "floyd_warshall", "dijkstra" or "auto" (case insensitive),
+     *            or null for "auto".
+     * @return the requested engine, or null if it should be planned.
+     */
+    public static AllPairsEngine parse( String name )
+    {
+        if ( name == null || name.equalsIgnoreCase( "auto" ) )
+        {
+            return null;
+        }
+        return valueOf( name.toUpperCase().replace( '-', '_' ) );
+    }
+
+    public static AllPairsEngine plan( int nodeCount, long relationshipCount )
+    {
+        if ( nodeCount == 0 )
+        {
+            return FLOYD_WARSHALL;
+        }
+        double density = relationshipCount / ( (double) nodeCount * nodeCount );
+        return density < DEFAULT_DENSITY_THRESHOLD ? DIJKSTRA : FLOYD_WARSHALL;
+    }
+}
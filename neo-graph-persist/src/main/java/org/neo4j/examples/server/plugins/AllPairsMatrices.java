@@ -0,0 +1,331 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+/**
+ * The all-pairs matrices of one database, one per snapshot key, evicted by
+ * the byte budget and kept in step with the committed relationships. Shared
+ * by the {@link Centrality} endpoints and the rows the unmanaged matrix
+ * resource streams.
+ */
+final class AllPairsMatrices
+{
+    private static final Map<GraphDatabaseService,AllPairsMatrices> databases =
+            new IdentityHashMap<GraphDatabaseService,AllPairsMatrices>();
+
+    /**
+     * The all-pairs matrix of one snapshot key, with the lock that guards it
+     * against the commits that update it.
+     */
+    static final class Matrix
+    {
+        final GraphSnapshots.Key key;
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        DoubleFloydWarshall floydWarshall = null; // guarded by lock
+        long version = 0; // guarded by lock, counts the commits that changed the matrix
+        volatile long bytes = 0; // of the calculated matrix
+        // The median and center of the matrix, computed once by whichever
+        // request comes first while the others wait on it; dropped by the
+        // commits that change the matrix
+        final AtomicReference<FutureTask<Centrality.MedianAndCenter>> medianAndCenter =
+                new AtomicReference<FutureTask<Centrality.MedianAndCenter>>();
+
+        Matrix( GraphSnapshots.Key key )
+        {
+            this.key = key;
+        }
+    }
+
+    private final GraphDatabaseService graphDb;
+    private final MatrixCache<GraphSnapshots.Key,Matrix> matrices; // guarded by this
+    // The same matrices, for the requests that only read a published median
+    // and center without taking the lock or moving them up the LRU order
+    private final ConcurrentHashMap<GraphSnapshots.Key,Matrix> index =
+            new ConcurrentHashMap<GraphSnapshots.Key,Matrix>();
+
+    private AllPairsMatrices( GraphDatabaseService graphDb )
+    {
+        this.graphDb = graphDb;
+        this.matrices = new MatrixCache<GraphSnapshots.Key,Matrix>( MatrixCache.budget( graphDb ),
+                new MatrixCache.Weigher<Matrix>()
+                {
+                    @Override
+                    public long bytes( Matrix matrix )
+                    {
+                        return matrix.bytes;
+                    }
+                } );
+    }
+
+    /**
+     * @return the matrices of a database, maintained by its commits from the
+     *         first call on.
+     */
+    public static AllPairsMatrices at( GraphDatabaseService graphDb )
+    {
+        synchronized ( databases )
+        {
+            AllPairsMatrices result = databases.get( graphDb );
+            if ( result == null )
+            {
+                result = new AllPairsMatrices( graphDb );
+                graphDb.registerTransactionEventHandler( result.new Maintainer() );
+                graphDb.registerKernelEventHandler( new Shutdown( graphDb ) );
+                databases.put( graphDb, result );
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns the cached matrix of a key, or caches a new one without
+     * calculating it.
+     */
+    public synchronized Matrix matrix( GraphSnapshots.Key key )
+    {
+        Matrix matrix = matrices.get( key );
+        if ( matrix == null )
+        {
+            matrix = matrices.putIfAbsent( key, new Matrix( key ) );
+            index.put( key, matrix );
+        }
+        return matrix;
+    }
+
+    /**
+     * @return the cached matrix of a key, looked up without locking or
+     *         touching the LRU order, or null if there is none.
+     */
+    public Matrix indexed( GraphSnapshots.Key key )
+    {
+        return index.get( key );
+    }
+
+    /**
+     * Sets up the matrix of a key if there is none, without calculating it.
+     */
+    public void initialize( GraphSnapshots.Key key, int tileSize, int threads, AllPairsEngine engine )
+    {
+        Matrix matrix = matrix( key );
+        matrix.lock.writeLock().lock();
+        try
+        {
+            initialize( matrix, tileSize, threads, engine );
+        }
+        finally
+        {
+            matrix.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Must be called holding the write lock of the matrix.
+     */
+    private void initialize( Matrix matrix, int tileSize, int threads, AllPairsEngine engine )
+    {
+        if ( matrix.floydWarshall == null )
+        {
+            DoubleFloydWarshall fw = new DoubleFloydWarshall( GraphSnapshots.at( graphDb ).get( graphDb, matrix.key ),
+                    0.0, Double.MAX_VALUE, graphDb );
+            fw.setTiling( tileSize, threads );
+            fw.setEngine( engine );
+            fw.setMatrixFile( MatrixFile.forStore( graphDb, matrix.key.fileName() ) );
+            matrix.floydWarshall = fw;
+        }
+    }
+
+    /**
+     * Initializes and calculates the matrix of a key, and returns it holding
+     * its read lock so no commit changes it while it is read. Then evicts
+     * the least recently used other matrices that no longer fit the budget;
+     * those still being read are freed once their readers are done. Must be
+     * called inside a transaction.
+     *
+     * @param withPredecessors
+     *            Whether the matrix must hold predecessors; one calculated
+     *            without them is calculated again.
+     */
+    public Matrix lock( GraphSnapshots.Key key, int tileSize, int threads, AllPairsEngine engine,
+            boolean withPredecessors )
+    {
+        while ( true )
+        {
+            Matrix matrix = matrix( key );
+            matrix.lock.writeLock().lock();
+            try
+            {
+                if ( !isCached( matrix ) )
+                {
+                    // Evicted before it was locked, so commits may have passed it by
+                    continue;
+                }
+                initialize( matrix, tileSize, threads, engine );
+                if ( withPredecessors )
+                {
+                    matrix.floydWarshall.setPredecessors( true );
+                }
+                matrix.floydWarshall.calculate();
+                DistanceMatrix distances = matrix.floydWarshall.matrix();
+                matrix.bytes = distances.cells() * ( 8 + distances.predecessorWidth() );
+                matrix.lock.readLock().lock();
+            }
+            finally
+            {
+                matrix.lock.writeLock().unlock();
+            }
+            synchronized ( this )
+            {
+                for ( Matrix evicted : matrices.trim( matrix ) )
+                {
+                    index.remove( evicted.key, evicted );
+                }
+            }
+            return matrix;
+        }
+    }
+
+    /**
+     * @return whether a matrix is still cached, and so still updated by the
+     *         commits.
+     */
+    private synchronized boolean isCached( Matrix matrix )
+    {
+        return matrices.get( matrix.key ) == matrix;
+    }
+
+    private synchronized List<Matrix> cached()
+    {
+        return matrices.values();
+    }
+
+    /**
+     * Applies committed relationship changes to the cached matrices, or
+     * drops those that cannot be updated in place to be recalculated.
+     */
+    private final class Maintainer implements TransactionEventHandler<Map<String,GraphChanges>>
+    {
+        @Override
+        public Map<String,GraphChanges> beforeCommit( TransactionData data )
+        {
+            // One capture per cost property, shared by the matrices using it
+            Map<String,GraphChanges> changes = new HashMap<String,GraphChanges>();
+            for ( Matrix matrix : cached() )
+            {
+                String costProperty = matrix.key.costProperty();
+                if ( !changes.containsKey( costProperty ) )
+                {
+                    changes.put( costProperty, GraphChanges.capture( data, costProperty ) );
+                }
+            }
+            return changes;
+        }
+
+        @Override
+        public void afterCommit( TransactionData data, Map<String,GraphChanges> changes )
+        {
+            for ( Matrix matrix : cached() )
+            {
+                // A matrix cached while the commit was under way has nothing
+                // captured, and may or may not have seen it
+                boolean captured = changes.containsKey( matrix.key.costProperty() );
+                GraphChanges matrixChanges = changes.get( matrix.key.costProperty() );
+                if ( captured && matrixChanges == null )
+                {
+                    continue;
+                }
+                matrix.lock.writeLock().lock();
+                try
+                {
+                    matrix.medianAndCenter.set( null );
+                    matrix.version++;
+                    if ( matrix.floydWarshall != null && ( !captured
+                            || !matrix.floydWarshall.update( matrixChanges, matrix.key.defaultCost() ) ) )
+                    {
+                        matrix.floydWarshall = null;
+                        matrix.bytes = 0;
+                    }
+                }
+                finally
+                {
+                    matrix.lock.writeLock().unlock();
+                }
+            }
+        }
+
+        @Override
+        public void afterRollback( TransactionData data, Map<String,GraphChanges> changes )
+        {
+        }
+    }
+
+    /**
+     * Forgets the matrices of a database when it shuts down.
+     */
+    private static final class Shutdown implements KernelEventHandler
+    {
+        private final GraphDatabaseService graphDb;
+
+        Shutdown( GraphDatabaseService graphDb )
+        {
+            this.graphDb = graphDb;
+        }
+
+        @Override
+        public void beforeShutdown()
+        {
+            synchronized ( databases )
+            {
+                databases.remove( graphDb );
+            }
+        }
+
+        @Override
+        public void kernelPanic( ErrorState error )
+        {
+        }
+
+        @Override
+        public Object getResource()
+        {
+            return null;
+        }
+
+        @Override
+        public ExecutionOrder orderComparedTo( KernelEventHandler other )
+        {
+            return ExecutionOrder.DOESNT_MATTER;
+        }
+    }
+}
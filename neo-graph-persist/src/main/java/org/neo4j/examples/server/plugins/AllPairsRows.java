@@ -0,0 +1,209 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.server.rest.repr.BadInputException;
+
+/**
+ * The all-pairs distance and next-hop matrices of a cost property,
+ * direction and relationship types, one row at a time. The rows are copied
+ * out of the matrix {@link AllPairsMatrices} keeps for the same key, so the
+ * matrix is calculated once, kept up to date by the commits and shared with
+ * the {@link Centrality} endpoints. Each row is copied under the read lock
+ * of the matrix and the lock is let go before the next, so a caller that
+ * writes rows out as they come, like the unmanaged matrix resource, never
+ * holds the lock while it waits on the network, nor more than O(n) of the
+ * rows.
+ *
+ * The rows are those of the matrix as it was opened: once a commit changes
+ * it, reading another row throws {@link ConcurrentModificationException}
+ * rather than mixing rows from before and after the commit.
+ *
+ * An instance keeps scratch space for its rows and must not be shared
+ * between threads.
+ */
+public final class AllPairsRows
+{
+    private static final int NONE = DistanceMatrix.NO_PREDECESSOR;
+
+    private final AllPairsMatrices.Matrix matrix;
+    private final DoubleFloydWarshall floydWarshall;
+    private final long version;
+    private final GraphSnapshot snapshot;
+    private final double unreachable;
+    private final int[] predecessors;
+
+    /**
+     * Must be called holding the read lock of the matrix.
+     */
+    private AllPairsRows( AllPairsMatrices.Matrix matrix )
+    {
+        this.matrix = matrix;
+        this.floydWarshall = matrix.floydWarshall;
+        this.version = matrix.version;
+        this.snapshot = floydWarshall.snapshot();
+        this.unreachable = floydWarshall.infinitelyBad;
+        this.predecessors = new int[snapshot.nodeCount()];
+    }
+
+    /**
+     * Calculates and caches the matrix of a key unless it is cached already,
+     * so that errors show before a response is under way.
+     *
+     * @param direction
+     *            outgoing, incoming or both, null for outgoing.
+     * @param relationshipTypes
+     *            The relationship types to follow, or null for all of them.
+     * @param nextHops
+     *            Whether the next hops will be read, which need the
+     *            predecessors.
+     * @throws BadInputException
+     *             if the direction is unknown.
+     * @throws IllegalStateException
+     *             if the graph has a negative cycle.
+     */
+    public static AllPairsRows open( GraphDatabaseService graphDb, String costProperty, String direction,
+            String[] relationshipTypes, boolean nextHops ) throws BadInputException
+    {
+        GraphSnapshots.Key key = Centrality.key( costProperty, direction, relationshipTypes, null );
+        AllPairsMatrices.Matrix matrix = null;
+        try
+        {
+            try ( Transaction tx = graphDb.beginTx() )
+            {
+                matrix = AllPairsMatrices.at( graphDb ).lock( key, BlockedFloydWarshall.DEFAULT_TILE_SIZE, 0, null,
+                        nextHops );
+                tx.success();
+            }
+            return new AllPairsRows( matrix );
+        }
+        finally
+        {
+            if ( matrix != null )
+            {
+                matrix.lock.readLock().unlock();
+            }
+        }
+    }
+
+    public int size()
+    {
+        return snapshot.nodeCount();
+    }
+
+    /**
+     * @return the id of the node behind a row or column index.
+     */
+    public long nodeId( int index )
+    {
+        return snapshot.nodeId( index );
+    }
+
+    /**
+     * Fills the distances from a source, positive infinity where there is
+     * no path and 0 to the source itself.
+     */
+    public void distances( int source, double[] row )
+    {
+        DistanceMatrix distances = lock();
+        try
+        {
+            distances.costRow( source, row );
+        }
+        finally
+        {
+            matrix.lock.readLock().unlock();
+        }
+        for ( int target = 0; target < row.length; target++ )
+        {
+            if ( row[target] == unreachable )
+            {
+                row[target] = Double.POSITIVE_INFINITY;
+            }
+        }
+    }
+
+    /**
+     * Fills the first node after the source on the shortest path to every
+     * node, the source itself for the source, and -1 where there is no path.
+     * Only valid when the rows were opened with next hops.
+     */
+    public void nextHops( int source, int[] row )
+    {
+        Arrays.fill( predecessors, NONE );
+        DistanceMatrix distances = lock();
+        try
+        {
+            Components components = distances.components();
+            int component = components.component( source );
+            for ( int k = 0; k < components.size( component ); k++ )
+            {
+                int target = components.member( component, k );
+                predecessors[target] = distances.predecessor( source, target );
+            }
+        }
+        finally
+        {
+            matrix.lock.readLock().unlock();
+        }
+        Arrays.fill( row, NONE );
+        row[source] = source;
+        for ( int target = 0; target < row.length; target++ )
+        {
+            if ( row[target] != NONE || predecessors[target] == NONE )
+            {
+                continue;
+            }
+            // Climb to the source or to a node whose hop is known, then
+            // hand the hop down the same way
+            int v = target;
+            while ( row[v] == NONE && predecessors[v] != source )
+            {
+                v = predecessors[v];
+            }
+            int hop = row[v] == NONE ? v : row[v];
+            for ( v = target; row[v] == NONE; v = predecessors[v] )
+            {
+                row[v] = hop;
+            }
+        }
+    }
+
+    /**
+     * Takes the read lock of the matrix, as long as no commit changed it
+     * since the rows were opened.
+     *
+     * @return the distances, valid until the lock is let go.
+     */
+    private DistanceMatrix lock()
+    {
+        matrix.lock.readLock().lock();
+        if ( matrix.version != version || matrix.floydWarshall != floydWarshall )
+        {
+            matrix.lock.readLock().unlock();
+            throw new ConcurrentModificationException( "The graph changed while the matrix was read" );
+        }
+        return floydWarshall.matrix();
+    }
+}
@@ -0,0 +1,574 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Approximate median and center for graphs whose n^2 distance matrix does
+ * not fit in memory. Single-source shortest paths are run from k random
+ * pivots, on the reverse graph to get the distance from every node to the
+ * pivot and on the graph itself to get the eccentricity of the pivot. That
+ * gives, for every node v:
+ *
+ * - an estimate of its farness, (n - 1) / k * sum of d(v, p) (Eppstein and
+ *   Wang), with a Hoeffding bound on the error;
+ * - a lower bound on its eccentricity, max d(v, p), and an upper bound,
+ *   min d(v, p) + ecc(p) over pivots that reach the whole graph.
+ *
+ * The best candidates, by estimated farness and by eccentricity upper bound,
+ * are then refined with an exact
+ * single-source pass each, and the answer is picked among those. Nodes are
+ * ranked as in {@link CentralityReport}: reaching more nodes first, then by
+ * farness or eccentricity.
+ *
+ * Memory is O(n) per thread, never O(n^2).
+ */
+final class ApproximateCentrality
+{
+    public static final int DEFAULT_PIVOTS = 64;
+    public static final int DEFAULT_CANDIDATES = 16;
+    /**
+     * The confidence of {@link #farnessError()}.
+     */
+    public static final double CONFIDENCE = 0.95;
+
+    private final int n;
+    private final double startCost;
+    private final double infinitelyBad;
+    private final int threads;
+    private final SparseAllPairs forward;
+    private final SparseAllPairs backward;
+
+    // Accumulated over the pivots
+    private boolean[] isPivot;
+    private int pivots;
+    private int[] reached;
+    private double[] sums;
+    private double[] lower;
+    private double[] upper;
+    private double maxDistance;
+
+    // Refined answers
+    private int refined;
+    private int median = -1;
+    private int medianReachable;
+    private double medianFarness;
+    private int center = -1;
+    private int centerReachable;
+    private double centerEccentricity;
+    private double eccentricityGap;
+
+    private ApproximateCentrality( GraphSnapshot snapshot, int threads )
+    {
+        this.n = snapshot.nodeCount();
+        this.startCost = 0.0;
+        this.infinitelyBad = Double.POSITIVE_INFINITY;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.forward = new SparseAllPairs( snapshot, threads );
+        this.backward = new SparseAllPairs( snapshot.reverse(), threads );
+    }
+
+    /**
+     * @param pivots
+     *            The number of pivots to sample.
+     * @param timeLimitMillis
+     *            Stops sampling pivots after this long, or 0 for no limit.
+     *            At least one pivot is always used.
+     * @param candidates
+     *            The number of best estimated nodes to refine exactly, for
+     *            the median and the center each.
+     * @param threads
+     *            The number of worker threads, or a value that is not
+     *            positive for one per available processor.
+     * @throws IllegalStateException
+     *             if the graph has a negative cycle.
+     */
+    public static ApproximateCentrality compute( GraphSnapshot snapshot, int pivots, long timeLimitMillis,
+            int candidates, long seed, int threads )
+    {
+        ApproximateCentrality result = new ApproximateCentrality( snapshot, threads );
+        if ( result.n == 0 )
+        {
+            return result;
+        }
+        result.forward.prepare();
+        result.backward.prepare();
+        ForkJoinPool pool = new ForkJoinPool( result.threads );
+        try
+        {
+            long deadline = timeLimitMillis > 0 ? System.nanoTime() + timeLimitMillis * 1000000L : Long.MAX_VALUE;
+            result.sample( pool, Math.max( 1, Math.min( pivots, result.n ) ), deadline, seed );
+            result.refine( pool, Math.max( 1, candidates ) );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    private void sample( ForkJoinPool pool, int k, long deadline, long seed )
+    {
+        int[] nodes = new int[n];
+        for ( int i = 0; i < n; i++ )
+        {
+            nodes[i] = i;
+        }
+        Random random = new Random( seed );
+        for ( int i = 0; i < k; i++ )
+        {
+            int j = i + random.nextInt( n - i );
+            int swap = nodes[i];
+            nodes[i] = nodes[j];
+            nodes[j] = swap;
+        }
+        int[] chosen = Arrays.copyOf( nodes, k );
+        Accumulator total = pool.invoke( new Pivots( chosen, 0, k, Math.max( 1, k / threads ), deadline,
+                new AtomicInteger() ) );
+        isPivot = total.isPivot;
+        pivots = total.pivots;
+        reached = total.reached;
+        sums = total.sums;
+        lower = total.lower;
+        upper = total.upper;
+        maxDistance = total.maxDistance;
+    }
+
+    private void refine( ForkJoinPool pool, int candidates )
+    {
+        int[] medianCandidates = best( candidates, new Comparator<Integer>()
+        {
+            @Override
+            public int compare( Integer a, Integer b )
+            {
+                int byReach = Double.compare( estimatedReachable( b ), estimatedReachable( a ) );
+                return byReach != 0 ? byReach : Double.compare( estimatedFarness( a ), estimatedFarness( b ) );
+            }
+        } );
+        int[] centerCandidates = best( candidates, new Comparator<Integer>()
+        {
+            @Override
+            public int compare( Integer a, Integer b )
+            {
+                int byReach = Double.compare( estimatedReachable( b ), estimatedReachable( a ) );
+                if ( byReach != 0 )
+                {
+                    return byReach;
+                }
+                int byUpper = Double.compare( upper[a], upper[b] );
+                return byUpper != 0 ? byUpper : Double.compare( lower[a], lower[b] );
+            }
+        } );
+        int[] all = Arrays.copyOf( medianCandidates, medianCandidates.length + centerCandidates.length );
+        System.arraycopy( centerCandidates, 0, all, medianCandidates.length, centerCandidates.length );
+        Arrays.sort( all );
+        int distinct = 0;
+        for ( int i = 0; i < all.length; i++ )
+        {
+            if ( i == 0 || all[i] != all[i - 1] )
+            {
+                all[distinct++] = all[i];
+            }
+        }
+        final int[] exact = Arrays.copyOf( all, distinct );
+        final int[] exactReachable = new int[distinct];
+        final double[] exactFarness = new double[distinct];
+        final double[] exactEccentricity = new double[distinct];
+        pool.invoke( new Exact( exact, exactReachable, exactFarness, exactEccentricity, 0, distinct ) );
+        refined = distinct;
+        boolean[] isRefined = new boolean[n];
+        for ( int i = 0; i < distinct; i++ )
+        {
+            isRefined[exact[i]] = true;
+            int node = exact[i];
+            if ( contains( medianCandidates, node ) && ( median == -1 || exactReachable[i] > medianReachable
+                    || ( exactReachable[i] == medianReachable && exactFarness[i] < medianFarness ) ) )
+            {
+                median = node;
+                medianReachable = exactReachable[i];
+                medianFarness = exactFarness[i];
+            }
+            if ( contains( centerCandidates, node ) && ( center == -1 || exactReachable[i] > centerReachable
+                    || ( exactReachable[i] == centerReachable && exactEccentricity[i] < centerEccentricity ) ) )
+            {
+                center = node;
+                centerReachable = exactReachable[i];
+                centerEccentricity = exactEccentricity[i];
+            }
+        }
+        double smallestLowerBound = Double.POSITIVE_INFINITY;
+        double centerReach = center == -1 ? 0.0 : estimatedReachable( center );
+        for ( int v = 0; v < n; v++ )
+        {
+            if ( !isRefined[v] && estimatedReachable( v ) >= centerReach && lower[v] < smallestLowerBound )
+            {
+                smallestLowerBound = lower[v];
+            }
+        }
+        eccentricityGap = Math.max( 0.0, centerEccentricity - smallestLowerBound );
+    }
+
+    private static boolean contains( int[] nodes, int node )
+    {
+        for ( int candidate : nodes )
+        {
+            if ( candidate == node )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the first count nodes in an order, in no particular order.
+     */
+    private int[] best( int count, final Comparator<Integer> order )
+    {
+        PriorityQueue<Integer> worstFirst = new PriorityQueue<Integer>( count + 1, new Comparator<Integer>()
+        {
+            @Override
+            public int compare( Integer a, Integer b )
+            {
+                return order.compare( b, a );
+            }
+        } );
+        for ( int v = 0; v < n; v++ )
+        {
+            if ( worstFirst.size() < count )
+            {
+                worstFirst.add( v );
+            }
+            else if ( order.compare( v, worstFirst.peek() ) < 0 )
+            {
+                worstFirst.poll();
+                worstFirst.add( v );
+            }
+        }
+        int[] result = new int[worstFirst.size()];
+        for ( int i = 0; i < result.length; i++ )
+        {
+            result[i] = worstFirst.poll();
+        }
+        return result;
+    }
+
+    private int othersSampled( int v )
+    {
+        return isPivot[v] ? pivots - 1 : pivots;
+    }
+
+    /**
+     * @return the estimated number of other nodes a node reaches.
+     */
+    public double estimatedReachable( int v )
+    {
+        int others = othersSampled( v );
+        return others == 0 ? 0.0 : (double) reached[v] * ( n - 1 ) / others;
+    }
+
+    /**
+     * @return the estimated farness of a node.
+     */
+    public double estimatedFarness( int v )
+    {
+        int others = othersSampled( v );
+        return others == 0 ? 0.0 : sums[v] * ( n - 1 ) / others;
+    }
+
+    /**
+     * @return a lower bound on the eccentricity of a node.
+     */
+    public double eccentricityLowerBound( int v )
+    {
+        return lower[v];
+    }
+
+    /**
+     * @return an upper bound on the eccentricity of a node, infinite if no
+     *         pivot that reaches the whole graph is reached from it.
+     */
+    public double eccentricityUpperBound( int v )
+    {
+        return upper[v];
+    }
+
+    /**
+     * @return the number of pivots sampled within the time limit.
+     */
+    public int pivots()
+    {
+        return pivots;
+    }
+
+    /**
+     * @return the number of nodes whose farness and eccentricity were
+     *         calculated exactly.
+     */
+    public int refined()
+    {
+        return refined;
+    }
+
+    /**
+     * @return the index of the approximate median, or -1 if the graph is
+     *         empty.
+     */
+    public int median()
+    {
+        return median;
+    }
+
+    /**
+     * @return the exact farness of the approximate median.
+     */
+    public double medianFarness()
+    {
+        return medianFarness;
+    }
+
+    /**
+     * @return the index of the approximate center, or -1 if the graph is
+     *         empty.
+     */
+    public int center()
+    {
+        return center;
+    }
+
+    /**
+     * @return the exact eccentricity of the approximate center.
+     */
+    public double centerEccentricity()
+    {
+        return centerEccentricity;
+    }
+
+    /**
+     * @return the largest error of any farness estimate, with probability
+     *         {@link #CONFIDENCE}: a Hoeffding bound over the k pivots with a
+     *         union bound over the n nodes, taking the largest distance seen
+     *         as the range of a single distance.
+     */
+    public double farnessError()
+    {
+        if ( pivots == 0 || n < 2 )
+        {
+            return 0.0;
+        }
+        double failure = ( 1.0 - CONFIDENCE ) / n;
+        return ( n - 1 ) * maxDistance * Math.sqrt( Math.log( 2.0 / failure ) / ( 2.0 * pivots ) );
+    }
+
+    /**
+     * @return how much smaller than that of the center the eccentricity of a
+     *         node that was not refined, and reaches as many pivots, can be.
+     *         Zero proves that no such node is a better center.
+     */
+    public double eccentricityGap()
+    {
+        return eccentricityGap;
+    }
+
+    /**
+     * Sums over the pivots of one task.
+     */
+    private final class Accumulator
+    {
+        final boolean[] isPivot = new boolean[n];
+        final int[] reached = new int[n];
+        final double[] sums = new double[n];
+        final double[] lower = new double[n];
+        final double[] upper = new double[n];
+        int pivots;
+        double maxDistance;
+
+        Accumulator()
+        {
+            Arrays.fill( upper, Double.POSITIVE_INFINITY );
+        }
+
+        void add( int pivot, double[] toPivot, double[] fromPivot )
+        {
+            isPivot[pivot] = true;
+            pivots++;
+            int reachedFromPivot = 0;
+            double pivotEccentricity = 0.0;
+            for ( int v = 0; v < n; v++ )
+            {
+                if ( v != pivot && fromPivot[v] != infinitelyBad )
+                {
+                    reachedFromPivot++;
+                    pivotEccentricity = Math.max( pivotEccentricity, fromPivot[v] );
+                }
+            }
+            boolean spans = reachedFromPivot == n - 1;
+            for ( int v = 0; v < n; v++ )
+            {
+                double distance = toPivot[v];
+                if ( v == pivot || distance == infinitelyBad )
+                {
+                    continue;
+                }
+                reached[v]++;
+                sums[v] += distance;
+                lower[v] = Math.max( lower[v], distance );
+                maxDistance = Math.max( maxDistance, distance );
+                if ( spans )
+                {
+                    upper[v] = Math.min( upper[v], distance + pivotEccentricity );
+                }
+            }
+            if ( spans )
+            {
+                upper[pivot] = Math.min( upper[pivot], pivotEccentricity );
+            }
+        }
+
+        Accumulator merge( Accumulator other )
+        {
+            for ( int v = 0; v < n; v++ )
+            {
+                isPivot[v] |= other.isPivot[v];
+                reached[v] += other.reached[v];
+                sums[v] += other.sums[v];
+                lower[v] = Math.max( lower[v], other.lower[v] );
+                upper[v] = Math.min( upper[v], other.upper[v] );
+            }
+            pivots += other.pivots;
+            maxDistance = Math.max( maxDistance, other.maxDistance );
+            return this;
+        }
+    }
+
+    @SuppressWarnings( "serial" )
+    private final class Pivots extends RecursiveTask<Accumulator>
+    {
+        private final int[] pivots;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final long deadline;
+        private final AtomicInteger done;
+
+        Pivots( int[] pivots, int from, int to, int grain, long deadline, AtomicInteger done )
+        {
+            this.pivots = pivots;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.deadline = deadline;
+            this.done = done;
+        }
+
+        @Override
+        protected Accumulator compute()
+        {
+            if ( to - from > grain )
+            {
+                int mid = ( from + to ) >>> 1;
+                Pivots right = new Pivots( pivots, mid, to, grain, deadline, done );
+                right.fork();
+                Accumulator left = new Pivots( pivots, from, mid, grain, deadline, done ).compute();
+                return left.merge( right.join() );
+            }
+            Accumulator accumulator = new Accumulator();
+            SparseAllPairs.IndexedHeap heap = new SparseAllPairs.IndexedHeap( n );
+            boolean[] settled = new boolean[n];
+            double[] toPivot = new double[n];
+            double[] fromPivot = new double[n];
+            for ( int index = from; index < to; index++ )
+            {
+                if ( System.nanoTime() > deadline && done.get() > 0 )
+                {
+                    break;
+                }
+                int pivot = pivots[index];
+                Arrays.fill( toPivot, infinitelyBad );
+                Arrays.fill( fromPivot, infinitelyBad );
+                backward.singleSource( pivot, toPivot, startCost, heap, settled );
+                forward.singleSource( pivot, fromPivot, startCost, heap, settled );
+                accumulator.add( pivot, toPivot, fromPivot );
+                done.incrementAndGet();
+            }
+            return accumulator;
+        }
+    }
+
+    /**
+     * Exact farness and eccentricity of the candidates.
+     */
+    @SuppressWarnings( "serial" )
+    private final class Exact extends RecursiveAction
+    {
+        private final int[] nodes;
+        private final int[] reachable;
+        private final double[] farness;
+        private final double[] eccentricity;
+        private final int from;
+        private final int to;
+
+        Exact( int[] nodes, int[] reachable, double[] farness, double[] eccentricity, int from, int to )
+        {
+            this.nodes = nodes;
+            this.reachable = reachable;
+            this.farness = farness;
+            this.eccentricity = eccentricity;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( to - from > 1 )
+            {
+                int mid = ( from + to ) >>> 1;
+                invokeAll( new Exact( nodes, reachable, farness, eccentricity, from, mid ),
+                        new Exact( nodes, reachable, farness, eccentricity, mid, to ) );
+                return;
+            }
+            if ( to == from )
+            {
+                return;
+            }
+            int source = nodes[from];
+            double[] row = new double[n];
+            Arrays.fill( row, infinitelyBad );
+            forward.singleSource( source, row, startCost, new SparseAllPairs.IndexedHeap( n ), new boolean[n] );
+            for ( int v = 0; v < n; v++ )
+            {
+                if ( v != source && row[v] != infinitelyBad )
+                {
+                    reachable[from]++;
+                    farness[from] += row[v];
+                    eccentricity[from] = Math.max( eccentricity[from], row[v] );
+                }
+            }
+        }
+    }
+}
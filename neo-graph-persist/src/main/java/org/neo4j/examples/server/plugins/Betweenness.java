@@ -0,0 +1,307 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Brandes' betweenness centrality over a {@link GraphSnapshot}, with a
+ * breadth-first search per source when unweighted and a Dijkstra per source
+ * when weighted. Sources are split over a {@link ForkJoinPool}; every task
+ * accumulates into its own array and the arrays are summed when the tasks
+ * join.
+ *
+ * Predecessors are not stored: the dependency accumulation walks the
+ * incoming edges of the {@link GraphSnapshot#reverse() reverse} snapshot and
+ * keeps those that lie on a shortest path.
+ */
+final class Betweenness
+{
+    private final GraphSnapshot snapshot;
+    private final GraphSnapshot reverse;
+    private final boolean weighted;
+    private final int threads;
+    private final int n;
+
+    /**
+     * @param weighted
+     *            Whether to use the costs of the snapshot, which must be
+     *            positive, rather than count hops. With zero costs the
+     *            nodes at one distance would have to be ordered along the
+     *            zero-cost edges between them, and a zero-cost cycle would
+     *            give them endless shortest paths.
+     * @param threads
+     *            The number of worker threads, or a value that is not
+     *            positive for one per available processor.
+     */
+    public Betweenness( GraphSnapshot snapshot, boolean weighted, int threads )
+    {
+        if ( weighted && hasNonPositiveCosts( snapshot ) )
+        {
+            throw new IllegalArgumentException( "Weighted betweenness needs positive costs" );
+        }
+        this.snapshot = snapshot;
+        this.reverse = snapshot.reverse();
+        this.weighted = weighted;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.n = snapshot.nodeCount();
+    }
+
+    /**
+     * @return whether an edge other than a self-loop, which no shortest path
+     *         takes, costs zero or less.
+     */
+    private static boolean hasNonPositiveCosts( GraphSnapshot snapshot )
+    {
+        int[] offsets = snapshot.offsets();
+        int[] targets = snapshot.targets();
+        double[] costs = snapshot.costs();
+        for ( int v = 0; v < snapshot.nodeCount(); v++ )
+        {
+            for ( int e = offsets[v]; e < offsets[v + 1]; e++ )
+            {
+                if ( costs[e] <= 0 && targets[e] != v )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the exact betweenness of every node, by snapshot index.
+     */
+    public double[] compute()
+    {
+        int[] sources = new int[n];
+        for ( int i = 0; i < n; i++ )
+        {
+            sources[i] = i;
+        }
+        return compute( sources );
+    }
+
+    /**
+     * Estimates betweenness from the paths starting at k random sources,
+     * scaled by n / k.
+     */
+    public double[] estimate( int k, long seed )
+    {
+        if ( k >= n )
+        {
+            return compute();
+        }
+        int[] all = new int[n];
+        for ( int i = 0; i < n; i++ )
+        {
+            all[i] = i;
+        }
+        // Partial Fisher-Yates shuffle
+        Random random = new Random( seed );
+        for ( int i = 0; i < k; i++ )
+        {
+            int j = i + random.nextInt( n - i );
+            int swap = all[i];
+            all[i] = all[j];
+            all[j] = swap;
+        }
+        double[] result = compute( Arrays.copyOf( all, k ) );
+        double scale = (double) n / k;
+        for ( int i = 0; i < n; i++ )
+        {
+            result[i] *= scale;
+        }
+        return result;
+    }
+
+    private double[] compute( int[] sources )
+    {
+        if ( sources.length == 0 )
+        {
+            return new double[n];
+        }
+        ForkJoinPool pool = new ForkJoinPool( threads );
+        try
+        {
+            int grain = Math.max( 1, sources.length / ( threads * 4 ) );
+            return pool.invoke( new Sources( sources, 0, sources.length, grain ) );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The per-thread state of the single-source passes.
+     */
+    private final class Workspace
+    {
+        final double[] distances = new double[n];
+        final double[] paths = new double[n]; // number of shortest paths
+        final double[] dependencies = new double[n];
+        final int[] order = new int[n]; // nodes by non-decreasing distance
+        final int[] queue;
+        final SparseAllPairs.IndexedHeap heap;
+
+        Workspace()
+        {
+            queue = weighted ? null : new int[n];
+            heap = weighted ? new SparseAllPairs.IndexedHeap( n ) : null;
+        }
+
+        void accumulate( int source, double[] betweenness )
+        {
+            Arrays.fill( distances, Double.POSITIVE_INFINITY );
+            Arrays.fill( paths, 0.0 );
+            Arrays.fill( dependencies, 0.0 );
+            int count = weighted ? dijkstra( source ) : breadthFirst( source );
+            int[] offsets = reverse.offsets();
+            int[] targets = reverse.targets();
+            double[] costs = reverse.costs();
+            for ( int o = count - 1; o > 0; o-- )
+            {
+                int w = order[o];
+                double share = ( 1.0 + dependencies[w] ) / paths[w];
+                for ( int e = offsets[w]; e < offsets[w + 1]; e++ )
+                {
+                    int v = targets[e];
+                    if ( v != w && distances[v] + ( weighted ? costs[e] : 1.0 ) == distances[w] )
+                    {
+                        dependencies[v] += paths[v] * share;
+                    }
+                }
+                betweenness[w] += dependencies[w];
+            }
+        }
+
+        private int breadthFirst( int source )
+        {
+            int[] offsets = snapshot.offsets();
+            int[] targets = snapshot.targets();
+            distances[source] = 0.0;
+            paths[source] = 1.0;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = source;
+            while ( head < tail )
+            {
+                int v = queue[head++];
+                double next = distances[v] + 1.0;
+                for ( int e = offsets[v]; e < offsets[v + 1]; e++ )
+                {
+                    int w = targets[e];
+                    if ( distances[w] == Double.POSITIVE_INFINITY )
+                    {
+                        distances[w] = next;
+                        queue[tail++] = w;
+                    }
+                    if ( distances[w] == next )
+                    {
+                        paths[w] += paths[v];
+                    }
+                }
+            }
+            System.arraycopy( queue, 0, order, 0, tail );
+            return tail;
+        }
+
+        private int dijkstra( int source )
+        {
+            int[] offsets = snapshot.offsets();
+            int[] targets = snapshot.targets();
+            double[] costs = snapshot.costs();
+            distances[source] = 0.0;
+            paths[source] = 1.0;
+            heap.insert( source, 0.0 );
+            int count = 0;
+            while ( !heap.isEmpty() )
+            {
+                int v = heap.poll();
+                order[count++] = v;
+                for ( int e = offsets[v]; e < offsets[v + 1]; e++ )
+                {
+                    int w = targets[e];
+                    if ( w == v )
+                    {
+                        continue;
+                    }
+                    double alternative = distances[v] + costs[e];
+                    if ( alternative < distances[w] )
+                    {
+                        distances[w] = alternative;
+                        paths[w] = paths[v];
+                        heap.insertOrDecrease( w, alternative );
+                    }
+                    else if ( alternative == distances[w] )
+                    {
+                        paths[w] += paths[v];
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    @SuppressWarnings( "serial" )
+    private final class Sources extends RecursiveTask<double[]>
+    {
+        private final int[] sources;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Sources( int[] sources, int from, int to, int grain )
+        {
+            this.sources = sources;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected double[] compute()
+        {
+            if ( to - from > grain )
+            {
+                int mid = ( from + to ) >>> 1;
+                Sources right = new Sources( sources, mid, to, grain );
+                right.fork();
+                double[] result = new Sources( sources, from, mid, grain ).compute();
+                double[] other = right.join();
+                for ( int i = 0; i < n; i++ )
+                {
+                    result[i] += other[i];
+                }
+                return result;
+            }
+            double[] betweenness = new double[n];
+            Workspace workspace = new Workspace();
+            for ( int index = from; index < to; index++ )
+            {
+                workspace.accumulate( sources[index], betweenness );
+            }
+            return betweenness;
+        }
+    }
+}
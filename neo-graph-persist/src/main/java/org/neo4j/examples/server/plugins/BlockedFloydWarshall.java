@@ -0,0 +1,211 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Cache-blocked Floyd-Warshall scheduler. The matrix is cut into square tiles
+ * and every block of k values is processed in three phases: the diagonal
+ * tile, then the tiles in its row and column, then all remaining tiles. The
+ * tiles of the last two phases are independent of each other and are run in
+ * parallel on a {@link ForkJoinPool}.
+ *
+ * The scheduler knows nothing about the matrix itself; the caller supplies a
+ * {@link Relaxation} that applies its own relaxation rule to one tile.
+ */
+class BlockedFloydWarshall
+{
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    /**
+     * Relaxes every (i, j) in [i0, i1) x [j0, j1) through every k in
+     * [k0, k1), with k as the outermost loop.
+     */
+    interface Relaxation
+    {
+        void relax( int k0, int k1, int i0, int i1, int j0, int j1 );
+    }
+
+    private final int n;
+    private final int tileSize;
+    private final int tiles;
+    private final int threads;
+
+    /**
+     * @param n
+     *            The matrix dimension.
+     * @param tileSize
+     *            The tile edge length. A value that is not positive or not
+     *            smaller than n gives a single tile, i.e. the plain triple
+     *            loop on the calling thread.
+     * @param threads
+     *            The number of worker threads, or a value that is not
+     *            positive for one per available processor.
+     */
+    public BlockedFloydWarshall( int n, int tileSize, int threads )
+    {
+        this.n = n;
+        this.tileSize = tileSize <= 0 || tileSize >= n ? Math.max( n, 1 ) : tileSize;
+        this.tiles = ( n + this.tileSize - 1 ) / this.tileSize;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public void run( final Relaxation relaxation )
+    {
+        if ( tiles <= 1 || threads == 1 )
+        {
+            runSequential( relaxation );
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool( threads );
+        try
+        {
+            for ( int kb = 0; kb < tiles; kb++ )
+            {
+                relaxTile( relaxation, kb, kb, kb );
+                pool.invoke( new CrossTiles( relaxation, kb, 0, 2 * ( tiles - 1 ) ) );
+                pool.invoke( new RemainingTiles( relaxation, kb, 0, ( tiles - 1 ) * ( tiles - 1 ) ) );
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private void runSequential( Relaxation relaxation )
+    {
+        for ( int kb = 0; kb < tiles; kb++ )
+        {
+            relaxTile( relaxation, kb, kb, kb );
+            for ( int b = 0; b < tiles; b++ )
+            {
+                if ( b != kb )
+                {
+                    relaxTile( relaxation, kb, kb, b );
+                    relaxTile( relaxation, kb, b, kb );
+                }
+            }
+            for ( int ib = 0; ib < tiles; ib++ )
+            {
+                for ( int jb = 0; jb < tiles; jb++ )
+                {
+                    if ( ib != kb && jb != kb )
+                    {
+                        relaxTile( relaxation, kb, ib, jb );
+                    }
+                }
+            }
+        }
+    }
+
+    private void relaxTile( Relaxation relaxation, int kb, int ib, int jb )
+    {
+        relaxation.relax( kb * tileSize, Math.min( n, ( kb + 1 ) * tileSize ),
+                ib * tileSize, Math.min( n, ( ib + 1 ) * tileSize ),
+                jb * tileSize, Math.min( n, ( jb + 1 ) * tileSize ) );
+    }
+
+    /**
+     * Skips the k block when mapping a dense index onto a tile coordinate.
+     */
+    private static int skip( int index, int kb )
+    {
+        return index < kb ? index : index + 1;
+    }
+
+    /**
+     * The tiles sharing a row or a column with the diagonal tile. Even
+     * indexes are row tiles, odd indexes column tiles.
+     */
+    @SuppressWarnings( "serial" )
+    private final class CrossTiles extends RecursiveAction
+    {
+        private final Relaxation relaxation;
+        private final int kb;
+        private final int from;
+        private final int to;
+
+        CrossTiles( Relaxation relaxation, int kb, int from, int to )
+        {
+            this.relaxation = relaxation;
+            this.kb = kb;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( to - from > 1 )
+            {
+                int mid = ( from + to ) >>> 1;
+                invokeAll( new CrossTiles( relaxation, kb, from, mid ),
+                        new CrossTiles( relaxation, kb, mid, to ) );
+                return;
+            }
+            int b = skip( from >> 1, kb );
+            if ( ( from & 1 ) == 0 )
+            {
+                relaxTile( relaxation, kb, kb, b );
+            }
+            else
+            {
+                relaxTile( relaxation, kb, b, kb );
+            }
+        }
+    }
+
+    /**
+     * The tiles outside both the row and the column of the diagonal tile.
+     */
+    @SuppressWarnings( "serial" )
+    private final class RemainingTiles extends RecursiveAction
+    {
+        private final Relaxation relaxation;
+        private final int kb;
+        private final int from;
+        private final int to;
+
+        RemainingTiles( Relaxation relaxation, int kb, int from, int to )
+        {
+            this.relaxation = relaxation;
+            this.kb = kb;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( to - from > 1 )
+            {
+                int mid = ( from + to ) >>> 1;
+                invokeAll( new RemainingTiles( relaxation, kb, from, mid ),
+                        new RemainingTiles( relaxation, kb, mid, to ) );
+                return;
+            }
+            int ib = skip( from / ( tiles - 1 ), kb );
+            int jb = skip( from % ( tiles - 1 ), kb );
+            relaxTile( relaxation, kb, ib, jb );
+        }
+    }
+}
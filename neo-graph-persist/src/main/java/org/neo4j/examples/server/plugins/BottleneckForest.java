@@ -0,0 +1,447 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.Arrays;
+
+/**
+ * Widest (minimax) paths from a minimum spanning forest. In a minimum
+ * spanning forest the path between two nodes minimizes the largest edge
+ * cost over all paths between them, so once the forest is built with
+ * Kruskal's algorithm and a union-find every bottleneck value is a path in
+ * a tree, and all of them from one source take a single O(n) traversal.
+ *
+ * Point queries use a binary-lifting table: the 2^k-th ancestor of every
+ * node and the largest edge cost on the way there. A bottleneck takes
+ * O(log n), a path O(log n) plus its length.
+ *
+ * Building costs O(E log E) for sorting the edges plus near-linear
+ * union-find, and O(n log n) for the lifting table. Relationships are taken as undirected, as the spanning forest
+ * argument needs; parallel edges and both directions of a relationship
+ * collapse to the cheapest.
+ */
+final class BottleneckForest
+{
+    private static final int NONE = -1;
+
+    private final GraphSnapshot snapshot;
+    private final int n;
+    private final int[] parents;
+    private final double[] parentCosts;
+    private final int[] depths;
+    private final int[] components;
+    private final int[] childOffsets;
+    private final int[] children;
+    private final int treeEdges;
+    private final int[][] ancestors; // [k][v]: the 2^k-th ancestor, or the root
+    private final double[][] maxCosts; // [k][v]: largest cost up to ancestors[k][v]
+
+    private BottleneckForest( GraphSnapshot snapshot, int[] parents, double[] parentCosts, int[] depths,
+            int[] components, int[] childOffsets, int[] children, int treeEdges )
+    {
+        this.snapshot = snapshot;
+        this.n = snapshot.nodeCount();
+        this.parents = parents;
+        this.parentCosts = parentCosts;
+        this.depths = depths;
+        this.components = components;
+        this.childOffsets = childOffsets;
+        this.children = children;
+        this.treeEdges = treeEdges;
+        int maxDepth = 0;
+        for ( int depth : depths )
+        {
+            maxDepth = Math.max( maxDepth, depth );
+        }
+        int levels = 1;
+        while ( ( 1 << levels ) <= maxDepth )
+        {
+            levels++;
+        }
+        ancestors = new int[levels][];
+        maxCosts = new double[levels][];
+        ancestors[0] = new int[n];
+        maxCosts[0] = new double[n];
+        for ( int v = 0; v < n; v++ )
+        {
+            ancestors[0][v] = parents[v] == NONE ? v : parents[v];
+            maxCosts[0][v] = parents[v] == NONE ? 0.0 : parentCosts[v];
+        }
+        for ( int k = 1; k < levels; k++ )
+        {
+            int[] half = ancestors[k - 1];
+            double[] halfCosts = maxCosts[k - 1];
+            int[] up = new int[n];
+            double[] upCosts = new double[n];
+            for ( int v = 0; v < n; v++ )
+            {
+                up[v] = half[half[v]];
+                upCosts[v] = Math.max( halfCosts[v], halfCosts[half[v]] );
+            }
+            ancestors[k] = up;
+            maxCosts[k] = upCosts;
+        }
+    }
+
+    public static BottleneckForest build( GraphSnapshot snapshot )
+    {
+        int n = snapshot.nodeCount();
+        int[] offsets = snapshot.offsets();
+        int[] targets = snapshot.targets();
+        double[] costs = snapshot.costs();
+        int edgeCount = snapshot.edgeCount();
+        int[] sources = new int[edgeCount];
+        for ( int u = 0; u < n; u++ )
+        {
+            for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+            {
+                sources[e] = u;
+            }
+        }
+        int[] order = sortByCost( costs, edgeCount );
+
+        // Kruskal: take the cheapest edges that join two trees
+        int[] sets = new int[n];
+        int[] sizes = new int[n];
+        for ( int i = 0; i < n; i++ )
+        {
+            sets[i] = i;
+            sizes[i] = 1;
+        }
+        int[] treeFrom = new int[Math.max( 0, n - 1 )];
+        int[] treeTo = new int[treeFrom.length];
+        double[] treeCost = new double[treeFrom.length];
+        int treeEdges = 0;
+        for ( int o = 0; o < edgeCount && treeEdges < n - 1; o++ )
+        {
+            int e = order[o];
+            int a = find( sets, sources[e] );
+            int b = find( sets, targets[e] );
+            if ( a == b )
+            {
+                continue;
+            }
+            if ( sizes[a] < sizes[b] )
+            {
+                int swap = a;
+                a = b;
+                b = swap;
+            }
+            sets[b] = a;
+            sizes[a] += sizes[b];
+            treeFrom[treeEdges] = sources[e];
+            treeTo[treeEdges] = targets[e];
+            treeCost[treeEdges] = costs[e];
+            treeEdges++;
+        }
+
+        // Undirected adjacency of the forest
+        int[] degreeOffsets = new int[n + 1];
+        for ( int t = 0; t < treeEdges; t++ )
+        {
+            degreeOffsets[treeFrom[t] + 1]++;
+            degreeOffsets[treeTo[t] + 1]++;
+        }
+        for ( int i = 0; i < n; i++ )
+        {
+            degreeOffsets[i + 1] += degreeOffsets[i];
+        }
+        int[] neighbours = new int[2 * treeEdges];
+        double[] neighbourCosts = new double[2 * treeEdges];
+        int[] fill = Arrays.copyOf( degreeOffsets, n );
+        for ( int t = 0; t < treeEdges; t++ )
+        {
+            neighbours[fill[treeFrom[t]]] = treeTo[t];
+            neighbourCosts[fill[treeFrom[t]]++] = treeCost[t];
+            neighbours[fill[treeTo[t]]] = treeFrom[t];
+            neighbourCosts[fill[treeTo[t]]++] = treeCost[t];
+        }
+
+        // Root every tree at its lowest index, breadth first
+        int[] parents = new int[n];
+        double[] parentCosts = new double[n];
+        int[] depths = new int[n];
+        int[] components = new int[n];
+        Arrays.fill( components, NONE );
+        int[] queue = new int[n];
+        int component = 0;
+        for ( int root = 0; root < n; root++ )
+        {
+            if ( components[root] != NONE )
+            {
+                continue;
+            }
+            components[root] = component;
+            parents[root] = NONE;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = root;
+            while ( head < tail )
+            {
+                int v = queue[head++];
+                for ( int e = degreeOffsets[v]; e < degreeOffsets[v + 1]; e++ )
+                {
+                    int w = neighbours[e];
+                    if ( components[w] == NONE )
+                    {
+                        components[w] = component;
+                        parents[w] = v;
+                        parentCosts[w] = neighbourCosts[e];
+                        depths[w] = depths[v] + 1;
+                        queue[tail++] = w;
+                    }
+                }
+            }
+            component++;
+        }
+
+        // Children lists, for traversals from a source
+        int[] childOffsets = new int[n + 1];
+        for ( int v = 0; v < n; v++ )
+        {
+            if ( parents[v] != NONE )
+            {
+                childOffsets[parents[v] + 1]++;
+            }
+        }
+        for ( int i = 0; i < n; i++ )
+        {
+            childOffsets[i + 1] += childOffsets[i];
+        }
+        int[] children = new int[treeEdges];
+        fill = Arrays.copyOf( childOffsets, n );
+        for ( int v = 0; v < n; v++ )
+        {
+            if ( parents[v] != NONE )
+            {
+                children[fill[parents[v]]++] = v;
+            }
+        }
+        return new BottleneckForest( snapshot, parents, parentCosts, depths, components, childOffsets, children,
+                treeEdges );
+    }
+
+    private static int find( int[] sets, int i )
+    {
+        while ( sets[i] != i )
+        {
+            sets[i] = sets[sets[i]]; // path halving
+            i = sets[i];
+        }
+        return i;
+    }
+
+    /**
+     * @return the edge indexes ordered by cost, ties by index.
+     */
+    private static int[] sortByCost( double[] costs, int count )
+    {
+        int[] order = new int[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            order[i] = i;
+        }
+        int[] buffer = new int[count];
+        // Bottom-up merge sort, stable
+        for ( int width = 1; width < count; width *= 2 )
+        {
+            for ( int low = 0; low < count - width; low += 2 * width )
+            {
+                int mid = low + width;
+                int high = Math.min( low + 2 * width, count );
+                int a = low;
+                int b = mid;
+                int out = low;
+                while ( a < mid && b < high )
+                {
+                    buffer[out++] = costs[order[b]] < costs[order[a]] ? order[b++] : order[a++];
+                }
+                while ( a < mid )
+                {
+                    buffer[out++] = order[a++];
+                }
+                while ( b < high )
+                {
+                    buffer[out++] = order[b++];
+                }
+                System.arraycopy( buffer, low, order, low, high - low );
+            }
+        }
+        return order;
+    }
+
+    public GraphSnapshot snapshot()
+    {
+        return snapshot;
+    }
+
+    public int nodeCount()
+    {
+        return n;
+    }
+
+    /**
+     * @return the number of edges in the forest.
+     */
+    public int treeEdgeCount()
+    {
+        return treeEdges;
+    }
+
+    public boolean connected( int from, int to )
+    {
+        return components[from] == components[to];
+    }
+
+    /**
+     * @return the smallest possible largest edge cost on a path between two
+     *         nodes, 0 from a node to itself, or positive infinity if they
+     *         are not connected.
+     */
+    public double bottleneck( int from, int to )
+    {
+        if ( !connected( from, to ) )
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        if ( depths[from] < depths[to] )
+        {
+            int swap = from;
+            from = to;
+            to = swap;
+        }
+        double result = 0.0;
+        for ( int k = ancestors.length - 1; k >= 0; k-- )
+        {
+            if ( depths[from] - ( 1 << k ) >= depths[to] )
+            {
+                result = Math.max( result, maxCosts[k][from] );
+                from = ancestors[k][from];
+            }
+        }
+        if ( from == to )
+        {
+            return result;
+        }
+        for ( int k = ancestors.length - 1; k >= 0; k-- )
+        {
+            if ( ancestors[k][from] != ancestors[k][to] )
+            {
+                result = Math.max( result, Math.max( maxCosts[k][from], maxCosts[k][to] ) );
+                from = ancestors[k][from];
+                to = ancestors[k][to];
+            }
+        }
+        return Math.max( result, Math.max( maxCosts[0][from], maxCosts[0][to] ) );
+    }
+
+    /**
+     * @return the lowest common ancestor of two connected nodes.
+     */
+    private int ancestor( int a, int b )
+    {
+        if ( depths[a] < depths[b] )
+        {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        for ( int k = ancestors.length - 1; k >= 0; k-- )
+        {
+            if ( depths[a] - ( 1 << k ) >= depths[b] )
+            {
+                a = ancestors[k][a];
+            }
+        }
+        if ( a == b )
+        {
+            return a;
+        }
+        for ( int k = ancestors.length - 1; k >= 0; k-- )
+        {
+            if ( ancestors[k][a] != ancestors[k][b] )
+            {
+                a = ancestors[k][a];
+                b = ancestors[k][b];
+            }
+        }
+        return parents[a];
+    }
+
+    /**
+     * @return the forest path between two nodes as snapshot indexes, both
+     *         ends included, or null if they are not connected. Being a tree
+     *         path, it never visits a node twice.
+     */
+    public int[] path( int from, int to )
+    {
+        if ( !connected( from, to ) )
+        {
+            return null;
+        }
+        int top = ancestor( from, to );
+        int ups = depths[from] - depths[top];
+        int downs = depths[to] - depths[top];
+        int[] path = new int[ups + downs + 1];
+        for ( int i = 0, v = from; i <= ups; i++, v = parents[v] )
+        {
+            path[i] = v;
+        }
+        for ( int i = ups + downs, v = to; i > ups; i--, v = parents[v] )
+        {
+            path[i] = v;
+        }
+        return path;
+    }
+
+    /**
+     * Fills the bottleneck from a source to every node in one traversal of
+     * its tree; nodes in other trees get positive infinity.
+     *
+     * @param stack
+     *            Scratch space of n ints.
+     */
+    public void bottlenecksFrom( int source, double[] row, int[] stack )
+    {
+        Arrays.fill( row, Double.POSITIVE_INFINITY );
+        row[source] = 0.0;
+        int size = 0;
+        stack[size++] = source;
+        while ( size > 0 )
+        {
+            int v = stack[--size];
+            // The tree neighbours: children, and the parent
+            for ( int c = childOffsets[v]; c < childOffsets[v + 1]; c++ )
+            {
+                int w = children[c];
+                if ( row[w] == Double.POSITIVE_INFINITY )
+                {
+                    row[w] = Math.max( row[v], parentCosts[w] );
+                    stack[size++] = w;
+                }
+            }
+            int parent = parents[v];
+            if ( parent != NONE && row[parent] == Double.POSITIVE_INFINITY )
+            {
+                row[parent] = Math.max( row[v], parentCosts[v] );
+                stack[size++] = parent;
+            }
+        }
+    }
+}
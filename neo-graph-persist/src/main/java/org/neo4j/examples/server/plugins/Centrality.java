@@ -19,26 +19,40 @@
 package org.neo4j.examples.server.plugins;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
-import java.util.Iterator;
 
 import org.neo4j.graphalgo.CostAccumulator;
 import org.neo4j.graphalgo.CostEvaluator;
-import org.neo4j.graphalgo.CommonEvaluators;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.server.plugins.Description;
 import org.neo4j.server.plugins.Name;
+import org.neo4j.server.plugins.Parameter;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.server.plugins.ServerPlugin;
 import org.neo4j.server.plugins.Source;
+import org.neo4j.server.rest.repr.BadInputException;
+import org.neo4j.server.rest.repr.ListRepresentation;
+import org.neo4j.server.rest.repr.MappingRepresentation;
+import org.neo4j.server.rest.repr.MappingSerializer;
+import org.neo4j.server.rest.repr.Representation;
+import org.neo4j.server.rest.repr.ValueRepresentation;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.server.plugins.PluginTarget;
 import org.neo4j.helpers.collection.IteratorUtil;
@@ -50,96 +64,1273 @@ import org.neo4j.graphdb.Relationship;
 @Description( "Expose some centrality algorithms (?)" )
 public class Centrality extends ServerPlugin
 {
-    FloydWarshall<Double> floydWarshall = null;
+    // Rebuilt when GraphSnapshots hands out a new snapshot for the key, and
+    // dropped when another database is seen; guarded by this
+    private GraphDatabaseService forestDb = null;
+    private final ConcurrentHashMap<GraphSnapshots.Key, BottleneckForest> bottleneckForests =
+            new ConcurrentHashMap<GraphSnapshots.Key, BottleneckForest>();
+    // The landmarks and hierarchies of one database, under one byte budget
+    // and rebuilt in the background after the graph changes; guarded by this
+    private GraphDatabaseService indexedDb = null;
+    private IndexCache<String, IndexCache.Index> indexes = null;
+
     @Name( "graph_median" )
     @Description( "Get the median of the graph" )
     @PluginTarget( GraphDatabaseService.class )
-    public Node GetGraphMedian( @Source GraphDatabaseService graphDb ) {
-        Node medianNode = null;
+    public Node GetGraphMedian( @Source GraphDatabaseService graphDb,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes,
+            @Description( "The tile edge length used by the blocked Floyd-Warshall, default 64." )
+                @Parameter( name = "tileSize", optional = true ) Integer tileSize,
+            @Description( "The number of threads used by the blocked Floyd-Warshall, default one per processor." )
+                @Parameter( name = "threads", optional = true ) Integer threads,
+            @Description( "The all-pairs algorithm: floyd_warshall, dijkstra or auto (default), "
+                    + "which picks by graph density. Like tileSize and the threads of the matrix, it only "
+                    + "takes effect when the matrix is computed; a cached matrix is used as it was computed." )
+                @Parameter( name = "engine", optional = true ) String engine ) throws BadInputException {
+        return median(graphDb, key(costProperty, direction, relationshipTypes, null), tileSize(tileSize),
+                threads(threads), engine(engine));
+    }
+
+    private Node median(GraphDatabaseService graphDb, GraphSnapshots.Key key, int tileSize, int threads,
+            AllPairsEngine engine) {
+        return node(graphDb, medianAndCenter(graphDb, key, tileSize, threads, engine).median);
+    }
+
+    @Name( "graph_center" )
+    @Description( "Get the 'center' of the graph" )
+    @PluginTarget( GraphDatabaseService.class )
+    public Node GetGraphCenter( @Source GraphDatabaseService graphDb,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes,
+            @Description( "The tile edge length used by the blocked Floyd-Warshall, default 64." )
+                @Parameter( name = "tileSize", optional = true ) Integer tileSize,
+            @Description( "The number of threads used by the blocked Floyd-Warshall, default one per processor." )
+                @Parameter( name = "threads", optional = true ) Integer threads,
+            @Description( "The all-pairs algorithm: floyd_warshall, dijkstra or auto (default), "
+                    + "which picks by graph density. Like tileSize and the threads of the matrix, it only "
+                    + "takes effect when the matrix is computed; a cached matrix is used as it was computed." )
+                @Parameter( name = "engine", optional = true ) String engine ) throws BadInputException {
+        return center(graphDb, key(costProperty, direction, relationshipTypes, null), tileSize(tileSize),
+                threads(threads), engine(engine));
+    }
+
+    private Node center(GraphDatabaseService graphDb, GraphSnapshots.Key key, int tileSize, int threads,
+            AllPairsEngine engine) {
+        return node(graphDb, medianAndCenter(graphDb, key, tileSize, threads, engine).center);
+    }
+
+    /**
+     * The snapshot key of the cost property, direction and relationship
+     * types passed to an endpoint.
+     *
+     * @param defaultCost
+     *            The cost of relationships without the property, or null if
+     *            the property is required.
+     */
+    static GraphSnapshots.Key key(String costProperty, String direction, String[] relationshipTypes,
+            Double defaultCost) throws BadInputException {
+        Direction parsed = Direction.OUTGOING;
+        if (direction != null) {
+            try {
+                parsed = Direction.valueOf(direction.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new BadInputException("Unknown direction: " + direction
+                        + ", expected outgoing, incoming or both");
+            }
+        }
+        return new GraphSnapshots.Key(costProperty == null ? "cost" : costProperty, defaultCost, parsed,
+                relationshipTypes);
+    }
+
+    /**
+     * The tile size passed to an endpoint, or the default if none was.
+     */
+    private static int tileSize(Integer tileSize) throws BadInputException {
+        if (tileSize != null && tileSize <= 0) {
+            throw new BadInputException("tileSize must be positive");
+        }
+        return tileSize == null ? BlockedFloydWarshall.DEFAULT_TILE_SIZE : tileSize;
+    }
+
+    /**
+     * The number of threads passed to an endpoint, or 0 for one per
+     * processor if none was.
+     */
+    private static int threads(Integer threads) throws BadInputException {
+        if (threads != null && threads <= 0) {
+            throw new BadInputException("threads must be positive");
+        }
+        return threads == null ? 0 : threads;
+    }
+
+    /**
+     * The all-pairs engine passed to an endpoint, or null if it should be
+     * planned.
+     */
+    private static AllPairsEngine engine(String engine) throws BadInputException {
+        try {
+            return AllPairsEngine.parse(engine);
+        } catch (IllegalArgumentException e) {
+            throw new BadInputException("Unknown engine: " + engine + ", expected floyd_warshall, dijkstra or auto");
+        }
+    }
+
+    private static Node node(GraphDatabaseService graphDb, long nodeId) {
+        if (nodeId < 0) {
+            return null;
+        }
         try (Transaction tx = graphDb.beginTx())
         {
-            initializeFloydWarshall(graphDb);
-            medianNode = GraphMedianAlgo(GlobalGraphOperations.at( graphDb ).getAllNodes());
+            Node node = graphDb.getNodeById(nodeId);
             tx.success();
+            return node;
         }
-        return medianNode;
     }
 
-    @Name( "graph_center" )
-    @Description( "Get the 'center' of the graph" )
+    /**
+     * The median and center of a matrix, immutable once computed.
+     */
+    static final class MedianAndCenter {
+        final long median; // node ids, -1 for an empty graph
+        final long center;
+
+        MedianAndCenter(long median, long center) {
+            this.median = median;
+            this.center = center;
+        }
+    }
+
+    /**
+     * Returns the published median and center without locking, or computes
+     * them. Concurrent callers share a single computation: the first one
+     * installs a future and runs it, the others wait on it.
+     */
+    private MedianAndCenter medianAndCenter(final GraphDatabaseService graphDb, final GraphSnapshots.Key key,
+            final int tileSize, final int threads, final AllPairsEngine engine) {
+        AllPairsMatrices matrices = AllPairsMatrices.at(graphDb);
+        AllPairsMatrices.Matrix matrix = matrices.indexed(key);
+        if (matrix == null) {
+            matrix = matrices.matrix(key);
+        }
+        AtomicReference<FutureTask<MedianAndCenter>> medianAndCenter = matrix.medianAndCenter;
+        while (true) {
+            FutureTask<MedianAndCenter> task = medianAndCenter.get();
+            if (task == null) {
+                FutureTask<MedianAndCenter> created = new FutureTask<MedianAndCenter>(
+                        new Callable<MedianAndCenter>() {
+                            @Override
+                            public MedianAndCenter call() {
+                                return computeMedianAndCenter(graphDb, key, tileSize, threads, engine);
+                            }
+                        });
+                if (!medianAndCenter.compareAndSet(null, created)) {
+                    continue;
+                }
+                created.run();
+                task = created;
+            }
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                // Let the next caller try again
+                medianAndCenter.compareAndSet(task, null);
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the median and center", e);
+            }
+        }
+    }
+
+    private MedianAndCenter computeMedianAndCenter(GraphDatabaseService graphDb, GraphSnapshots.Key key,
+            int tileSize, int threads, AllPairsEngine engine) {
+        Node medianNode;
+        Node centerNode;
+        try (Transaction tx = graphDb.beginTx())
+        {
+            AllPairsMatrices.Matrix matrix = lockMatrix(graphDb, key, tileSize, threads, engine);
+            try {
+                medianNode = GraphMedianAlgo(matrix.floydWarshall, GlobalGraphOperations.at( graphDb ).getAllNodes());
+                centerNode = GraphCenterAlgo(matrix.floydWarshall, GlobalGraphOperations.at( graphDb ).getAllNodes());
+            } finally {
+                matrix.lock.readLock().unlock();
+            }
+            tx.success();
+        }
+        return new MedianAndCenter(medianNode == null ? -1 : medianNode.getId(),
+                centerNode == null ? -1 : centerNode.getId());
+    }
+
+    @Name( "top_k_median" )
+    @Description( "Get the k best median candidates as [nodeId, farness] pairs, best first: nodes that reach "
+            + "more nodes first, then by farness, ties going to the lowest node, as in centrality_report." )
+    @PluginTarget( GraphDatabaseService.class )
+    public Representation GetTopKMedian( @Source GraphDatabaseService graphDb,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes,
+            @Description( "The number of candidates, default 10." )
+                @Parameter( name = "k", optional = true ) Integer k,
+            @Description( "The tile edge length used by the blocked Floyd-Warshall, default 64." )
+                @Parameter( name = "tileSize", optional = true ) Integer tileSize,
+            @Description( "The number of threads, default one per processor." )
+                @Parameter( name = "threads", optional = true ) Integer threads,
+            @Description( "The all-pairs algorithm: floyd_warshall, dijkstra or auto (default), "
+                    + "which picks by graph density. Like tileSize and the threads of the matrix, it only "
+                    + "takes effect when the matrix is computed; a cached matrix is used as it was computed." )
+                @Parameter( name = "engine", optional = true ) String engine ) throws BadInputException {
+        return topK(graphDb, key(costProperty, direction, relationshipTypes, null), CentralityRanking.Measure.FARNESS,
+                k, tileSize(tileSize), threads(threads), engine(engine));
+    }
+
+    @Name( "top_k_center" )
+    @Description( "Get the k best center candidates as [nodeId, eccentricity] pairs, best first: nodes that reach "
+            + "more nodes first, then by eccentricity, ties going to the lowest node, as in centrality_report." )
     @PluginTarget( GraphDatabaseService.class )
-    public Node GetGraphCenter( @Source GraphDatabaseService graphDb ) {
-        Node centerNode = null;
+    public Representation GetTopKCenter( @Source GraphDatabaseService graphDb,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes,
+            @Description( "The number of candidates, default 10." )
+                @Parameter( name = "k", optional = true ) Integer k,
+            @Description( "The tile edge length used by the blocked Floyd-Warshall, default 64." )
+                @Parameter( name = "tileSize", optional = true ) Integer tileSize,
+            @Description( "The number of threads, default one per processor." )
+                @Parameter( name = "threads", optional = true ) Integer threads,
+            @Description( "The all-pairs algorithm: floyd_warshall, dijkstra or auto (default), "
+                    + "which picks by graph density. Like tileSize and the threads of the matrix, it only "
+                    + "takes effect when the matrix is computed; a cached matrix is used as it was computed." )
+                @Parameter( name = "engine", optional = true ) String engine ) throws BadInputException {
+        return topK(graphDb, key(costProperty, direction, relationshipTypes, null),
+                CentralityRanking.Measure.ECCENTRICITY, k, tileSize(tileSize), threads(threads), engine(engine));
+    }
+
+    private Representation topK(GraphDatabaseService graphDb, GraphSnapshots.Key key,
+            CentralityRanking.Measure measure, Integer k, int tileSize, int threads, AllPairsEngine engine) {
+        final long[] nodeIds;
+        final double[] scores;
         try (Transaction tx = graphDb.beginTx())
         {
-            initializeFloydWarshall(graphDb);
-            centerNode = GraphCenterAlgo(GlobalGraphOperations.at( graphDb ).getAllNodes());
+            AllPairsMatrices.Matrix matrix = lockMatrix(graphDb, key, tileSize, threads, engine);
+            try {
+                DoubleFloydWarshall fw = matrix.floydWarshall;
+                CentralityRanking ranking = CentralityRanking.top(fw.matrix(), fw.infinitelyBad, measure,
+                        k == null ? 10 : k, threads);
+                nodeIds = new long[ranking.size()];
+                scores = new double[ranking.size()];
+                for (int i = 0; i < nodeIds.length; i++) {
+                    nodeIds[i] = fw.snapshot().nodeId(ranking.index(i));
+                    scores[i] = ranking.score(i);
+                }
+            } finally {
+                matrix.lock.readLock().unlock();
+            }
+            tx.success();
+        }
+        // Pairs are created while the response is written
+        return new ListRepresentation("scores", new Iterable<Representation>() {
+            @Override
+            public Iterator<Representation> iterator() {
+                return new Iterator<Representation>() {
+                    private int i = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < nodeIds.length;
+                    }
+
+                    @Override
+                    public Representation next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Representation pair = new ListRepresentation("pair", Arrays.asList(
+                                ValueRepresentation.number(nodeIds[i]), ValueRepresentation.number(scores[i])));
+                        i++;
+                        return pair;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        });
+    }
+
+    @Name( "centrality_report" )
+    @Description( "Get the farness, eccentricity, closeness and harmonic centrality of every node, "
+            + "and the median, center, radius and diameter of the graph, from one pass over the distances. "
+            + "Also lists the sizes of the weakly connected components, largest first. "
+            + "Median and center rank nodes that reach more nodes first, then by score, ties going to the "
+            + "lowest node; on a disconnected graph this can differ from graph_median and graph_center, "
+            + "which charge Double.MAX_VALUE per unreachable node." )
+    @PluginTarget( GraphDatabaseService.class )
+    public Representation GetCentralityReport( @Source GraphDatabaseService graphDb,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes,
+            @Description( "The tile edge length used by the blocked Floyd-Warshall, default 64." )
+                @Parameter( name = "tileSize", optional = true ) Integer tileSize,
+            @Description( "The number of threads used for the distances and the report, default one per processor." )
+                @Parameter( name = "threads", optional = true ) Integer threads,
+            @Description( "The all-pairs algorithm: floyd_warshall, dijkstra or auto (default), "
+                    + "which picks by graph density. Like tileSize and the threads of the matrix, it only "
+                    + "takes effect when the matrix is computed; a cached matrix is used as it was computed." )
+                @Parameter( name = "engine", optional = true ) String engine ) throws BadInputException {
+        GraphSnapshots.Key key = key(costProperty, direction, relationshipTypes, null);
+        int tiles = tileSize(tileSize);
+        int workers = threads(threads);
+        AllPairsEngine allPairs = engine(engine);
+        CentralityReport report;
+        long[] nodeIds;
+        long[] componentSizes;
+        try (Transaction tx = graphDb.beginTx())
+        {
+            AllPairsMatrices.Matrix matrix = lockMatrix(graphDb, key, tiles, workers, allPairs);
+            try {
+                DoubleFloydWarshall fw = matrix.floydWarshall;
+                report = CentralityReport.compute(fw.matrix(), fw.infinitelyBad, workers);
+                componentSizes = componentSizes(fw.matrix().components());
+                nodeIds = new long[report.size()];
+                for (int i = 0; i < nodeIds.length; i++) {
+                    nodeIds[i] = fw.snapshot().nodeId(i);
+                }
+            } finally {
+                matrix.lock.readLock().unlock();
+            }
             tx.success();
         }
-        return centerNode;
+        return new ReportRepresentation(report, nodeIds, componentSizes);
+    }
+
+    /**
+     * @return the sizes of the weakly connected components the matrix was
+     *         computed in, largest first.
+     */
+    private static long[] componentSizes(Components components) {
+        long[] sizes = new long[components.count()];
+        for (int c = 0; c < sizes.length; c++) {
+            sizes[c] = components.size(c);
+        }
+        Arrays.sort(sizes);
+        for (int i = 0, j = sizes.length - 1; i < j; i++, j--) {
+            long size = sizes[i];
+            sizes[i] = sizes[j];
+            sizes[j] = size;
+        }
+        return sizes;
+    }
+
+    private static class ReportRepresentation extends MappingRepresentation {
+        private final CentralityReport report;
+        private final long[] nodeIds;
+        private final long[] componentSizes;
+
+        ReportRepresentation(CentralityReport report, long[] nodeIds, long[] componentSizes) {
+            super("centrality_report");
+            this.report = report;
+            this.nodeIds = nodeIds;
+            this.componentSizes = componentSizes;
+        }
+
+        @Override
+        protected void serialize(MappingSerializer serializer) {
+            if (report.median() >= 0) {
+                serializer.putNumber("median", nodeIds[report.median()]);
+                serializer.putNumber("center", nodeIds[report.center()]);
+            }
+            serializer.putNumber("radius", report.radius());
+            serializer.putNumber("diameter", report.diameter());
+            serializer.putList("componentSizes", ListRepresentation.numbers(componentSizes));
+            List<Representation> nodes = new ArrayList<Representation>(nodeIds.length);
+            for (int i = 0; i < nodeIds.length; i++) {
+                nodes.add(new NodeScores(report, nodeIds[i], i));
+            }
+            serializer.putList("nodes", new ListRepresentation("node_scores", nodes));
+        }
+    }
+
+    private static class NodeScores extends MappingRepresentation {
+        private final CentralityReport report;
+        private final long nodeId;
+        private final int index;
+
+        NodeScores(CentralityReport report, long nodeId, int index) {
+            super("node_scores");
+            this.report = report;
+            this.nodeId = nodeId;
+            this.index = index;
+        }
+
+        @Override
+        protected void serialize(MappingSerializer serializer) {
+            serializer.putNumber("id", nodeId);
+            serializer.putNumber("reachable", report.reachable(index));
+            serializer.putNumber("farness", report.farness(index));
+            serializer.putNumber("eccentricity", report.eccentricity(index));
+            serializer.putNumber("closeness", report.closeness(index));
+            serializer.putNumber("harmonic", report.harmonic(index));
+        }
+    }
+
+    @Name( "approximate_graph_median" )
+    @Description( "Estimate the median of the graph from sampled pivots, without the n^2 distance matrix" )
+    @PluginTarget( GraphDatabaseService.class )
+    public Representation GetApproximateGraphMedian( @Source GraphDatabaseService graphDb,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes,
+            @Description( "The number of pivots to sample, default 64." )
+                @Parameter( name = "pivots", optional = true ) Integer pivots,
+            @Description( "Stop sampling pivots after this many milliseconds, default no limit." )
+                @Parameter( name = "timeLimit", optional = true ) Long timeLimit,
+            @Description( "The number of best estimates to refine exactly, default 16." )
+                @Parameter( name = "candidates", optional = true ) Integer candidates,
+            @Description( "The seed for picking the pivots." )
+                @Parameter( name = "seed", optional = true ) Long seed,
+            @Description( "The number of threads, default one per processor." )
+                @Parameter( name = "threads", optional = true ) Integer threads ) throws BadInputException {
+        return approximateCentrality(graphDb, key(costProperty, direction, relationshipTypes, null), pivots,
+                timeLimit, candidates, seed, threads(threads), true);
+    }
+
+    @Name( "approximate_graph_center" )
+    @Description( "Estimate the 'center' of the graph from sampled pivots, without the n^2 distance matrix" )
+    @PluginTarget( GraphDatabaseService.class )
+    public Representation GetApproximateGraphCenter( @Source GraphDatabaseService graphDb,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes,
+            @Description( "The number of pivots to sample, default 64." )
+                @Parameter( name = "pivots", optional = true ) Integer pivots,
+            @Description( "Stop sampling pivots after this many milliseconds, default no limit." )
+                @Parameter( name = "timeLimit", optional = true ) Long timeLimit,
+            @Description( "The number of best estimates to refine exactly, default 16." )
+                @Parameter( name = "candidates", optional = true ) Integer candidates,
+            @Description( "The seed for picking the pivots." )
+                @Parameter( name = "seed", optional = true ) Long seed,
+            @Description( "The number of threads, default one per processor." )
+                @Parameter( name = "threads", optional = true ) Integer threads ) throws BadInputException {
+        return approximateCentrality(graphDb, key(costProperty, direction, relationshipTypes, null), pivots,
+                timeLimit, candidates, seed, threads(threads), false);
+    }
+
+    private Representation approximateCentrality(GraphDatabaseService graphDb, GraphSnapshots.Key key,
+            Integer pivots, Long timeLimit, Integer candidates, Long seed, int threads, boolean median) {
+        GraphSnapshot snapshot;
+        try (Transaction tx = graphDb.beginTx())
+        {
+            snapshot = GraphSnapshots.at(graphDb).get(graphDb, key);
+            tx.success();
+        }
+        ApproximateCentrality result = ApproximateCentrality.compute(snapshot,
+                pivots == null ? ApproximateCentrality.DEFAULT_PIVOTS : pivots,
+                timeLimit == null ? 0 : timeLimit,
+                candidates == null ? ApproximateCentrality.DEFAULT_CANDIDATES : candidates,
+                seed == null ? System.nanoTime() : seed,
+                threads);
+        return new ApproximationRepresentation(snapshot, result, median);
+    }
+
+    private static class ApproximationRepresentation extends MappingRepresentation {
+        private final GraphSnapshot snapshot;
+        private final ApproximateCentrality result;
+        private final boolean median;
+
+        ApproximationRepresentation(GraphSnapshot snapshot, ApproximateCentrality result, boolean median) {
+            super(median ? "approximate_median" : "approximate_center");
+            this.snapshot = snapshot;
+            this.result = result;
+            this.median = median;
+        }
+
+        @Override
+        protected void serialize(MappingSerializer serializer) {
+            int index = median ? result.median() : result.center();
+            if (index >= 0) {
+                serializer.putNumber(median ? "median" : "center", snapshot.nodeId(index));
+            }
+            if (median) {
+                serializer.putNumber("farness", result.medianFarness());
+                serializer.putNumber("farnessError", result.farnessError());
+                serializer.putNumber("confidence", ApproximateCentrality.CONFIDENCE);
+            } else {
+                serializer.putNumber("eccentricity", result.centerEccentricity());
+                serializer.putNumber("eccentricityGap", result.eccentricityGap());
+            }
+            serializer.putNumber("pivots", result.pivots());
+            serializer.putNumber("refined", result.refined());
+        }
+    }
+
+    @Name( "betweenness" )
+    @Description( "Get the betweenness centrality of every node with Brandes' algorithm" )
+    @PluginTarget( GraphDatabaseService.class )
+    public Representation GetBetweenness( @Source GraphDatabaseService graphDb,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes,
+            @Description( "Whether to weigh relationships by their cost, default false. "
+                    + "Relationships without a cost count as 1, and costs must be positive." )
+                @Parameter( name = "weighted", optional = true ) Boolean weighted,
+            @Description( "The number of random sources to estimate from, default all nodes for the exact result." )
+                @Parameter( name = "samples", optional = true ) Integer samples,
+            @Description( "The seed for picking the random sources." )
+                @Parameter( name = "seed", optional = true ) Long seed,
+            @Description( "The number of threads, default one per processor." )
+                @Parameter( name = "threads", optional = true ) Integer threads ) throws BadInputException {
+        if (samples != null && samples <= 0) {
+            throw new BadInputException("samples must be positive");
+        }
+        GraphSnapshots.Key key = key(costProperty, direction, relationshipTypes, 1.0);
+        int workers = threads(threads);
+        GraphSnapshot snapshot;
+        try (Transaction tx = graphDb.beginTx())
+        {
+            snapshot = GraphSnapshots.at(graphDb).get(graphDb, key);
+            tx.success();
+        }
+        Betweenness betweenness;
+        try {
+            betweenness = new Betweenness(snapshot, weighted != null && weighted, workers);
+        } catch (IllegalArgumentException e) {
+            throw new BadInputException(e.getMessage());
+        }
+        double[] scores = samples == null ? betweenness.compute()
+                : betweenness.estimate(samples, seed == null ? System.nanoTime() : seed);
+        int sources = samples == null ? snapshot.nodeCount() : Math.min(samples, snapshot.nodeCount());
+        return new BetweennessRepresentation(snapshot, scores, sources);
+    }
+
+    private static class BetweennessRepresentation extends MappingRepresentation {
+        private final GraphSnapshot snapshot;
+        private final double[] scores;
+        private final int sources;
+
+        BetweennessRepresentation(GraphSnapshot snapshot, double[] scores, int sources) {
+            super("betweenness");
+            this.snapshot = snapshot;
+            this.scores = scores;
+            this.sources = sources;
+        }
+
+        @Override
+        protected void serialize(MappingSerializer serializer) {
+            serializer.putNumber("sources", sources);
+            List<Representation> nodes = new ArrayList<Representation>(scores.length);
+            for (int i = 0; i < scores.length; i++) {
+                nodes.add(new NodeScore("node_betweenness", snapshot.nodeId(i), "betweenness", scores[i]));
+            }
+            serializer.putList("nodes", new ListRepresentation("node_betweenness", nodes));
+        }
+    }
+
+    private static class NodeScore extends MappingRepresentation {
+        private final long nodeId;
+        private final String name;
+        private final double score;
+
+        NodeScore(String type, long nodeId, String name, double score) {
+            super(type);
+            this.nodeId = nodeId;
+            this.name = name;
+            this.score = score;
+        }
+
+        @Override
+        protected void serialize(MappingSerializer serializer) {
+            serializer.putNumber("id", nodeId);
+            serializer.putNumber(name, score);
+        }
     }
 
     @Name( "widest_paths" )
     @Description( "Get the widest paths" )
     @PluginTarget( GraphDatabaseService.class )
-    public String GetWidestPaths( @Source GraphDatabaseService graphDb ) {
-        Node centerNode = null;
-        List<Integer>[][] paths = null;
-        String s = "";
+    public String GetWidestPaths( @Source GraphDatabaseService graphDb,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes ) throws BadInputException {
+        GraphSnapshots.Key key = key(costProperty, null, relationshipTypes, 0.0);
+        BottleneckForest forest;
         try (Transaction tx = graphDb.beginTx())
         {
-                final int n = 8;
-                List<Map<Integer, Integer>> links = new ArrayList<>(n);
-                for (int i = 0; i < n; i++)
-                    links.add(new HashMap<Integer, Integer>());
-                Iterator<Relationship> relationships = GlobalGraphOperations.at( graphDb ).getAllRelationships().iterator();
-                while (relationships.hasNext()) {
-                    Relationship r = relationships.next();
-                    links.get(((Long)r.getStartNode().getId()).intValue()).put(((Long)r.getEndNode().getId()).intValue(), ((Long) r.getProperty("cost",0)).intValue());
+            forest = bottleneckForest(graphDb, key);
+            tx.success();
+        }
+        return widestPaths(forest);
+    }
+
+    private static String widestPaths(BottleneckForest forest) {
+        GraphSnapshot snapshot = forest.snapshot();
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < forest.nodeCount(); i++) {
+            for (int j = 0; j < forest.nodeCount(); j++) {
+                int[] path = forest.path(i, j);
+                if (path != null) {
+                    for (int k : path) {
+                        s.append(snapshot.nodeId(k)).append(',');
+                    }
+                    s.append("||");
                 }
+            }
+            s.append("     ");
+        }
+        return s.toString();
+    }
 
-                MinimaxFloydWarshall mfw = new MinimaxFloydWarshall(links);
-                paths = mfw.findAllPairsMinimaxPaths();
-                for (List<Integer>[] p : paths) {
-                    if (p != null) {
-                        for (List<Integer> i : p) {
-                        {
-                            if (i != null) {
-                                for (int j : i) {
-                                s += j + ",";
-                            }
-                            s += "||";
-                            }
+    @Name( "widest_path" )
+    @Description( "Get the widest path to a node: the path whose most expensive relationship is cheapest, "
+            + "and that cost. Relationships are taken as undirected." )
+    @PluginTarget( Node.class )
+    public Representation GetWidestPath( @Source Node source,
+            @Description( "The node to find the widest path to." )
+                @Parameter( name = "target" ) Node target,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes ) throws BadInputException {
+        GraphSnapshots.Key key = key(costProperty, null, relationshipTypes, 0.0);
+        GraphDatabaseService graphDb = source.getGraphDatabase();
+        final double bottleneck;
+        final long[] nodeIds;
+        try (Transaction tx = graphDb.beginTx())
+        {
+            BottleneckForest forest = bottleneckForest(graphDb, key);
+            GraphSnapshot snapshot = forest.snapshot();
+            int from = snapshot.indexOf(source);
+            int to = snapshot.indexOf(target);
+            int[] path = from < 0 || to < 0 ? null : forest.path(from, to);
+            if (path == null) {
+                bottleneck = Double.POSITIVE_INFINITY;
+                nodeIds = null;
+            } else {
+                bottleneck = forest.bottleneck(from, to);
+                nodeIds = new long[path.length];
+                for (int i = 0; i < path.length; i++) {
+                    nodeIds[i] = snapshot.nodeId(path[i]);
+                }
+            }
+            tx.success();
+        }
+        return new MappingRepresentation("widest_path") {
+            @Override
+            protected void serialize(MappingSerializer serializer) {
+                serializer.putBoolean("connected", nodeIds != null);
+                if (nodeIds != null) {
+                    serializer.putNumber("bottleneck", bottleneck);
+                    serializer.putList("nodes", ListRepresentation.numbers(nodeIds));
+                }
+            }
+        };
+    }
 
+    @Name( "widest_paths_from" )
+    @Description( "Get the widest paths from a node, following relationships in their direction: "
+            + "for every node reached, the cheapest possible most expensive relationship on the way, "
+            + "and the path with the fewest hops among those whose every prefix is a widest path too. "
+            + "A widest path with fewer hops through a node that has a wider path of its own is not returned." )
+    @PluginTarget( Node.class )
+    public Representation GetWidestPathsFrom( @Source Node source,
+            @Description( "The node to stop at, if only the path to it is needed." )
+                @Parameter( name = "target", optional = true ) Node target,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow. Order is insignificant, "
+                    + "if omitted all types are followed." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes )
+                throws BadInputException {
+        GraphSnapshots.Key key = key(costProperty, direction, relationshipTypes, 0.0);
+        GraphDatabaseService graphDb = source.getGraphDatabase();
+        final WidestPaths paths;
+        final int to;
+        try (Transaction tx = graphDb.beginTx())
+        {
+            GraphSnapshot snapshot = GraphSnapshots.at(graphDb).get(graphDb, key);
+            int from = snapshot.indexOf(source);
+            to = target == null ? -1 : snapshot.indexOf(target);
+            paths = from < 0 || (target != null && to < 0) ? null : WidestPaths.from(snapshot, from, to);
+            tx.success();
+        }
+        if (target != null) {
+            final int[] path = paths == null ? null : paths.path(to);
+            return new MappingRepresentation("widest_path") {
+                @Override
+                protected void serialize(MappingSerializer serializer) {
+                    serializer.putBoolean("connected", path != null);
+                    if (path != null) {
+                        long[] nodeIds = new long[path.length];
+                        for (int i = 0; i < path.length; i++) {
+                            nodeIds[i] = paths.snapshot().nodeId(path[i]);
                         }
+                        serializer.putNumber("bottleneck", paths.bottleneck(to));
+                        serializer.putList("nodes", ListRepresentation.numbers(nodeIds));
+                    }
+                }
+            };
+        }
+        List<Representation> reached = new ArrayList<Representation>();
+        if (paths != null) {
+            for (int v = 0; v < paths.snapshot().nodeCount(); v++) {
+                if (paths.reached(v)) {
+                    reached.add(new WidestPathEntry(paths, v));
+                }
+            }
+        }
+        return new ListRepresentation("widest_path", reached);
+    }
+
+    /**
+     * One node reached by {@link #GetWidestPathsFrom}; the whole path is the
+     * chain of predecessors.
+     */
+    private static class WidestPathEntry extends MappingRepresentation {
+        private final WidestPaths paths;
+        private final int node;
+
+        WidestPathEntry(WidestPaths paths, int node) {
+            super("widest_path");
+            this.paths = paths;
+            this.node = node;
+        }
+
+        @Override
+        protected void serialize(MappingSerializer serializer) {
+            GraphSnapshot snapshot = paths.snapshot();
+            serializer.putNumber("id", snapshot.nodeId(node));
+            serializer.putNumber("bottleneck", paths.bottleneck(node));
+            serializer.putNumber("length", paths.length(node));
+            int predecessor = paths.predecessor(node);
+            if (predecessor >= 0) {
+                serializer.putNumber("predecessor", snapshot.nodeId(predecessor));
+            }
+        }
+    }
+
+    @Name( "weighted_shortest_path" )
+    @Description( "Get the cheapest path to a node by the cost property, found by bidirectional A* "
+            + "guided by precomputed distances to a few landmark nodes. Costs must not be negative." )
+    @PluginTarget( Node.class )
+    public Representation GetWeightedShortestPath( @Source Node source,
+            @Description( "The node to find the cheapest path to." )
+                @Parameter( name = "target" ) Node target,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes ) throws BadInputException {
+        GraphSnapshots.Key key = key(costProperty, direction, relationshipTypes, null);
+        GraphDatabaseService graphDb = source.getGraphDatabase();
+        final Landmarks.Route route;
+        final long[] nodeIds;
+        try (Transaction tx = graphDb.beginTx())
+        {
+            Landmarks index;
+            try {
+                index = landmarks(graphDb, key);
+            } catch (IllegalArgumentException e) {
+                throw new BadInputException(e.getMessage());
+            }
+            GraphSnapshot snapshot = index.snapshot();
+            int from = snapshot.indexOf(source);
+            int to = snapshot.indexOf(target);
+            route = from < 0 || to < 0 ? null : index.route(from, to);
+            if (route == null) {
+                nodeIds = null;
+            } else {
+                int[] path = route.nodes();
+                nodeIds = new long[path.length];
+                for (int i = 0; i < path.length; i++) {
+                    nodeIds[i] = snapshot.nodeId(path[i]);
+                }
+            }
+            tx.success();
+        }
+        return new MappingRepresentation("weighted_path") {
+            @Override
+            protected void serialize(MappingSerializer serializer) {
+                serializer.putBoolean("connected", route != null);
+                if (route != null) {
+                    serializer.putNumber("cost", route.cost());
+                    serializer.putList("nodes", ListRepresentation.numbers(nodeIds));
+                    serializer.putList("relationships", ListRepresentation.numbers(route.relationshipIds()));
+                    serializer.putNumber("settled", route.settled());
+                }
+            }
+        };
+    }
+
+    @Name( "approx_distance" )
+    @Description( "Get bounds on the cost of the cheapest path to a node without finding it, from the "
+            + "precomputed distances to a few landmark nodes, in time proportional to their number. "
+            + "Costs must not be negative." )
+    @PluginTarget( Node.class )
+    public Representation GetApproximateDistance( @Source Node source,
+            @Description( "The node to bound the distance to." )
+                @Parameter( name = "target" ) Node target,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes ) throws BadInputException {
+        GraphSnapshots.Key key = key(costProperty, direction, relationshipTypes, null);
+        GraphDatabaseService graphDb = source.getGraphDatabase();
+        final double lower;
+        final double upper;
+        try (Transaction tx = graphDb.beginTx())
+        {
+            Landmarks index;
+            try {
+                index = landmarks(graphDb, key);
+            } catch (IllegalArgumentException e) {
+                throw new BadInputException(e.getMessage());
+            }
+            GraphSnapshot snapshot = index.snapshot();
+            int from = snapshot.indexOf(source);
+            int to = snapshot.indexOf(target);
+            if (from < 0 || to < 0) {
+                // Nodes without relationships of the types only reach themselves
+                lower = source.getId() == target.getId() ? 0.0 : Double.POSITIVE_INFINITY;
+                upper = lower;
+            } else {
+                lower = index.lowerBound(from, to);
+                upper = index.upperBound(from, to);
+            }
+            tx.success();
+        }
+        return new MappingRepresentation("approximate_distance") {
+            @Override
+            protected void serialize(MappingSerializer serializer) {
+                // An infinite lower bound proves there is no path, an upper
+                // bound that there is one; with neither it is not known
+                if (lower == Double.POSITIVE_INFINITY || upper != Double.POSITIVE_INFINITY) {
+                    serializer.putBoolean("connected", upper != Double.POSITIVE_INFINITY);
+                }
+                if (lower != Double.POSITIVE_INFINITY) {
+                    serializer.putNumber("lowerBound", lower);
+                }
+                if (upper != Double.POSITIVE_INFINITY) {
+                    serializer.putNumber("upperBound", upper);
+                }
+                serializer.putBoolean("exact", lower == upper);
+            }
+        };
+    }
+
+    @Name( "ch_shortest_path" )
+    @Description( "Get the cheapest path to a node by the cost property from a contraction hierarchy, "
+            + "preprocessed once per graph version and kept in a file next to the store. "
+            + "Costs must not be negative." )
+    @PluginTarget( Node.class )
+    public Representation GetHierarchyShortestPath( @Source Node source,
+            @Description( "The node to find the cheapest path to." )
+                @Parameter( name = "target" ) Node target,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes ) throws BadInputException {
+        return hierarchyRoute(source, target, key(costProperty, direction, relationshipTypes, null), true);
+    }
+
+    @Name( "ch_distance" )
+    @Description( "Get the cost of the cheapest path to a node from a contraction hierarchy, without "
+            + "unpacking the path. Costs must not be negative." )
+    @PluginTarget( Node.class )
+    public Representation GetHierarchyDistance( @Source Node source,
+            @Description( "The node to find the distance to." )
+                @Parameter( name = "target" ) Node target,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes ) throws BadInputException {
+        return hierarchyRoute(source, target, key(costProperty, direction, relationshipTypes, null), false);
+    }
+
+    private Representation hierarchyRoute(Node source, Node target, GraphSnapshots.Key key, final boolean unpack)
+            throws BadInputException {
+        GraphDatabaseService graphDb = source.getGraphDatabase();
+        final ContractionHierarchy.Route route;
+        final long[] nodeIds;
+        try (Transaction tx = graphDb.beginTx())
+        {
+            ContractionHierarchy hierarchy;
+            try {
+                hierarchy = hierarchy(graphDb, key, false);
+            } catch (IllegalArgumentException e) {
+                throw new BadInputException(e.getMessage());
+            }
+            GraphSnapshot snapshot = hierarchy.snapshot();
+            int from = snapshot.indexOf(source);
+            int to = snapshot.indexOf(target);
+            route = from < 0 || to < 0 ? null : hierarchy.route(from, to, unpack);
+            if (route == null || !unpack) {
+                nodeIds = null;
+            } else {
+                int[] path = route.nodes();
+                nodeIds = new long[path.length];
+                for (int i = 0; i < path.length; i++) {
+                    nodeIds[i] = snapshot.nodeId(path[i]);
+                }
+            }
+            tx.success();
+        }
+        return new MappingRepresentation(unpack ? "weighted_path" : "distance") {
+            @Override
+            protected void serialize(MappingSerializer serializer) {
+                serializer.putBoolean("connected", route != null);
+                if (route != null) {
+                    serializer.putNumber("cost", route.cost());
+                    if (unpack) {
+                        serializer.putList("nodes", ListRepresentation.numbers(nodeIds));
+                        serializer.putList("relationships", ListRepresentation.numbers(route.relationshipIds()));
+                    }
+                    serializer.putNumber("settled", route.settled());
+                }
+            }
+        };
+    }
 
+    @Name( "submit_job" )
+    @Description( "Start a long-running computation in the background and get its job, "
+            + "whose id is then passed to job_status and job_result. Submitting a computation "
+            + "that is already queued or running with the same parameters returns that job." )
+    @PluginTarget( GraphDatabaseService.class )
+    public Representation SubmitJob( @Source final GraphDatabaseService graphDb,
+            @Description( "The computation: median, center, widest_paths, all_pairs, which only brings "
+                    + "the all-pairs matrix up to date, or contraction_hierarchy, which preprocesses "
+                    + "ch_shortest_path and ch_distance." )
+                @Parameter( name = "computation" ) String computation,
+            @Description( "The relationship property holding the cost, default cost." )
+                @Parameter( name = "costProperty", optional = true ) String costProperty,
+            @Description( "The direction paths follow relationships in: outgoing (default), incoming or both. "
+                    + "Widest paths take relationships as undirected." )
+                @Parameter( name = "direction", optional = true ) String direction,
+            @Description( "The relationship types to follow, default all." )
+                @Parameter( name = "relationshipTypes", optional = true ) String[] relationshipTypes,
+            @Description( "The tile edge length used by the blocked Floyd-Warshall, default 64." )
+                @Parameter( name = "tileSize", optional = true ) Integer tileSize,
+            @Description( "The number of threads used by the blocked Floyd-Warshall, default one per processor." )
+                @Parameter( name = "threads", optional = true ) Integer threads,
+            @Description( "The all-pairs algorithm: floyd_warshall, dijkstra or auto (default), "
+                    + "which picks by graph density. Like tileSize and the threads of the matrix, it only "
+                    + "takes effect when the matrix is computed; a cached matrix is used as it was computed." )
+                @Parameter( name = "engine", optional = true ) String engine ) throws BadInputException {
+        final GraphSnapshots.Key key = "widest_paths".equals(computation)
+                ? key(costProperty, null, relationshipTypes, 0.0)
+                : key(costProperty, direction, relationshipTypes, null);
+        final int tiles = tileSize(tileSize);
+        final int workers = threads(threads);
+        final AllPairsEngine allPairs = engine(engine);
+        Jobs.Task task;
+        if ("median".equals(computation) || "center".equals(computation)) {
+            final boolean median = "median".equals(computation);
+            task = new Jobs.Task() {
+                @Override
+                public Representation run(Jobs.Job job) {
+                    job.progress("all_pairs", 0.0);
+                    Node node = median ? median(graphDb, key, tiles, workers, allPairs)
+                            : center(graphDb, key, tiles, workers, allPairs);
+                    return nodeResult(node);
+                }
+            };
+        } else if ("widest_paths".equals(computation)) {
+            task = new Jobs.Task() {
+                @Override
+                public Representation run(Jobs.Job job) {
+                    job.progress("spanning_forest", 0.0);
+                    BottleneckForest forest;
+                    try (Transaction tx = graphDb.beginTx())
+                    {
+                        forest = bottleneckForest(graphDb, key);
+                        tx.success();
                     }
+                    job.progress("paths", 0.5);
+                    return ValueRepresentation.string(widestPaths(forest));
+                }
+            };
+        } else if ("all_pairs".equals(computation)) {
+            task = new Jobs.Task() {
+                @Override
+                public Representation run(Jobs.Job job) {
+                    job.progress("all_pairs", 0.0);
+                    final int size;
+                    final long[] componentSizes;
+                    try (Transaction tx = graphDb.beginTx())
+                    {
+                        AllPairsMatrices.Matrix matrix = lockMatrix(graphDb, key, tiles, workers, allPairs);
+                        try {
+                            size = matrix.floydWarshall.size();
+                            componentSizes = componentSizes(matrix.floydWarshall.matrix().components());
+                        } finally {
+                            matrix.lock.readLock().unlock();
+                        }
+                        tx.success();
                     }
+                    return new MappingRepresentation("all_pairs") {
+                        @Override
+                        protected void serialize(MappingSerializer serializer) {
+                            serializer.putNumber("nodes", size);
+                            serializer.putList("componentSizes", ListRepresentation.numbers(componentSizes));
+                        }
+                    };
+                }
+            };
+        } else if ("contraction_hierarchy".equals(computation)) {
+            task = new Jobs.Task() {
+                @Override
+                public Representation run(Jobs.Job job) {
+                    job.progress("contraction", 0.0);
+                    final ContractionHierarchy hierarchy;
+                    try (Transaction tx = graphDb.beginTx())
+                    {
+                        hierarchy = hierarchy(graphDb, key, true);
+                        tx.success();
+                    }
+                    return new MappingRepresentation("contraction_hierarchy") {
+                        @Override
+                        protected void serialize(MappingSerializer serializer) {
+                            serializer.putNumber("nodes", hierarchy.snapshot().nodeCount());
+                            serializer.putNumber("edges", hierarchy.edgeCount());
+                            serializer.putNumber("shortcuts", hierarchy.shortcutCount());
+                        }
+                    };
+                }
+            };
+        } else {
+            throw new BadInputException("Unknown computation: " + computation
+                    + ", expected median, center, widest_paths, all_pairs or contraction_hierarchy");
+        }
+        String jobKey = computation + "/" + key;
+        if (!"widest_paths".equals(computation) && !"contraction_hierarchy".equals(computation)) {
+            jobKey += "/" + tiles + "/" + workers + "/" + allPairs;
+        }
+        try {
+            return new JobRepresentation(Jobs.at(graphDb).submit(computation, jobKey, task));
+        } catch (RejectedExecutionException e) {
+            throw new BadInputException("Too many jobs queued, try again later");
+        }
+    }
 
-                    s += "     ";
+    @Name( "job_status" )
+    @Description( "Get the status and progress of a job started with submit_job" )
+    @PluginTarget( GraphDatabaseService.class )
+    public Representation GetJobStatus( @Source GraphDatabaseService graphDb,
+            @Description( "The id of the job." )
+                @Parameter( name = "id" ) Long id ) throws BadInputException {
+        return new JobRepresentation(job(graphDb, id));
+    }
+
+    @Name( "job_result" )
+    @Description( "Get the result of a job started with submit_job, once its status is done" )
+    @PluginTarget( GraphDatabaseService.class )
+    public Representation GetJobResult( @Source GraphDatabaseService graphDb,
+            @Description( "The id of the job." )
+                @Parameter( name = "id" ) Long id ) throws BadInputException {
+        Jobs.Job job = job(graphDb, id);
+        switch (job.status()) {
+        case DONE:
+            return job.result();
+        case FAILED:
+            throw new BadInputException("Job " + id + " failed: " + job.error());
+        default:
+            throw new BadInputException("Job " + id + " is " + job.status().name().toLowerCase()
+                    + ", poll job_status until it is done");
+        }
+    }
+
+    private static Jobs.Job job(GraphDatabaseService graphDb, Long id) throws BadInputException {
+        Jobs.Job job = Jobs.at(graphDb).get(id);
+        if (job == null) {
+            throw new BadInputException("No job " + id + ", or its result was dropped");
+        }
+        return job;
+    }
+
+    private static Representation nodeResult(final Node node) {
+        return new MappingRepresentation("node") {
+            @Override
+            protected void serialize(MappingSerializer serializer) {
+                serializer.putBoolean("found", node != null);
+                if (node != null) {
+                    serializer.putNumber("id", node.getId());
                 }
+            }
+        };
+    }
 
-            tx.success();
+    private static class JobRepresentation extends MappingRepresentation {
+        private final Jobs.Job job;
+
+        JobRepresentation(Jobs.Job job) {
+            super("job");
+            this.job = job;
+        }
+
+        @Override
+        protected void serialize(MappingSerializer serializer) {
+            serializer.putNumber("id", job.id());
+            serializer.putString("computation", job.computation());
+            serializer.putString("status", job.status().name().toLowerCase());
+            serializer.putString("phase", job.phase());
+            serializer.putNumber("progress", job.progress());
+            serializer.putNumber("elapsed", job.elapsed());
+            if (job.error() != null) {
+                serializer.putString("error", job.error());
+            }
         }
-        return s;
     }
 
+    /**
+     * The bottleneck index of the current snapshot of a key, built on first
+     * use after the graph changed. Must be called inside a transaction.
+     */
+    private BottleneckForest bottleneckForest(GraphDatabaseService graphDb, GraphSnapshots.Key key) {
+        GraphSnapshot snapshot = GraphSnapshots.at(graphDb).get(graphDb, key);
+        forgetOtherDatabase(graphDb);
+        BottleneckForest forest = bottleneckForests.get(key);
+        if (forest == null || forest.snapshot() != snapshot) {
+            synchronized (bottleneckForests) {
+                forest = bottleneckForests.get(key);
+                if (forest == null || forest.snapshot() != snapshot) {
+                    forest = BottleneckForest.build(snapshot);
+                    bottleneckForests.put(key, forest);
+                }
+            }
+        }
+        return forest;
+    }
+
+    /**
+     * The landmark distances of the current snapshot of a key, read from
+     * their file or picked and computed on first use. After the graph
+     * changed those of the previous snapshot are served until the new ones
+     * are ready. Must be called inside a transaction.
+     *
+     * @throws IllegalArgumentException
+     *             if some cost is negative.
+     */
+    private Landmarks landmarks(GraphDatabaseService graphDb, GraphSnapshots.Key key) {
+        final GraphSnapshot snapshot = GraphSnapshots.at(graphDb).get(graphDb, key);
+        final LandmarkFile file = LandmarkFile.forStore(graphDb, key.fileName());
+        return (Landmarks) indexes(graphDb).get("landmarks/" + key, snapshot, new Callable<IndexCache.Index>() {
+            @Override
+            public IndexCache.Index call() {
+                return Landmarks.load(snapshot, Landmarks.DEFAULT_COUNT, 0, file);
+            }
+        }, false);
+    }
 
+    /**
+     * The contraction hierarchy of the current snapshot of a key, mapped
+     * from its file or preprocessed on first use. After the graph changed
+     * the one of the previous snapshot is served until the new one is
+     * ready, unless the current one is asked for. Must be called inside a
+     * transaction.
+     *
+     * @throws IllegalArgumentException
+     *             if some cost is negative.
+     */
+    private ContractionHierarchy hierarchy(GraphDatabaseService graphDb, GraphSnapshots.Key key, boolean current) {
+        final GraphSnapshot snapshot = GraphSnapshots.at(graphDb).get(graphDb, key);
+        final HierarchyFile file = HierarchyFile.forStore(graphDb, key.fileName());
+        return (ContractionHierarchy) indexes(graphDb).get("hierarchy/" + key, snapshot,
+                new Callable<IndexCache.Index>() {
+                    @Override
+                    public IndexCache.Index call() {
+                        return ContractionHierarchy.load(snapshot, file);
+                    }
+                }, current);
+    }
 
-    public void initializeFloydWarshall(GraphDatabaseService graphDb) {
-        if (floydWarshall == null) {
-            floydWarshall = new FloydWarshall<Double>(
-                (Double)0.0,(Double)Double.MAX_VALUE,Direction.OUTGOING,
-                CommonEvaluators.doubleCostEvaluator("cost"),
-                new org.neo4j.graphalgo.impl.util.DoubleAdder(),
-                new org.neo4j.graphalgo.impl.util.DoubleComparator(),
-                GlobalGraphOperations.at( graphDb ).getAllNodes(),
-                GlobalGraphOperations.at( graphDb ).getAllRelationships(),
-                graphDb);
+    /**
+     * @return the landmarks and hierarchies of a database, dropping those of
+     *         the database before it.
+     */
+    private synchronized IndexCache<String, IndexCache.Index> indexes(GraphDatabaseService graphDb) {
+        if (indexedDb != graphDb) {
+            indexes = new IndexCache<String, IndexCache.Index>(Jobs.at(graphDb), MatrixCache.budget(graphDb));
+            indexedDb = graphDb;
         }
+        return indexes;
     }
 
-    public Node GraphMedianAlgo(Iterable<Node> nodeSet) {
+    /**
+     * Drops the bottleneck indexes of the database before this one.
+     */
+    private synchronized void forgetOtherDatabase(GraphDatabaseService graphDb) {
+        if (forestDb != graphDb) {
+            bottleneckForests.clear();
+            forestDb = graphDb;
+        }
+    }
+
+    public void initializeFloydWarshall(GraphDatabaseService graphDb) {
+        initializeFloydWarshall(graphDb, new GraphSnapshots.Key("cost", null, Direction.OUTGOING, null),
+                BlockedFloydWarshall.DEFAULT_TILE_SIZE, 0, null);
+    }
+
+    /**
+     * Sets up the matrix of a key if there is none, without calculating it.
+     */
+    public void initializeFloydWarshall(GraphDatabaseService graphDb, GraphSnapshots.Key key, int tileSize,
+            int threads, AllPairsEngine engine) {
+        AllPairsMatrices.at(graphDb).initialize(key, tileSize, threads, engine);
+    }
+
+    /**
+     * Calculates the matrix of a key and returns it holding its read lock.
+     * Must be called inside a transaction.
+     */
+    private static AllPairsMatrices.Matrix lockMatrix(GraphDatabaseService graphDb, GraphSnapshots.Key key,
+            int tileSize, int threads, AllPairsEngine engine) {
+        return AllPairsMatrices.at(graphDb).lock(key, tileSize, threads, engine, false);
+    }
+
+    public Node GraphMedianAlgo(FloydWarshall<Double> floydWarshall, Iterable<Node> nodeSet) {
+        if (floydWarshall instanceof DoubleFloydWarshall) {
+            return GraphMedianAlgo((DoubleFloydWarshall) floydWarshall, nodeSet);
+        }
         HashMap<Node, Double> mediansSum = new HashMap<Node, Double>();
 
         // sum up shortest distances from eeach node to every other node
@@ -158,10 +1349,7 @@ public class Centrality extends ServerPlugin
 
         // can be speed this up by skipping this step altogether?  making the comparison in the prev loop
         Node bestMedianNode = null;
-        String r = "";
         for (Node n : mediansSum.keySet()) {
-            r += "n";
-            r += mediansSum.get(n);
             if (bestMedianNode == null || mediansSum.get(n) < mediansSum.get(bestMedianNode)) {
                 bestMedianNode = n;
             }
@@ -173,10 +1361,12 @@ public class Centrality extends ServerPlugin
 
 
 
-    public Node GraphCenterAlgo(Iterable<Node> nodeSet) {
+    public Node GraphCenterAlgo(FloydWarshall<Double> floydWarshall, Iterable<Node> nodeSet) {
+        if (floydWarshall instanceof DoubleFloydWarshall) {
+            return GraphCenterAlgo((DoubleFloydWarshall) floydWarshall, nodeSet);
+        }
 
         HashMap<Node, Double> radius = new HashMap<Node, Double>();
-         String r = "";
         for ( Node startNode : nodeSet) {
             radius.put(startNode, 0.0);
             for (Node endNode : nodeSet) {
@@ -189,20 +1379,70 @@ public class Centrality extends ServerPlugin
 
         Node bestCenterNode = null;
         for (Node n : radius.keySet()) {
-             r += "n";
-                 r += radius.get(n);
             if (bestCenterNode == null || radius.get(n) < radius.get(bestCenterNode)) {
                 bestCenterNode = n;
             }
         }
-        // return r;
         return bestCenterNode;
 
     }
+
+    private static int[] indexesOf(DoubleFloydWarshall fw, Iterable<Node> nodeSet) {
+        int[] indexes = new int[fw.size()];
+        int count = 0;
+        for (Node node : nodeSet) {
+            int index = fw.indexOf(node);
+            if (index >= 0) {
+                indexes[count++] = index;
+            }
+        }
+        return Arrays.copyOf(indexes, count);
+    }
+
+    private static Node GraphMedianAlgo(DoubleFloydWarshall fw, Iterable<Node> nodeSet) {
+        int[] indexes = indexesOf(fw, nodeSet);
+        int bestMedian = -1;
+        double bestSum = 0.0;
+        for (int start : indexes) {
+            double sum = 0.0;
+            for (int end : indexes) {
+                if (start != end) {
+                    sum += fw.cost(start, end);
+                }
+            }
+            if (bestMedian == -1 || sum < bestSum) {
+                bestMedian = start;
+                bestSum = sum;
+            }
+        }
+        return bestMedian == -1 ? null : fw.nodeAt(bestMedian);
+    }
+
+    private static Node GraphCenterAlgo(DoubleFloydWarshall fw, Iterable<Node> nodeSet) {
+        int[] indexes = indexesOf(fw, nodeSet);
+        int bestCenter = -1;
+        double bestRadius = 0.0;
+        for (int start : indexes) {
+            double radius = 0.0;
+            for (int end : indexes) {
+                double cost = fw.cost(start, end);
+                if (start != end && cost > radius) {
+                    radius = cost;
+                }
+            }
+            if (bestCenter == -1 || radius < bestRadius) {
+                bestCenter = start;
+                bestRadius = radius;
+            }
+        }
+        return bestCenter == -1 ? null : fw.nodeAt(bestCenter);
+    }
 }
 
 class FloydWarshall<CostType>
 {
+    static final int NO_PREDECESSOR = -1;
+
     protected CostType startCost; // starting cost for all nodes
     protected CostType infinitelyBad; // starting value for calculation
     protected Direction relationDirection;
@@ -212,10 +1452,11 @@ class FloydWarshall<CostType>
     protected Iterable<Node> nodeSet;
     protected Iterable<Relationship> relationshipSet;
     CostType[][] costMatrix;
-    Integer[][] predecessors;
+    int[][] predecessors; // only when paths were asked for, NO_PREDECESSOR if none
     Map<Node,Integer> nodeIndexes; // node ->index
     Node[] IndexedNodes; // index -> node
-    protected boolean doneCalculation = false;
+    protected volatile boolean doneCalculation = false;
+    protected boolean withPredecessors = false;
     protected GraphDatabaseService graphDb = null;
 
     /**
@@ -262,29 +1503,58 @@ class FloydWarshall<CostType>
     /**
      * This resets the calculation if we for some reason would like to redo it.
      */
-    public void reset()
+    public synchronized void reset()
     {
         doneCalculation = false;
     }
 
+    /**
+     * Whether to track predecessors from the start. Without them only costs
+     * are calculated, and the first {@link #getPath(Node, Node)} calculates
+     * everything again with them.
+     */
+    public synchronized void setPredecessors( boolean withPredecessors )
+    {
+        if ( withPredecessors && !this.withPredecessors )
+        {
+            reset();
+        }
+        this.withPredecessors = withPredecessors;
+    }
+
     /**
      * Internal calculate method that will do the calculation. This can however
      * be called externally to manually trigger the calculation.
      */
-    @SuppressWarnings( "unchecked" )
     public void calculate()
     {
-        // Don't do it more than once
+        // Don't do it more than once, and only on one thread at a time; the
+        // flag is set once the matrix is complete
         if ( doneCalculation )
         {
             return;
         }
-        doneCalculation = true;
+        synchronized ( this )
+        {
+            if ( !doneCalculation )
+            {
+                compute();
+                doneCalculation = true;
+            }
+        }
+    }
+
+    /**
+     * Does the calculation, see {@link #calculate()}.
+     */
+    @SuppressWarnings( "unchecked" )
+    protected void compute()
+    {
         // Build initial matrix
         //int n = nodeSet.iterator().size();
         int n = IteratorUtil.count(GlobalGraphOperations.at(this.graphDb).getAllNodes());
         costMatrix = (CostType[][]) new Object[n][n];
-        predecessors = new Integer[n][n];
+        predecessors = withPredecessors ? new int[n][n] : null;
         IndexedNodes = new Node[n];
         nodeIndexes = new HashMap<Node,Integer>();
         for ( int i = 0; i < n; ++i )
@@ -294,6 +1564,10 @@ class FloydWarshall<CostType>
                 costMatrix[i][j] = infinitelyBad;
             }
             costMatrix[i][i] = startCost;
+            if ( predecessors != null )
+            {
+                Arrays.fill( predecessors[i], NO_PREDECESSOR );
+            }
         }
         int nodeIndex = 0;
         for ( Node node : nodeSet )
@@ -319,14 +1593,20 @@ class FloydWarshall<CostType>
                 costMatrix[i1][i2] = costEvaluator
 .getCost( relationship,
                         Direction.OUTGOING );
-                predecessors[i1][i2] = i1;
+                if ( predecessors != null )
+                {
+                    predecessors[i1][i2] = i1;
+                }
             }
             if ( relationDirection.equals( Direction.BOTH )
                 || relationDirection.equals( Direction.INCOMING ) )
             {
                 costMatrix[i2][i1] = costEvaluator.getCost( relationship,
                         Direction.INCOMING );
-                predecessors[i2][i1] = i2;
+                if ( predecessors != null )
+                {
+                    predecessors[i2][i1] = i2;
+                }
             }
         }
         // Do it!
@@ -341,7 +1621,10 @@ class FloydWarshall<CostType>
                     if ( costComparator.compare( costMatrix[i][j], alternative ) > 0 )
                     {
                         costMatrix[i][j] = alternative;
-                        predecessors[i][j] = predecessors[v][j];
+                        if ( predecessors != null )
+                        {
+                            predecessors[i][j] = predecessors[v][j];
+                        }
                     }
                 }
             }
@@ -369,10 +1652,12 @@ class FloydWarshall<CostType>
      *            The start node.
      * @param targetNode
      *            The end node.
-     * @return The shortest path as a list of nodes.
+     * @return The shortest path as a list of nodes, or null if there is
+     *         none.
      */
     public List<Node> getPath( Node startNode, Node targetNode )
     {
+        setPredecessors( true );
         calculate();
         LinkedList<Node> path = new LinkedList<Node>();
         int index = nodeIndexes.get( targetNode );
@@ -382,10 +1667,13 @@ class FloydWarshall<CostType>
         {
             path.addFirst( n );
             index = predecessors[startIndex][index];
+            if ( index == NO_PREDECESSOR )
+            {
+                return null;
+            }
             n = IndexedNodes[index];
         }
         path.addFirst( n );
         return path;
     }
 }
-
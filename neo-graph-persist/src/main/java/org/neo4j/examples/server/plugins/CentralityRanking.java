@@ -0,0 +1,323 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The k best nodes by farness (median candidates) or eccentricity (center
+ * candidates), from a parallel sweep over the rows of a
+ * {@link DistanceMatrix}. Every task keeps a bounded heap of its k best rows
+ * and the heaps are merged as the tasks join, so the n scores are never
+ * sorted or even stored.
+ *
+ * Nodes are ranked as in {@link CentralityReport}: reaching more nodes
+ * first, then by score, then by index, so ties are broken the same way on
+ * every run.
+ */
+final class CentralityRanking
+{
+    enum Measure
+    {
+        FARNESS, ECCENTRICITY
+    }
+
+    private final int[] indexes;
+    private final int[] reachable;
+    private final double[] scores;
+
+    private CentralityRanking( Heap heap )
+    {
+        int size = heap.size;
+        indexes = new int[size];
+        reachable = new int[size];
+        scores = new double[size];
+        for ( int i = size - 1; i >= 0; i-- )
+        {
+            indexes[i] = heap.indexes[0];
+            reachable[i] = heap.reachable[0];
+            scores[i] = heap.scores[0];
+            heap.removeWorst();
+        }
+    }
+
+    /**
+     * @param infinitelyBad
+     *            The cost of unreachable pairs in the matrix.
+     * @param threads
+     *            The number of worker threads, or a value that is not
+     *            positive for one per available processor.
+     */
+    public static CentralityRanking top( DistanceMatrix matrix, double infinitelyBad, Measure measure, int k,
+            int threads )
+    {
+        int n = matrix.size();
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        Rows rows = new Rows( matrix, infinitelyBad, measure, Math.max( 0, Math.min( k, n ) ), 0, n,
+                Math.max( 1, n / ( parallelism * 8 ) ) );
+        if ( parallelism == 1 )
+        {
+            return new CentralityRanking( rows.sweep( 0, n ) );
+        }
+        ForkJoinPool pool = new ForkJoinPool( parallelism );
+        try
+        {
+            return new CentralityRanking( pool.invoke( rows ) );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of ranked nodes, k or fewer if the matrix is
+     *         smaller.
+     */
+    public int size()
+    {
+        return indexes.length;
+    }
+
+    /**
+     * @return the matrix index of the node at a rank, best first.
+     */
+    public int index( int rank )
+    {
+        return indexes[rank];
+    }
+
+    public int reachable( int rank )
+    {
+        return reachable[rank];
+    }
+
+    /**
+     * @return the farness or eccentricity of the node at a rank, over the
+     *         nodes it reaches.
+     */
+    public double score( int rank )
+    {
+        return scores[rank];
+    }
+
+    /**
+     * A max-heap on rank, so the worst of the k best is at the root.
+     */
+    private static final class Heap
+    {
+        final int capacity;
+        final int[] indexes;
+        final int[] reachable;
+        final double[] scores;
+        int size;
+
+        Heap( int capacity )
+        {
+            this.capacity = capacity;
+            indexes = new int[capacity];
+            reachable = new int[capacity];
+            scores = new double[capacity];
+        }
+
+        /**
+         * @return whether entry a ranks after entry b.
+         */
+        private static boolean worse( int reachA, double scoreA, int indexA, int reachB, double scoreB,
+                int indexB )
+        {
+            if ( reachA != reachB )
+            {
+                return reachA < reachB;
+            }
+            if ( scoreA != scoreB )
+            {
+                return scoreA > scoreB;
+            }
+            return indexA > indexB;
+        }
+
+        private boolean worse( int a, int b )
+        {
+            return worse( reachable[a], scores[a], indexes[a], reachable[b], scores[b], indexes[b] );
+        }
+
+        void offer( int index, int reach, double score )
+        {
+            if ( size < capacity )
+            {
+                indexes[size] = index;
+                reachable[size] = reach;
+                scores[size] = score;
+                siftUp( size++ );
+            }
+            else if ( size > 0 && worse( reachable[0], scores[0], indexes[0], reach, score, index ) )
+            {
+                indexes[0] = index;
+                reachable[0] = reach;
+                scores[0] = score;
+                siftDown( 0 );
+            }
+        }
+
+        Heap merge( Heap other )
+        {
+            for ( int i = 0; i < other.size; i++ )
+            {
+                offer( other.indexes[i], other.reachable[i], other.scores[i] );
+            }
+            return this;
+        }
+
+        void removeWorst()
+        {
+            size--;
+            if ( size > 0 )
+            {
+                move( size, 0 );
+                siftDown( 0 );
+            }
+        }
+
+        private void siftUp( int slot )
+        {
+            while ( slot > 0 )
+            {
+                int parent = ( slot - 1 ) >>> 1;
+                if ( !worse( slot, parent ) )
+                {
+                    break;
+                }
+                swap( slot, parent );
+                slot = parent;
+            }
+        }
+
+        private void siftDown( int slot )
+        {
+            while ( true )
+            {
+                int child = 2 * slot + 1;
+                if ( child >= size )
+                {
+                    break;
+                }
+                if ( child + 1 < size && worse( child + 1, child ) )
+                {
+                    child++;
+                }
+                if ( !worse( child, slot ) )
+                {
+                    break;
+                }
+                swap( slot, child );
+                slot = child;
+            }
+        }
+
+        private void move( int from, int to )
+        {
+            indexes[to] = indexes[from];
+            reachable[to] = reachable[from];
+            scores[to] = scores[from];
+        }
+
+        private void swap( int a, int b )
+        {
+            int index = indexes[a];
+            int reach = reachable[a];
+            double score = scores[a];
+            move( b, a );
+            indexes[b] = index;
+            reachable[b] = reach;
+            scores[b] = score;
+        }
+    }
+
+    @SuppressWarnings( "serial" )
+    private static final class Rows extends RecursiveTask<Heap>
+    {
+        private final DistanceMatrix matrix;
+        private final double infinitelyBad;
+        private final Measure measure;
+        private final int k;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Rows( DistanceMatrix matrix, double infinitelyBad, Measure measure, int k, int from, int to, int grain )
+        {
+            this.matrix = matrix;
+            this.infinitelyBad = infinitelyBad;
+            this.measure = measure;
+            this.k = k;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Heap compute()
+        {
+            if ( to - from > grain )
+            {
+                int mid = ( from + to ) >>> 1;
+                Rows right = new Rows( matrix, infinitelyBad, measure, k, mid, to, grain );
+                right.fork();
+                Heap left = new Rows( matrix, infinitelyBad, measure, k, from, mid, grain ).compute();
+                return left.merge( right.join() );
+            }
+            return sweep( from, to );
+        }
+
+        Heap sweep( int first, int last )
+        {
+            Heap heap = new Heap( k );
+            double[] costs = new double[matrix.components().largest()];
+            for ( int row = first; row < last; row++ )
+            {
+                // Nothing outside the component of the row is reachable
+                int size = matrix.componentRow( row, costs );
+                int self = matrix.components().local( row );
+                int count = 0;
+                double score = 0.0;
+                for ( int j = 0; j < size; j++ )
+                {
+                    double cost = costs[j];
+                    if ( j == self || cost == infinitelyBad )
+                    {
+                        continue;
+                    }
+                    count++;
+                    if ( measure == Measure.FARNESS )
+                    {
+                        score += cost;
+                    }
+                    else if ( cost > score )
+                    {
+                        score = cost;
+                    }
+                }
+                heap.offer( row, count, score );
+            }
+            return heap;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Per-node farness, eccentricity, closeness and harmonic centrality, and the
+ * median, center, radius and diameter of the graph, all from one parallel
+ * sweep over the rows of a {@link DistanceMatrix}. A row is only swept over
+ * the component of its node, since the rest is unreachable.
+ *
+ * Unreachable nodes are left out of the sums and maxima. When ranking nodes
+ * for median and center, a node that reaches more nodes always comes before
+ * one that reaches fewer; ties keep the lowest index. On a disconnected graph
+ * this can pick another node than {@link Centrality#GetGraphMedian} and
+ * {@link Centrality#GetGraphCenter}, which charge Double.MAX_VALUE for every
+ * unreachable node and so let a node of a small component win.
+ */
+final class CentralityReport
+{
+    private final int n;
+    private final int[] reachable;
+    private final double[] farness;
+    private final double[] eccentricity;
+    private final double[] harmonic;
+    private int median = -1;
+    private int center = -1;
+    private double diameter;
+
+    private CentralityReport( int n )
+    {
+        this.n = n;
+        this.reachable = new int[n];
+        this.farness = new double[n];
+        this.eccentricity = new double[n];
+        this.harmonic = new double[n];
+    }
+
+    /**
+     * @param infinitelyBad
+     *            The cost of unreachable pairs in the matrix.
+     * @param threads
+     *            The number of worker threads, or a value that is not
+     *            positive for one per available processor.
+     */
+    public static CentralityReport compute( DistanceMatrix matrix, double infinitelyBad, int threads )
+    {
+        CentralityReport report = new CentralityReport( matrix.size() );
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        if ( parallelism == 1 )
+        {
+            report.new Rows( matrix, infinitelyBad, 0, report.n, report.n ).compute();
+        }
+        else
+        {
+            ForkJoinPool pool = new ForkJoinPool( parallelism );
+            try
+            {
+                int grain = Math.max( 1, report.n / ( parallelism * 8 ) );
+                pool.invoke( report.new Rows( matrix, infinitelyBad, 0, report.n, grain ) );
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+        report.summarize();
+        return report;
+    }
+
+    /**
+     * @param costs
+     *            The distances to the members of the component of the row,
+     *            the only nodes it can reach.
+     */
+    private void sweep( int row, int self, double[] costs, int size, double infinitelyBad )
+    {
+        int count = 0;
+        double sum = 0.0;
+        double max = 0.0;
+        double inverseSum = 0.0;
+        for ( int j = 0; j < size; j++ )
+        {
+            double cost = costs[j];
+            if ( j == self || cost == infinitelyBad )
+            {
+                continue;
+            }
+            count++;
+            sum += cost;
+            if ( cost > max )
+            {
+                max = cost;
+            }
+            if ( cost > 0.0 )
+            {
+                inverseSum += 1.0 / cost;
+            }
+        }
+        reachable[row] = count;
+        farness[row] = sum;
+        eccentricity[row] = max;
+        harmonic[row] = inverseSum;
+    }
+
+    private void summarize()
+    {
+        for ( int i = 0; i < n; i++ )
+        {
+            if ( median == -1 || reachable[i] > reachable[median]
+                    || ( reachable[i] == reachable[median] && farness[i] < farness[median] ) )
+            {
+                median = i;
+            }
+            if ( center == -1 || reachable[i] > reachable[center]
+                    || ( reachable[i] == reachable[center] && eccentricity[i] < eccentricity[center] ) )
+            {
+                center = i;
+            }
+            diameter = Math.max( diameter, eccentricity[i] );
+        }
+    }
+
+    public int size()
+    {
+        return n;
+    }
+
+    /**
+     * @return the index of the node with the smallest farness, or -1 if the
+     *         matrix is empty.
+     */
+    public int median()
+    {
+        return median;
+    }
+
+    /**
+     * @return the index of the node with the smallest eccentricity, or -1 if
+     *         the matrix is empty.
+     */
+    public int center()
+    {
+        return center;
+    }
+
+    /**
+     * @return the eccentricity of the center.
+     */
+    public double radius()
+    {
+        return center == -1 ? 0.0 : eccentricity[center];
+    }
+
+    /**
+     * @return the largest distance between two connected nodes.
+     */
+    public double diameter()
+    {
+        return diameter;
+    }
+
+    /**
+     * @return the number of other nodes a node reaches.
+     */
+    public int reachable( int index )
+    {
+        return reachable[index];
+    }
+
+    /**
+     * @return the sum of the distances to the nodes a node reaches.
+     */
+    public double farness( int index )
+    {
+        return farness[index];
+    }
+
+    /**
+     * @return the largest distance to a node that a node reaches.
+     */
+    public double eccentricity( int index )
+    {
+        return eccentricity[index];
+    }
+
+    /**
+     * @return the number of reached nodes over their total distance, which
+     *         is 1 / average distance and stays meaningful on disconnected
+     *         graphs.
+     */
+    public double closeness( int index )
+    {
+        return farness[index] > 0.0 ? reachable[index] / farness[index] : 0.0;
+    }
+
+    /**
+     * @return the sum of the inverse distances to the other nodes.
+     */
+    public double harmonic( int index )
+    {
+        return harmonic[index];
+    }
+
+    @SuppressWarnings( "serial" )
+    private final class Rows extends RecursiveAction
+    {
+        private final DistanceMatrix matrix;
+        private final double infinitelyBad;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Rows( DistanceMatrix matrix, double infinitelyBad, int from, int to, int grain )
+        {
+            this.matrix = matrix;
+            this.infinitelyBad = infinitelyBad;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( to - from > grain )
+            {
+                int mid = ( from + to ) >>> 1;
+                invokeAll( new Rows( matrix, infinitelyBad, from, mid, grain ),
+                        new Rows( matrix, infinitelyBad, mid, to, grain ) );
+                return;
+            }
+            double[] costs = new double[matrix.components().largest()];
+            for ( int row = from; row < to; row++ )
+            {
+                int size = matrix.componentRow( row, costs );
+                sweep( row, matrix.components().local( row ), costs, size, infinitelyBad );
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The weakly connected components of a {@link GraphSnapshot}. No path leads
+ * from one component to another, so all-pairs results can be computed per
+ * component in a dense matrix of its own and the pairs across components
+ * left out as unreachable.
+ *
+ * Components are found with a concurrent union-find over the edges: roots
+ * are linked by compare-and-set, always the larger index under the smaller,
+ * and paths are halved on every find. Components are numbered in the order
+ * of their smallest node, and their members are kept in ascending order.
+ */
+final class Components
+{
+    private static final int SEQUENTIAL_EDGES = 1 << 16;
+
+    private final int[] component; // node -> component
+    private final int[] local; // node -> index among the members of its component
+    private final int[] offsets; // component -> start of its members, count + 1 entries
+    private final int[] members;
+    private final long[] blockStarts; // component -> first cell of its block, count + 1 entries
+    private final int largest;
+
+    private Components( int[] component, int count )
+    {
+        int n = component.length;
+        this.component = component;
+        this.local = new int[n];
+        this.offsets = new int[count + 1];
+        this.members = new int[n];
+        for ( int v = 0; v < n; v++ )
+        {
+            offsets[component[v] + 1]++;
+        }
+        int max = 0;
+        for ( int c = 0; c < count; c++ )
+        {
+            max = Math.max( max, offsets[c + 1] );
+            offsets[c + 1] += offsets[c];
+        }
+        this.largest = max;
+        int[] fill = new int[count];
+        for ( int v = 0; v < n; v++ )
+        {
+            int c = component[v];
+            local[v] = fill[c];
+            members[offsets[c] + fill[c]++] = v;
+        }
+        this.blockStarts = new long[count + 1];
+        for ( int c = 0; c < count; c++ )
+        {
+            long size = size( c );
+            blockStarts[c + 1] = blockStarts[c] + size * size;
+        }
+    }
+
+    /**
+     * @param threads
+     *            The number of worker threads, or a value that is not
+     *            positive for one per available processor.
+     */
+    public static Components of( GraphSnapshot snapshot, int threads )
+    {
+        int n = snapshot.nodeCount();
+        AtomicIntegerArray parents = new AtomicIntegerArray( n );
+        for ( int v = 0; v < n; v++ )
+        {
+            parents.set( v, v );
+        }
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        Unions unions = new Unions( snapshot, parents, 0, n,
+                Math.max( 1, n / ( parallelism * 8 ) ) );
+        if ( parallelism == 1 || snapshot.edgeCount() < SEQUENTIAL_EDGES )
+        {
+            unions.union( 0, n );
+        }
+        else
+        {
+            ForkJoinPool pool = new ForkJoinPool( parallelism );
+            try
+            {
+                pool.invoke( unions );
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+        // Every root is the smallest node of its component, so numbering the
+        // roots in node order numbers the components by their smallest node
+        int[] component = new int[n];
+        int count = 0;
+        for ( int v = 0; v < n; v++ )
+        {
+            int root = find( parents, v );
+            component[v] = root == v ? count++ : component[root];
+        }
+        return new Components( component, count );
+    }
+
+    /**
+     * Restores components from the labels written by {@link #labels()}.
+     *
+     * @return the components, or null if the labels are not numbered by the
+     *         smallest node of every component.
+     */
+    public static Components fromLabels( int[] labels )
+    {
+        int count = 0;
+        for ( int label : labels )
+        {
+            if ( label < 0 || label > count )
+            {
+                return null;
+            }
+            if ( label == count )
+            {
+                count++;
+            }
+        }
+        return new Components( labels.clone(), count );
+    }
+
+    private static int find( AtomicIntegerArray parents, int v )
+    {
+        while ( true )
+        {
+            int parent = parents.get( v );
+            if ( parent == v )
+            {
+                return v;
+            }
+            int grandparent = parents.get( parent );
+            if ( grandparent != parent )
+            {
+                parents.compareAndSet( v, parent, grandparent );
+            }
+            v = grandparent;
+        }
+    }
+
+    private static void union( AtomicIntegerArray parents, int u, int v )
+    {
+        while ( true )
+        {
+            int ru = find( parents, u );
+            int rv = find( parents, v );
+            if ( ru == rv )
+            {
+                return;
+            }
+            int low = Math.min( ru, rv );
+            int high = Math.max( ru, rv );
+            // Fails if high stopped being a root meanwhile; then start over
+            if ( parents.compareAndSet( high, high, low ) )
+            {
+                return;
+            }
+        }
+    }
+
+    public int nodeCount()
+    {
+        return component.length;
+    }
+
+    public int count()
+    {
+        return offsets.length - 1;
+    }
+
+    public int component( int node )
+    {
+        return component[node];
+    }
+
+    /**
+     * @return the index of a node among the members of its component.
+     */
+    public int local( int node )
+    {
+        return local[node];
+    }
+
+    public int size( int component )
+    {
+        return offsets[component + 1] - offsets[component];
+    }
+
+    /**
+     * @return the number of nodes in the largest component, 0 if there are
+     *         none.
+     */
+    public int largest()
+    {
+        return largest;
+    }
+
+    /**
+     * @return the node at an index among the members of a component.
+     */
+    public int member( int component, int local )
+    {
+        return members[offsets[component] + local];
+    }
+
+    /**
+     * @return the nodes of a component in ascending order.
+     */
+    public int[] members( int component )
+    {
+        int[] result = new int[size( component )];
+        System.arraycopy( members, offsets[component], result, 0, result.length );
+        return result;
+    }
+
+    /**
+     * @return the first cell of the square block of a component when the
+     *         blocks of all components are laid out one after the other.
+     */
+    public long blockStart( int component )
+    {
+        return blockStarts[component];
+    }
+
+    /**
+     * @return the number of cells in the blocks of all components, i.e. the
+     *         sum of their squared sizes.
+     */
+    public long cells()
+    {
+        return blockStarts[count()];
+    }
+
+    /**
+     * @return the component of every node, for {@link #fromLabels(int[])}.
+     */
+    public int[] labels()
+    {
+        return component.clone();
+    }
+
+    /**
+     * Unites the ends of the edges leaving a range of nodes.
+     */
+    @SuppressWarnings( "serial" )
+    private static final class Unions extends RecursiveAction
+    {
+        private final GraphSnapshot snapshot;
+        private final AtomicIntegerArray parents;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Unions( GraphSnapshot snapshot, AtomicIntegerArray parents, int from, int to, int grain )
+        {
+            this.snapshot = snapshot;
+            this.parents = parents;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( to - from > grain )
+            {
+                int mid = ( from + to ) >>> 1;
+                invokeAll( new Unions( snapshot, parents, from, mid, grain ),
+                        new Unions( snapshot, parents, mid, to, grain ) );
+                return;
+            }
+            union( from, to );
+        }
+
+        void union( int first, int last )
+        {
+            int[] offsets = snapshot.offsets();
+            int[] targets = snapshot.targets();
+            for ( int u = first; u < last; u++ )
+            {
+                for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+                {
+                    Components.union( parents, u, targets[e] );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,806 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A contraction hierarchy over a {@link GraphSnapshot}, for point-to-point
+ * cheapest paths on graphs that change rarely.
+ *
+ * Preprocessing contracts the nodes one at a time, least important first:
+ * a node is removed and, for every neighbor pair u, w whose cheapest path
+ * may run through it, a shortcut u->w is added with the cost of the two
+ * edges. A bounded local Dijkstra (the witness search) skips the shortcut
+ * when some other path is no more expensive. Importance is the number of
+ * shortcuts contracting the node would add minus the edges it removes, plus
+ * the number of its neighbors already contracted, and is kept current by
+ * lazy updates. The rank of a node is its position in the contraction
+ * order.
+ *
+ * Every cheapest path then has a cheapest equivalent that only goes up in
+ * rank and then only down, so a query runs two Dijkstras that only go up:
+ * one from the source over the edges to higher nodes, and one from the
+ * target over the edges from higher nodes, turned around. Shortcuts are
+ * unpacked into the relationships they stand for only when the path is
+ * wanted.
+ *
+ * The edges are kept in primitive buffers, heap-allocated after building
+ * or mapped from a {@link HierarchyFile}. Costs must not be negative.
+ * Instances are immutable apart from a pool of reusable search state and
+ * can be queried concurrently.
+ */
+final class ContractionHierarchy implements IndexCache.Index
+{
+    /**
+     * The nodes a witness search settles before it gives up and the
+     * shortcut is kept, which is always correct but may be unnecessary.
+     */
+    public static final int WITNESS_LIMIT = 100;
+
+    /**
+     * The same limit when only estimating the shortcuts of a node to
+     * order the contraction, which is done far more often.
+     */
+    public static final int SIMULATED_WITNESS_LIMIT = 20;
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+    private static final int NONE = -1;
+
+    private final GraphSnapshot snapshot;
+    private final int n;
+    private final IntBuffer upOffsets; // n + 1
+    private final IntBuffer upEdges; // the edges to higher nodes, by source
+    private final IntBuffer downOffsets; // n + 1
+    private final IntBuffer downEdges; // the edges from higher nodes, by target
+    private final IntBuffer sources;
+    private final IntBuffer targets;
+    private final DoubleBuffer costs;
+    private final IntBuffer firsts; // the two edges a shortcut stands for, NONE for a relationship
+    private final IntBuffer seconds;
+    private final LongBuffer relationshipIds; // NONE for a shortcut
+    private final ConcurrentLinkedQueue<Search> searches = new ConcurrentLinkedQueue<Search>();
+
+    ContractionHierarchy( GraphSnapshot snapshot, IntBuffer upOffsets, IntBuffer upEdges, IntBuffer downOffsets,
+            IntBuffer downEdges, IntBuffer sources, IntBuffer targets, DoubleBuffer costs, IntBuffer firsts,
+            IntBuffer seconds, LongBuffer relationshipIds )
+    {
+        this.snapshot = snapshot;
+        this.n = snapshot.nodeCount();
+        this.upOffsets = upOffsets;
+        this.upEdges = upEdges;
+        this.downOffsets = downOffsets;
+        this.downEdges = downEdges;
+        this.sources = sources;
+        this.targets = targets;
+        this.costs = costs;
+        this.firsts = firsts;
+        this.seconds = seconds;
+        this.relationshipIds = relationshipIds;
+    }
+
+    /**
+     * Maps the hierarchy of a snapshot from a file if it holds it, or builds
+     * it, writes the file and maps that.
+     *
+     * @param file
+     *            The file, or null to only build.
+     * @throws IllegalArgumentException
+     *             if some edge has a negative cost.
+     */
+    public static ContractionHierarchy load( GraphSnapshot snapshot, HierarchyFile file )
+    {
+        if ( file != null )
+        {
+            try
+            {
+                ContractionHierarchy hierarchy = file.open( snapshot );
+                if ( hierarchy != null )
+                {
+                    return hierarchy;
+                }
+            }
+            catch ( IOException e )
+            {
+                // Unreadable, build it again
+            }
+        }
+        ContractionHierarchy hierarchy = build( snapshot );
+        if ( file != null )
+        {
+            try
+            {
+                file.write( hierarchy );
+                ContractionHierarchy mapped = file.open( snapshot );
+                if ( mapped != null )
+                {
+                    return mapped;
+                }
+            }
+            catch ( IOException e )
+            {
+                // The file is only a cache, keep serving from the heap
+            }
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Contracts every node of a snapshot.
+     *
+     * @throws IllegalArgumentException
+     *             if some edge has a negative cost.
+     */
+    public static ContractionHierarchy build( GraphSnapshot snapshot )
+    {
+        if ( snapshot.hasNegativeCosts() )
+        {
+            throw new IllegalArgumentException( "A contraction hierarchy needs costs that are not negative" );
+        }
+        return new Contraction( snapshot ).run();
+    }
+
+    public GraphSnapshot snapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * @return the bytes of the buffers, mapped from the file or on the heap.
+     */
+    @Override
+    public long bytes()
+    {
+        long bytes = 0;
+        for ( Buffer section : sections() )
+        {
+            bytes += section.capacity() * ( section instanceof IntBuffer ? 4L : 8L );
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of edges, relationships and shortcuts.
+     */
+    public int edgeCount()
+    {
+        return sources.capacity();
+    }
+
+    public int shortcutCount()
+    {
+        int count = 0;
+        for ( int e = 0; e < edgeCount(); e++ )
+        {
+            count += firsts.get( e ) == NONE ? 0 : 1;
+        }
+        return count;
+    }
+
+    /**
+     * @return the buffers in the order {@link HierarchyFile} lays them out.
+     */
+    Buffer[] sections()
+    {
+        return new Buffer[] { upOffsets, upEdges, downOffsets, downEdges, sources, targets, costs,
+                firsts, seconds, relationshipIds };
+    }
+
+    /**
+     * A cheapest path between two nodes.
+     */
+    static final class Route
+    {
+        private final double cost;
+        private final int[] nodes;
+        private final long[] relationshipIds;
+        private final int settled;
+
+        Route( double cost, int[] nodes, long[] relationshipIds, int settled )
+        {
+            this.cost = cost;
+            this.nodes = nodes;
+            this.relationshipIds = relationshipIds;
+            this.settled = settled;
+        }
+
+        public double cost()
+        {
+            return cost;
+        }
+
+        /**
+         * @return the node indexes along the path, source first, or null if
+         *         the path was not unpacked.
+         */
+        public int[] nodes()
+        {
+            return nodes;
+        }
+
+        /**
+         * @return the ids of the relationships along the path, or null if
+         *         the path was not unpacked.
+         */
+        public long[] relationshipIds()
+        {
+            return relationshipIds;
+        }
+
+        /**
+         * @return how many nodes both searches settled.
+         */
+        public int settled()
+        {
+            return settled;
+        }
+    }
+
+    /**
+     * @param unpack
+     *            Whether to unpack the path, or only find its cost.
+     * @return a cheapest path from source to target, or null if there is
+     *         none.
+     */
+    public Route route( int source, int target, boolean unpack )
+    {
+        Search search = searches.poll();
+        if ( search == null )
+        {
+            search = new Search();
+        }
+        try
+        {
+            return search.run( source, target, unpack );
+        }
+        finally
+        {
+            search.reset();
+            searches.offer( search );
+        }
+    }
+
+    /**
+     * Appends the relationships a shortcut stands for, in path order.
+     */
+    private int unpack( int edge, int[] stack, long[] relationships, int[] nodes, int count )
+    {
+        int size = 0;
+        stack[size++] = edge;
+        while ( size > 0 )
+        {
+            int e = stack[--size];
+            if ( firsts.get( e ) == NONE )
+            {
+                relationships[count] = relationshipIds.get( e );
+                nodes[++count] = targets.get( e );
+            }
+            else
+            {
+                stack[size++] = seconds.get( e );
+                stack[size++] = firsts.get( e );
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of relationships a shortcut stands for.
+     */
+    private int length( int edge, int[] stack )
+    {
+        int length = 0;
+        int size = 0;
+        stack[size++] = edge;
+        while ( size > 0 )
+        {
+            int e = stack[--size];
+            if ( firsts.get( e ) == NONE )
+            {
+                length++;
+            }
+            else
+            {
+                stack[size++] = seconds.get( e );
+                stack[size++] = firsts.get( e );
+            }
+        }
+        return length;
+    }
+
+    /**
+     * The state of the upward searches from both ends, sized for the
+     * snapshot and reset after use by clearing only the nodes it touched.
+     */
+    private final class Search
+    {
+        private final Side forward = new Side( upOffsets, upEdges, targets );
+        private final Side backward = new Side( downOffsets, downEdges, sources );
+        // Unpacking pushes both halves of a shortcut, one level of nesting per rank at most
+        private final int[] stack = new int[n + 1];
+        private int settled;
+
+        Route run( int source, int target, boolean unpack )
+        {
+            forward.reach( source, NONE, 0.0 );
+            backward.reach( target, NONE, 0.0 );
+            double best = source == target ? 0.0 : INFINITY;
+            int meeting = source == target ? source : NONE;
+            while ( true )
+            {
+                boolean forwards = !forward.heap.isEmpty() && forward.heap.peekKey() < best;
+                boolean backwards = !backward.heap.isEmpty() && backward.heap.peekKey() < best;
+                if ( !forwards && !backwards )
+                {
+                    break;
+                }
+                if ( forwards && backwards )
+                {
+                    forwards = forward.heap.peekKey() <= backward.heap.peekKey();
+                }
+                Side side = forwards ? forward : backward;
+                Side other = forwards ? backward : forward;
+                int u = side.heap.poll();
+                settled++;
+                double distance = side.distances[u];
+                if ( other.distances[u] != INFINITY && distance + other.distances[u] < best )
+                {
+                    best = distance + other.distances[u];
+                    meeting = u;
+                }
+                for ( int i = side.offsets.get( u ); i < side.offsets.get( u + 1 ); i++ )
+                {
+                    int e = side.edges.get( i );
+                    int v = side.ends.get( e );
+                    double alternative = distance + costs.get( e );
+                    if ( alternative < side.distances[v] )
+                    {
+                        side.reach( v, e, alternative );
+                        if ( other.distances[v] != INFINITY && alternative + other.distances[v] < best )
+                        {
+                            best = alternative + other.distances[v];
+                            meeting = v;
+                        }
+                    }
+                }
+            }
+            if ( meeting == NONE )
+            {
+                return null;
+            }
+            return unpack ? path( meeting, best ) : new Route( best, null, null, settled );
+        }
+
+        private Route path( int meeting, double cost )
+        {
+            // The edges up from the source, then down to the target, each possibly a shortcut
+            int up = 0;
+            for ( int v = meeting; forward.parents[v] != NONE; v = sources.get( forward.parents[v] ) )
+            {
+                up++;
+            }
+            int down = 0;
+            for ( int v = meeting; backward.parents[v] != NONE; v = targets.get( backward.parents[v] ) )
+            {
+                down++;
+            }
+            int[] edges = new int[up + down];
+            int i = up;
+            for ( int v = meeting; forward.parents[v] != NONE; v = sources.get( forward.parents[v] ) )
+            {
+                edges[--i] = forward.parents[v];
+            }
+            i = up;
+            for ( int v = meeting; backward.parents[v] != NONE; v = targets.get( backward.parents[v] ) )
+            {
+                edges[i++] = backward.parents[v];
+            }
+            int length = 0;
+            for ( int edge : edges )
+            {
+                length += length( edge, stack );
+            }
+            int[] nodes = new int[length + 1];
+            long[] relationships = new long[length];
+            nodes[0] = edges.length == 0 ? meeting : sources.get( edges[0] );
+            int count = 0;
+            for ( int edge : edges )
+            {
+                count = unpack( edge, stack, relationships, nodes, count );
+            }
+            return new Route( cost, nodes, relationships, settled );
+        }
+
+        void reset()
+        {
+            forward.reset();
+            backward.reset();
+            settled = 0;
+        }
+    }
+
+    /**
+     * One upward search: the edges it follows, where they lead, and the
+     * distances and parent edges of the nodes it touched.
+     */
+    private final class Side
+    {
+        private final IntBuffer offsets;
+        private final IntBuffer edges;
+        private final IntBuffer ends;
+        private final double[] distances = new double[n];
+        private final int[] parents = new int[n];
+        private final SparseAllPairs.IndexedHeap heap = new SparseAllPairs.IndexedHeap( n );
+        private int[] touched = new int[16];
+        private int touchedCount;
+
+        Side( IntBuffer offsets, IntBuffer edges, IntBuffer ends )
+        {
+            this.offsets = offsets;
+            this.edges = edges;
+            this.ends = ends;
+            Arrays.fill( distances, INFINITY );
+            Arrays.fill( parents, NONE );
+        }
+
+        void reach( int node, int edge, double distance )
+        {
+            if ( distances[node] == INFINITY )
+            {
+                if ( touchedCount == touched.length )
+                {
+                    touched = Arrays.copyOf( touched, touchedCount * 2 );
+                }
+                touched[touchedCount++] = node;
+            }
+            distances[node] = distance;
+            parents[node] = edge;
+            heap.insertOrDecrease( node, distance );
+        }
+
+        void reset()
+        {
+            for ( int i = 0; i < touchedCount; i++ )
+            {
+                distances[touched[i]] = INFINITY;
+                parents[touched[i]] = NONE;
+            }
+            touchedCount = 0;
+            heap.clear();
+        }
+    }
+
+    /**
+     * The preprocessing: a growable edge table, the adjacency of the nodes
+     * not contracted yet, and the witness search.
+     */
+    private static final class Contraction
+    {
+        private final GraphSnapshot snapshot;
+        private final int n;
+        private int[] sources = new int[16];
+        private int[] targets = new int[16];
+        private double[] costs = new double[16];
+        private int[] firsts = new int[16];
+        private int[] seconds = new int[16];
+        private long[] relationshipIds = new long[16];
+        private int edgeCount;
+        private final int[][] outs;
+        private final int[] outSizes;
+        private final int[][] ins;
+        private final int[] inSizes;
+        private final int[] ranks;
+        private final int[] contractedNeighbors;
+        // Witness search
+        private final double[] distances;
+        private final SparseAllPairs.IndexedHeap heap;
+        private int[] touched = new int[16];
+        private int touchedCount;
+
+        Contraction( GraphSnapshot snapshot )
+        {
+            this.snapshot = snapshot;
+            this.n = snapshot.nodeCount();
+            outs = new int[n][];
+            outSizes = new int[n];
+            ins = new int[n][];
+            inSizes = new int[n];
+            ranks = new int[n];
+            Arrays.fill( ranks, NONE );
+            contractedNeighbors = new int[n];
+            distances = new double[n];
+            Arrays.fill( distances, INFINITY );
+            heap = new SparseAllPairs.IndexedHeap( n );
+            int[] offsets = snapshot.offsets();
+            for ( int u = 0; u < n; u++ )
+            {
+                for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+                {
+                    int v = snapshot.targets()[e];
+                    if ( u != v )
+                    {
+                        add( u, v, snapshot.costs()[e], NONE, NONE, snapshot.relationshipId( e ) );
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy run()
+        {
+            SparseAllPairs.IndexedHeap queue = new SparseAllPairs.IndexedHeap( n );
+            for ( int v = 0; v < n; v++ )
+            {
+                queue.insert( v, priority( v ) );
+            }
+            int[] neighbors = new int[16];
+            int[] updated = new int[n]; // the rank contracted when a node's priority was last updated
+            Arrays.fill( updated, NONE );
+            for ( int rank = 0; rank < n; )
+            {
+                int v = queue.poll();
+                // Lazy update: contract only if the node is still the least important
+                double priority = priority( v );
+                if ( !queue.isEmpty() && priority > queue.peekKey() )
+                {
+                    queue.insert( v, priority );
+                    continue;
+                }
+                int count = 0;
+                for ( int i = 0; i < inSizes[v]; i++ )
+                {
+                    neighbors = append( neighbors, count++, sources[ins[v][i]] );
+                }
+                for ( int i = 0; i < outSizes[v]; i++ )
+                {
+                    neighbors = append( neighbors, count++, targets[outs[v][i]] );
+                }
+                contract( v, true );
+                ranks[v] = rank++;
+                for ( int i = 0; i < count; i++ )
+                {
+                    int neighbor = neighbors[i];
+                    // Neighbors both ways are listed twice but updated once
+                    if ( ranks[neighbor] == NONE && updated[neighbor] != rank )
+                    {
+                        updated[neighbor] = rank;
+                        contractedNeighbors[neighbor]++;
+                        queue.insertOrUpdate( neighbor, priority( neighbor ) );
+                    }
+                }
+            }
+            return hierarchy();
+        }
+
+        private double priority( int v )
+        {
+            return contract( v, false ) - inSizes[v] - outSizes[v] + contractedNeighbors[v];
+        }
+
+        /**
+         * Adds the shortcuts around a node and removes it, or only counts
+         * them.
+         *
+         * @return the number of shortcuts needed.
+         */
+        private int contract( int v, boolean really )
+        {
+            int shortcuts = 0;
+            int inCount = inSizes[v];
+            int outCount = outSizes[v];
+            for ( int i = 0; i < inCount; i++ )
+            {
+                int in = ins[v][i];
+                int u = sources[in];
+                double limit = 0.0;
+                for ( int j = 0; j < outCount; j++ )
+                {
+                    int out = outs[v][j];
+                    if ( targets[out] != u )
+                    {
+                        limit = Math.max( limit, costs[in] + costs[out] );
+                    }
+                }
+                witnesses( u, v, limit, really ? WITNESS_LIMIT : SIMULATED_WITNESS_LIMIT );
+                for ( int j = 0; j < outCount; j++ )
+                {
+                    int out = outs[v][j];
+                    int w = targets[out];
+                    double cost = costs[in] + costs[out];
+                    if ( w == u || distances[w] <= cost )
+                    {
+                        continue;
+                    }
+                    shortcuts++;
+                    if ( really )
+                    {
+                        add( u, w, cost, in, out, NONE );
+                        // The new shortcut is a witness for parallel edges to w
+                        touch( w, cost );
+                    }
+                }
+                clearWitnesses();
+            }
+            if ( really )
+            {
+                for ( int i = 0; i < inSizes[v]; i++ )
+                {
+                    int in = ins[v][i];
+                    remove( outs, outSizes, sources[in], in );
+                }
+                for ( int i = 0; i < outSizes[v]; i++ )
+                {
+                    int out = outs[v][i];
+                    remove( ins, inSizes, targets[out], out );
+                }
+                inSizes[v] = 0;
+                outSizes[v] = 0;
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Dijkstra from u among the nodes left, avoiding v, up to a cost or
+         * a number of settled nodes.
+         */
+        private void witnesses( int u, int v, double limit, int settleLimit )
+        {
+            touch( u, 0.0 );
+            heap.insert( u, 0.0 );
+            int settled = 0;
+            while ( !heap.isEmpty() && settled < settleLimit )
+            {
+                int x = heap.poll();
+                settled++;
+                double distance = distances[x];
+                for ( int i = 0; i < outSizes[x]; i++ )
+                {
+                    int e = outs[x][i];
+                    int y = targets[e];
+                    double alternative = distance + costs[e];
+                    // Paths over the limit cannot be witnesses
+                    if ( y != v && alternative <= limit && alternative < distances[y] )
+                    {
+                        touch( y, alternative );
+                        heap.insertOrDecrease( y, alternative );
+                    }
+                }
+            }
+            heap.clear();
+        }
+
+        private void touch( int node, double distance )
+        {
+            if ( distances[node] == INFINITY )
+            {
+                touched = append( touched, touchedCount++, node );
+            }
+            distances[node] = distance;
+        }
+
+        private void clearWitnesses()
+        {
+            for ( int i = 0; i < touchedCount; i++ )
+            {
+                distances[touched[i]] = INFINITY;
+            }
+            touchedCount = 0;
+        }
+
+        private void add( int u, int v, double cost, int first, int second, long relationshipId )
+        {
+            if ( edgeCount == sources.length )
+            {
+                int capacity = edgeCount * 2;
+                sources = Arrays.copyOf( sources, capacity );
+                targets = Arrays.copyOf( targets, capacity );
+                costs = Arrays.copyOf( costs, capacity );
+                firsts = Arrays.copyOf( firsts, capacity );
+                seconds = Arrays.copyOf( seconds, capacity );
+                relationshipIds = Arrays.copyOf( relationshipIds, capacity );
+            }
+            int e = edgeCount++;
+            sources[e] = u;
+            targets[e] = v;
+            costs[e] = cost;
+            firsts[e] = first;
+            seconds[e] = second;
+            relationshipIds[e] = relationshipId;
+            outs[u] = append( outs[u] == null ? new int[4] : outs[u], outSizes[u]++, e );
+            ins[v] = append( ins[v] == null ? new int[4] : ins[v], inSizes[v]++, e );
+        }
+
+        private static void remove( int[][] lists, int[] sizes, int node, int edge )
+        {
+            int[] list = lists[node];
+            for ( int i = 0; i < sizes[node]; i++ )
+            {
+                if ( list[i] == edge )
+                {
+                    list[i] = list[--sizes[node]];
+                    return;
+                }
+            }
+        }
+
+        private static int[] append( int[] array, int index, int value )
+        {
+            if ( index == array.length )
+            {
+                array = Arrays.copyOf( array, array.length * 2 );
+            }
+            array[index] = value;
+            return array;
+        }
+
+        /**
+         * Splits the edges into those going up in rank, listed at their
+         * source, and those coming down, listed at their target.
+         */
+        private ContractionHierarchy hierarchy()
+        {
+            int[] upOffsets = new int[n + 1];
+            int[] downOffsets = new int[n + 1];
+            for ( int e = 0; e < edgeCount; e++ )
+            {
+                if ( ranks[sources[e]] < ranks[targets[e]] )
+                {
+                    upOffsets[sources[e] + 1]++;
+                }
+                else
+                {
+                    downOffsets[targets[e] + 1]++;
+                }
+            }
+            for ( int v = 0; v < n; v++ )
+            {
+                upOffsets[v + 1] += upOffsets[v];
+                downOffsets[v + 1] += downOffsets[v];
+            }
+            int[] upEdges = new int[upOffsets[n]];
+            int[] downEdges = new int[downOffsets[n]];
+            int[] upNext = Arrays.copyOf( upOffsets, n );
+            int[] downNext = Arrays.copyOf( downOffsets, n );
+            for ( int e = 0; e < edgeCount; e++ )
+            {
+                if ( ranks[sources[e]] < ranks[targets[e]] )
+                {
+                    upEdges[upNext[sources[e]]++] = e;
+                }
+                else
+                {
+                    downEdges[downNext[targets[e]]++] = e;
+                }
+            }
+            return new ContractionHierarchy( snapshot, IntBuffer.wrap( upOffsets ), IntBuffer.wrap( upEdges ),
+                    IntBuffer.wrap( downOffsets ), IntBuffer.wrap( downEdges ),
+                    IntBuffer.wrap( Arrays.copyOf( sources, edgeCount ) ),
+                    IntBuffer.wrap( Arrays.copyOf( targets, edgeCount ) ),
+                    DoubleBuffer.wrap( Arrays.copyOf( costs, edgeCount ) ),
+                    IntBuffer.wrap( Arrays.copyOf( firsts, edgeCount ) ),
+                    IntBuffer.wrap( Arrays.copyOf( seconds, edgeCount ) ),
+                    LongBuffer.wrap( Arrays.copyOf( relationshipIds, edgeCount ) ) );
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.nio.Buffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * An all-pairs distance matrix with an optional predecessor matrix of the
+ * same shape, stored one dense block per {@link Components component}: no
+ * path leads across components, so those pairs are not stored and read as
+ * unreachable. The blocks are row-major and laid out one after the other.
+ *
+ * The cells live either in heap arrays or in memory mapped from a
+ * {@link MatrixFile}; since a single buffer cannot address more than 2^31
+ * cells, the cells are split over chunks. Predecessors are stored as their
+ * index within the component, as shorts when every component is small
+ * enough.
+ */
+final class DistanceMatrix
+{
+    static final int NO_PREDECESSOR = -1;
+
+    private final int n;
+    private final Components components;
+    private final double unreachable;
+    private final int cellsPerChunk;
+    private final DoubleBuffer[] costChunks;
+    private final IntBuffer[] predecessorChunks;
+    private final ShortBuffer[] shortPredecessorChunks;
+
+    DistanceMatrix( Components components, double unreachable, int cellsPerChunk, DoubleBuffer[] costChunks,
+            IntBuffer[] predecessorChunks, ShortBuffer[] shortPredecessorChunks )
+    {
+        this.n = components.nodeCount();
+        this.components = components;
+        this.unreachable = unreachable;
+        this.cellsPerChunk = cellsPerChunk;
+        this.costChunks = costChunks;
+        this.predecessorChunks = predecessorChunks;
+        this.shortPredecessorChunks = shortPredecessorChunks;
+    }
+
+    /**
+     * Wraps heap arrays of blocks, copying the predecessors into shorts if
+     * they fit.
+     *
+     * @param costs
+     *            The blocks of all components, see
+     *            {@link Components#blockStart(int)}.
+     * @param predecessors
+     *            The predecessor blocks as indexes within the component, or
+     *            null if there are none.
+     */
+    static DistanceMatrix wrap( Components components, double unreachable, double[] costs, int[] predecessors )
+    {
+        int cells = Math.max( costs.length, 1 );
+        DoubleBuffer[] costChunks = new DoubleBuffer[] { DoubleBuffer.wrap( costs ) };
+        if ( predecessors == null )
+        {
+            return new DistanceMatrix( components, unreachable, cells, costChunks, null, null );
+        }
+        if ( !fitsShort( components ) )
+        {
+            return new DistanceMatrix( components, unreachable, cells, costChunks,
+                    new IntBuffer[] { IntBuffer.wrap( predecessors ) }, null );
+        }
+        short[] narrow = new short[predecessors.length];
+        for ( int i = 0; i < narrow.length; i++ )
+        {
+            narrow[i] = (short) predecessors[i];
+        }
+        return new DistanceMatrix( components, unreachable, cells, costChunks, null,
+                new ShortBuffer[] { ShortBuffer.wrap( narrow ) } );
+    }
+
+    /**
+     * @return whether the predecessors of a matrix with these components
+     *         are stored as shorts.
+     */
+    static boolean fitsShort( Components components )
+    {
+        return components.largest() <= Short.MAX_VALUE;
+    }
+
+    public int size()
+    {
+        return n;
+    }
+
+    public Components components()
+    {
+        return components;
+    }
+
+    public boolean hasPredecessors()
+    {
+        return predecessorChunks != null || shortPredecessorChunks != null;
+    }
+
+    /**
+     * @return the bytes per predecessor, or 0 if there are none.
+     */
+    public int predecessorWidth()
+    {
+        return shortPredecessorChunks != null ? 2 : predecessorChunks != null ? 4 : 0;
+    }
+
+    /**
+     * @return the number of stored cells, the sum of the squared component
+     *         sizes rather than n^2.
+     */
+    public long cells()
+    {
+        return components.cells();
+    }
+
+    /**
+     * @return the stored cell of a pair, or -1 if the nodes are in different
+     *         components.
+     */
+    private long cell( int from, int to )
+    {
+        int component = components.component( from );
+        if ( components.component( to ) != component )
+        {
+            return -1;
+        }
+        return components.blockStart( component )
+                + (long) components.local( from ) * components.size( component ) + components.local( to );
+    }
+
+    public double cost( int from, int to )
+    {
+        long cell = cell( from, to );
+        if ( cell < 0 )
+        {
+            return unreachable;
+        }
+        return costChunks[(int) ( cell / cellsPerChunk )].get( (int) ( cell % cellsPerChunk ) );
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the nodes are in different components and the cost is
+     *             not the unreachable one.
+     */
+    public void setCost( int from, int to, double cost )
+    {
+        long cell = cell( from, to );
+        if ( cell < 0 )
+        {
+            if ( cost != unreachable )
+            {
+                throw new IllegalArgumentException( "No path can lead from " + from + " to " + to
+                        + ", they are in different components" );
+            }
+            return;
+        }
+        costChunks[(int) ( cell / cellsPerChunk )].put( (int) ( cell % cellsPerChunk ), cost );
+    }
+
+    /**
+     * @return the node before to on the path from "from", or
+     *         {@link #NO_PREDECESSOR}.
+     */
+    public int predecessor( int from, int to )
+    {
+        long cell = cell( from, to );
+        if ( cell < 0 )
+        {
+            return NO_PREDECESSOR;
+        }
+        int chunk = (int) ( cell / cellsPerChunk );
+        int index = (int) ( cell % cellsPerChunk );
+        int local = shortPredecessorChunks != null ? shortPredecessorChunks[chunk].get( index )
+                : predecessorChunks[chunk].get( index );
+        return local < 0 ? NO_PREDECESSOR : components.member( components.component( from ), local );
+    }
+
+    public void setPredecessor( int from, int to, int predecessor )
+    {
+        long cell = cell( from, to );
+        if ( cell < 0 )
+        {
+            if ( predecessor != NO_PREDECESSOR )
+            {
+                throw new IllegalArgumentException( "No path can lead from " + from + " to " + to
+                        + ", they are in different components" );
+            }
+            return;
+        }
+        int chunk = (int) ( cell / cellsPerChunk );
+        int index = (int) ( cell % cellsPerChunk );
+        int local = predecessor < 0 ? NO_PREDECESSOR : components.local( predecessor );
+        if ( shortPredecessorChunks != null )
+        {
+            shortPredecessorChunks[chunk].put( index, (short) local );
+        }
+        else
+        {
+            predecessorChunks[chunk].put( index, local );
+        }
+    }
+
+    /**
+     * Copies a row of distances into a caller supplied array.
+     */
+    public void costRow( int from, double[] row )
+    {
+        Arrays.fill( row, 0, n, unreachable );
+        int component = components.component( from );
+        int size = components.size( component );
+        long first = components.blockStart( component ) + (long) components.local( from ) * size;
+        for ( int j = 0; j < size; j++ )
+        {
+            long cell = first + j;
+            row[components.member( component, j )] =
+                    costChunks[(int) ( cell / cellsPerChunk )].get( (int) ( cell % cellsPerChunk ) );
+        }
+    }
+
+    /**
+     * Copies the distances from a node to the members of its component, in
+     * the order of {@link Components#member(int, int)}, into a caller
+     * supplied array. All other nodes are unreachable from it.
+     *
+     * @return the number of distances copied, the size of the component.
+     */
+    public int componentRow( int from, double[] row )
+    {
+        int component = components.component( from );
+        int size = components.size( component );
+        long first = components.blockStart( component ) + (long) components.local( from ) * size;
+        for ( int j = 0; j < size; j++ )
+        {
+            long cell = first + j;
+            row[j] = costChunks[(int) ( cell / cellsPerChunk )].get( (int) ( cell % cellsPerChunk ) );
+        }
+        return size;
+    }
+
+    int chunkCount()
+    {
+        return costChunks.length;
+    }
+
+    DoubleBuffer costChunk( int chunk )
+    {
+        return costChunks[chunk];
+    }
+
+    /**
+     * @return the predecessors stored alongside a chunk of costs, as an
+     *         {@link IntBuffer} or a {@link ShortBuffer}, or null if there
+     *         are none.
+     */
+    Buffer predecessorChunk( int chunk )
+    {
+        return shortPredecessorChunks != null ? shortPredecessorChunks[chunk]
+                : predecessorChunks != null ? predecessorChunks[chunk] : null;
+    }
+}
@@ -0,0 +1,773 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphalgo.CostAccumulator;
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.impl.util.DoubleAdder;
+import org.neo4j.graphalgo.impl.util.DoubleComparator;
+import org.neo4j.graphalgo.impl.util.DoubleEvaluator;
+import org.neo4j.graphalgo.impl.util.DoubleEvaluatorWithDefault;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * Floyd-Warshall specialized for double costs. The distance matrix is kept in
+ * a flat row-major double[] and the predecessors in a flat int[], so the
+ * n^3 relaxation loop runs without boxing or calls through
+ * {@link CostAccumulator} and {@link Comparator}. Unless paths are asked for
+ * only the distances are calculated.
+ *
+ * The graph is first split into its weakly connected {@link Components},
+ * and each one is computed in a dense block of its own, so a graph of many
+ * small pieces costs the sum of their cubes instead of n^3.
+ *
+ * On sparse graphs the same matrix is filled by {@link SparseAllPairs}
+ * instead, see {@link AllPairsEngine}.
+ */
+class DoubleFloydWarshall extends FloydWarshall<Double>
+{
+    private static final int NO_PREDECESSOR = DistanceMatrix.NO_PREDECESSOR;
+    // Components below this size are computed side by side rather than one
+    // after the other with all threads
+    private static final int SMALL_COMPONENT = BlockedFloydWarshall.DEFAULT_TILE_SIZE;
+
+    protected GraphSnapshot snapshot;
+    protected int n;
+    protected int tileSize = BlockedFloydWarshall.DEFAULT_TILE_SIZE;
+    protected int threads = 0;
+    protected AllPairsEngine engine = null;
+    protected MatrixFile matrixFile = null;
+    protected DistanceMatrix matrix;
+    protected boolean mapped = false;
+
+    /**
+     * Runs on a node and relationship set, which are loaded into a
+     * {@link GraphSnapshot} on the first calculation. Relationships with an
+     * end outside the node set are skipped.
+     */
+    public DoubleFloydWarshall( double startCost, double infinitelyBad,
+        Direction relationDirection, CostEvaluator<Double> costEvaluator,
+        Iterable<Node> nodeSet, Iterable<Relationship> relationshipSet,
+        GraphDatabaseService graphDb )
+    {
+        super( startCost, infinitelyBad, relationDirection, costEvaluator,
+                new DoubleAdder(), new DoubleComparator(), nodeSet,
+                relationshipSet, graphDb );
+    }
+
+    /**
+     * Runs on an already loaded snapshot, which stands in for the node and
+     * relationship set. The evaluator and the sets stay null, which is safe
+     * because {@link #compute()}, {@link #getCost(Node, Node)} and
+     * {@link #getPath(Node, Node)}, the only methods that read them or the
+     * generic matrix, are all overridden.
+     */
+    public DoubleFloydWarshall( GraphSnapshot snapshot, double startCost,
+        double infinitelyBad, GraphDatabaseService graphDb )
+    {
+        super( startCost, infinitelyBad, snapshot.direction(), null,
+                new DoubleAdder(), new DoubleComparator(), null, null, graphDb );
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Picks the primitive engine when the costs are read by the stock double
+     * evaluators of {@link CommonEvaluators} and added and compared the
+     * usual way, and falls back to the generic {@link FloydWarshall} for any
+     * other evaluator, accumulator or comparator.
+     */
+    public static FloydWarshall<Double> create( Double startCost,
+        Double infinitelyBad, Direction relationDirection,
+        CostEvaluator<Double> costEvaluator,
+        CostAccumulator<Double> costAccumulator,
+        Comparator<Double> costComparator, Iterable<Node> nodeSet,
+        Iterable<Relationship> relationshipSet, GraphDatabaseService graphDb )
+    {
+        if ( ( costEvaluator instanceof DoubleEvaluator || costEvaluator instanceof DoubleEvaluatorWithDefault )
+            && costAccumulator instanceof DoubleAdder
+            && costComparator instanceof DoubleComparator )
+        {
+            return new DoubleFloydWarshall( startCost, infinitelyBad,
+                    relationDirection, costEvaluator, nodeSet,
+                    relationshipSet, graphDb );
+        }
+        return new FloydWarshall<Double>( startCost, infinitelyBad,
+                relationDirection, costEvaluator, costAccumulator,
+                costComparator, nodeSet, relationshipSet, graphDb );
+    }
+
+    @Override
+    protected void compute()
+    {
+        if ( snapshot == null )
+        {
+            snapshot = GraphSnapshot.build( nodeSet, relationshipSet,
+                    costEvaluator, relationDirection );
+        }
+        n = snapshot.nodeCount();
+        final double inf = infinitelyBad;
+        if ( matrixFile != null )
+        {
+            try
+            {
+                matrix = matrixFile.open( snapshot, withPredecessors, inf );
+            }
+            catch ( IOException e )
+            {
+                matrix = null;
+            }
+            if ( matrix != null )
+            {
+                mapped = true;
+                return;
+            }
+        }
+        // No path leads across weakly connected components, so each one
+        // gets a dense block of its own instead of a share of n^2 cells
+        final Components components = Components.of( snapshot, threads );
+        if ( components.cells() > Integer.MAX_VALUE )
+        {
+            throw new IllegalStateException( "The components of the graph have " + components.cells()
+                    + " pairs, more than a matrix on the heap can hold" );
+        }
+        final double[] costs = new double[(int) components.cells()];
+        final int[] predecessors = withPredecessors ? new int[costs.length] : null;
+        List<Integer> small = new ArrayList<Integer>();
+        for ( int c = 0; c < components.count(); c++ )
+        {
+            if ( components.size( c ) < SMALL_COMPONENT )
+            {
+                small.add( c );
+            }
+            else
+            {
+                // Large enough to use the threads on its own
+                computeComponent( components, c, costs, predecessors, threads );
+            }
+        }
+        if ( !small.isEmpty() )
+        {
+            final int[] smallComponents = new int[small.size()];
+            for ( int i = 0; i < smallComponents.length; i++ )
+            {
+                smallComponents[i] = small.get( i );
+            }
+            int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            SmallComponents task = new SmallComponents( components, smallComponents, costs, predecessors, 0,
+                    smallComponents.length, Math.max( 1, smallComponents.length / ( parallelism * 8 ) ) );
+            if ( parallelism == 1 )
+            {
+                task.compute();
+            }
+            else
+            {
+                ForkJoinPool pool = new ForkJoinPool( parallelism );
+                try
+                {
+                    pool.invoke( task );
+                }
+                finally
+                {
+                    pool.shutdown();
+                }
+            }
+        }
+        matrix = DistanceMatrix.wrap( components, inf, costs, predecessors );
+        if ( matrixFile != null )
+        {
+            try
+            {
+                matrix = matrixFile.write( snapshot, matrix, inf );
+                mapped = true;
+            }
+            catch ( IOException e )
+            {
+                // The file is only a cache, keep serving from the heap
+            }
+        }
+    }
+
+    /**
+     * Fills the block of one component, with the engine planned from the
+     * density of the component rather than of the whole graph.
+     *
+     * @param predecessors
+     *            The predecessor blocks, filled with indexes within the
+     *            component, or null if not wanted.
+     */
+    private void computeComponent( Components components, int component, double[] costs, int[] predecessors,
+            int threads )
+    {
+        final int size = components.size( component );
+        final int start = (int) components.blockStart( component );
+        final double inf = infinitelyBad;
+        GraphSnapshot graph = snapshot.subgraph( components.members( component ) );
+        double[] blockCosts = new double[size * size];
+        Arrays.fill( blockCosts, inf );
+        int[] blockPredecessors = null;
+        if ( predecessors != null )
+        {
+            blockPredecessors = new int[size * size];
+            Arrays.fill( blockPredecessors, NO_PREDECESSOR );
+        }
+        AllPairsEngine chosen = engine != null ? engine : AllPairsEngine.plan( size, graph.edgeCount() );
+        if ( chosen == AllPairsEngine.DIJKSTRA )
+        {
+            new SparseAllPairs( graph, threads ).run( blockCosts, blockPredecessors, startCost );
+        }
+        else
+        {
+            for ( int i = 0; i < size; ++i )
+            {
+                blockCosts[i * size + i] = startCost;
+            }
+            // Put the relationships in there, keeping the cheapest of
+            // parallel ones like Dijkstra does
+            int[] offsets = graph.offsets();
+            int[] targets = graph.targets();
+            double[] edgeCosts = graph.costs();
+            for ( int u = 0; u < size; u++ )
+            {
+                for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+                {
+                    int index = u * size + targets[e];
+                    if ( edgeCosts[e] < blockCosts[index] )
+                    {
+                        blockCosts[index] = edgeCosts[e];
+                        if ( blockPredecessors != null )
+                        {
+                            blockPredecessors[index] = u;
+                        }
+                    }
+                }
+            }
+            // Do it!
+            new BlockedFloydWarshall( size, tileSize, threads ).run(
+                    new Relaxation( blockCosts, blockPredecessors, size, inf ) );
+        }
+        System.arraycopy( blockCosts, 0, costs, start, blockCosts.length );
+        if ( predecessors != null )
+        {
+            System.arraycopy( blockPredecessors, 0, predecessors, start, blockPredecessors.length );
+        }
+    }
+
+    /**
+     * The components too small to be worth splitting over threads, computed
+     * side by side instead, one thread each.
+     */
+    @SuppressWarnings( "serial" )
+    private final class SmallComponents extends RecursiveAction
+    {
+        private final Components components;
+        private final int[] small;
+        private final double[] costs;
+        private final int[] predecessors;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        SmallComponents( Components components, int[] small, double[] costs, int[] predecessors, int from,
+                int to, int grain )
+        {
+            this.components = components;
+            this.small = small;
+            this.costs = costs;
+            this.predecessors = predecessors;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( to - from > grain )
+            {
+                int mid = ( from + to ) >>> 1;
+                invokeAll( new SmallComponents( components, small, costs, predecessors, from, mid, grain ),
+                        new SmallComponents( components, small, costs, predecessors, mid, to, grain ) );
+                return;
+            }
+            for ( int i = from; i < to; i++ )
+            {
+                int component = small[i];
+                if ( components.size( component ) == 1 )
+                {
+                    // A lone node only reaches itself
+                    int start = (int) components.blockStart( component );
+                    costs[start] = startCost;
+                    if ( predecessors != null )
+                    {
+                        predecessors[start] = NO_PREDECESSOR;
+                    }
+                }
+                else
+                {
+                    computeComponent( components, component, costs, predecessors, 1 );
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings a computed matrix up to date with a committed transaction
+     * without recomputing it. Rows whose shortest paths used a relationship
+     * that got more expensive or was deleted are recomputed with Dijkstra,
+     * then every relationship that got cheaper or was created is relaxed
+     * into the whole matrix in O(n^2).
+     *
+     * @param defaultCost
+     *            The cost of relationships without a cost, or null if the
+     *            cost is required.
+     * @return false if the matrix could not be updated and must be
+     *         recalculated, e.g. because nodes were created or deleted or
+     *         too many rows are affected.
+     */
+    public boolean update( GraphChanges changes, Double defaultCost )
+    {
+        if ( !doneCalculation || matrix == null )
+        {
+            return false;
+        }
+        GraphSnapshot updated = snapshot.apply( changes, defaultCost );
+        if ( updated == null )
+        {
+            return false;
+        }
+        final double inf = infinitelyBad;
+        // The node pairs joined by a touched relationship, with the cost of
+        // the cheapest relationship between them before and after
+        int[] pairs = new int[16];
+        int pairCount = 0;
+        for ( GraphSnapshot graph : new GraphSnapshot[] { snapshot, updated } )
+        {
+            int[] offsets = graph.offsets();
+            int[] targets = graph.targets();
+            for ( int u = 0; u < n; u++ )
+            {
+                for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+                {
+                    if ( changes.touches( graph.relationshipId( e ) ) )
+                    {
+                        if ( pairCount * 2 == pairs.length )
+                        {
+                            pairs = Arrays.copyOf( pairs, pairs.length * 2 );
+                        }
+                        pairs[pairCount * 2] = u;
+                        pairs[pairCount * 2 + 1] = targets[e];
+                        pairCount++;
+                    }
+                }
+            }
+        }
+        Components components = matrix.components();
+        for ( int p = 0; p < pairCount; p++ )
+        {
+            if ( components.component( pairs[p * 2] ) != components.component( pairs[p * 2 + 1] ) )
+            {
+                // Joins two components, the paths across have no cells
+                return false;
+            }
+        }
+        double[] before = new double[pairCount];
+        double[] after = new double[pairCount];
+        boolean[] affected = new boolean[n];
+        int affectedCount = 0;
+        for ( int p = 0; p < pairCount; p++ )
+        {
+            int u = pairs[p * 2];
+            int v = pairs[p * 2 + 1];
+            int component = components.component( u );
+            before[p] = cheapest( snapshot, u, v, inf );
+            after[p] = cheapest( updated, u, v, inf );
+            if ( after[p] <= before[p] || before[p] == inf )
+            {
+                continue;
+            }
+            // The edge got worse: rows with a shortest path through it
+            for ( int k = 0; k < components.size( component ); k++ )
+            {
+                int i = components.member( component, k );
+                double iu = matrix.cost( i, u );
+                if ( !affected[i] && iu != inf && isTight( iu + before[p], matrix.cost( i, v ) ) )
+                {
+                    affected[i] = true;
+                    affectedCount++;
+                }
+            }
+        }
+        if ( affectedCount * 2 > n )
+        {
+            return false;
+        }
+        for ( int p = 0; p < pairCount; p++ )
+        {
+            int u = pairs[p * 2];
+            int v = pairs[p * 2 + 1];
+            if ( after[p] < before[p] && matrix.cost( v, u ) != inf
+                    && matrix.cost( v, u ) + after[p] < startCost )
+            {
+                // A negative cycle, let the full calculation report it
+                return false;
+            }
+        }
+        if ( mapped && !markStale() )
+        {
+            return false;
+        }
+        if ( affectedCount > 0 )
+        {
+            int[] rows = new int[affectedCount];
+            for ( int i = 0, r = 0; i < n; i++ )
+            {
+                if ( affected[i] )
+                {
+                    rows[r++] = i;
+                }
+            }
+            try
+            {
+                new SparseAllPairs( updated, threads ).run( rows, matrix, startCost, inf );
+            }
+            catch ( IllegalStateException e )
+            {
+                return false;
+            }
+        }
+        double[] vCosts = new double[n];
+        int[] vPredecessors = matrix.hasPredecessors() ? new int[n] : null;
+        for ( int p = 0; p < pairCount; p++ )
+        {
+            if ( after[p] < before[p] )
+            {
+                relax( pairs[p * 2], pairs[p * 2 + 1], after[p], inf, vCosts, vPredecessors );
+            }
+        }
+        snapshot = updated;
+        if ( mapped )
+        {
+            try
+            {
+                matrixFile.markCurrent( snapshot, matrix );
+            }
+            catch ( IOException e )
+            {
+                // Left stale, the next calculation rewrites it
+            }
+        }
+        return true;
+    }
+
+    private boolean markStale()
+    {
+        try
+        {
+            matrixFile.markStale();
+            return true;
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Relaxes every pair through a new or cheaper edge u -> v:
+     * d(i, j) = min(d(i, j), d(i, u) + cost + d(v, j)). Only the pairs of
+     * the component of the edge can change.
+     */
+    private void relax( int u, int v, double cost, double inf, double[] vCosts, int[] vPredecessors )
+    {
+        Components components = matrix.components();
+        int component = components.component( u );
+        int size = components.size( component );
+        matrix.costRow( v, vCosts );
+        if ( vPredecessors != null )
+        {
+            for ( int k = 0; k < size; k++ )
+            {
+                int j = components.member( component, k );
+                vPredecessors[j] = matrix.predecessor( v, j );
+            }
+        }
+        for ( int l = 0; l < size; l++ )
+        {
+            int i = components.member( component, l );
+            double iu = matrix.cost( i, u );
+            if ( iu == inf || i == v )
+            {
+                continue;
+            }
+            double through = iu + cost;
+            for ( int k = 0; k < size; k++ )
+            {
+                int j = components.member( component, k );
+                if ( vCosts[j] != inf && through + vCosts[j] < matrix.cost( i, j ) )
+                {
+                    matrix.setCost( i, j, through + vCosts[j] );
+                    if ( vPredecessors != null )
+                    {
+                        matrix.setPredecessor( i, j, j == v ? u : vPredecessors[j] );
+                    }
+                }
+            }
+        }
+    }
+
+    private static double cheapest( GraphSnapshot graph, int u, int v, double inf )
+    {
+        int[] offsets = graph.offsets();
+        int[] targets = graph.targets();
+        double[] edgeCosts = graph.costs();
+        double result = inf;
+        for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+        {
+            if ( targets[e] == v && edgeCosts[e] < result )
+            {
+                result = edgeCosts[e];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether an edge lies on a shortest path, allowing for rounding in the
+     * sums that produced the matrix.
+     */
+    private static boolean isTight( double through, double cost )
+    {
+        return through <= cost + 1e-9 * Math.max( 1.0, Math.abs( cost ) );
+    }
+
+    /**
+     * Persists the matrix to a file and reuses it on later calculations
+     * while it matches the graph.
+     */
+    public void setMatrixFile( MatrixFile matrixFile )
+    {
+        this.matrixFile = matrixFile;
+    }
+
+    /**
+     * Sets the algorithm used by {@link #calculate()}, or null to plan it
+     * from the density of the graph.
+     */
+    public void setEngine( AllPairsEngine engine )
+    {
+        this.engine = engine;
+    }
+
+    /**
+     * Sets the tile size and number of threads used by {@link #calculate()}.
+     * @see BlockedFloydWarshall
+     */
+    public void setTiling( int tileSize, int threads )
+    {
+        this.tileSize = tileSize;
+        this.threads = threads;
+    }
+
+    private static final class Relaxation implements BlockedFloydWarshall.Relaxation
+    {
+        private final double[] d;
+        private final int[] p;
+        private final int n;
+        private final double inf;
+
+        Relaxation( double[] costs, int[] predecessors, int n, double inf )
+        {
+            this.d = costs;
+            this.p = predecessors;
+            this.n = n;
+            this.inf = inf;
+        }
+
+        @Override
+        public void relax( int k0, int k1, int i0, int i1, int j0, int j1 )
+        {
+            if ( p == null )
+            {
+                relaxCosts( d, k0, k1, i0, i1, j0, j1 );
+                return;
+            }
+            for ( int v = k0; v < k1; ++v )
+            {
+                final int vRow = v * n;
+                for ( int i = i0; i < i1; ++i )
+                {
+                    final int iRow = i * n;
+                    final double iv = d[iRow + v];
+                    if ( iv == inf )
+                    {
+                        // Nothing can be reached through v from here
+                        continue;
+                    }
+                    for ( int j = j0; j < j1; ++j )
+                    {
+                        final double alternative = iv + d[vRow + j];
+                        if ( alternative < d[iRow + j] )
+                        {
+                            d[iRow + j] = alternative;
+                            p[iRow + j] = p[vRow + j];
+                        }
+                    }
+                }
+            }
+        }
+
+        private void relaxCosts( double[] d, int k0, int k1, int i0, int i1, int j0, int j1 )
+        {
+            for ( int v = k0; v < k1; ++v )
+            {
+                final int vRow = v * n;
+                for ( int i = i0; i < i1; ++i )
+                {
+                    final int iRow = i * n;
+                    final double iv = d[iRow + v];
+                    if ( iv == inf )
+                    {
+                        continue;
+                    }
+                    for ( int j = j0; j < j1; ++j )
+                    {
+                        final double alternative = iv + d[vRow + j];
+                        if ( alternative < d[iRow + j] )
+                        {
+                            d[iRow + j] = alternative;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of nodes in the matrix.
+     */
+    public int size()
+    {
+        calculate();
+        return n;
+    }
+
+    /**
+     * @return the snapshot the matrix was computed from.
+     */
+    public GraphSnapshot snapshot()
+    {
+        calculate();
+        return snapshot;
+    }
+
+    /**
+     * @return the matrix index of a node, or -1 if it was not part of the
+     *         calculation.
+     */
+    public int indexOf( Node node )
+    {
+        calculate();
+        return snapshot.indexOf( node );
+    }
+
+    /**
+     * @return the node at a matrix index.
+     */
+    public Node nodeAt( int index )
+    {
+        calculate();
+        return graphDb.getNodeById( snapshot.nodeId( index ) );
+    }
+
+    /**
+     * Primitive counterpart of {@link #getCost(Node, Node)}.
+     */
+    public double cost( int index1, int index2 )
+    {
+        return matrix.cost( index1, index2 );
+    }
+
+    /**
+     * @return the computed matrix.
+     */
+    public DistanceMatrix matrix()
+    {
+        calculate();
+        return matrix;
+    }
+
+    /**
+     * @return the cost of the shortest path, or infinitelyBad if there is
+     *         none or either node is not in the snapshot.
+     */
+    @Override
+    public Double getCost( Node node1, Node node2 )
+    {
+        calculate();
+        int index1 = snapshot.indexOf( node1 );
+        int index2 = snapshot.indexOf( node2 );
+        if ( index1 < 0 || index2 < 0 )
+        {
+            return infinitelyBad;
+        }
+        return matrix.cost( index1, index2 );
+    }
+
+    /**
+     * @return the nodes of the shortest path, or null if there is none or
+     *         either node is not in the snapshot.
+     */
+    @Override
+    public List<Node> getPath( Node startNode, Node targetNode )
+    {
+        setPredecessors( true );
+        calculate();
+        int startIndex = snapshot.indexOf( startNode );
+        int index = snapshot.indexOf( targetNode );
+        if ( startIndex < 0 || index < 0 )
+        {
+            return null;
+        }
+        LinkedList<Node> path = new LinkedList<Node>();
+        while ( index != startIndex )
+        {
+            path.addFirst( nodeAt( index ) );
+            index = matrix.predecessor( startIndex, index );
+            if ( index == NO_PREDECESSOR )
+            {
+                return null;
+            }
+        }
+        path.addFirst( startNode );
+        return path;
+    }
+}
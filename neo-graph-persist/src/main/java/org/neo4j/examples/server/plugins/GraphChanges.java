@@ -0,0 +1,156 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+
+/**
+ * The relationship changes of one transaction that matter to a
+ * {@link GraphSnapshot} with a given cost property. Captured in
+ * {@code beforeCommit}, while the relationships can still be read, and
+ * applied after the commit.
+ */
+final class GraphChanges
+{
+    /**
+     * A relationship as it is after the commit.
+     */
+    static final class RelationshipState
+    {
+        final long id;
+        final long startNodeId;
+        final long endNodeId;
+        final String type;
+        final Object cost;
+
+        RelationshipState( long id, long startNodeId, long endNodeId, String type, Object cost )
+        {
+            this.id = id;
+            this.startNodeId = startNodeId;
+            this.endNodeId = endNodeId;
+            this.type = type;
+            this.cost = cost;
+        }
+    }
+
+    private final boolean nodesChanged;
+    private final PrimitiveLongSet deleted;
+    private final List<RelationshipState> written;
+    private final PrimitiveLongSet touched;
+
+    private GraphChanges( boolean nodesChanged, PrimitiveLongSet deleted, List<RelationshipState> written,
+            PrimitiveLongSet touched )
+    {
+        this.nodesChanged = nodesChanged;
+        this.deleted = deleted;
+        this.written = written;
+        this.touched = touched;
+    }
+
+    /**
+     * @return the changes, or null if the transaction changes nothing that a
+     *         snapshot with this cost property depends on.
+     */
+    public static GraphChanges capture( TransactionData data, String costProperty )
+    {
+        boolean nodesChanged = data.createdNodes().iterator().hasNext()
+                || data.deletedNodes().iterator().hasNext();
+        PrimitiveLongSet deleted = Primitive.longSet();
+        for ( Relationship relationship : data.deletedRelationships() )
+        {
+            deleted.add( relationship.getId() );
+        }
+        Map<Long,Relationship> touched = new LinkedHashMap<Long,Relationship>();
+        for ( Relationship relationship : data.createdRelationships() )
+        {
+            if ( !deleted.contains( relationship.getId() ) )
+            {
+                touched.put( relationship.getId(), relationship );
+            }
+        }
+        for ( PropertyEntry<Relationship> entry : data.assignedRelationshipProperties() )
+        {
+            if ( entry.key().equals( costProperty ) && !deleted.contains( entry.entity().getId() ) )
+            {
+                touched.put( entry.entity().getId(), entry.entity() );
+            }
+        }
+        for ( PropertyEntry<Relationship> entry : data.removedRelationshipProperties() )
+        {
+            if ( entry.key().equals( costProperty ) && !deleted.contains( entry.entity().getId() ) )
+            {
+                touched.put( entry.entity().getId(), entry.entity() );
+            }
+        }
+        if ( !nodesChanged && deleted.isEmpty() && touched.isEmpty() )
+        {
+            return null;
+        }
+        List<RelationshipState> written = new ArrayList<RelationshipState>( touched.size() );
+        PrimitiveLongSet all = Primitive.longSet();
+        all.addAll( deleted.iterator() );
+        for ( Relationship relationship : touched.values() )
+        {
+            all.add( relationship.getId() );
+            written.add( new RelationshipState( relationship.getId(), relationship.getStartNode().getId(),
+                    relationship.getEndNode().getId(), relationship.getType().name(),
+                    relationship.getProperty( costProperty, null ) ) );
+        }
+        return new GraphChanges( nodesChanged, deleted, written, all );
+    }
+
+    /**
+     * @return whether nodes were created or deleted, which changes the node
+     *         indexes of a snapshot.
+     */
+    public boolean nodesChanged()
+    {
+        return nodesChanged;
+    }
+
+    public boolean isDeleted( long relationshipId )
+    {
+        return deleted.contains( relationshipId );
+    }
+
+    /**
+     * @return the created relationships and those whose cost changed.
+     */
+    public List<RelationshipState> written()
+    {
+        return written;
+    }
+
+    /**
+     * @return whether a relationship is deleted, created or has a new cost.
+     */
+    public boolean touches( long relationshipId )
+    {
+        return touched.contains( relationshipId );
+    }
+}
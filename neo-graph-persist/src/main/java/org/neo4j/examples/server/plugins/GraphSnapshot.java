@@ -0,0 +1,602 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.Arrays;
+
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIntMap;
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Immutable compressed-sparse-row copy of the graph. Nodes get dense int
+ * indexes, the edges leaving node u are targets()[offsets()[u]] up to
+ * targets()[offsets()[u + 1]], and costs() holds the cost of every edge in
+ * the same order.
+ *
+ * An edge is a relationship followed in the snapshot direction, so with
+ * {@link Direction#BOTH} every relationship shows up as two edges. A
+ * snapshot may be restricted to some relationship types, in which case
+ * relationships of other types are left out.
+ *
+ * The arrays are shared, not copied; callers must not modify them.
+ */
+final class GraphSnapshot
+{
+    private final Direction direction;
+    private final String[] relationshipTypes;
+    private final long[] nodeIds;
+    private final PrimitiveLongIntMap nodeIndexes;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] costs;
+    private final long[] relationshipIds;
+    private final long transactionId;
+    private volatile GraphSnapshot reverse;
+    private volatile long fingerprint;
+    private volatile boolean fingerprinted;
+
+    private GraphSnapshot( Direction direction, String[] relationshipTypes, long[] nodeIds,
+            PrimitiveLongIntMap nodeIndexes, int[] offsets, int[] targets, double[] costs,
+            long[] relationshipIds, long transactionId )
+    {
+        this.direction = direction;
+        this.relationshipTypes = relationshipTypes;
+        this.nodeIds = nodeIds;
+        this.nodeIndexes = nodeIndexes;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.costs = costs;
+        this.relationshipIds = relationshipIds;
+        this.transactionId = transactionId;
+    }
+
+    /**
+     * Builds a snapshot of the whole graph in a pass over the nodes and one
+     * over the nodes and their outgoing relationships. Must be called inside
+     * a transaction.
+     *
+     * @param costEvaluator
+     *            Evaluates the cost of every relationship in the direction it
+     *            is followed.
+     * @param direction
+     *            The direction in which paths follow relationships.
+     */
+    public static GraphSnapshot build( GraphDatabaseService graphDb,
+            CostEvaluator<Double> costEvaluator, Direction direction )
+    {
+        return build( graphDb, costEvaluator, direction, null );
+    }
+
+    /**
+     * Builds a snapshot of the nodes and the relationships of some types.
+     * Must be called inside a transaction.
+     *
+     * @param relationshipTypes
+     *            The names of the relationship types to keep, or null for
+     *            all of them.
+     */
+    public static GraphSnapshot build( GraphDatabaseService graphDb,
+            CostEvaluator<Double> costEvaluator, Direction direction, String[] relationshipTypes )
+    {
+        // Read before the graph, so later commits can only make the
+        // snapshot newer than it says, never older
+        long transactionId = StoreAccess.lastCommittedTransactionId( graphDb );
+        Builder builder = new Builder( costEvaluator, direction, relationshipTypes );
+        RelationshipType[] types =
+                new RelationshipType[relationshipTypes == null ? 0 : relationshipTypes.length];
+        for ( int i = 0; i < types.length; i++ )
+        {
+            types[i] = DynamicRelationshipType.withName( relationshipTypes[i] );
+        }
+        // Nodes are indexed in store order, so the indexes do not depend on
+        // the order of the relationship chains, which a restart can change;
+        // relationships to nodes not reached yet wait for the end of the pass
+        for ( Node node : GlobalGraphOperations.at( graphDb ).getAllNodes() )
+        {
+            int index = builder.index( node.getId() );
+            Iterable<Relationship> relationships = relationshipTypes == null
+                    ? node.getRelationships( Direction.OUTGOING )
+                    : node.getRelationships( Direction.OUTGOING, types );
+            for ( Relationship relationship : relationships )
+            {
+                builder.add( relationship, index, relationship.getEndNode().getId() );
+            }
+        }
+        return builder.build( transactionId );
+    }
+
+    /**
+     * Builds a snapshot of an explicit node and relationship set, with the
+     * nodes indexed in the order of the set. Relationships with an end
+     * outside the node set are skipped.
+     */
+    public static GraphSnapshot build( Iterable<Node> nodeSet, Iterable<Relationship> relationshipSet,
+            CostEvaluator<Double> costEvaluator, Direction direction )
+    {
+        Builder builder = new Builder( costEvaluator, direction, null );
+        for ( Node node : nodeSet )
+        {
+            builder.index( node.getId() );
+        }
+        for ( Relationship relationship : relationshipSet )
+        {
+            int start = builder.indexOf( relationship.getStartNode().getId() );
+            long end = relationship.getEndNode().getId();
+            if ( start >= 0 && builder.indexOf( end ) >= 0 )
+            {
+                builder.add( relationship, start, end );
+            }
+        }
+        return builder.build( -1 );
+    }
+
+    /**
+     * Derives the snapshot after a transaction, keeping the node indexes of
+     * this one so results indexed by them stay valid.
+     *
+     * @param defaultCost
+     *            The cost of relationships without a cost, or null if the
+     *            cost is required.
+     * @return the new snapshot, or null if it cannot be derived because
+     *         nodes were created or deleted, or a written relationship has no
+     *         usable cost.
+     */
+    public GraphSnapshot apply( GraphChanges changes, Double defaultCost )
+    {
+        if ( changes.nodesChanged() )
+        {
+            return null;
+        }
+        Builder builder = new Builder( null, direction, relationshipTypes, nodeIds, nodeIndexes );
+        for ( int u = 0; u < nodeIds.length; u++ )
+        {
+            for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+            {
+                if ( !changes.touches( relationshipIds[e] ) )
+                {
+                    builder.addEdge( u, targets[e], costs[e], relationshipIds[e] );
+                }
+            }
+        }
+        for ( GraphChanges.RelationshipState relationship : changes.written() )
+        {
+            if ( !keeps( relationship.type ) )
+            {
+                continue;
+            }
+            int start = indexOf( relationship.startNodeId );
+            int end = indexOf( relationship.endNodeId );
+            Object value = relationship.cost;
+            if ( start < 0 || end < 0 || ( value == null && defaultCost == null ) )
+            {
+                return null;
+            }
+            double cost;
+            if ( value == null )
+            {
+                cost = defaultCost;
+            }
+            else if ( value instanceof Number )
+            {
+                cost = ( (Number) value ).doubleValue();
+            }
+            else
+            {
+                try
+                {
+                    cost = Double.parseDouble( value.toString() );
+                }
+                catch ( NumberFormatException e )
+                {
+                    return null;
+                }
+            }
+            builder.add( relationship.id, start, end, cost, cost );
+        }
+        return builder.build( -1 );
+    }
+
+    /**
+     * @return the last transaction committed before the graph was read, or
+     *         -1 if unknown or the snapshot was derived from another one.
+     *         Transactions committing while it was read may show in it too.
+     */
+    public long transactionId()
+    {
+        return transactionId;
+    }
+
+    public Direction direction()
+    {
+        return direction;
+    }
+
+    /**
+     * @return the names of the relationship types in the snapshot, or null
+     *         if it has all of them.
+     */
+    public String[] relationshipTypes()
+    {
+        return relationshipTypes == null ? null : relationshipTypes.clone();
+    }
+
+    private boolean keeps( String relationshipType )
+    {
+        if ( relationshipTypes == null )
+        {
+            return true;
+        }
+        for ( String type : relationshipTypes )
+        {
+            if ( type.equals( relationshipType ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int nodeCount()
+    {
+        return nodeIds.length;
+    }
+
+    public int edgeCount()
+    {
+        return targets.length;
+    }
+
+    public long nodeId( int index )
+    {
+        return nodeIds[index];
+    }
+
+    /**
+     * @return the index of a node id, or -1 if it is not in the snapshot.
+     */
+    public int indexOf( long nodeId )
+    {
+        return nodeIndexes.containsKey( nodeId ) ? nodeIndexes.get( nodeId ) : -1;
+    }
+
+    public int indexOf( Node node )
+    {
+        return indexOf( node.getId() );
+    }
+
+    public int[] offsets()
+    {
+        return offsets;
+    }
+
+    public int[] targets()
+    {
+        return targets;
+    }
+
+    public double[] costs()
+    {
+        return costs;
+    }
+
+    /**
+     * @return the id of the relationship behind an edge.
+     */
+    public long relationshipId( int edge )
+    {
+        return relationshipIds[edge];
+    }
+
+    public boolean hasNegativeCosts()
+    {
+        for ( double cost : costs )
+        {
+            if ( cost < 0 )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a 64 bit hash of the node ids, edges, costs and relationship
+     *         ids, so results computed from an equal snapshot can be
+     *         recognized. The order of the edges of a node does not count,
+     *         as a snapshot derived by {@link #apply} lists them differently
+     *         than one read from the store.
+     */
+    public long fingerprint()
+    {
+        if ( !fingerprinted )
+        {
+            long hash = nodeIds.length;
+            for ( int u = 0; u < nodeIds.length; u++ )
+            {
+                hash = mix( hash, nodeIds[u] );
+                hash = mix( hash, offsets[u + 1] - offsets[u] );
+                long edges = 0;
+                for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+                {
+                    edges += mix( mix( mix( targets[e], Double.doubleToLongBits( costs[e] ) ),
+                            relationshipIds[e] ), 0 );
+                }
+                hash = mix( hash, edges );
+            }
+            fingerprint = hash;
+            fingerprinted = true;
+        }
+        return fingerprint;
+    }
+
+    private static long mix( long hash, long value )
+    {
+        hash = ( hash ^ value ) * 0x9E3779B97F4A7C15L;
+        return hash ^ ( hash >>> 31 );
+    }
+
+    /**
+     * @return the same graph with every edge turned around, sharing the node
+     *         indexes of this snapshot. Built on first use.
+     */
+    public GraphSnapshot reverse()
+    {
+        GraphSnapshot result = reverse;
+        if ( result == null )
+        {
+            int n = nodeCount();
+            int m = edgeCount();
+            int[] from = new int[m];
+            for ( int u = 0; u < n; u++ )
+            {
+                for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+                {
+                    from[e] = u;
+                }
+            }
+            int[] reverseOffsets = new int[n + 1];
+            int[] reverseTargets = new int[m];
+            double[] reverseCosts = new double[m];
+            long[] reverseRelationshipIds = new long[m];
+            pack( n, m, targets, from, costs, relationshipIds, reverseOffsets, reverseTargets,
+                    reverseCosts, reverseRelationshipIds );
+            result = new GraphSnapshot( direction.reverse(), relationshipTypes, nodeIds, nodeIndexes,
+                    reverseOffsets, reverseTargets, reverseCosts, reverseRelationshipIds, transactionId );
+            result.reverse = this;
+            reverse = result;
+        }
+        return result;
+    }
+
+    /**
+     * @param members
+     *            Node indexes in ascending order, closed under the edges:
+     *            every edge leaving a member must lead to a member, as with
+     *            the nodes of a {@link Components component}.
+     * @return the snapshot of just those nodes, indexed by their position in
+     *         members.
+     */
+    public GraphSnapshot subgraph( int[] members )
+    {
+        int size = members.length;
+        long[] subNodeIds = new long[size];
+        PrimitiveLongIntMap subNodeIndexes = Primitive.longIntMap( size );
+        int[] subOffsets = new int[size + 1];
+        for ( int i = 0; i < size; i++ )
+        {
+            subNodeIds[i] = nodeIds[members[i]];
+            subNodeIndexes.put( subNodeIds[i], i );
+            subOffsets[i + 1] = subOffsets[i] + offsets[members[i] + 1] - offsets[members[i]];
+        }
+        int m = subOffsets[size];
+        int[] subTargets = new int[m];
+        double[] subCosts = new double[m];
+        long[] subRelationshipIds = new long[m];
+        for ( int i = 0; i < size; i++ )
+        {
+            int u = members[i];
+            for ( int e = offsets[u], f = subOffsets[i]; e < offsets[u + 1]; e++, f++ )
+            {
+                int target = Arrays.binarySearch( members, targets[e] );
+                if ( target < 0 )
+                {
+                    throw new IllegalArgumentException( "Edge " + relationshipIds[e] + " leaves the subgraph" );
+                }
+                subTargets[f] = target;
+                subCosts[f] = costs[e];
+                subRelationshipIds[f] = relationshipIds[e];
+            }
+        }
+        return new GraphSnapshot( direction, relationshipTypes, subNodeIds, subNodeIndexes, subOffsets,
+                subTargets, subCosts, subRelationshipIds, -1 );
+    }
+
+    /**
+     * Counting sort of an edge list into CSR arrays.
+     */
+    private static void pack( int n, int m, int[] from, int[] to, double[] cost, long[] relationship,
+            int[] offsets, int[] targets, double[] costs, long[] relationshipIds )
+    {
+        for ( int e = 0; e < m; e++ )
+        {
+            offsets[from[e] + 1]++;
+        }
+        for ( int u = 0; u < n; u++ )
+        {
+            offsets[u + 1] += offsets[u];
+        }
+        int[] fill = Arrays.copyOf( offsets, n );
+        for ( int e = 0; e < m; e++ )
+        {
+            int slot = fill[from[e]]++;
+            targets[slot] = to[e];
+            costs[slot] = cost[e];
+            relationshipIds[slot] = relationship[e];
+        }
+    }
+
+    private static final class Builder
+    {
+        private final CostEvaluator<Double> costEvaluator;
+        private final Direction direction;
+        private final String[] relationshipTypes;
+        private final boolean outgoing;
+        private final boolean incoming;
+        private final PrimitiveLongIntMap nodeIndexes;
+        private long[] nodeIds;
+        private int nodeCount;
+        private int[] from = new int[16];
+        private int[] to = new int[16];
+        private double[] cost = new double[16];
+        private long[] relationship = new long[16];
+        private int edgeCount;
+        // Relationships to nodes that had no index yet when they were read
+        private long[] heldIds = new long[16];
+        private int[] heldStarts = new int[16];
+        private long[] heldEnds = new long[16];
+        private double[] heldCosts = new double[32]; // outgoing, incoming
+        private int heldCount;
+
+        Builder( CostEvaluator<Double> costEvaluator, Direction direction, String[] relationshipTypes )
+        {
+            this( costEvaluator, direction, relationshipTypes, new long[16], Primitive.longIntMap() );
+            nodeCount = 0;
+        }
+
+        /**
+         * Starts from a fixed set of nodes, whose map must not be changed.
+         */
+        Builder( CostEvaluator<Double> costEvaluator, Direction direction, String[] relationshipTypes,
+                long[] nodeIds, PrimitiveLongIntMap nodeIndexes )
+        {
+            this.costEvaluator = costEvaluator;
+            this.direction = direction;
+            this.relationshipTypes = relationshipTypes;
+            this.outgoing = direction != Direction.INCOMING;
+            this.incoming = direction != Direction.OUTGOING;
+            this.nodeIds = nodeIds;
+            this.nodeIndexes = nodeIndexes;
+            this.nodeCount = nodeIds.length;
+        }
+
+        int indexOf( long nodeId )
+        {
+            return nodeIndexes.containsKey( nodeId ) ? nodeIndexes.get( nodeId ) : -1;
+        }
+
+        int index( long nodeId )
+        {
+            int index = indexOf( nodeId );
+            if ( index < 0 )
+            {
+                if ( nodeCount == nodeIds.length )
+                {
+                    nodeIds = Arrays.copyOf( nodeIds, nodeCount * 2 );
+                }
+                index = nodeCount++;
+                nodeIds[index] = nodeId;
+                nodeIndexes.put( nodeId, index );
+            }
+            return index;
+        }
+
+        /**
+         * Adds a relationship whose end node may not have an index yet; if
+         * it has none, the relationship is held back until {@link #build}.
+         */
+        void add( Relationship rel, int start, long endNodeId )
+        {
+            double outgoingCost = outgoing ? costEvaluator.getCost( rel, Direction.OUTGOING ) : 0;
+            double incomingCost = incoming ? costEvaluator.getCost( rel, Direction.INCOMING ) : 0;
+            int end = indexOf( endNodeId );
+            if ( end >= 0 )
+            {
+                add( rel.getId(), start, end, outgoingCost, incomingCost );
+                return;
+            }
+            if ( heldCount == heldIds.length )
+            {
+                heldIds = Arrays.copyOf( heldIds, heldCount * 2 );
+                heldStarts = Arrays.copyOf( heldStarts, heldCount * 2 );
+                heldEnds = Arrays.copyOf( heldEnds, heldCount * 2 );
+                heldCosts = Arrays.copyOf( heldCosts, heldCount * 4 );
+            }
+            heldIds[heldCount] = rel.getId();
+            heldStarts[heldCount] = start;
+            heldEnds[heldCount] = endNodeId;
+            heldCosts[2 * heldCount] = outgoingCost;
+            heldCosts[2 * heldCount + 1] = incomingCost;
+            heldCount++;
+        }
+
+        void add( long relationshipId, int start, int end, double outgoingCost, double incomingCost )
+        {
+            if ( outgoing )
+            {
+                addEdge( start, end, outgoingCost, relationshipId );
+            }
+            if ( incoming )
+            {
+                addEdge( end, start, incomingCost, relationshipId );
+            }
+        }
+
+        private void addEdge( int start, int end, double edgeCost, long relationshipId )
+        {
+            if ( edgeCount == from.length )
+            {
+                from = Arrays.copyOf( from, edgeCount * 2 );
+                to = Arrays.copyOf( to, edgeCount * 2 );
+                cost = Arrays.copyOf( cost, edgeCount * 2 );
+                relationship = Arrays.copyOf( relationship, edgeCount * 2 );
+            }
+            from[edgeCount] = start;
+            to[edgeCount] = end;
+            cost[edgeCount] = edgeCost;
+            relationship[edgeCount] = relationshipId;
+            edgeCount++;
+        }
+
+        GraphSnapshot build( long transactionId )
+        {
+            for ( int i = 0; i < heldCount; i++ )
+            {
+                add( heldIds[i], heldStarts[i], index( heldEnds[i] ), heldCosts[2 * i], heldCosts[2 * i + 1] );
+            }
+            heldCount = 0;
+            int[] offsets = new int[nodeCount + 1];
+            int[] targets = new int[edgeCount];
+            double[] costs = new double[edgeCount];
+            long[] relationshipIds = new long[edgeCount];
+            pack( nodeCount, edgeCount, from, to, cost, relationship, offsets, targets, costs,
+                    relationshipIds );
+            return new GraphSnapshot( direction, relationshipTypes,
+                    nodeIds.length == nodeCount ? nodeIds : Arrays.copyOf( nodeIds, nodeCount ),
+                    nodeIndexes, offsets, targets, costs, relationshipIds, transactionId );
+        }
+    }
+}
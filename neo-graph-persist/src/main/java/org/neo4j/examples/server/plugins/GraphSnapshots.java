@@ -0,0 +1,424 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+/**
+ * The {@link GraphSnapshot}s of one database, shared by all plugins so the
+ * graph is loaded once rather than once per algorithm. Snapshots are dropped
+ * when a committed transaction changes nodes, relationships or relationship
+ * properties.
+ */
+final class GraphSnapshots
+{
+    private static final Map<GraphDatabaseService,GraphSnapshots> databases =
+            new IdentityHashMap<GraphDatabaseService,GraphSnapshots>();
+
+    private final Map<Key,GraphSnapshot> snapshots = new HashMap<Key,GraphSnapshot>();
+    private final Map<Key,Build> building = new HashMap<Key,Build>();
+    private final AtomicLong version = new AtomicLong();
+
+    private GraphSnapshots()
+    {
+    }
+
+    public static GraphSnapshots at( GraphDatabaseService graphDb )
+    {
+        synchronized ( databases )
+        {
+            GraphSnapshots result = databases.get( graphDb );
+            if ( result == null )
+            {
+                result = new GraphSnapshots();
+                graphDb.registerTransactionEventHandler( result.new Invalidator() );
+                graphDb.registerKernelEventHandler( new Unregister( graphDb ) );
+                databases.put( graphDb, result );
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns the snapshot for a cost property and direction, building it if
+     * needed. Must be called inside a transaction.
+     *
+     * @param costProperty
+     *            The relationship property holding the cost.
+     * @param defaultCost
+     *            The cost of relationships without the property, or null if
+     *            the property is required.
+     */
+    public GraphSnapshot get( GraphDatabaseService graphDb, String costProperty, Double defaultCost,
+            Direction direction )
+    {
+        return get( graphDb, costProperty, defaultCost, direction, null );
+    }
+
+    /**
+     * Returns the snapshot restricted to some relationship types, building
+     * it if needed. Must be called inside a transaction.
+     *
+     * @param relationshipTypes
+     *            The names of the relationship types to keep, in any order,
+     *            or null for all of them.
+     */
+    public GraphSnapshot get( GraphDatabaseService graphDb, String costProperty, Double defaultCost,
+            Direction direction, String[] relationshipTypes )
+    {
+        return get( graphDb, new Key( costProperty, defaultCost, direction, relationshipTypes ) );
+    }
+
+    /**
+     * Returns the snapshot for a key, building it if needed. Must be called
+     * inside a transaction.
+     *
+     * The build runs in the calling thread, outside the lock, so builds for
+     * other keys and the commits that drop snapshots do not wait for it.
+     * Callers asking for a key that is being built wait for that build
+     * instead of starting their own, and build again if a commit came in
+     * while it ran.
+     */
+    public GraphSnapshot get( final GraphDatabaseService graphDb, final Key key )
+    {
+        while ( true )
+        {
+            Build build;
+            boolean mine = false;
+            synchronized ( snapshots )
+            {
+                GraphSnapshot snapshot = snapshots.get( key );
+                if ( snapshot != null )
+                {
+                    return snapshot;
+                }
+                build = building.get( key );
+                if ( build == null )
+                {
+                    build = new Build( graphDb, key, version.get() );
+                    building.put( key, build );
+                    mine = true;
+                }
+            }
+            if ( mine )
+            {
+                // Failures are caught by the task and rethrown by snapshot()
+                build.run();
+                synchronized ( snapshots )
+                {
+                    if ( building.get( key ) == build )
+                    {
+                        building.remove( key );
+                        if ( build.version == version.get() && !build.failed() )
+                        {
+                            snapshots.put( key, build.snapshot() );
+                        }
+                    }
+                }
+                // Built in this transaction, so good for it even if stale
+                return build.snapshot();
+            }
+            GraphSnapshot snapshot = build.snapshot();
+            if ( build.version == version.get() )
+            {
+                return snapshot;
+            }
+        }
+    }
+
+    /**
+     * @return a counter that is bumped by every committed change to the
+     *         graph.
+     */
+    public long version()
+    {
+        return version.get();
+    }
+
+    private void invalidate()
+    {
+        synchronized ( snapshots )
+        {
+            version.incrementAndGet();
+            snapshots.clear();
+            building.clear();
+        }
+    }
+
+    /**
+     * A snapshot being built, with the version of the graph it started at.
+     */
+    private static final class Build extends FutureTask<GraphSnapshot>
+    {
+        final long version;
+
+        Build( final GraphDatabaseService graphDb, final Key key, long version )
+        {
+            super( new Callable<GraphSnapshot>()
+            {
+                @Override
+                public GraphSnapshot call()
+                {
+                    CostEvaluator<Double> costEvaluator = key.defaultCost == null
+                            ? CommonEvaluators.doubleCostEvaluator( key.costProperty )
+                            : CommonEvaluators.doubleCostEvaluator( key.costProperty, key.defaultCost );
+                    return GraphSnapshot.build( graphDb, costEvaluator, key.direction, key.relationshipTypes );
+                }
+            } );
+            this.version = version;
+        }
+
+        private volatile boolean failed;
+
+        @Override
+        protected void setException( Throwable failure )
+        {
+            failed = true;
+            super.setException( failure );
+        }
+
+        boolean failed()
+        {
+            return failed;
+        }
+
+        /**
+         * Waits for the build and rethrows what it failed with.
+         */
+        GraphSnapshot snapshot()
+        {
+            boolean interrupted = false;
+            try
+            {
+                while ( true )
+                {
+                    try
+                    {
+                        return get();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            catch ( ExecutionException e )
+            {
+                Throwable cause = e.getCause();
+                if ( cause instanceof RuntimeException )
+                {
+                    throw (RuntimeException) cause;
+                }
+                if ( cause instanceof Error )
+                {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException( cause );
+            }
+            finally
+            {
+                if ( interrupted )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    static boolean changesGraph( TransactionData data )
+    {
+        return data.createdNodes().iterator().hasNext()
+                || data.deletedNodes().iterator().hasNext()
+                || data.createdRelationships().iterator().hasNext()
+                || data.deletedRelationships().iterator().hasNext()
+                || data.assignedRelationshipProperties().iterator().hasNext()
+                || data.removedRelationshipProperties().iterator().hasNext();
+    }
+
+    private final class Invalidator extends TransactionEventHandler.Adapter<Object>
+    {
+        @Override
+        public void afterCommit( TransactionData data, Object state )
+        {
+            if ( changesGraph( data ) )
+            {
+                invalidate();
+            }
+        }
+    }
+
+    /**
+     * Forgets a database when it shuts down. Databases are tracked by
+     * identity, since a restarted database on the same store compares equal
+     * to the old one.
+     */
+    private static final class Unregister implements KernelEventHandler
+    {
+        private final GraphDatabaseService graphDb;
+
+        Unregister( GraphDatabaseService graphDb )
+        {
+            this.graphDb = graphDb;
+        }
+
+        @Override
+        public void beforeShutdown()
+        {
+            synchronized ( databases )
+            {
+                databases.remove( graphDb );
+            }
+        }
+
+        @Override
+        public void kernelPanic( ErrorState error )
+        {
+        }
+
+        @Override
+        public Object getResource()
+        {
+            return null;
+        }
+
+        @Override
+        public ExecutionOrder orderComparedTo( KernelEventHandler other )
+        {
+            return ExecutionOrder.DOESNT_MATTER;
+        }
+    }
+
+    /**
+     * What a snapshot is built from: the cost property, the cost of
+     * relationships without it, the direction and the relationship types.
+     */
+    static final class Key
+    {
+        private final String costProperty;
+        private final Double defaultCost;
+        private final Direction direction;
+        private final String[] relationshipTypes; // sorted and distinct, or null for all
+
+        /**
+         * @param defaultCost
+         *            The cost of relationships without the property, or null
+         *            if the property is required.
+         * @param relationshipTypes
+         *            The names of the relationship types to keep, in any
+         *            order, or null for all of them.
+         */
+        Key( String costProperty, Double defaultCost, Direction direction, String[] relationshipTypes )
+        {
+            this.costProperty = costProperty;
+            this.defaultCost = defaultCost;
+            this.direction = direction;
+            this.relationshipTypes = relationshipTypes == null ? null : distinct( relationshipTypes );
+        }
+
+        public String costProperty()
+        {
+            return costProperty;
+        }
+
+        public Double defaultCost()
+        {
+            return defaultCost;
+        }
+
+        public Direction direction()
+        {
+            return direction;
+        }
+
+        /**
+         * @return a name for files holding results of this key, made of the
+         *         cost property, the direction and a hash of the relationship
+         *         types, if any.
+         */
+        public String fileName()
+        {
+            String name = costProperty + "." + direction.name().toLowerCase();
+            if ( relationshipTypes != null )
+            {
+                name += "." + Integer.toHexString( Arrays.hashCode( relationshipTypes ) );
+            }
+            return name.replaceAll( "[^A-Za-z0-9_.-]", "_" );
+        }
+
+        private static String[] distinct( String[] names )
+        {
+            String[] sorted = names.clone();
+            Arrays.sort( sorted );
+            int count = 0;
+            for ( int i = 0; i < sorted.length; i++ )
+            {
+                if ( i == 0 || !sorted[i].equals( sorted[count - 1] ) )
+                {
+                    sorted[count++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf( sorted, count );
+        }
+
+        @Override
+        public boolean equals( Object other )
+        {
+            if ( !( other instanceof Key ) )
+            {
+                return false;
+            }
+            Key that = (Key) other;
+            return costProperty.equals( that.costProperty )
+                    && ( defaultCost == null ? that.defaultCost == null : defaultCost.equals( that.defaultCost ) )
+                    && direction == that.direction
+                    && Arrays.equals( relationshipTypes, that.relationshipTypes );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = costProperty.hashCode();
+            result = 31 * result + ( defaultCost == null ? 0 : defaultCost.hashCode() );
+            result = 31 * result + direction.hashCode();
+            return 31 * result + Arrays.hashCode( relationshipTypes );
+        }
+
+        @Override
+        public String toString()
+        {
+            return costProperty + "/" + defaultCost + "/" + direction + "/" + Arrays.toString( relationshipTypes );
+        }
+    }
+}
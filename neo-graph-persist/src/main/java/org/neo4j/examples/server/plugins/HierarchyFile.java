@@ -0,0 +1,295 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.impl.store.StoreId;
+
+/**
+ * A {@link ContractionHierarchy} persisted next to the store directory and
+ * queried straight from the mapped file, off the heap. Like a
+ * {@link MatrixFile} the file is only reused when it was written for the
+ * same store and a snapshot with the same
+ * {@link GraphSnapshot#fingerprint() fingerprint}.
+ *
+ * Layout: a 64 byte header, then the sections of
+ * {@link ContractionHierarchy#sections()} one after the other, each padded
+ * to a multiple of 8 bytes, in native byte order.
+ */
+final class HierarchyFile
+{
+    private static final long MAGIC = 0x4348494552415231L; // "CHIERAR1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int BUFFER_SIZE = 1 << 20;
+    // The sections holding 8 byte values, the others hold ints
+    private static final int COSTS = 6;
+    private static final int RELATIONSHIP_IDS = 9;
+
+    private final File file;
+    private final long storeRandomId;
+    private final long storeCreationTime;
+
+    HierarchyFile( File file, long storeRandomId, long storeCreationTime )
+    {
+        this.file = file;
+        this.storeRandomId = storeRandomId;
+        this.storeCreationTime = storeCreationTime;
+    }
+
+    /**
+     * @param name
+     *            Tells hierarchies of the same store apart, e.g. by cost
+     *            property and direction.
+     * @return the hierarchy file of a database, or null if the database
+     *         does not expose its store.
+     */
+    public static HierarchyFile forStore( GraphDatabaseService graphDb, String name )
+    {
+        File file = StoreAccess.file( graphDb, "." + name + ".ch" );
+        if ( file == null )
+        {
+            return null;
+        }
+        StoreId storeId = StoreAccess.storeId( graphDb );
+        return new HierarchyFile( file, storeId.getRandomId(), storeId.getCreationTime() );
+    }
+
+    public File file()
+    {
+        return file;
+    }
+
+    /**
+     * Maps the hierarchy if the file matches the store and the snapshot.
+     * The mapping outlives the file being replaced or deleted.
+     *
+     * @return the hierarchy, or null if the file is missing or stale.
+     */
+    public ContractionHierarchy open( GraphSnapshot snapshot ) throws IOException
+    {
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "r" );
+              FileChannel channel = raf.getChannel() )
+        {
+            ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+            if ( channel.read( header, 0 ) < HEADER_SIZE )
+            {
+                return null;
+            }
+            header.flip();
+            if ( header.getLong() != MAGIC || header.getInt() != FORMAT_VERSION
+                    || header.getInt() != orderFlag()
+                    || header.getLong() != storeRandomId || header.getLong() != storeCreationTime )
+            {
+                return null;
+            }
+            header.getLong(); // transaction id, see MatrixFile
+            long fingerprint = header.getLong();
+            int n = header.getInt();
+            int edgeCount = header.getInt();
+            int upCount = header.getInt();
+            int downCount = header.getInt();
+            if ( n != snapshot.nodeCount() || edgeCount < 0 || upCount < 0 || downCount < 0
+                    || (long) upCount + downCount != edgeCount )
+            {
+                return null;
+            }
+            if ( fingerprint != snapshot.fingerprint() )
+            {
+                return null;
+            }
+            long[] lengths = lengths( n, edgeCount, upCount, downCount );
+            long size = HEADER_SIZE;
+            for ( long length : lengths )
+            {
+                if ( length > Integer.MAX_VALUE )
+                {
+                    return null;
+                }
+                size += padded( length );
+            }
+            if ( channel.size() < size )
+            {
+                return null;
+            }
+            Buffer[] sections = new Buffer[lengths.length];
+            long position = HEADER_SIZE;
+            for ( int i = 0; i < sections.length; i++ )
+            {
+                ByteBuffer bytes = channel.map( MapMode.READ_ONLY, position, lengths[i] )
+                        .order( ByteOrder.nativeOrder() );
+                sections[i] = i == COSTS ? bytes.asDoubleBuffer()
+                        : i == RELATIONSHIP_IDS ? bytes.asLongBuffer() : bytes.asIntBuffer();
+                position += padded( lengths[i] );
+            }
+            if ( !offsetsEnd( (IntBuffer) sections[0], upCount )
+                    || !offsetsEnd( (IntBuffer) sections[2], downCount ) )
+            {
+                return null;
+            }
+            return new ContractionHierarchy( snapshot, (IntBuffer) sections[0], (IntBuffer) sections[1],
+                    (IntBuffer) sections[2], (IntBuffer) sections[3], (IntBuffer) sections[4],
+                    (IntBuffer) sections[5], (DoubleBuffer) sections[COSTS], (IntBuffer) sections[7],
+                    (IntBuffer) sections[8], (LongBuffer) sections[RELATIONSHIP_IDS] );
+        }
+    }
+
+    /**
+     * Writes the hierarchy through a temporary file that replaces the old
+     * one atomically.
+     */
+    public void write( ContractionHierarchy hierarchy ) throws IOException
+    {
+        GraphSnapshot snapshot = hierarchy.snapshot();
+        Buffer[] sections = hierarchy.sections();
+        for ( int i = 0; i < sections.length; i++ )
+        {
+            if ( (long) sections[i].capacity() * width( i ) > Integer.MAX_VALUE )
+            {
+                throw new IOException( "The hierarchy is too large to map: " + sections[i].capacity() + " entries" );
+            }
+        }
+        File temp = new File( file.getPath() + ".tmp" );
+        try ( RandomAccessFile raf = new RandomAccessFile( temp, "rw" );
+              FileChannel channel = raf.getChannel() )
+        {
+            raf.setLength( 0 );
+            ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+            header.putLong( MAGIC ).putInt( FORMAT_VERSION ).putInt( orderFlag() );
+            header.putLong( storeRandomId ).putLong( storeCreationTime );
+            header.putLong( snapshot.transactionId() ).putLong( snapshot.fingerprint() );
+            header.putInt( snapshot.nodeCount() ).putInt( hierarchy.edgeCount() );
+            header.putInt( sections[1].capacity() ).putInt( sections[3].capacity() );
+            header.position( HEADER_SIZE );
+            header.flip();
+            channel.write( header, 0 );
+            ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE ).order( ByteOrder.nativeOrder() );
+            long position = HEADER_SIZE;
+            for ( int i = 0; i < sections.length; i++ )
+            {
+                long end = position + padded( (long) sections[i].capacity() * width( i ) );
+                write( channel, buffer, position, sections[i] );
+                position = end;
+            }
+            raf.setLength( position );
+            channel.force( true );
+        }
+        Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    private static int width( int section )
+    {
+        return section == COSTS || section == RELATIONSHIP_IDS ? 8 : 4;
+    }
+
+    /**
+     * @return the byte lengths of the sections, unpadded.
+     */
+    private static long[] lengths( int n, int edgeCount, int upCount, int downCount )
+    {
+        long[] counts = { n + 1L, upCount, n + 1L, downCount, edgeCount, edgeCount, edgeCount, edgeCount,
+                edgeCount, edgeCount };
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            counts[i] *= width( i );
+        }
+        return counts;
+    }
+
+    private static boolean offsetsEnd( IntBuffer offsets, int count )
+    {
+        return offsets.get( 0 ) == 0 && offsets.get( offsets.capacity() - 1 ) == count;
+    }
+
+    private static void write( FileChannel channel, ByteBuffer buffer, long position, Buffer section )
+            throws IOException
+    {
+        int length = section.capacity();
+        for ( int offset = 0; offset < length; )
+        {
+            int count = Math.min( length - offset, BUFFER_SIZE / 8 );
+            if ( section instanceof IntBuffer )
+            {
+                IntBuffer source = ( (IntBuffer) section ).duplicate();
+                source.limit( offset + count ).position( offset );
+                buffer.asIntBuffer().put( source );
+                buffer.limit( 4 * count );
+            }
+            else if ( section instanceof DoubleBuffer )
+            {
+                DoubleBuffer source = ( (DoubleBuffer) section ).duplicate();
+                source.limit( offset + count ).position( offset );
+                buffer.asDoubleBuffer().put( source );
+                buffer.limit( 8 * count );
+            }
+            else
+            {
+                LongBuffer source = ( (LongBuffer) section ).duplicate();
+                source.limit( offset + count ).position( offset );
+                buffer.asLongBuffer().put( source );
+                buffer.limit( 8 * count );
+            }
+            position = flush( channel, buffer, position );
+            offset += count;
+        }
+    }
+
+    /**
+     * Writes the buffer from its start up to its limit, then clears it.
+     */
+    private static long flush( FileChannel channel, ByteBuffer buffer, long position ) throws IOException
+    {
+        buffer.position( 0 );
+        while ( buffer.hasRemaining() )
+        {
+            position += channel.write( buffer, position );
+        }
+        buffer.clear();
+        return position;
+    }
+
+    private static int orderFlag()
+    {
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0;
+    }
+
+    private static long padded( long length )
+    {
+        return ( length + 7 ) / 8 * 8;
+    }
+}
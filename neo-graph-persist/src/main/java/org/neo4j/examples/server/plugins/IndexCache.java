@@ -0,0 +1,212 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The indexes built from the snapshot of each key, such as landmark
+ * distances or contraction hierarchies, bounded by the matrix byte budget.
+ *
+ * An index of an older snapshot keeps being served while the one of the
+ * current snapshot is built on the pool of the index rebuilds, one build per
+ * key at a time; only a key without any index yet has its requests wait for
+ * the build, and never for the builds of other keys.
+ */
+final class IndexCache<K,V extends IndexCache.Index>
+{
+    interface Index
+    {
+        GraphSnapshot snapshot();
+
+        /**
+         * @return the memory the index holds besides its snapshot.
+         */
+        long bytes();
+    }
+
+    private final Jobs jobs;
+    private final MatrixCache<K,Slot> slots;
+
+    public IndexCache( Jobs jobs, long budget )
+    {
+        this.jobs = jobs;
+        this.slots = new MatrixCache<K,Slot>( budget, new MatrixCache.Weigher<Slot>()
+        {
+            @Override
+            public long bytes( Slot slot )
+            {
+                V index = slot.index;
+                return index == null ? 0 : index.bytes();
+            }
+        } );
+    }
+
+    /**
+     * Returns the index of a snapshot, or the one of an older snapshot of
+     * the key while the new one is built in the background.
+     *
+     * @param build
+     *            Builds the index of the snapshot; runs without a
+     *            transaction.
+     * @param current
+     *            Whether to wait for the index of this snapshot even if an
+     *            older one could be served.
+     * @throws IllegalArgumentException
+     *             if the index can not be built from the snapshot.
+     */
+    public V get( K key, GraphSnapshot snapshot, Callable<V> build, boolean current )
+    {
+        Slot slot = slots.get( key );
+        if ( slot == null )
+        {
+            slot = slots.putIfAbsent( key, new Slot() );
+        }
+        while ( true )
+        {
+            V index = slot.index;
+            if ( index != null && index.snapshot() == snapshot )
+            {
+                return index;
+            }
+            Slot.Build building;
+            boolean started = false;
+            synchronized ( slot )
+            {
+                building = slot.building;
+                // Never two builds of one key at once, they write one file
+                if ( building == null || building.snapshot != snapshot && building.isDone() )
+                {
+                    building = slot.new Build( snapshot, build );
+                    slot.building = building;
+                    started = true;
+                }
+            }
+            index = slot.index;
+            if ( !current && index != null && !building.isDone() )
+            {
+                if ( started )
+                {
+                    background( slot, building );
+                }
+                return index;
+            }
+            // Runs the build here unless another request or a rebuild already
+            // is, and then waits for that one
+            building.run();
+            if ( building.snapshot == snapshot )
+            {
+                return result( building );
+            }
+            try
+            {
+                building.get();
+            }
+            catch ( ExecutionException e )
+            {
+                // A failed build of an older snapshot only lets this one start
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException( "Interrupted while building the index", e );
+            }
+        }
+    }
+
+    private V result( Slot.Build building )
+    {
+        try
+        {
+            return building.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while building the index", e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException( cause );
+        }
+    }
+
+    private void background( Slot slot, Slot.Build building )
+    {
+        try
+        {
+            jobs.rebuild( building );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            // Every rebuild slot is taken, a later request starts the build
+            // again
+            synchronized ( slot )
+            {
+                if ( slot.building == building )
+                {
+                    slot.building = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * The index of one key and its build in progress, both guarded by the
+     * slot.
+     */
+    private final class Slot
+    {
+        volatile V index;
+        Build building;
+
+        final class Build extends FutureTask<V>
+        {
+            final GraphSnapshot snapshot;
+
+            Build( GraphSnapshot snapshot, Callable<V> build )
+            {
+                super( build );
+                this.snapshot = snapshot;
+            }
+
+            @Override
+            protected void set( V built )
+            {
+                // Published before the waiting requests wake up, so they
+                // find it in the slot on their next call
+                index = built;
+                super.set( built );
+                slots.trim( Slot.this );
+            }
+        }
+    }
+}
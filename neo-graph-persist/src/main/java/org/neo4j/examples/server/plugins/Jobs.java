@@ -0,0 +1,373 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
+import org.neo4j.server.rest.repr.Representation;
+
+/**
+ * Long-running computations of one database, run in the background so the
+ * request that submits them returns at once with a job id to poll.
+ *
+ * Jobs run on a small dedicated pool with a bounded queue; a submission
+ * that finds the queue full is rejected rather than piling up. A submission
+ * identical to a job that is still queued or running gets that job back
+ * instead of a new one. Finished jobs are kept for their results until
+ * {@link #RETAINED} more have finished after them.
+ *
+ * The indexes rebuilt after the graph changes have a pool of their own, so
+ * long jobs do not hold them up and a burst of them does not fill the queue
+ * of the jobs.
+ */
+final class Jobs
+{
+    public static final int THREADS = 2;
+    public static final int QUEUE_SIZE = 16;
+    public static final int RETAINED = 64;
+    public static final int REBUILD_THREADS = 1;
+    public static final int REBUILD_QUEUE_SIZE = 64;
+
+    private static final Map<GraphDatabaseService,Jobs> databases =
+            new IdentityHashMap<GraphDatabaseService,Jobs>();
+
+    enum Status
+    {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    /**
+     * The work of a job. Runs on a pool thread, without a transaction.
+     */
+    interface Task
+    {
+        Representation run( Job job ) throws Exception;
+    }
+
+    static final class Job
+    {
+        private final long id;
+        private final String computation;
+        private final String key;
+        private final long submitted = System.currentTimeMillis();
+        private volatile Status status = Status.QUEUED;
+        private volatile String phase = "queued";
+        private volatile double progress;
+        private volatile long finished;
+        private volatile Representation result;
+        private volatile String error;
+
+        Job( long id, String computation, String key )
+        {
+            this.id = id;
+            this.computation = computation;
+            this.key = key;
+        }
+
+        /**
+         * Reports how far the job is, as the step it is at and the fraction
+         * of the work done before that step.
+         */
+        public void progress( String phase, double progress )
+        {
+            this.phase = phase;
+            this.progress = progress;
+        }
+
+        public long id()
+        {
+            return id;
+        }
+
+        public String computation()
+        {
+            return computation;
+        }
+
+        public Status status()
+        {
+            return status;
+        }
+
+        public String phase()
+        {
+            return phase;
+        }
+
+        public double progress()
+        {
+            return progress;
+        }
+
+        /**
+         * @return the milliseconds since submission, or from submission to
+         *         the end of the job once it has finished.
+         */
+        public long elapsed()
+        {
+            long end = finished;
+            return ( end == 0 ? System.currentTimeMillis() : end ) - submitted;
+        }
+
+        /**
+         * @return the result once the job is {@link Status#DONE}, otherwise
+         *         null.
+         */
+        public Representation result()
+        {
+            return result;
+        }
+
+        /**
+         * @return the failure once the job has {@link Status#FAILED},
+         *         otherwise null.
+         */
+        public String error()
+        {
+            return error;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor rebuilds;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long,Job> jobs = new LinkedHashMap<Long,Job>();
+    private final Map<String,Job> inFlight = new HashMap<String,Job>();
+    private int finishedCount;
+
+    private Jobs()
+    {
+        executor = new ThreadPoolExecutor( THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( QUEUE_SIZE ), new Workers( "graph-job-" ) );
+        rebuilds = new ThreadPoolExecutor( REBUILD_THREADS, REBUILD_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( REBUILD_QUEUE_SIZE ), new Workers( "graph-index-" ) );
+    }
+
+    public static Jobs at( GraphDatabaseService graphDb )
+    {
+        synchronized ( databases )
+        {
+            Jobs result = databases.get( graphDb );
+            if ( result == null )
+            {
+                result = new Jobs();
+                graphDb.registerKernelEventHandler( new Shutdown( graphDb ) );
+                databases.put( graphDb, result );
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Queues a job, or returns the queued or running one submitted with the
+     * same key.
+     *
+     * @param key
+     *            The computation and every parameter that changes its
+     *            result.
+     * @throws RejectedExecutionException
+     *             if the queue is full.
+     */
+    public Job submit( String computation, String key, final Task task )
+    {
+        final Job job;
+        synchronized ( this )
+        {
+            Job running = inFlight.get( key );
+            if ( running != null )
+            {
+                return running;
+            }
+            job = new Job( ids.incrementAndGet(), computation, key );
+            jobs.put( job.id, job );
+            inFlight.put( key, job );
+        }
+        try
+        {
+            executor.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    execute( job, task );
+                }
+            } );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            synchronized ( this )
+            {
+                jobs.remove( job.id );
+                inFlight.remove( key );
+            }
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * Rebuilds an index on the pool of the index rebuilds, without tracking
+     * it as a job.
+     *
+     * @throws RejectedExecutionException
+     *             if the queue of the rebuilds is full.
+     */
+    public void rebuild( Runnable work )
+    {
+        rebuilds.execute( work );
+    }
+
+    /**
+     * @return the job, or null if there is none with that id or it was
+     *         dropped to make room for newer results.
+     */
+    public synchronized Job get( long id )
+    {
+        return jobs.get( id );
+    }
+
+    private void execute( Job job, Task task )
+    {
+        job.status = Status.RUNNING;
+        job.progress( "running", 0.0 );
+        try
+        {
+            job.result = task.run( job );
+            job.progress( "done", 1.0 );
+            job.status = Status.DONE;
+        }
+        catch ( Throwable e )
+        {
+            // Errors too, an OutOfMemoryError on a large matrix is the
+            // likely one, or the job would be reported running forever
+            job.error = e.getMessage() == null ? e.toString() : e.getMessage();
+            job.phase = "failed";
+            job.status = Status.FAILED;
+            if ( e instanceof Error )
+            {
+                throw (Error) e;
+            }
+        }
+        finally
+        {
+            job.finished = System.currentTimeMillis();
+            finished( job );
+        }
+    }
+
+    private synchronized void finished( Job job )
+    {
+        inFlight.remove( job.key );
+        finishedCount++;
+        // Moved to the end, so that insertion order is the order jobs finish
+        // in and the oldest results go first; a long job finishing after
+        // those submitted behind it is not dropped at once
+        jobs.remove( job.id );
+        jobs.put( job.id, job );
+        Iterator<Job> jobIterator = jobs.values().iterator();
+        while ( finishedCount > RETAINED && jobIterator.hasNext() )
+        {
+            Job oldest = jobIterator.next();
+            if ( oldest.finished != 0 )
+            {
+                jobIterator.remove();
+                finishedCount--;
+            }
+        }
+    }
+
+    private static final class Workers implements ThreadFactory
+    {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        Workers( String prefix )
+        {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, prefix + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+
+    /**
+     * Stops the pools when the database shuts down; running jobs and
+     * rebuilds are interrupted and queued ones never start.
+     */
+    private static final class Shutdown implements KernelEventHandler
+    {
+        private final GraphDatabaseService graphDb;
+
+        Shutdown( GraphDatabaseService graphDb )
+        {
+            this.graphDb = graphDb;
+        }
+
+        @Override
+        public void beforeShutdown()
+        {
+            Jobs jobs;
+            synchronized ( databases )
+            {
+                jobs = databases.remove( graphDb );
+            }
+            if ( jobs != null )
+            {
+                jobs.executor.shutdownNow();
+                jobs.rebuilds.shutdownNow();
+            }
+        }
+
+        @Override
+        public void kernelPanic( ErrorState error )
+        {
+        }
+
+        @Override
+        public Object getResource()
+        {
+            return null;
+        }
+
+        @Override
+        public ExecutionOrder orderComparedTo( KernelEventHandler other )
+        {
+            return ExecutionOrder.DOESNT_MATTER;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.impl.store.StoreId;
+
+/**
+ * {@link Landmarks} persisted next to the store directory, so they survive
+ * restarts. Like a {@link MatrixFile} the file is only reused when it was
+ * written for the same store and a snapshot with the same
+ * {@link GraphSnapshot#fingerprint() fingerprint}. It is read into the heap
+ * rather than mapped, being O(nodes * landmarks) in size.
+ *
+ * Layout: a 64 byte header, the landmarks as ints padded to a multiple of 8
+ * bytes, the distances from the landmarks, then the distances to them, all
+ * node-major and in native byte order.
+ */
+final class LandmarkFile
+{
+    private static final long MAGIC = 0x4c414e444d524b31L; // "LANDMRK1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final File file;
+    private final long storeRandomId;
+    private final long storeCreationTime;
+
+    LandmarkFile( File file, long storeRandomId, long storeCreationTime )
+    {
+        this.file = file;
+        this.storeRandomId = storeRandomId;
+        this.storeCreationTime = storeCreationTime;
+    }
+
+    /**
+     * @param name
+     *            Tells landmarks of the same store apart, e.g. by cost
+     *            property and direction.
+     * @return the landmark file of a database, or null if the database does
+     *         not expose its store.
+     */
+    public static LandmarkFile forStore( GraphDatabaseService graphDb, String name )
+    {
+        File file = StoreAccess.file( graphDb, "." + name + ".landmarks" );
+        if ( file == null )
+        {
+            return null;
+        }
+        StoreId storeId = StoreAccess.storeId( graphDb );
+        return new LandmarkFile( file, storeId.getRandomId(), storeId.getCreationTime() );
+    }
+
+    public File file()
+    {
+        return file;
+    }
+
+    /**
+     * Reads the landmarks if the file matches the store, the snapshot and
+     * the number of landmarks asked for.
+     *
+     * @return the landmarks, or null if the file is missing or stale.
+     */
+    public Landmarks open( GraphSnapshot snapshot, int requested ) throws IOException
+    {
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "r" );
+              FileChannel channel = raf.getChannel() )
+        {
+            ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+            if ( channel.read( header, 0 ) < HEADER_SIZE )
+            {
+                return null;
+            }
+            header.flip();
+            if ( header.getLong() != MAGIC || header.getInt() != FORMAT_VERSION
+                    || header.getInt() != orderFlag()
+                    || header.getLong() != storeRandomId || header.getLong() != storeCreationTime )
+            {
+                return null;
+            }
+            header.getLong(); // transaction id, see MatrixFile
+            long fingerprint = header.getLong();
+            int n = header.getInt();
+            int writtenRequested = header.getInt();
+            int count = header.getInt();
+            if ( n != snapshot.nodeCount() || writtenRequested != requested || count < 0 )
+            {
+                return null;
+            }
+            if ( fingerprint != snapshot.fingerprint() )
+            {
+                return null;
+            }
+            long cells = (long) n * count;
+            if ( cells > Integer.MAX_VALUE || landmarksLength( count ) > BUFFER_SIZE
+                    || channel.size() < HEADER_SIZE + landmarksLength( count ) + 16 * cells )
+            {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE ).order( ByteOrder.nativeOrder() );
+            int[] landmarks = new int[count];
+            long position = HEADER_SIZE;
+            read( channel, buffer, position, 4L * count );
+            buffer.asIntBuffer().get( landmarks );
+            for ( int landmark : landmarks )
+            {
+                if ( landmark < 0 || landmark >= n )
+                {
+                    return null;
+                }
+            }
+            position += landmarksLength( count );
+            double[] from = new double[(int) cells];
+            position = read( channel, buffer, position, from );
+            double[] to = new double[(int) cells];
+            read( channel, buffer, position, to );
+            return new Landmarks( snapshot, landmarks, from, to );
+        }
+    }
+
+    /**
+     * Writes the landmarks through a temporary file that replaces the old
+     * one atomically.
+     *
+     * @param requested
+     *            The number of landmarks asked for, which {@link #open}
+     *            checks.
+     */
+    public void write( GraphSnapshot snapshot, Landmarks landmarks, int requested ) throws IOException
+    {
+        int n = snapshot.nodeCount();
+        int count = landmarks.count();
+        if ( landmarksLength( count ) > BUFFER_SIZE )
+        {
+            throw new IOException( "Too many landmarks to write: " + count );
+        }
+        File temp = new File( file.getPath() + ".tmp" );
+        try ( RandomAccessFile raf = new RandomAccessFile( temp, "rw" );
+              FileChannel channel = raf.getChannel() )
+        {
+            raf.setLength( 0 );
+            ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+            header.putLong( MAGIC ).putInt( FORMAT_VERSION ).putInt( orderFlag() );
+            header.putLong( storeRandomId ).putLong( storeCreationTime );
+            header.putLong( snapshot.transactionId() ).putLong( snapshot.fingerprint() );
+            header.putInt( n ).putInt( requested ).putInt( count );
+            header.position( HEADER_SIZE );
+            header.flip();
+            channel.write( header, 0 );
+            ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE ).order( ByteOrder.nativeOrder() );
+            long position = HEADER_SIZE;
+            buffer.asIntBuffer().put( landmarks.landmarks() );
+            buffer.limit( (int) landmarksLength( count ) );
+            position = flush( channel, buffer, position );
+            position = write( channel, buffer, position, landmarks.from() );
+            write( channel, buffer, position, landmarks.to() );
+            channel.force( true );
+        }
+        Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    private static long write( FileChannel channel, ByteBuffer buffer, long position, double[] values )
+            throws IOException
+    {
+        for ( int offset = 0; offset < values.length; )
+        {
+            int count = Math.min( values.length - offset, BUFFER_SIZE / 8 );
+            buffer.asDoubleBuffer().put( values, offset, count );
+            buffer.limit( 8 * count );
+            position = flush( channel, buffer, position );
+            offset += count;
+        }
+        return position;
+    }
+
+    /**
+     * Writes the buffer from its start up to its limit, then clears it.
+     */
+    private static long flush( FileChannel channel, ByteBuffer buffer, long position ) throws IOException
+    {
+        buffer.position( 0 );
+        while ( buffer.hasRemaining() )
+        {
+            position += channel.write( buffer, position );
+        }
+        buffer.clear();
+        return position;
+    }
+
+    private static long read( FileChannel channel, ByteBuffer buffer, long position, double[] values )
+            throws IOException
+    {
+        for ( int offset = 0; offset < values.length; )
+        {
+            int count = Math.min( values.length - offset, BUFFER_SIZE / 8 );
+            read( channel, buffer, position, 8L * count );
+            DoubleBuffer doubles = buffer.asDoubleBuffer();
+            doubles.get( values, offset, count );
+            position += 8L * count;
+            offset += count;
+        }
+        return position;
+    }
+
+    /**
+     * Fills the buffer from its start with length bytes at a position.
+     */
+    private static void read( FileChannel channel, ByteBuffer buffer, long position, long length )
+            throws IOException
+    {
+        buffer.clear();
+        buffer.limit( (int) length );
+        while ( buffer.hasRemaining() )
+        {
+            int read = channel.read( buffer, position + buffer.position() );
+            if ( read < 0 )
+            {
+                throw new IOException( "Unexpected end of file" );
+            }
+        }
+        buffer.flip();
+    }
+
+    private static int orderFlag()
+    {
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0;
+    }
+
+    private static long landmarksLength( int count )
+    {
+        return ( 4L * count + 7 ) / 8 * 8;
+    }
+}
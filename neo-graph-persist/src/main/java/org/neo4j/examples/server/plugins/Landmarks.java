@@ -0,0 +1,724 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Point-to-point cheapest paths by bidirectional A* with landmark (ALT)
+ * lower bounds. For a landmark L the triangle inequality gives
+ * d(x,y) >= d(L,y) - d(L,x) and d(x,y) >= d(x,L) - d(y,L), so the distances
+ * from and to a few landmarks, precomputed with one Dijkstra each way, bound
+ * every remaining distance from below.
+ *
+ * The landmarks are shared among the weakly connected components in
+ * proportion to their size, and picked within each by farthest-point
+ * selection: each one is the member farthest, either way, from the
+ * landmarks picked so far. Distances are kept in two node-major arrays,
+ * which puts the bounds of one node next to each other.
+ *
+ * The two searches use their own heuristic and stop as soon as either one
+ * has nothing left below the best path found (the symmetric approach). Both
+ * heuristics are consistent, so a node is settled at most once. Costs must
+ * not be negative.
+ *
+ * The same distances make a distance oracle: {@link #lowerBound} and
+ * {@link #upperBound}, the cheapest way through one landmark, bracket the
+ * distance between any two nodes in O(landmarks) time, from O(nodes *
+ * landmarks) memory.
+ *
+ * Instances are immutable apart from a pool of reusable search state and
+ * can be queried concurrently; build a new one when the snapshot changes.
+ */
+final class Landmarks implements IndexCache.Index
+{
+    public static final int DEFAULT_COUNT = 8;
+
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+    private static final int NONE = -1;
+
+    private final GraphSnapshot snapshot;
+    private final GraphSnapshot reverse;
+    private final int n;
+    private final int count;
+    private final int[] landmarks;
+    private final double[] from; // [v * count + l]: distance from landmark l to v
+    private final double[] to; // [v * count + l]: distance from v to landmark l
+    private final ConcurrentLinkedQueue<Search> searches = new ConcurrentLinkedQueue<Search>();
+
+    /**
+     * @param from
+     *            The distance from every landmark to every node, node-major.
+     * @param to
+     *            The distance from every node to every landmark, node-major.
+     */
+    Landmarks( GraphSnapshot snapshot, int[] landmarks, double[] from, double[] to )
+    {
+        this.snapshot = snapshot;
+        this.reverse = snapshot.reverse();
+        this.n = snapshot.nodeCount();
+        this.count = landmarks.length;
+        this.landmarks = landmarks;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Reads the landmarks of a snapshot from a file if it holds them, or
+     * builds them and writes the file.
+     *
+     * @param file
+     *            The file, or null to only build.
+     * @throws IllegalArgumentException
+     *             if some edge has a negative cost.
+     */
+    public static Landmarks load( GraphSnapshot snapshot, int count, int threads, LandmarkFile file )
+    {
+        if ( file != null )
+        {
+            try
+            {
+                Landmarks landmarks = file.open( snapshot, count );
+                if ( landmarks != null )
+                {
+                    return landmarks;
+                }
+            }
+            catch ( IOException e )
+            {
+                // Unreadable, build them again
+            }
+        }
+        Landmarks landmarks = build( snapshot, count, threads );
+        if ( file != null )
+        {
+            try
+            {
+                file.write( snapshot, landmarks, count );
+            }
+            catch ( IOException e )
+            {
+                // The file is only a cache, keep serving from the heap
+            }
+        }
+        return landmarks;
+    }
+
+    /**
+     * Picks the landmarks and computes their distances.
+     *
+     * @param count
+     *            The number of landmarks wanted; fewer are picked when the
+     *            graph has fewer nodes outside single-node components.
+     * @param threads
+     *            The number of worker threads, or a value that is not
+     *            positive for one per available processor.
+     * @throws IllegalArgumentException
+     *             if some edge has a negative cost.
+     */
+    public static Landmarks build( GraphSnapshot snapshot, int count, int threads )
+    {
+        if ( snapshot.hasNegativeCosts() )
+        {
+            throw new IllegalArgumentException( "Landmark bounds need costs that are not negative" );
+        }
+        threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        int n = snapshot.nodeCount();
+        Components components = Components.of( snapshot, threads );
+        int[] quotas = quotas( components, n == 0 ? 0 : Math.min( count, Integer.MAX_VALUE / n ) );
+        int[] firsts = new int[quotas.length + 1]; // the first landmark of each component
+        int picking = 0; // components that get landmarks
+        for ( int c = 0; c < quotas.length; c++ )
+        {
+            firsts[c + 1] = firsts[c] + quotas[c];
+            picking += quotas[c] == 0 ? 0 : 1;
+        }
+        int total = firsts[quotas.length];
+        int[] picked = new int[picking];
+        for ( int c = 0, i = 0; c < quotas.length; c++ )
+        {
+            if ( quotas[c] != 0 )
+            {
+                picked[i++] = c;
+            }
+        }
+        double[] from = new double[n * total];
+        double[] to = new double[n * total];
+        Arrays.fill( from, INFINITY );
+        Arrays.fill( to, INFINITY );
+        Landmarks result = new Landmarks( snapshot, new int[total], from, to );
+        Picking task = result.new Picking( components, picked, firsts, threads > 1, 0, picking,
+                Math.max( 1, picking / ( threads * 8 ) ) );
+        if ( threads == 1 )
+        {
+            task.compute();
+            return result;
+        }
+        ForkJoinPool pool = new ForkJoinPool( threads );
+        try
+        {
+            pool.invoke( task );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /**
+     * Picks the landmarks of a range of components. Components are picked in
+     * parallel, and within one the rows from and to each landmark are
+     * computed in parallel; picking the next landmark needs both.
+     */
+    @SuppressWarnings( "serial" )
+    private final class Picking extends RecursiveAction
+    {
+        private final Components components;
+        private final int[] picked;
+        private final int[] firsts;
+        private final boolean parallel;
+        private final int start;
+        private final int end;
+        private final int grain;
+
+        Picking( Components components, int[] picked, int[] firsts, boolean parallel, int start, int end,
+                int grain )
+        {
+            this.components = components;
+            this.picked = picked;
+            this.firsts = firsts;
+            this.parallel = parallel;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( end - start > grain )
+            {
+                int mid = ( start + end ) >>> 1;
+                invokeAll( new Picking( components, picked, firsts, parallel, start, mid, grain ),
+                        new Picking( components, picked, firsts, parallel, mid, end, grain ) );
+                return;
+            }
+            Workspace forward = new Workspace( snapshot, from );
+            Workspace backward = new Workspace( reverse, to );
+            double[] nearest = new double[n]; // distance to the closest landmark either way
+            for ( int i = start; i < end; i++ )
+            {
+                int c = picked[i];
+                int[] members = components.members( c );
+                // Start from the member farthest from an arbitrary one, not from the arbitrary one
+                forward.fill( members[0], members, NONE );
+                backward.fill( members[0], members, NONE );
+                for ( int v : members )
+                {
+                    nearest[v] = Math.min( forward.row[v], backward.row[v] );
+                }
+                int next = farthest( nearest, members );
+                for ( int v : members )
+                {
+                    nearest[v] = INFINITY;
+                }
+                for ( int l = firsts[c]; l < firsts[c + 1]; l++ )
+                {
+                    landmarks[l] = next;
+                    if ( parallel )
+                    {
+                        invokeAll( new Column( forward, next, members, l ), new Column( backward, next, members, l ) );
+                    }
+                    else
+                    {
+                        forward.fill( next, members, l );
+                        backward.fill( next, members, l );
+                    }
+                    for ( int v : members )
+                    {
+                        nearest[v] = Math.min( nearest[v], Math.min( forward.row[v], backward.row[v] ) );
+                    }
+                    next = farthest( nearest, members );
+                }
+            }
+        }
+    }
+
+    /**
+     * A Dijkstra in one direction with its own row, heap and settled flags,
+     * reused for every landmark of a picking task.
+     */
+    private final class Workspace
+    {
+        private final SparseAllPairs dijkstra;
+        private final double[] columns;
+        private final double[] row = new double[n];
+        private final SparseAllPairs.IndexedHeap heap = new SparseAllPairs.IndexedHeap( n );
+        private final boolean[] settled = new boolean[n];
+
+        Workspace( GraphSnapshot graph, double[] columns )
+        {
+            this.dijkstra = new SparseAllPairs( graph, 1 );
+            this.columns = columns;
+        }
+
+        /**
+         * Fills the row with the distances from a source, which only reach
+         * its component, and copies them into a column unless it is NONE.
+         */
+        void fill( int source, int[] members, int column )
+        {
+            Arrays.fill( row, INFINITY );
+            dijkstra.singleSource( source, row, 0.0, heap, settled );
+            if ( column != NONE )
+            {
+                int count = landmarks.length;
+                for ( int v : members )
+                {
+                    columns[v * count + column] = row[v];
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings( "serial" )
+    private static final class Column extends RecursiveAction
+    {
+        private final Workspace workspace;
+        private final int landmark;
+        private final int[] members;
+        private final int column;
+
+        Column( Workspace workspace, int landmark, int[] members, int column )
+        {
+            this.workspace = workspace;
+            this.landmark = landmark;
+            this.members = members;
+            this.column = column;
+        }
+
+        @Override
+        protected void compute()
+        {
+            workspace.fill( landmark, members, column );
+        }
+    }
+
+    /**
+     * Shares the landmarks among the components in proportion to their
+     * size, by largest remainder. Single nodes get none, since no path
+     * starts or ends there but the empty one.
+     */
+    private static int[] quotas( Components components, int count )
+    {
+        int n = components.nodeCount();
+        int[] quotas = new int[components.count()];
+        double[] shares = new double[quotas.length];
+        int given = 0;
+        for ( int c = 0; c < quotas.length; c++ )
+        {
+            shares[c] = (double) count * components.size( c ) / n;
+            quotas[c] = components.size( c ) == 1 ? 0 : Math.min( (int) shares[c], components.size( c ) );
+            given += quotas[c];
+        }
+        for ( ; given < count; given++ )
+        {
+            int best = NONE;
+            for ( int c = 0; c < quotas.length; c++ )
+            {
+                if ( components.size( c ) > 1 && quotas[c] < components.size( c )
+                        && ( best == NONE || shares[c] - quotas[c] > shares[best] - quotas[best] ) )
+                {
+                    best = c;
+                }
+            }
+            if ( best == NONE )
+            {
+                break;
+            }
+            quotas[best]++;
+        }
+        return quotas;
+    }
+
+    /**
+     * @return the member with the largest finite distance, the first one on
+     *         ties. A member reached in neither direction is only picked
+     *         when every other one is at distance 0: in a directed graph
+     *         such members are mostly sources and sinks, which make poor
+     *         landmarks.
+     */
+    private static int farthest( double[] distances, int[] members )
+    {
+        int result = NONE;
+        int unreached = NONE;
+        for ( int v : members )
+        {
+            if ( distances[v] == INFINITY )
+            {
+                unreached = unreached == NONE ? v : unreached;
+            }
+            else if ( result == NONE || distances[v] > distances[result] )
+            {
+                result = v;
+            }
+        }
+        return result == NONE || ( distances[result] == 0.0 && unreached != NONE ) ? unreached : result;
+    }
+
+    public GraphSnapshot snapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * @return the bytes of the distance tables.
+     */
+    @Override
+    public long bytes()
+    {
+        return ( from.length + (long) to.length ) * 8 + landmarks.length * 4L;
+    }
+
+    public int count()
+    {
+        return count;
+    }
+
+    /**
+     * @return the node index of a landmark.
+     */
+    public int landmark( int l )
+    {
+        return landmarks[l];
+    }
+
+    int[] landmarks()
+    {
+        return landmarks;
+    }
+
+    double[] from()
+    {
+        return from;
+    }
+
+    double[] to()
+    {
+        return to;
+    }
+
+    /**
+     * A lower bound on the distance from x to y, infinite when the landmarks
+     * show that y cannot be reached from x.
+     */
+    public double lowerBound( int x, int y )
+    {
+        double bound = 0.0;
+        int xs = x * count;
+        int ys = y * count;
+        for ( int l = 0; l < count; l++ )
+        {
+            // d(x,y) >= d(L,y) - d(L,x)
+            double fromX = from[xs + l];
+            double fromY = from[ys + l];
+            if ( fromY == INFINITY )
+            {
+                if ( fromX != INFINITY )
+                {
+                    // L reaches x but not y, so x cannot reach y
+                    return INFINITY;
+                }
+            }
+            else if ( fromX != INFINITY )
+            {
+                bound = Math.max( bound, fromY - fromX );
+            }
+            // d(x,y) >= d(x,L) - d(y,L)
+            double toX = to[xs + l];
+            double toY = to[ys + l];
+            if ( toY != INFINITY )
+            {
+                if ( toX == INFINITY )
+                {
+                    // y reaches L but x does not, so x cannot reach y
+                    return INFINITY;
+                }
+                bound = Math.max( bound, toX - toY );
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * An upper bound on the distance from x to y: the cheapest way through a
+     * single landmark, infinite when no landmark lies on a path from x to y.
+     */
+    public double upperBound( int x, int y )
+    {
+        if ( x == y )
+        {
+            return 0.0;
+        }
+        double bound = INFINITY;
+        int xs = x * count;
+        int ys = y * count;
+        for ( int l = 0; l < count; l++ )
+        {
+            bound = Math.min( bound, to[xs + l] + from[ys + l] );
+        }
+        return bound;
+    }
+
+    /**
+     * A cheapest path between two nodes.
+     */
+    static final class Route
+    {
+        private final double cost;
+        private final int[] nodes;
+        private final long[] relationshipIds;
+        private final int settled;
+
+        Route( double cost, int[] nodes, long[] relationshipIds, int settled )
+        {
+            this.cost = cost;
+            this.nodes = nodes;
+            this.relationshipIds = relationshipIds;
+            this.settled = settled;
+        }
+
+        public double cost()
+        {
+            return cost;
+        }
+
+        /**
+         * @return the node indexes along the path, source first.
+         */
+        public int[] nodes()
+        {
+            return nodes;
+        }
+
+        /**
+         * @return the ids of the relationships along the path, one fewer
+         *         than the nodes.
+         */
+        public long[] relationshipIds()
+        {
+            return relationshipIds;
+        }
+
+        /**
+         * @return how many nodes both searches settled, a measure of how
+         *         well the landmarks guided them.
+         */
+        public int settled()
+        {
+            return settled;
+        }
+    }
+
+    /**
+     * @return a cheapest path from source to target, or null if there is
+     *         none.
+     */
+    public Route route( int source, int target )
+    {
+        Search search = searches.poll();
+        if ( search == null )
+        {
+            search = new Search();
+        }
+        try
+        {
+            return search.run( source, target );
+        }
+        finally
+        {
+            search.reset();
+            searches.offer( search );
+        }
+    }
+
+    /**
+     * The state of one search in each direction, sized for the snapshot and
+     * reset after use by clearing only the nodes it touched.
+     */
+    private final class Search
+    {
+        private final Side forward = new Side( snapshot );
+        private final Side backward = new Side( reverse );
+        private int settled;
+
+        Route run( int source, int target )
+        {
+            if ( lowerBound( source, target ) == INFINITY )
+            {
+                return null;
+            }
+            forward.start( source, lowerBound( source, target ) );
+            backward.start( target, lowerBound( source, target ) );
+            double best = source == target ? 0.0 : INFINITY;
+            int meeting = source == target ? source : NONE;
+            while ( !forward.heap.isEmpty() && !backward.heap.isEmpty()
+                    && forward.heap.peekKey() < best && backward.heap.peekKey() < best )
+            {
+                // Grow the smaller frontier
+                boolean forwards = forward.frontier <= backward.frontier;
+                Side side = forwards ? forward : backward;
+                Side other = forwards ? backward : forward;
+                int u = side.heap.poll();
+                side.frontier--;
+                side.settled[u] = true;
+                settled++;
+                if ( other.settled[u] )
+                {
+                    // Every path through u is already accounted for by the other search
+                    continue;
+                }
+                int[] offsets = side.graph.offsets();
+                int[] targets = side.graph.targets();
+                double[] costs = side.graph.costs();
+                for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+                {
+                    int v = targets[e];
+                    double distance = side.distances[u] + costs[e];
+                    if ( distance >= side.distances[v] || side.settled[v] )
+                    {
+                        continue;
+                    }
+                    double bound = forwards ? lowerBound( v, target ) : lowerBound( source, v );
+                    if ( bound == INFINITY )
+                    {
+                        continue;
+                    }
+                    side.reach( v, u, e, distance, bound );
+                    if ( other.distances[v] != INFINITY && distance + other.distances[v] < best )
+                    {
+                        best = distance + other.distances[v];
+                        meeting = v;
+                    }
+                }
+            }
+            return meeting == NONE ? null : path( meeting, best );
+        }
+
+        private Route path( int meeting, double cost )
+        {
+            int length = 0;
+            for ( int v = meeting; forward.parents[v] != NONE; v = forward.parents[v] )
+            {
+                length++;
+            }
+            int before = length;
+            for ( int v = meeting; backward.parents[v] != NONE; v = backward.parents[v] )
+            {
+                length++;
+            }
+            int[] nodes = new int[length + 1];
+            long[] relationshipIds = new long[length];
+            nodes[before] = meeting;
+            for ( int v = meeting, i = before; forward.parents[v] != NONE; v = forward.parents[v] )
+            {
+                relationshipIds[--i] = snapshot.relationshipId( forward.edges[v] );
+                nodes[i] = forward.parents[v];
+            }
+            for ( int v = meeting, i = before; backward.parents[v] != NONE; v = backward.parents[v] )
+            {
+                relationshipIds[i++] = reverse.relationshipId( backward.edges[v] );
+                nodes[i] = backward.parents[v];
+            }
+            return new Route( cost, nodes, relationshipIds, settled );
+        }
+
+        void reset()
+        {
+            forward.reset();
+            backward.reset();
+            settled = 0;
+        }
+    }
+
+    /**
+     * One direction of a search: distances from its start, the parent and
+     * edge each node was reached by, and the nodes it touched.
+     */
+    private final class Side
+    {
+        private final GraphSnapshot graph;
+        private final double[] distances = new double[n];
+        private final int[] parents = new int[n];
+        private final int[] edges = new int[n];
+        private final boolean[] settled = new boolean[n];
+        private final SparseAllPairs.IndexedHeap heap = new SparseAllPairs.IndexedHeap( n );
+        private int[] touched = new int[16];
+        private int touchedCount;
+        private int frontier;
+
+        Side( GraphSnapshot graph )
+        {
+            this.graph = graph;
+            Arrays.fill( distances, INFINITY );
+            Arrays.fill( parents, NONE );
+        }
+
+        void start( int node, double bound )
+        {
+            reach( node, NONE, NONE, 0.0, bound );
+        }
+
+        void reach( int node, int parent, int edge, double distance, double bound )
+        {
+            if ( distances[node] == INFINITY )
+            {
+                if ( touchedCount == touched.length )
+                {
+                    touched = Arrays.copyOf( touched, touchedCount * 2 );
+                }
+                touched[touchedCount++] = node;
+                frontier++;
+            }
+            distances[node] = distance;
+            parents[node] = parent;
+            edges[node] = edge;
+            heap.insertOrDecrease( node, distance + bound );
+        }
+
+        void reset()
+        {
+            for ( int i = 0; i < touchedCount; i++ )
+            {
+                int node = touched[i];
+                distances[node] = INFINITY;
+                parents[node] = NONE;
+                settled[node] = false;
+            }
+            touchedCount = 0;
+            frontier = 0;
+            heap.clear();
+        }
+    }
+}
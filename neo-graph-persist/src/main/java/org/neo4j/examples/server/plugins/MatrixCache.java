@@ -0,0 +1,145 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.config.Setting;
+import org.neo4j.helpers.Settings;
+import org.neo4j.kernel.configuration.Config;
+
+/**
+ * A least-recently-used cache bounded by the size of its values in bytes
+ * rather than their number, for matrices whose sizes differ by orders of
+ * magnitude and are only known once they are calculated.
+ *
+ * Values are weighed again on every {@link #trim}, so a value may grow after
+ * it was added. Evicted values are only dropped from the cache; callers that
+ * still hold one can keep using it.
+ */
+final class MatrixCache<K,V>
+{
+    /**
+     * The byte budget of the all-pairs matrices of a database, set in its
+     * configuration; its landmark distances and contraction hierarchies
+     * get a budget of the same size.
+     */
+    public static final Setting<Long> matrix_cache_size =
+            Settings.setting( "centrality.matrix_cache_size", Settings.BYTES, "1g" );
+
+    interface Weigher<V>
+    {
+        long bytes( V value );
+    }
+
+    private final long budget;
+    private final Weigher<V> weigher;
+    private final LinkedHashMap<K,V> entries = new LinkedHashMap<K,V>( 16, 0.75f, true );
+
+    public MatrixCache( long budget, Weigher<V> weigher )
+    {
+        this.budget = budget;
+        this.weigher = weigher;
+    }
+
+    /**
+     * @return the configured budget of a database, or the default if it has
+     *         no configuration to read.
+     */
+    public static long budget( GraphDatabaseService graphDb )
+    {
+        Config config = StoreAccess.config( graphDb );
+        if ( config != null )
+        {
+            return config.get( matrix_cache_size );
+        }
+        return Settings.BYTES.apply( matrix_cache_size.getDefaultValue() );
+    }
+
+    /**
+     * Returns the value of a key, marking it as the most recently used.
+     */
+    public synchronized V get( K key )
+    {
+        return entries.get( key );
+    }
+
+    /**
+     * Adds a value unless the key already has one.
+     *
+     * @return the value now in the cache.
+     */
+    public synchronized V putIfAbsent( K key, V value )
+    {
+        V existing = entries.get( key );
+        if ( existing != null )
+        {
+            return existing;
+        }
+        entries.put( key, value );
+        return value;
+    }
+
+    public synchronized List<V> values()
+    {
+        return new ArrayList<V>( entries.values() );
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Evicts the least recently used values until the rest fit the budget.
+     * The value being used is never evicted, even if it does not fit on its
+     * own, and neither are values that weigh nothing.
+     *
+     * @return the evicted values.
+     */
+    public synchronized List<V> trim( V keep )
+    {
+        long total = 0;
+        for ( V value : entries.values() )
+        {
+            total += weigher.bytes( value );
+        }
+        List<V> evicted = new ArrayList<V>();
+        Iterator<Map.Entry<K,V>> iterator = entries.entrySet().iterator();
+        while ( total > budget && iterator.hasNext() )
+        {
+            V value = iterator.next().getValue();
+            long bytes = weigher.bytes( value );
+            // Values that weigh nothing are not calculated yet, evicting
+            // them would only make their callers start over
+            if ( value != keep && bytes > 0 )
+            {
+                total -= bytes;
+                iterator.remove();
+                evicted.add( value );
+            }
+        }
+        return evicted;
+    }
+}
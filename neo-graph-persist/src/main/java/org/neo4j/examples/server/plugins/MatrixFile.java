@@ -0,0 +1,336 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.impl.store.StoreId;
+
+/**
+ * A {@link DistanceMatrix} persisted next to the store directory, so it
+ * survives restarts. The file is memory mapped rather than read, and is only
+ * reused when it was written for the same store and a snapshot with the
+ * same {@link GraphSnapshot#fingerprint() fingerprint}. The header also
+ * records the {@link GraphSnapshot#transactionId() transaction} the snapshot
+ * was read at, but only for information: transactions committing while a
+ * snapshot is read may show in it, so the id alone cannot vouch for a file.
+ *
+ * Layout: a 64 byte header, the component of every node as ints padded to
+ * a multiple of 8 bytes, the distance blocks of all components, then the
+ * predecessor blocks if present as shorts or ints, all in native byte
+ * order. See {@link DistanceMatrix} for the blocks.
+ */
+final class MatrixFile
+{
+    private static final long MAGIC = 0x415053504d545831L; // "APSPMTX1"
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+    private static final int CELLS_PER_CHUNK = (int) ( MAX_CHUNK_BYTES / 8 );
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final File file;
+    private final long storeRandomId;
+    private final long storeCreationTime;
+
+    MatrixFile( File file, long storeRandomId, long storeCreationTime )
+    {
+        this.file = file;
+        this.storeRandomId = storeRandomId;
+        this.storeCreationTime = storeCreationTime;
+    }
+
+    /**
+     * @param name
+     *            Tells matrices of the same store apart, e.g. by cost property
+     *            and direction.
+     * @return the matrix file of a database, or null if the database does
+     *         not expose its store.
+     */
+    public static MatrixFile forStore( GraphDatabaseService graphDb, String name )
+    {
+        File file = StoreAccess.file( graphDb, "." + name + ".apsp" );
+        if ( file == null )
+        {
+            return null;
+        }
+        StoreId storeId = StoreAccess.storeId( graphDb );
+        return new MatrixFile( file, storeId.getRandomId(), storeId.getCreationTime() );
+    }
+
+    public File file()
+    {
+        return file;
+    }
+
+    /**
+     * Maps the matrix if the file matches the store and snapshot.
+     *
+     * @param unreachable
+     *            The cost of pairs in different components.
+     * @return the mapped matrix, or null if the file is missing or stale.
+     */
+    public DistanceMatrix open( GraphSnapshot snapshot, boolean withPredecessors, double unreachable )
+            throws IOException
+    {
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+              FileChannel channel = raf.getChannel() )
+        {
+            ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+            if ( channel.read( header, 0 ) < HEADER_SIZE )
+            {
+                return null;
+            }
+            header.flip();
+            if ( header.getLong() != MAGIC || header.getInt() != FORMAT_VERSION
+                    || header.getInt() != orderFlag()
+                    || header.getLong() != storeRandomId || header.getLong() != storeCreationTime )
+            {
+                return null;
+            }
+            header.getLong(); // transaction id, see write
+            long fingerprint = header.getLong();
+            int n = header.getInt();
+            int predecessorWidth = header.getInt();
+            if ( n != snapshot.nodeCount() || ( withPredecessors && predecessorWidth == 0 ) )
+            {
+                return null;
+            }
+            if ( fingerprint != snapshot.fingerprint() )
+            {
+                return null;
+            }
+            if ( channel.size() < HEADER_SIZE + labelsLength( n ) )
+            {
+                return null;
+            }
+            ByteBuffer labelBytes = ByteBuffer.allocate( 4 * n ).order( ByteOrder.nativeOrder() );
+            channel.read( labelBytes, HEADER_SIZE );
+            labelBytes.flip();
+            int[] labels = new int[n];
+            labelBytes.asIntBuffer().get( labels );
+            Components components = Components.fromLabels( labels );
+            if ( components == null || channel.size() < length( components, predecessorWidth ) )
+            {
+                return null;
+            }
+            return map( channel, components, predecessorWidth, unreachable );
+        }
+    }
+
+    /**
+     * Writes the matrix through a temporary file that replaces the old one
+     * atomically, then maps the result.
+     *
+     * @return the mapped copy of the matrix.
+     */
+    public DistanceMatrix write( GraphSnapshot snapshot, DistanceMatrix matrix, double unreachable )
+            throws IOException
+    {
+        Components components = matrix.components();
+        int n = matrix.size();
+        int predecessorWidth = matrix.predecessorWidth();
+        File temp = new File( file.getPath() + ".tmp" );
+        try ( RandomAccessFile raf = new RandomAccessFile( temp, "rw" );
+              FileChannel channel = raf.getChannel() )
+        {
+            raf.setLength( 0 );
+            channel.write( header( snapshot.transactionId(), snapshot.fingerprint(), n, predecessorWidth ), 0 );
+            ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE ).order( ByteOrder.nativeOrder() );
+            long position = HEADER_SIZE;
+            for ( int label : components.labels() )
+            {
+                if ( buffer.remaining() < 4 )
+                {
+                    position = flush( channel, buffer, position );
+                }
+                buffer.putInt( label );
+            }
+            position = flush( channel, buffer, position );
+            position = HEADER_SIZE + labelsLength( n );
+            for ( int c = 0; c < matrix.chunkCount(); c++ )
+            {
+                DoubleBuffer costs = matrix.costChunk( c ).duplicate();
+                costs.rewind();
+                while ( costs.hasRemaining() )
+                {
+                    int count = Math.min( costs.remaining(), buffer.remaining() / 8 );
+                    if ( count == 0 )
+                    {
+                        position = flush( channel, buffer, position );
+                        continue;
+                    }
+                    DoubleBuffer part = costs.duplicate();
+                    part.limit( part.position() + count );
+                    buffer.asDoubleBuffer().put( part );
+                    buffer.position( buffer.position() + 8 * count );
+                    costs.position( costs.position() + count );
+                }
+            }
+            position = flush( channel, buffer, position );
+            for ( int c = 0; predecessorWidth != 0 && c < matrix.chunkCount(); c++ )
+            {
+                Buffer chunk = matrix.predecessorChunk( c );
+                ShortBuffer shorts = predecessorWidth == 2 ? ( (ShortBuffer) chunk ).duplicate() : null;
+                IntBuffer ints = predecessorWidth == 4 ? ( (IntBuffer) chunk ).duplicate() : null;
+                Buffer predecessors = shorts != null ? shorts : ints;
+                predecessors.rewind();
+                while ( predecessors.hasRemaining() )
+                {
+                    if ( buffer.remaining() < predecessorWidth )
+                    {
+                        position = flush( channel, buffer, position );
+                    }
+                    if ( shorts != null )
+                    {
+                        buffer.putShort( shorts.get() );
+                    }
+                    else
+                    {
+                        buffer.putInt( ints.get() );
+                    }
+                }
+            }
+            flush( channel, buffer, position );
+            channel.force( true );
+        }
+        Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+              FileChannel channel = raf.getChannel() )
+        {
+            return map( channel, components, predecessorWidth, unreachable );
+        }
+    }
+
+    /**
+     * Marks the file stale before a matrix mapped from it is changed in
+     * place, so a crash halfway leaves nothing that {@link #open} accepts.
+     */
+    public void markStale() throws IOException
+    {
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+              FileChannel channel = raf.getChannel() )
+        {
+            channel.write( ByteBuffer.allocate( 8 ), 0 );
+        }
+    }
+
+    /**
+     * Marks the file current again after a matrix mapped from it was brought
+     * up to date with a snapshot in place.
+     */
+    public void markCurrent( GraphSnapshot snapshot, DistanceMatrix matrix ) throws IOException
+    {
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+              FileChannel channel = raf.getChannel() )
+        {
+            channel.write( header( snapshot.transactionId(), snapshot.fingerprint(), matrix.size(),
+                    matrix.predecessorWidth() ), 0 );
+        }
+    }
+
+    private static long flush( FileChannel channel, ByteBuffer buffer, long position ) throws IOException
+    {
+        buffer.flip();
+        while ( buffer.hasRemaining() )
+        {
+            position += channel.write( buffer, position );
+        }
+        buffer.clear();
+        return position;
+    }
+
+    private ByteBuffer header( long transactionId, long fingerprint, int n, int predecessorWidth )
+    {
+        ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+        header.putLong( MAGIC ).putInt( FORMAT_VERSION ).putInt( orderFlag() );
+        header.putLong( storeRandomId ).putLong( storeCreationTime );
+        header.putLong( transactionId ).putLong( fingerprint );
+        header.putInt( n ).putInt( predecessorWidth );
+        header.position( HEADER_SIZE );
+        header.flip();
+        return header;
+    }
+
+    private static int orderFlag()
+    {
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0;
+    }
+
+    private static long labelsLength( int n )
+    {
+        return ( 4L * n + 7 ) / 8 * 8;
+    }
+
+    private static long length( Components components, int predecessorWidth )
+    {
+        return HEADER_SIZE + labelsLength( components.nodeCount() ) + components.cells() * ( 8 + predecessorWidth );
+    }
+
+    private static DistanceMatrix map( FileChannel channel, Components components, int predecessorWidth,
+            double unreachable ) throws IOException
+    {
+        long cells = components.cells();
+        int chunks = (int) Math.max( 1, ( cells + CELLS_PER_CHUNK - 1 ) / CELLS_PER_CHUNK );
+        DoubleBuffer[] costs = new DoubleBuffer[chunks];
+        IntBuffer[] predecessors = predecessorWidth == 4 ? new IntBuffer[chunks] : null;
+        ShortBuffer[] shortPredecessors = predecessorWidth == 2 ? new ShortBuffer[chunks] : null;
+        long costStart = HEADER_SIZE + labelsLength( components.nodeCount() );
+        long predecessorStart = costStart + cells * 8;
+        for ( int c = 0; c < chunks; c++ )
+        {
+            long firstCell = (long) c * CELLS_PER_CHUNK;
+            long count = Math.min( CELLS_PER_CHUNK, cells - firstCell );
+            costs[c] = channel.map( MapMode.READ_WRITE, costStart + firstCell * 8, count * 8 )
+                    .order( ByteOrder.nativeOrder() ).asDoubleBuffer();
+            if ( predecessorWidth != 0 )
+            {
+                ByteBuffer chunk = channel.map( MapMode.READ_WRITE, predecessorStart + firstCell * predecessorWidth,
+                        count * predecessorWidth ).order( ByteOrder.nativeOrder() );
+                if ( predecessors != null )
+                {
+                    predecessors[c] = chunk.asIntBuffer();
+                }
+                else
+                {
+                    shortPredecessors[c] = chunk.asShortBuffer();
+                }
+            }
+        }
+        return new DistanceMatrix( components, unreachable, CELLS_PER_CHUNK, costs, predecessors, shortPredecessors );
+    }
+}
@@ -23,6 +23,8 @@ import java.util.*;
 
 
 class MinimaxFloydWarshall {
+    private static final int INF = Integer.MAX_VALUE;
+
     protected final List<Map<Integer, Integer>> links;
 
     public MinimaxFloydWarshall(final List<Map<Integer, Integer>> links) {
@@ -30,156 +32,289 @@ class MinimaxFloydWarshall {
     }
 
     /**
-     * Finds all-pairs-shortest-paths in O(V^3) using Floyd-Warshall algorithm.
+     * Uses the snapshot indexes as vertices and its costs, truncated to
+     * int, as link weights. Of parallel relationships the cheapest is kept,
+     * which is the one both the shortest and the minimax paths take.
      */
-    public List<Integer>[][] findAllPairsShortestPaths() {
-        final int n = links.size();
-        final int inf = Integer.MAX_VALUE;
-
-        // Initialize distance matrix.
-        final int[][] ds = new int[n][n];
-        for (int[] d : ds) Arrays.fill(d, inf);
+    public MinimaxFloydWarshall(final GraphSnapshot snapshot) {
+        final int n = snapshot.nodeCount();
+        final int[] offsets = snapshot.offsets();
+        final int[] targets = snapshot.targets();
+        final double[] costs = snapshot.costs();
+        links = new ArrayList<>(n);
         for (int i = 0; i < n; i++) {
-            ds[i][i] = 0;
-            for (final int j : links.get(i).keySet())
-                ds[i][j] = links.get(i).get(j);
+            final Map<Integer, Integer> link = new HashMap<>();
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                final Integer weight = link.get(targets[e]);
+                if (weight == null || (int) costs[e] < weight)
+                    link.put(targets[e], (int) costs[e]);
+            }
+            links.add(link);
         }
+    }
 
-        // Initialize next vertex matrix.
-        final int[][] ns = new int[n][n];
-        for (int i = 0; i < n; i++)
-            for (int j = 0; j < n; j++)
-                ns[i][j] = -1;
+    /**
+     * Finds all-pairs-shortest-paths in O(V^3) using Floyd-Warshall algorithm.
+     */
+    public Paths findAllPairsShortestPaths() {
+        return findAllPairsShortestPaths(0, 1);
+    }
 
-        // Here goes the magic!
-        for (int k = 0; k < n; k++)
-            for (int i = 0; i < n; i++)
-                for (int j = 0; j < n; j++)
-                    if (ds[i][k] != inf && ds[k][j] != inf) {
-                        final int d = ds[i][k] + ds[k][j];
-                        if (d < ds[i][j]) {
-                            ds[i][j] = d;
-                            ns[i][j] = k;
-                        }
-                    }
+    /**
+     * Same as {@link #findAllPairsShortestPaths()}, but tiled and run in
+     * parallel.
+     *
+     * @see BlockedFloydWarshall
+     */
+    public Paths findAllPairsShortestPaths(final int tileSize, final int threads) {
+        final int n = links.size();
+        final int[][] ds = initialWeights();
 
-        // Helper class to carve out paths from the next vertex matrix.
-        final class PathExtractor {
-            private void extract(final List<Integer> path, int i, int j) {
-                if (ds[i][j] == inf) return;
-                final int k = ns[i][j];
-                if (k != -1) {
-                    extract(path, i, k);
-                    path.add(k);
-                    extract(path, k, j);
-                }
+        // Here goes the magic!
+        new BlockedFloydWarshall(n, tileSize, threads).run(new BlockedFloydWarshall.Relaxation() {
+            @Override
+            public void relax(int k0, int k1, int i0, int i1, int j0, int j1) {
+                for (int k = k0; k < k1; k++)
+                    for (int i = i0; i < i1; i++)
+                        for (int j = j0; j < j1; j++)
+                            if (ds[i][k] != INF && ds[k][j] != INF) {
+                                final int d = ds[i][k] + ds[k][j];
+                                if (d < ds[i][j])
+                                    ds[i][j] = d;
+                            }
             }
-        }
-        final PathExtractor pathExtractor = new PathExtractor();
+        });
 
-        // Extract paths.
-        @SuppressWarnings("unchecked")
-        final List<Integer>[][] ps = new List[n][n];
-        for (int i = 0; i < n; i++)
-            for (int j = 0; j < n; j++)
-                if (ds[i][j] == inf)
-                    ps[i][j] = null;
-                else {
-                    ps[i][j] = new ArrayList<>();
-                    ps[i][j].add(i);
-                    if (i != j) {
-                        pathExtractor.extract(ps[i][j], i, j);
-                        ps[i][j].add(j);
-                    }
-                }
-
-        return ps;
+        return new Paths(ds, nextHops(ds, false));
     }
 
     /**
      * Finds all-pairs minimax paths using Floyd-Warshall.
      *
-     * A minimax path is the shortest length path such that the
-     * maximum edge weight along a path is minimum.
+     * A minimax path is a path such that the maximum edge weight along
+     * it is minimum. Every suffix of a returned path is itself a minimax
+     * path to the same target, so the paths never contain loops, and among
+     * those paths the one with the fewest hops is returned. That is not
+     * always the minimax path with the fewest hops overall: a shorter one
+     * may run through a vertex whose own minimax path to the target is
+     * lighter, which the length tie-break of the relaxation used to pick.
+     */
+    public Paths findAllPairsMinimaxPaths() {
+        return findAllPairsMinimaxPaths(0, 1);
+    }
+
+    /**
+     * Same as {@link #findAllPairsMinimaxPaths()}, but tiled and run in
+     * parallel.
      *
-     * <strong>Note that this algorithm produces paths with redundant
-     * loops, hence needs to be fixed.</strong>
+     * @see BlockedFloydWarshall
      */
-    public List<Integer>[][] findAllPairsMinimaxPaths() {
+    public Paths findAllPairsMinimaxPaths(final int tileSize, final int threads) {
         final int n = links.size();
-        final int inf = Integer.MAX_VALUE;
+        final int[][] ws = initialWeights();
+
+        // Here goes the magic!
+        new BlockedFloydWarshall(n, tileSize, threads).run(new BlockedFloydWarshall.Relaxation() {
+            @Override
+            public void relax(int k0, int k1, int i0, int i1, int j0, int j1) {
+                for (int k = k0; k < k1; k++)
+                    for (int i = i0; i < i1; i++)
+                        for (int j = j0; j < j1; j++)
+                            if (ws[i][k] != INF && ws[k][j] != INF) {
+                                final int w = Math.max(ws[i][k], ws[k][j]);
+                                if (w < ws[i][j])
+                                    ws[i][j] = w;
+                            }
+            }
+        });
 
-        // Initialize path weight and length matrices.
+        return new Paths(ws, nextHops(ws, true));
+    }
+
+    private int[][] initialWeights() {
+        final int n = links.size();
         final int[][] ws = new int[n][n];
-        final int[][] ls = new int[n][n];
-        for (int[] w : ws) Arrays.fill(w, inf);
-        for (int[] l : ls) Arrays.fill(l, inf);
+        for (int[] w : ws) Arrays.fill(w, INF);
         for (int i = 0; i < n; i++) {
             ws[i][i] = 0;
-            ls[i][i] = 0;
-            for (final int j : links.get(i).keySet()) {
-                ws[i][j] = links.get(i).get(j);
-                ls[i][j] = 1;
-            }
+            for (final Map.Entry<Integer, Integer> link : links.get(i).entrySet())
+                if (link.getKey() != i)
+                    ws[i][link.getKey()] = link.getValue();
         }
+        return ws;
+    }
+
+    /**
+     * Picks the next hops from the final weights rather than recording them
+     * during the relaxation: with the length tie-break the minimax relaxation
+     * used to have, the recorded hops could chain into loops.
+     *
+     * For every target j, a breadth-first search runs backwards from j over
+     * the links (i, x) that are tight, i.e. where the link followed by the
+     * best path from x weighs exactly ws[i][j]. Each vertex takes the vertex
+     * it was reached from as its next hop, so the hop count to j strictly
+     * decreases along a path, which rules out loops and still prefers the
+     * fewest hops among the tight paths. Runs in O(V * E).
+     *
+     * @return The next hops indexed by target first, i.e. hops[j][i] is the
+     *         vertex after i on the path from i to j, or -1 if there is none.
+     */
+    private int[][] nextHops(final int[][] ws, final boolean minimax) {
+        final int n = links.size();
 
-        // Initialize next vertex matrix.
-        final int[][] ns = new int[n][n];
+        // Index the links by their target.
+        final int[] offsets = new int[n + 1];
         for (int i = 0; i < n; i++)
-            for (int j = 0; j < n; j++)
-                ns[i][j] = -1;
+            for (final int j : links.get(i).keySet())
+                offsets[j + 1]++;
+        for (int j = 0; j < n; j++)
+            offsets[j + 1] += offsets[j];
+        final int[] sources = new int[offsets[n]];
+        final int[] weights = new int[offsets[n]];
+        final int[] fill = Arrays.copyOf(offsets, n);
+        for (int i = 0; i < n; i++)
+            for (final Map.Entry<Integer, Integer> link : links.get(i).entrySet()) {
+                final int e = fill[link.getKey()]++;
+                sources[e] = i;
+                weights[e] = link.getValue();
+            }
 
-        // Here goes the magic!
-        for (int k = 0; k < n; k++)
-            for (int i = 0; i < n; i++)
-                for (int j = 0; j < n; j++)
-                    if (ws[i][k] != inf && ws[k][j] != inf) {
-                        final int w = Math.max(ws[i][k], ws[k][j]);
-                        final int l = ls[i][k] + ls[k][j];
-                        if (w < ws[i][j] || (w == ws[i][j] && l < ls[i][j])) {
-                            ws[i][j] = w;
-                            ls[i][j] = l;
-                            ns[i][j] = k;
-                        }
+        final int[][] hops = new int[n][n];
+        final int[] queue = new int[n];
+        for (int j = 0; j < n; j++) {
+            final int[] hop = hops[j];
+            Arrays.fill(hop, -1);
+            hop[j] = j;
+            int head = 0, tail = 0;
+            queue[tail++] = j;
+            while (head < tail) {
+                final int x = queue[head++];
+                for (int e = offsets[x]; e < offsets[x + 1]; e++) {
+                    final int i = sources[e];
+                    if (hop[i] != -1 || ws[i][j] == INF)
+                        continue;
+                    final int w = minimax ? Math.max(weights[e], ws[x][j]) : weights[e] + ws[x][j];
+                    if (w == ws[i][j]) {
+                        hop[i] = x;
+                        queue[tail++] = i;
                     }
-
-        // Helper class to carve out paths from the next vertex matrix.
-        final class PathExtractor {
-            private void extract(final List<Integer> path, int i, int j) {
-                if (ws[i][j] == inf) return;
-                final int k = ns[i][j];
-                if (k != -1) {
-                    extract(path, i, k);
-                    path.add(k);
-                    extract(path, k, j);
                 }
             }
         }
-        final PathExtractor pathExtractor = new PathExtractor();
+        return hops;
+    }
+
+    /**
+     * All-pairs path weights along with a next-hop matrix. Paths are walked
+     * on demand, so no path is materialized unless asked for.
+     */
+    public static final class Paths {
+        private final int[][] weights;
+        private final int[][] hops;
+
+        private Paths(final int[][] weights, final int[][] hops) {
+            this.weights = weights;
+            this.hops = hops;
+        }
+
+        public int size() {
+            return weights.length;
+        }
+
+        public boolean exists(final int i, final int j) {
+            return hops[j][i] != -1;
+        }
+
+        /**
+         * @return The weight of the path from i to j, or
+         *         {@link Integer#MAX_VALUE} if there is none.
+         */
+        public int weight(final int i, final int j) {
+            return weights[i][j];
+        }
+
+        /**
+         * @return The vertex following i on the path from i to j, j itself
+         *         if i == j, or -1 if there is no path.
+         */
+        public int next(final int i, final int j) {
+            return hops[j][i];
+        }
+
+        /**
+         * @return The vertices of the path from i to j, both included, or
+         *         null if there is no path.
+         */
+        public Iterable<Integer> path(final int i, final int j) {
+            if (!exists(i, j)) return null;
+            return new Iterable<Integer>() {
+                @Override
+                public Iterator<Integer> iterator() {
+                    return new Iterator<Integer>() {
+                        private int v = i;
+
+                        @Override
+                        public boolean hasNext() {
+                            return v != -1;
+                        }
+
+                        @Override
+                        public Integer next() {
+                            if (v == -1) throw new NoSuchElementException();
+                            final int u = v;
+                            v = u == j ? -1 : hops[j][u];
+                            return u;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
 
-        // Extract paths.
-        @SuppressWarnings("unchecked")
-        final List<Integer>[][] ps = new List[n][n];
+    /**
+     * Test method that checks the minimax paths of a graph that used to
+     * produce loops.
+     */
+    public static void main(String[] args) {
+        final List<Map<Integer, Integer>> links = loopingGraph();
+        final String bad = firstBadPath(links, new MinimaxFloydWarshall(links).findAllPairsMinimaxPaths());
+        if (bad != null)
+            System.out.println(bad);
+    }
+
+    /**
+     * @return A description of the first path that visits a vertex twice or
+     *         does not weigh what the matrix says, or null if there is none.
+     */
+    static String firstBadPath(final List<Map<Integer, Integer>> links, final Paths paths) {
+        final int n = links.size();
         for (int i = 0; i < n; i++)
             for (int j = 0; j < n; j++)
-                if (ws[i][j] == inf)
-                    ps[i][j] = null;
-                else {
-                    ps[i][j] = new ArrayList<>();
-                    ps[i][j].add(i);
-                    if (i != j) {
-                        pathExtractor.extract(ps[i][j], i, j);
-                        ps[i][j].add(j);
+                if (paths.exists(i, j)) {
+                    HashSet<Integer> nodes = new HashSet<>();
+                    int u = -1, w = 0;
+                    for (final int v : paths.path(i, j)) {
+                        if (!nodes.add(v))
+                            return "loop: " + i + " -> " + j;
+                        if (u != -1) w = Math.max(w, links.get(u).get(v));
+                        u = v;
                     }
+                    if (w != paths.weight(i, j))
+                        return "weight: " + i + " -> " + j;
                 }
-
-        return ps;
+        return null;
     }
 
     /**
-     * Test method that reproduces minimax paths with loops.
+     * The links of a graph whose paths used to contain loops with the hop
+     * length tie-break applied during the relaxation.
      */
-    public static void main(String[] args) {
+    static List<Map<Integer, Integer>> loopingGraph() {
         // Initialize links.
         final int n = 119;
         List<Map<Integer, Integer>> links = new ArrayList<>(n);
@@ -405,18 +540,6 @@ class MinimaxFloydWarshall {
         links.get(117).put(42, 1);
         links.get(118).put(104, 1);
         links.get(118).put(44, 1);
-
-        // Check the graph.
-        MinimaxFloydWarshall mfw = new MinimaxFloydWarshall(links);
-        List<Integer>[][] paths = mfw.findAllPairsMinimaxPaths();
-        for (int i = 0; i < n; i++)
-            for (int j = 0; j < n; j++)
-                if (paths[i][j] != null) {
-                    HashSet<Integer> nodes = new HashSet<>(paths[i][j]);
-                    if (paths[i][j].size() != nodes.size()) {
-                        System.out.println("loop: " + paths[i][j]);
-                        return;
-                    }
-                }
+        return links;
     }
-}
\ No newline at end of file
+}
@@ -18,18 +18,8 @@
  */
 package org.neo4j.examples.server.plugins;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import org.neo4j.graphalgo.GraphAlgoFactory;
-import org.neo4j.graphalgo.PathFinder;
-import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
-import org.neo4j.graphdb.PathExpander;
-import org.neo4j.graphdb.PathExpanderBuilder;
-import org.neo4j.graphdb.PathExpanders;
-import org.neo4j.graphdb.Transaction;
 import org.neo4j.server.plugins.Description;
 import org.neo4j.server.plugins.Parameter;
 import org.neo4j.server.plugins.PluginTarget;
@@ -39,7 +29,8 @@ import org.neo4j.server.plugins.Source;
 // START SNIPPET: ShortestPath
 public class ShortestPath extends ServerPlugin
 {
-    @Description( "Find the shortest path between two nodes." )
+    @Description( "Find the shortest path between two nodes. Results are cached until a commit "
+            + "creates or deletes relationships they may depend on." )
     @PluginTarget( Node.class )
     public Iterable<Path> shortestPath(
             @Source Node source,
@@ -51,32 +42,8 @@ public class ShortestPath extends ServerPlugin
             @Description( "The maximum path length to search for, default value (if omitted) is 4." )
                 @Parameter( name = "depth", optional = true ) Integer depth )
     {
-        PathExpander<?> expander;
-        List<Path> paths = new ArrayList<>();
-        if ( types == null )
-        {
-            expander = PathExpanders.allTypesAndDirections();
-        }
-        else
-        {
-            PathExpanderBuilder expanderBuilder = PathExpanderBuilder.empty();
-            for ( int i = 0; i < types.length; i++ )
-            {
-                expanderBuilder = expanderBuilder.add( DynamicRelationshipType.withName( types[i] ) );
-            }
-            expander = expanderBuilder.build();
-        }
-        try (Transaction tx = source.getGraphDatabase().beginTx())
-        {
-            PathFinder<Path> shortestPath = GraphAlgoFactory.shortestPath( expander,
-                    depth == null ? 4 : depth.intValue() );
-            for ( Path path : shortestPath.findAllPaths( source, target ) )
-            {
-                paths.add( path );
-            }
-            tx.success();
-        }
-        return paths;
+        return ShortestPathCache.at( source.getGraphDatabase() ).findAllPaths( source, target, types,
+                depth == null ? 4 : depth.intValue() );
     }
 }
 // END SNIPPET: ShortestPath
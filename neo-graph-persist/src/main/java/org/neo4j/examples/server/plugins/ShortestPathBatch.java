@@ -0,0 +1,284 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.neo4j.graphalgo.GraphAlgoFactory;
+import org.neo4j.graphalgo.PathFinder;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.PathExpander;
+import org.neo4j.graphdb.PathExpanderBuilder;
+import org.neo4j.graphdb.PathExpanders;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.server.rest.repr.ListRepresentation;
+import org.neo4j.server.rest.repr.PathRepresentation;
+import org.neo4j.server.rest.repr.Representation;
+import org.neo4j.server.rest.repr.RepresentationType;
+
+/**
+ * Shortest paths between many source/target pairs, searched in parallel on
+ * a small pool of daemon threads shared by all databases.
+ *
+ * The expander is built once per batch. The pairs are cut into chunks of
+ * consecutive pairs, and each chunk is searched in one transaction with its
+ * own {@link PathFinder}, since a finder keeps the state of its last search.
+ * A batch keeps at most {@link #WINDOW} chunks in flight and submits the
+ * next one as the response consumes the oldest, so results stream back in
+ * request order without the whole batch being held in memory. When the
+ * shared queue is full the thread writing the response searches the chunk
+ * itself.
+ */
+final class ShortestPathBatch
+{
+    public static final int THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int WINDOW = THREADS * 2;
+    public static final int QUEUE_SIZE = THREADS * 8;
+    public static final int MAX_CHUNK = 64;
+
+    private static final ThreadPoolExecutor executor = newExecutor();
+
+    private ShortestPathBatch()
+    {
+    }
+
+    /**
+     * The expander of the batches, and of {@link ShortestPath#shortestPath}
+     * through {@link ShortestPathCache#findAllPaths}.
+     *
+     * @param types
+     *            The relationship types to follow in both directions, or
+     *            null for all of them.
+     */
+    public static PathExpander<?> expander( String[] types )
+    {
+        if ( types == null )
+        {
+            return PathExpanders.allTypesAndDirections();
+        }
+        PathExpanderBuilder expanderBuilder = PathExpanderBuilder.empty();
+        for ( String type : types )
+        {
+            expanderBuilder = expanderBuilder.add( DynamicRelationshipType.withName( type ) );
+        }
+        return expanderBuilder.build();
+    }
+
+    /**
+     * Starts searching the first chunks and returns the results as a list
+     * holding, for each pair in order, the list of its shortest paths. The
+     * other chunks are searched while the list is written, which can only
+     * be done once.
+     *
+     * @param sources
+     *            The start node of each pair.
+     * @param targets
+     *            The end node of each pair, as many as there are sources.
+     */
+    public static ListRepresentation find( GraphDatabaseService graphDb, Node[] sources, Node[] targets,
+            PathExpander<?> expander, int depth )
+    {
+        final Results results = new Results( graphDb, sources, targets, expander, depth );
+        return new ListRepresentation( "shortest_paths", new Iterable<Representation>()
+        {
+            @Override
+            public Iterator<Representation> iterator()
+            {
+                return results;
+            }
+        } );
+    }
+
+    private static int chunkSize( int pairs )
+    {
+        return Math.max( 1, Math.min( MAX_CHUNK, pairs / ( THREADS * 4 ) ) );
+    }
+
+    /**
+     * The paths of each pair, in order, as chunks complete.
+     */
+    private static final class Results implements Iterator<Representation>
+    {
+        private final GraphDatabaseService graphDb;
+        private final Node[] sources;
+        private final Node[] targets;
+        private final PathExpander<?> expander;
+        private final int depth;
+        private final int chunkSize;
+        private final Queue<Future<List<List<Path>>>> inFlight = new ArrayDeque<Future<List<List<Path>>>>();
+        private int submitted; // pairs handed to chunks so far
+        private int returned;
+        private List<List<Path>> chunk;
+        private int offset;
+
+        Results( GraphDatabaseService graphDb, Node[] sources, Node[] targets, PathExpander<?> expander,
+                int depth )
+        {
+            this.graphDb = graphDb;
+            this.sources = sources;
+            this.targets = targets;
+            this.expander = expander;
+            this.depth = depth;
+            this.chunkSize = chunkSize( sources.length );
+            while ( inFlight.size() < WINDOW && submitNext() )
+            {
+            }
+        }
+
+        private boolean submitNext()
+        {
+            if ( submitted == sources.length )
+            {
+                return false;
+            }
+            final int from = submitted;
+            final int to = Math.min( sources.length, from + chunkSize );
+            FutureTask<List<List<Path>>> task = new FutureTask<List<List<Path>>>( new Callable<List<List<Path>>>()
+            {
+                @Override
+                public List<List<Path>> call()
+                {
+                    return search( from, to );
+                }
+            } );
+            submitted = to;
+            inFlight.add( task );
+            executor.execute( task );
+            return true;
+        }
+
+        private List<List<Path>> search( int from, int to )
+        {
+            List<List<Path>> found = new ArrayList<List<Path>>( to - from );
+            try ( Transaction tx = graphDb.beginTx() )
+            {
+                PathFinder<Path> finder = GraphAlgoFactory.shortestPath( expander, depth );
+                for ( int pair = from; pair < to; pair++ )
+                {
+                    List<Path> paths = new ArrayList<Path>();
+                    for ( Path path : finder.findAllPaths( sources[pair], targets[pair] ) )
+                    {
+                        paths.add( path );
+                    }
+                    found.add( paths );
+                }
+                tx.success();
+            }
+            return found;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return returned < sources.length;
+        }
+
+        @Override
+        public Representation next()
+        {
+            if ( !hasNext() )
+            {
+                throw new NoSuchElementException();
+            }
+            if ( chunk == null || offset == chunk.size() )
+            {
+                chunk = await( inFlight.remove() );
+                offset = 0;
+                submitNext();
+            }
+            List<Path> paths = chunk.get( offset );
+            // Let the paths of returned pairs be collected
+            chunk.set( offset++, null );
+            returned++;
+            List<Representation> representations = new ArrayList<Representation>( paths.size() );
+            for ( Path path : paths )
+            {
+                representations.add( new PathRepresentation<Path>( path ) );
+            }
+            return new ListRepresentation( RepresentationType.PATH, representations );
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private static List<List<Path>> await( Future<List<List<Path>>> future )
+        {
+            try
+            {
+                return future.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException( "Interrupted while waiting for shortest paths", e );
+            }
+            catch ( ExecutionException e )
+            {
+                if ( e.getCause() instanceof RuntimeException )
+                {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException( e.getCause() );
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor newExecutor()
+    {
+        ThreadPoolExecutor result = new ThreadPoolExecutor( THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>( QUEUE_SIZE ), new Workers(),
+                new ThreadPoolExecutor.CallerRunsPolicy() );
+        // Idle workers exit, so the pool needs no shutdown
+        result.allowCoreThreadTimeOut( true );
+        return result;
+    }
+
+    private static final class Workers implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, "shortest-paths-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,568 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongObjectMap;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphalgo.GraphAlgoFactory;
+import org.neo4j.graphalgo.PathFinder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.config.Setting;
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.helpers.Settings;
+import org.neo4j.kernel.configuration.Config;
+
+/**
+ * The results of {@link ShortestPath#shortestPath} of one database, bounded
+ * in number and age and least recently used first out.
+ *
+ * Commits evict only the results they may change. A shortest path search
+ * ignores properties, so only relationships matter: deleting one evicts
+ * the results whose paths run over it, and deleting a node those that start
+ * or end at it; a node along a path cannot be deleted without its
+ * relationships. Creating a relationship may open a path no longer than the
+ * cached ones anywhere in the graph, so it evicts every result that follows
+ * its type; results restricted to other types are kept.
+ *
+ * A result is only added if no commit evicted anything while it was being
+ * searched for, since the search may have seen the graph from before that
+ * commit.
+ */
+final class ShortestPathCache
+{
+    /**
+     * The number of results cached per database, 0 to disable the cache.
+     */
+    public static final Setting<Integer> shortest_path_cache_size =
+            Settings.setting( "shortest_path.cache_size", Settings.INTEGER, "10000" );
+
+    /**
+     * How long a result is served from the cache at most.
+     */
+    public static final Setting<Long> shortest_path_cache_ttl =
+            Settings.setting( "shortest_path.cache_ttl", Settings.DURATION, "10m" );
+
+    private static final Map<GraphDatabaseService,ShortestPathCache> databases =
+            new IdentityHashMap<GraphDatabaseService,ShortestPathCache>();
+
+    private final int capacity;
+    private final long timeToLive;
+    // All guarded by this
+    private final LinkedHashMap<Key,Entry> entries = new LinkedHashMap<Key,Entry>( 16, 0.75f, true );
+    private final PrimitiveLongObjectMap<Set<Key>> byNode = Primitive.longObjectMap();
+    private final PrimitiveLongObjectMap<Set<Key>> byRelationship = Primitive.longObjectMap();
+    private final Map<String,Set<Key>> byType = new HashMap<String,Set<Key>>();
+    private final Set<Key> allTypes = new HashSet<Key>();
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    ShortestPathCache( int capacity, long timeToLive )
+    {
+        this.capacity = capacity;
+        this.timeToLive = timeToLive;
+    }
+
+    public static ShortestPathCache at( GraphDatabaseService graphDb )
+    {
+        synchronized ( databases )
+        {
+            ShortestPathCache result = databases.get( graphDb );
+            if ( result == null )
+            {
+                Config config = StoreAccess.config( graphDb );
+                result = config != null
+                        ? configured( config )
+                        : new ShortestPathCache(
+                                Settings.INTEGER.apply( shortest_path_cache_size.getDefaultValue() ),
+                                Settings.DURATION.apply( shortest_path_cache_ttl.getDefaultValue() ) );
+                graphDb.registerTransactionEventHandler( result.new Invalidator() );
+                graphDb.registerKernelEventHandler( new Unregister( graphDb ) );
+                databases.put( graphDb, result );
+            }
+            return result;
+        }
+    }
+
+    private static ShortestPathCache configured( Config config )
+    {
+        return new ShortestPathCache( config.get( shortest_path_cache_size ), config.get( shortest_path_cache_ttl ) );
+    }
+
+    /**
+     * Returns the cached shortest paths between two nodes, or searches for
+     * them in a transaction of their own and caches them.
+     *
+     * @param types
+     *            The relationship types to follow in both directions, or
+     *            null for all of them.
+     */
+    public List<Path> findAllPaths( Node source, Node target, String[] types, int maxDepth )
+    {
+        Key key = new Key( source.getId(), target.getId(), types, maxDepth );
+        List<Path> cached = get( key );
+        if ( cached != null )
+        {
+            return cached;
+        }
+        long started = generation();
+        List<Path> paths = new ArrayList<Path>();
+        try ( Transaction tx = source.getGraphDatabase().beginTx() )
+        {
+            PathFinder<Path> finder = GraphAlgoFactory.shortestPath( ShortestPathBatch.expander( types ), maxDepth );
+            for ( Path path : finder.findAllPaths( source, target ) )
+            {
+                paths.add( path );
+            }
+            put( key, started, paths );
+            tx.success();
+        }
+        return paths;
+    }
+
+    /**
+     * @return the paths of a search, or null if they are not cached.
+     */
+    public List<Path> get( Key key )
+    {
+        synchronized ( this )
+        {
+            Entry entry = entries.get( key );
+            if ( entry != null && System.currentTimeMillis() - entry.created <= timeToLive )
+            {
+                hits.incrementAndGet();
+                return entry.paths;
+            }
+            if ( entry != null )
+            {
+                remove( key );
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return what to pass to {@link #put} for a search started now.
+     */
+    public synchronized long generation()
+    {
+        return generation;
+    }
+
+    /**
+     * Caches the paths of a search unless a commit evicted results since it
+     * started. Must be called inside a transaction.
+     *
+     * @param generation
+     *            The {@link #generation()} from before the search.
+     */
+    public void put( Key key, long generation, List<Path> paths )
+    {
+        if ( capacity <= 0 )
+        {
+            return;
+        }
+        // Read the entities outside the lock
+        PrimitiveLongSet relationships = Primitive.longSet();
+        for ( Path path : paths )
+        {
+            for ( Relationship relationship : path.relationships() )
+            {
+                relationships.add( relationship.getId() );
+            }
+        }
+        Entry entry = new Entry( Collections.unmodifiableList( new ArrayList<Path>( paths ) ),
+                toArray( relationships ), System.currentTimeMillis() );
+        synchronized ( this )
+        {
+            if ( generation != this.generation )
+            {
+                return;
+            }
+            remove( key );
+            entries.put( key, entry );
+            index( byNode, key.sourceId, key );
+            index( byNode, key.targetId, key );
+            for ( long relationship : entry.relationships )
+            {
+                index( byRelationship, relationship, key );
+            }
+            if ( key.types == null )
+            {
+                allTypes.add( key );
+            }
+            else
+            {
+                for ( String type : key.types )
+                {
+                    Set<Key> keys = byType.get( type );
+                    if ( keys == null )
+                    {
+                        keys = new HashSet<Key>();
+                        byType.put( type, keys );
+                    }
+                    keys.add( key );
+                }
+            }
+            Iterator<Map.Entry<Key,Entry>> eldest = entries.entrySet().iterator();
+            while ( entries.size() > capacity )
+            {
+                Map.Entry<Key,Entry> evicted = eldest.next();
+                eldest.remove();
+                unindex( evicted.getKey(), evicted.getValue() );
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public long hits()
+    {
+        return hits.get();
+    }
+
+    public long misses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of results dropped for their age or to make room.
+     */
+    public long evictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of results dropped because a commit may have
+     *         changed them.
+     */
+    public long invalidations()
+    {
+        return invalidations.get();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    private void invalidate( Changes changes )
+    {
+        synchronized ( this )
+        {
+            generation++;
+            Set<Key> stale = new HashSet<Key>();
+            for ( PrimitiveLongIterator nodes = changes.deletedNodes.iterator(); nodes.hasNext(); )
+            {
+                addAll( stale, byNode.get( nodes.next() ) );
+            }
+            for ( PrimitiveLongIterator relationships = changes.deletedRelationships.iterator();
+                    relationships.hasNext(); )
+            {
+                addAll( stale, byRelationship.get( relationships.next() ) );
+            }
+            if ( !changes.createdTypes.isEmpty() )
+            {
+                stale.addAll( allTypes );
+                for ( String type : changes.createdTypes )
+                {
+                    addAll( stale, byType.get( type ) );
+                }
+            }
+            for ( Key key : stale )
+            {
+                remove( key );
+            }
+            invalidations.addAndGet( stale.size() );
+        }
+    }
+
+    private void remove( Key key )
+    {
+        Entry entry = entries.remove( key );
+        if ( entry != null )
+        {
+            unindex( key, entry );
+        }
+    }
+
+    /**
+     * Drops a result that is no longer cached from the indexes.
+     */
+    private void unindex( Key key, Entry entry )
+    {
+        unindex( byNode, key.sourceId, key );
+        unindex( byNode, key.targetId, key );
+        for ( long relationship : entry.relationships )
+        {
+            unindex( byRelationship, relationship, key );
+        }
+        if ( key.types == null )
+        {
+            allTypes.remove( key );
+        }
+        else
+        {
+            for ( String type : key.types )
+            {
+                Set<Key> keys = byType.get( type );
+                keys.remove( key );
+                if ( keys.isEmpty() )
+                {
+                    byType.remove( type );
+                }
+            }
+        }
+    }
+
+    private static void index( PrimitiveLongObjectMap<Set<Key>> index, long id, Key key )
+    {
+        Set<Key> keys = index.get( id );
+        if ( keys == null )
+        {
+            keys = new HashSet<Key>( 4 );
+            index.put( id, keys );
+        }
+        keys.add( key );
+    }
+
+    private static void unindex( PrimitiveLongObjectMap<Set<Key>> index, long id, Key key )
+    {
+        Set<Key> keys = index.get( id );
+        // Already gone when the search starts and ends at the same node
+        if ( keys != null && keys.remove( key ) && keys.isEmpty() )
+        {
+            index.remove( id );
+        }
+    }
+
+    private static void addAll( Set<Key> to, Set<Key> keys )
+    {
+        if ( keys != null )
+        {
+            to.addAll( keys );
+        }
+    }
+
+    private static long[] toArray( PrimitiveLongSet set )
+    {
+        long[] result = new long[set.size()];
+        int i = 0;
+        for ( PrimitiveLongIterator iterator = set.iterator(); iterator.hasNext(); )
+        {
+            result[i++] = iterator.next();
+        }
+        return result;
+    }
+
+    private static final class Entry
+    {
+        final List<Path> paths;
+        final long[] relationships; // along the paths
+        final long created;
+
+        Entry( List<Path> paths, long[] relationships, long created )
+        {
+            this.paths = paths;
+            this.relationships = relationships;
+            this.created = created;
+        }
+    }
+
+    /**
+     * What a search is made of: its ends, the relationship types it follows
+     * and its maximum depth.
+     */
+    static final class Key
+    {
+        private final long sourceId;
+        private final long targetId;
+        private final String[] types; // sorted and distinct, or null for all
+        private final int depth;
+
+        /**
+         * @param types
+         *            The names of the relationship types to follow, in any
+         *            order, or null for all of them.
+         */
+        Key( long sourceId, long targetId, String[] types, int depth )
+        {
+            this.sourceId = sourceId;
+            this.targetId = targetId;
+            this.types = types == null ? null : distinct( types );
+            this.depth = depth;
+        }
+
+        private static String[] distinct( String[] names )
+        {
+            String[] sorted = names.clone();
+            Arrays.sort( sorted );
+            int count = 0;
+            for ( int i = 0; i < sorted.length; i++ )
+            {
+                if ( i == 0 || !sorted[i].equals( sorted[count - 1] ) )
+                {
+                    sorted[count++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf( sorted, count );
+        }
+
+        @Override
+        public boolean equals( Object other )
+        {
+            if ( !( other instanceof Key ) )
+            {
+                return false;
+            }
+            Key that = (Key) other;
+            return sourceId == that.sourceId && targetId == that.targetId && depth == that.depth
+                    && Arrays.equals( types, that.types );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = (int) ( sourceId ^ ( sourceId >>> 32 ) );
+            result = 31 * result + (int) ( targetId ^ ( targetId >>> 32 ) );
+            result = 31 * result + depth;
+            return 31 * result + Arrays.hashCode( types );
+        }
+
+        @Override
+        public String toString()
+        {
+            return sourceId + "->" + targetId + "/" + Arrays.toString( types ) + "/" + depth;
+        }
+    }
+
+    /**
+     * The changes of one transaction that may change cached results.
+     * Captured in {@code beforeCommit}, while the created relationships can
+     * still be read, and applied after the commit.
+     */
+    private static final class Changes
+    {
+        final PrimitiveLongSet deletedNodes = Primitive.longSet();
+        final PrimitiveLongSet deletedRelationships = Primitive.longSet();
+        final Set<String> createdTypes = new HashSet<String>();
+    }
+
+    private final class Invalidator extends TransactionEventHandler.Adapter<Changes>
+    {
+        @Override
+        public Changes beforeCommit( TransactionData data ) throws Exception
+        {
+            Changes changes = new Changes();
+            for ( Node node : data.deletedNodes() )
+            {
+                changes.deletedNodes.add( node.getId() );
+            }
+            for ( Relationship relationship : data.deletedRelationships() )
+            {
+                changes.deletedRelationships.add( relationship.getId() );
+            }
+            for ( Relationship relationship : data.createdRelationships() )
+            {
+                if ( !changes.deletedRelationships.contains( relationship.getId() ) )
+                {
+                    changes.createdTypes.add( relationship.getType().name() );
+                }
+            }
+            return changes.deletedNodes.isEmpty() && changes.deletedRelationships.isEmpty()
+                    && changes.createdTypes.isEmpty() ? null : changes;
+        }
+
+        @Override
+        public void afterCommit( TransactionData data, Changes changes )
+        {
+            if ( changes != null )
+            {
+                invalidate( changes );
+            }
+        }
+    }
+
+    /**
+     * Forgets a database when it shuts down.
+     */
+    private static final class Unregister implements KernelEventHandler
+    {
+        private final GraphDatabaseService graphDb;
+
+        Unregister( GraphDatabaseService graphDb )
+        {
+            this.graphDb = graphDb;
+        }
+
+        @Override
+        public void beforeShutdown()
+        {
+            synchronized ( databases )
+            {
+                databases.remove( graphDb );
+            }
+        }
+
+        @Override
+        public void kernelPanic( ErrorState error )
+        {
+        }
+
+        @Override
+        public Object getResource()
+        {
+            return null;
+        }
+
+        @Override
+        public ExecutionOrder orderComparedTo( KernelEventHandler other )
+        {
+            return ExecutionOrder.DOESNT_MATTER;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.server.plugins.Description;
+import org.neo4j.server.plugins.Name;
+import org.neo4j.server.plugins.Parameter;
+import org.neo4j.server.plugins.PluginTarget;
+import org.neo4j.server.plugins.ServerPlugin;
+import org.neo4j.server.plugins.Source;
+import org.neo4j.server.rest.repr.BadInputException;
+import org.neo4j.server.rest.repr.MappingRepresentation;
+import org.neo4j.server.rest.repr.MappingSerializer;
+import org.neo4j.server.rest.repr.Representation;
+
+@Description( "Shortest paths between many pairs of nodes, and the statistics of the shortestPath cache" )
+public class ShortestPaths extends ServerPlugin
+{
+    @Name( "shortest_paths_batch" )
+    @Description( "Find the shortest paths between many pairs of nodes at once, searching the pairs in " +
+            "parallel. Returns, for each pair in order, the list of its shortest paths." )
+    @PluginTarget( GraphDatabaseService.class )
+    public Representation shortestPathsBatch(
+            @Source GraphDatabaseService graphDb,
+            @Description( "The start node of each pair." )
+                @Parameter( name = "sources" ) Node[] sources,
+            @Description( "The end node of each pair, in the same order as the start nodes." )
+                @Parameter( name = "targets" ) Node[] targets,
+            @Description( "The relationship types to follow when searching for the shortest path(s). " +
+                    "Order is insignificant, if omitted all types are followed." )
+                @Parameter( name = "types", optional = true ) String[] types,
+            @Description( "The maximum path length to search for, default value (if omitted) is 4." )
+                @Parameter( name = "depth", optional = true ) Integer depth ) throws BadInputException
+    {
+        if ( sources.length != targets.length )
+        {
+            throw new BadInputException( "Got " + sources.length + " sources but " + targets.length + " targets" );
+        }
+        return ShortestPathBatch.find( graphDb, sources, targets, ShortestPathBatch.expander( types ),
+                depth == null ? 4 : depth.intValue() );
+    }
+
+    @Name( "shortest_path_cache" )
+    @Description( "Get the hit and miss counts of the cache of shortestPath results." )
+    @PluginTarget( GraphDatabaseService.class )
+    public Representation shortestPathCache( @Source GraphDatabaseService graphDb )
+    {
+        final ShortestPathCache cache = ShortestPathCache.at( graphDb );
+        return new MappingRepresentation( "shortest_path_cache" )
+        {
+            @Override
+            protected void serialize( MappingSerializer serializer )
+            {
+                serializer.putNumber( "hits", cache.hits() );
+                serializer.putNumber( "misses", cache.misses() );
+                serializer.putNumber( "evictions", cache.evictions() );
+                serializer.putNumber( "invalidations", cache.invalidations() );
+                serializer.putNumber( "size", cache.size() );
+            }
+        };
+    }
+}
@@ -0,0 +1,482 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * All-pairs shortest paths for sparse graphs: one binary-heap Dijkstra per
+ * source, run in parallel over a {@link GraphSnapshot}. When some edge has
+ * a negative cost the edges are first reweighted with Johnson's potentials,
+ * computed by Bellman-Ford from a virtual source.
+ *
+ * Fills the same row-major distance and predecessor layout as
+ * {@link DoubleFloydWarshall}.
+ */
+class SparseAllPairs
+{
+    private static final int NO_PREDECESSOR = -1;
+
+    private final int n;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights; // reweighted copy if any cost is negative
+    private final int threads;
+    private double[] potentials;
+
+    /**
+     * @param threads
+     *            The number of worker threads, or a value that is not
+     *            positive for one per available processor.
+     */
+    public SparseAllPairs( GraphSnapshot snapshot, int threads )
+    {
+        this.n = snapshot.nodeCount();
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.offsets = snapshot.offsets();
+        this.targets = snapshot.targets();
+        this.weights = snapshot.hasNegativeCosts() ? snapshot.costs().clone() : snapshot.costs();
+    }
+
+    /**
+     * Fills the distance and predecessor matrices.
+     *
+     * @param costs
+     *            n*n row-major distances, prefilled with a cost worse than
+     *            all others.
+     * @param predecessors
+     *            n*n row-major predecessors, or null if not wanted.
+     * @throws IllegalStateException
+     *             if the graph has a negative cycle.
+     */
+    public void run( double[] costs, int[] predecessors, double startCost )
+    {
+        reweight();
+        if ( threads == 1 )
+        {
+            new Sources( costs, predecessors, startCost, 0, n, n ).compute();
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool( threads );
+        try
+        {
+            int grain = Math.max( 1, n / ( threads * 8 ) );
+            pool.invoke( new Sources( costs, predecessors, startCost, 0, n, grain ) );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Recomputes the rows of some sources in place, leaving the others
+     * untouched.
+     *
+     * @param sources
+     *            The sources whose rows are recomputed.
+     * @param infinitelyBad
+     *            The cost of unreachable pairs.
+     * @throws IllegalStateException
+     *             if the graph has a negative cycle.
+     */
+    public void run( int[] sources, DistanceMatrix matrix, double startCost, double infinitelyBad )
+    {
+        reweight();
+        ForkJoinPool pool = new ForkJoinPool( threads );
+        try
+        {
+            int grain = Math.max( 1, sources.length / ( threads * 8 ) );
+            pool.invoke( new Rows( sources, matrix, startCost, infinitelyBad, 0, sources.length, grain ) );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Fills the distances from one source into a row prefilled with a cost
+     * worse than all others. {@link #prepare()} must have been called.
+     */
+    public void singleSource( int source, double[] row, double startCost, IndexedHeap heap, boolean[] settled )
+    {
+        dijkstra( source, row, null, 0, startCost, heap, settled );
+    }
+
+    /**
+     * Same as {@link #singleSource(int, double[], double, IndexedHeap, boolean[])},
+     * also filling the predecessors into a row prefilled with -1.
+     */
+    public void singleSource( int source, double[] row, int[] predecessors, double startCost, IndexedHeap heap,
+            boolean[] settled )
+    {
+        dijkstra( source, row, predecessors, 0, startCost, heap, settled );
+    }
+
+    /**
+     * Reweights the edges if needed before {@link #singleSource} is used.
+     *
+     * @throws IllegalStateException
+     *             if the graph has a negative cycle.
+     */
+    public void prepare()
+    {
+        reweight();
+    }
+
+    /**
+     * Johnson reweighting: w'(u,v) = w(u,v) + h(u) - h(v) >= 0.
+     */
+    private void reweight()
+    {
+        boolean negative = false;
+        for ( double weight : weights )
+        {
+            if ( weight < 0 )
+            {
+                negative = true;
+                break;
+            }
+        }
+        if ( !negative )
+        {
+            return;
+        }
+        // Bellman-Ford from a virtual source with a zero edge to every node
+        double[] h = new double[n];
+        boolean changed = true;
+        for ( int round = 0; changed; round++ )
+        {
+            if ( round > n )
+            {
+                throw new IllegalStateException( "The graph has a negative cycle" );
+            }
+            changed = false;
+            for ( int u = 0; u < n; u++ )
+            {
+                for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+                {
+                    double alternative = h[u] + weights[e];
+                    if ( alternative < h[targets[e]] )
+                    {
+                        h[targets[e]] = alternative;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        for ( int u = 0; u < n; u++ )
+        {
+            for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+            {
+                weights[e] = Math.max( 0.0, weights[e] + h[u] - h[targets[e]] );
+            }
+        }
+        potentials = h;
+    }
+
+    /**
+     * Fills the row of a source, which starts at an offset into the arrays
+     * and must be prefilled.
+     */
+    private void dijkstra( int source, double[] costs, int[] predecessors, int row, double startCost,
+            IndexedHeap heap, boolean[] settled )
+    {
+        Arrays.fill( settled, false );
+        costs[row + source] = 0.0;
+        heap.insert( source, 0.0 );
+        while ( !heap.isEmpty() )
+        {
+            int u = heap.poll();
+            settled[u] = true;
+            double du = costs[row + u];
+            for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+            {
+                int v = targets[e];
+                if ( settled[v] )
+                {
+                    continue;
+                }
+                double alternative = du + weights[e];
+                if ( alternative < costs[row + v] )
+                {
+                    costs[row + v] = alternative;
+                    if ( predecessors != null )
+                    {
+                        predecessors[row + v] = u;
+                    }
+                    heap.insertOrDecrease( v, alternative );
+                }
+            }
+        }
+        if ( potentials != null )
+        {
+            for ( int v = 0; v < n; v++ )
+            {
+                if ( settled[v] )
+                {
+                    costs[row + v] += potentials[v] - potentials[source];
+                }
+            }
+        }
+        costs[row + source] = startCost;
+        if ( predecessors != null )
+        {
+            predecessors[row + source] = NO_PREDECESSOR;
+        }
+    }
+
+    @SuppressWarnings( "serial" )
+    private final class Sources extends RecursiveAction
+    {
+        private final double[] costs;
+        private final int[] predecessors;
+        private final double startCost;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Sources( double[] costs, int[] predecessors, double startCost, int from, int to, int grain )
+        {
+            this.costs = costs;
+            this.predecessors = predecessors;
+            this.startCost = startCost;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( to - from > grain )
+            {
+                int mid = ( from + to ) >>> 1;
+                invokeAll( new Sources( costs, predecessors, startCost, from, mid, grain ),
+                        new Sources( costs, predecessors, startCost, mid, to, grain ) );
+                return;
+            }
+            IndexedHeap heap = new IndexedHeap( n );
+            boolean[] settled = new boolean[n];
+            for ( int source = from; source < to; source++ )
+            {
+                dijkstra( source, costs, predecessors, source * n, startCost, heap, settled );
+            }
+        }
+    }
+
+    @SuppressWarnings( "serial" )
+    private final class Rows extends RecursiveAction
+    {
+        private final int[] sources;
+        private final DistanceMatrix matrix;
+        private final double startCost;
+        private final double infinitelyBad;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Rows( int[] sources, DistanceMatrix matrix, double startCost, double infinitelyBad, int from,
+                int to, int grain )
+        {
+            this.sources = sources;
+            this.matrix = matrix;
+            this.startCost = startCost;
+            this.infinitelyBad = infinitelyBad;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( to - from > grain )
+            {
+                int mid = ( from + to ) >>> 1;
+                invokeAll( new Rows( sources, matrix, startCost, infinitelyBad, from, mid, grain ),
+                        new Rows( sources, matrix, startCost, infinitelyBad, mid, to, grain ) );
+                return;
+            }
+            IndexedHeap heap = new IndexedHeap( n );
+            boolean[] settled = new boolean[n];
+            double[] costs = new double[n];
+            int[] predecessors = matrix.hasPredecessors() ? new int[n] : null;
+            for ( int index = from; index < to; index++ )
+            {
+                int source = sources[index];
+                Arrays.fill( costs, infinitelyBad );
+                if ( predecessors != null )
+                {
+                    Arrays.fill( predecessors, NO_PREDECESSOR );
+                }
+                dijkstra( source, costs, predecessors, 0, startCost, heap, settled );
+                for ( int target = 0; target < n; target++ )
+                {
+                    matrix.setCost( source, target, costs[target] );
+                    if ( predecessors != null )
+                    {
+                        matrix.setPredecessor( source, target, predecessors[target] );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap over node indexes with decrease-key.
+     */
+    static final class IndexedHeap
+    {
+        private final int[] heap;
+        private final int[] positions;
+        private final double[] keys;
+        private int size;
+
+        IndexedHeap( int capacity )
+        {
+            heap = new int[capacity];
+            positions = new int[capacity];
+            keys = new double[capacity];
+            Arrays.fill( positions, -1 );
+        }
+
+        boolean isEmpty()
+        {
+            return size == 0;
+        }
+
+        /**
+         * @return the smallest key; the heap must not be empty.
+         */
+        double peekKey()
+        {
+            return keys[heap[0]];
+        }
+
+        /**
+         * Empties the heap in time proportional to its size.
+         */
+        void clear()
+        {
+            for ( int i = 0; i < size; i++ )
+            {
+                positions[heap[i]] = -1;
+            }
+            size = 0;
+        }
+
+        void insert( int node, double key )
+        {
+            keys[node] = key;
+            heap[size] = node;
+            positions[node] = size;
+            siftUp( size++ );
+        }
+
+        void insertOrDecrease( int node, double key )
+        {
+            if ( positions[node] < 0 )
+            {
+                insert( node, key );
+            }
+            else
+            {
+                keys[node] = key;
+                siftUp( positions[node] );
+            }
+        }
+
+        /**
+         * Inserts a node or moves it to a new key, larger or smaller.
+         */
+        void insertOrUpdate( int node, double key )
+        {
+            if ( positions[node] < 0 )
+            {
+                insert( node, key );
+            }
+            else
+            {
+                keys[node] = key;
+                siftUp( positions[node] );
+                siftDown( positions[node] );
+            }
+        }
+
+        int poll()
+        {
+            int top = heap[0];
+            positions[top] = -1;
+            if ( --size > 0 )
+            {
+                heap[0] = heap[size];
+                positions[heap[0]] = 0;
+                siftDown( 0 );
+            }
+            return top;
+        }
+
+        private void siftUp( int index )
+        {
+            int node = heap[index];
+            double key = keys[node];
+            while ( index > 0 )
+            {
+                int parent = ( index - 1 ) >>> 1;
+                if ( keys[heap[parent]] <= key )
+                {
+                    break;
+                }
+                heap[index] = heap[parent];
+                positions[heap[index]] = index;
+                index = parent;
+            }
+            heap[index] = node;
+            positions[node] = index;
+        }
+
+        private void siftDown( int index )
+        {
+            int node = heap[index];
+            double key = keys[node];
+            int half = size >>> 1;
+            while ( index < half )
+            {
+                int child = 2 * index + 1;
+                if ( child + 1 < size && keys[heap[child + 1]] < keys[heap[child]] )
+                {
+                    child++;
+                }
+                if ( key <= keys[heap[child]] )
+                {
+                    break;
+                }
+                heap[index] = heap[child];
+                positions[heap[index]] = index;
+                index = child;
+            }
+            heap[index] = node;
+            positions[node] = index;
+        }
+    }
+}
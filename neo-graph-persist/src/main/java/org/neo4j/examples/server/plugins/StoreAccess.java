@@ -0,0 +1,102 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.io.File;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.store.StoreId;
+import org.neo4j.kernel.impl.transaction.log.TransactionIdStore;
+
+/**
+ * The few kernel internals the plugins need, which are only reachable
+ * through the deprecated {@link org.neo4j.kernel.GraphDatabaseAPI}. Every
+ * method has an answer for databases that do not expose them.
+ */
+@SuppressWarnings( "deprecation" )
+final class StoreAccess
+{
+    private StoreAccess()
+    {
+    }
+
+    /**
+     * @return whether the database exposes its store and configuration.
+     */
+    public static boolean exposed( GraphDatabaseService graphDb )
+    {
+        return graphDb instanceof org.neo4j.kernel.GraphDatabaseAPI;
+    }
+
+    /**
+     * @param suffix
+     *            Appended to the name of the store directory, e.g.
+     *            ".name.apsp".
+     * @return a file next to the store directory, or null if the database
+     *         does not expose its store.
+     */
+    public static File file( GraphDatabaseService graphDb, String suffix )
+    {
+        if ( !exposed( graphDb ) )
+        {
+            return null;
+        }
+        File storeDir = new File( api( graphDb ).getStoreDir() ).getAbsoluteFile();
+        return new File( storeDir.getParentFile(), storeDir.getName() + suffix );
+    }
+
+    /**
+     * @return the id of the store, or null if the database does not expose
+     *         it.
+     */
+    public static StoreId storeId( GraphDatabaseService graphDb )
+    {
+        return exposed( graphDb ) ? api( graphDb ).storeId() : null;
+    }
+
+    /**
+     * @return the id of the last committed transaction, or -1 if the
+     *         database does not expose it.
+     */
+    public static long lastCommittedTransactionId( GraphDatabaseService graphDb )
+    {
+        return exposed( graphDb ) ? resolve( graphDb, TransactionIdStore.class ).getLastCommittedTransactionId()
+                : -1;
+    }
+
+    /**
+     * @return the configuration of the database, or null if it has none to
+     *         read.
+     */
+    public static Config config( GraphDatabaseService graphDb )
+    {
+        return exposed( graphDb ) ? resolve( graphDb, Config.class ) : null;
+    }
+
+    private static <T> T resolve( GraphDatabaseService graphDb, Class<T> type )
+    {
+        return api( graphDb ).getDependencyResolver().resolveDependency( type );
+    }
+
+    private static org.neo4j.kernel.GraphDatabaseAPI api( GraphDatabaseService graphDb )
+    {
+        return (org.neo4j.kernel.GraphDatabaseAPI) graphDb;
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import java.util.Arrays;
+
+/**
+ * Widest (minimax) paths from one source over a {@link GraphSnapshot}: a
+ * Dijkstra whose path cost is the largest edge cost on the path instead of
+ * the sum, so only one row of the minimax matrix is computed.
+ *
+ * Ties are broken on path length, mirroring {@link MinimaxFloydWarshall}:
+ * among the widest paths whose every prefix is itself a widest path, the one
+ * with the fewest hops. A widest path with fewer hops through a node that
+ * has a wider path of its own is not picked. Once the bottlenecks are
+ * settled, a breadth-first search from the source over the tight edges,
+ * those where the bottleneck of the head equals that of the tail after the
+ * edge, picks the predecessors.
+ *
+ * With a target the search stops once every node with a bottleneck no worse
+ * than that of the target is settled, which is all the tie-break needs.
+ */
+final class WidestPaths
+{
+    private static final int NONE = -1;
+
+    private final GraphSnapshot snapshot;
+    private final int source;
+    private final double[] bottlenecks;
+    private final int[] predecessors;
+    private final int[] lengths;
+
+    private WidestPaths( GraphSnapshot snapshot, int source, double[] bottlenecks, int[] predecessors,
+            int[] lengths )
+    {
+        this.snapshot = snapshot;
+        this.source = source;
+        this.bottlenecks = bottlenecks;
+        this.predecessors = predecessors;
+        this.lengths = lengths;
+    }
+
+    /**
+     * @param target
+     *            The index of the node to stop at, or -1 to reach every node.
+     *            Nodes with a worse bottleneck than the target are left
+     *            unreached.
+     */
+    public static WidestPaths from( GraphSnapshot snapshot, int source, int target )
+    {
+        int n = snapshot.nodeCount();
+        int[] offsets = snapshot.offsets();
+        int[] targets = snapshot.targets();
+        double[] costs = snapshot.costs();
+
+        double[] bottlenecks = new double[n];
+        Arrays.fill( bottlenecks, Double.POSITIVE_INFINITY );
+        boolean[] settled = new boolean[n];
+        SparseAllPairs.IndexedHeap heap = new SparseAllPairs.IndexedHeap( n );
+        bottlenecks[source] = 0.0;
+        heap.insert( source, 0.0 );
+        while ( !heap.isEmpty() )
+        {
+            int v = heap.poll();
+            if ( target != NONE && settled[target] && bottlenecks[v] > bottlenecks[target] )
+            {
+                break;
+            }
+            settled[v] = true;
+            for ( int e = offsets[v]; e < offsets[v + 1]; e++ )
+            {
+                int w = targets[e];
+                double bottleneck = Math.max( bottlenecks[v], costs[e] );
+                if ( !settled[w] && bottleneck < bottlenecks[w] )
+                {
+                    bottlenecks[w] = bottleneck;
+                    heap.insertOrDecrease( w, bottleneck );
+                }
+            }
+        }
+        // Whatever is still queued has a tentative bottleneck only
+        for ( int v = 0; v < n; v++ )
+        {
+            if ( !settled[v] )
+            {
+                bottlenecks[v] = Double.POSITIVE_INFINITY;
+            }
+        }
+
+        int[] predecessors = new int[n];
+        int[] lengths = new int[n];
+        Arrays.fill( predecessors, NONE );
+        Arrays.fill( lengths, NONE );
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        lengths[source] = 0;
+        queue[tail++] = source;
+        while ( head < tail )
+        {
+            int v = queue[head++];
+            for ( int e = offsets[v]; e < offsets[v + 1]; e++ )
+            {
+                int w = targets[e];
+                if ( settled[w] && lengths[w] == NONE
+                        && Math.max( bottlenecks[v], costs[e] ) == bottlenecks[w] )
+                {
+                    predecessors[w] = v;
+                    lengths[w] = lengths[v] + 1;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        return new WidestPaths( snapshot, source, bottlenecks, predecessors, lengths );
+    }
+
+    public GraphSnapshot snapshot()
+    {
+        return snapshot;
+    }
+
+    public int source()
+    {
+        return source;
+    }
+
+    public boolean reached( int node )
+    {
+        return lengths[node] != NONE;
+    }
+
+    /**
+     * @return the smallest possible largest edge cost on a path from the
+     *         source, 0 for the source itself, or positive infinity if the
+     *         node was not reached.
+     */
+    public double bottleneck( int node )
+    {
+        return bottlenecks[node];
+    }
+
+    /**
+     * @return the number of edges on the path from the source, or -1 if the
+     *         node was not reached.
+     */
+    public int length( int node )
+    {
+        return lengths[node];
+    }
+
+    /**
+     * @return the node before this one on the path from the source, or -1
+     *         for the source and unreached nodes.
+     */
+    public int predecessor( int node )
+    {
+        return predecessors[node];
+    }
+
+    /**
+     * @return the nodes of the path from the source, both ends included, or
+     *         null if the node was not reached.
+     */
+    public int[] path( int node )
+    {
+        if ( !reached( node ) )
+        {
+            return null;
+        }
+        int[] path = new int[lengths[node] + 1];
+        for ( int i = path.length - 1, v = node; i >= 0; i--, v = predecessors[v] )
+        {
+            path[i] = v;
+        }
+        return path;
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.unmanaged;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.neo4j.examples.server.plugins.AllPairsRows;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.server.rest.repr.BadInputException;
+
+/**
+ * Streams the all-pairs distance or next-hop matrix of a cost property,
+ * direction and relationship types as binary, one row at a time, so the
+ * response is never held in full. The matrix is the one the centrality
+ * plugin keeps for the same parameters, calculated on the first request;
+ * commits are only held up while a row is copied, not while it is sent. A
+ * commit that changes the matrix while it is sent cuts the response short,
+ * rather than mixing rows from before and after it. The query parameters costProperty (default cost),
+ * direction (outgoing, the default, incoming or both) and relationshipTypes
+ * (repeated, default all) pick the matrix. There is no Content-Length, so
+ * the server sends the response with chunked transfer encoding.
+ *
+ * Every response is the node count, the node id behind every index, and then
+ * one row per source in index order. With format=binary all numbers are
+ * little-endian: the count an int32, node ids int64, next hops int32 with -1
+ * for no path. With format=varint the count, the node ids and the next hops
+ * plus one (0 for no path) are unsigned LEB128 varints. Distances are always
+ * little-endian float64, with positive infinity for no path.
+ */
+@Path( "/matrix" )
+public class MatrixResource
+{
+    private final GraphDatabaseService database;
+
+    public MatrixResource( @Context GraphDatabaseService database )
+    {
+        this.database = database;
+    }
+
+    @GET
+    @Produces( MediaType.APPLICATION_OCTET_STREAM )
+    @Path( "/distances" )
+    public Response distances( @QueryParam( "format" ) @DefaultValue( "binary" ) String format,
+            @QueryParam( "costProperty" ) String costProperty, @QueryParam( "direction" ) String direction,
+            @QueryParam( "relationshipTypes" ) List<String> relationshipTypes )
+    {
+        return stream( format, costProperty, direction, relationshipTypes, false );
+    }
+
+    @GET
+    @Produces( MediaType.APPLICATION_OCTET_STREAM )
+    @Path( "/next_hops" )
+    public Response nextHops( @QueryParam( "format" ) @DefaultValue( "binary" ) String format,
+            @QueryParam( "costProperty" ) String costProperty, @QueryParam( "direction" ) String direction,
+            @QueryParam( "relationshipTypes" ) List<String> relationshipTypes )
+    {
+        return stream( format, costProperty, direction, relationshipTypes, true );
+    }
+
+    /**
+     * @param relationshipTypes
+     *            The relationship types to follow, all of them if empty.
+     */
+    private Response stream( String format, String costProperty, String direction,
+            List<String> relationshipTypes, final boolean nextHops )
+    {
+        final boolean varint;
+        if ( "binary".equals( format ) )
+        {
+            varint = false;
+        }
+        else if ( "varint".equals( format ) )
+        {
+            varint = true;
+        }
+        else
+        {
+            return badRequest( "Unknown format: " + format + ", expected binary or varint" );
+        }
+        String[] types = relationshipTypes == null || relationshipTypes.isEmpty() ? null
+                : relationshipTypes.toArray( new String[relationshipTypes.size()] );
+        final AllPairsRows rows;
+        try
+        {
+            rows = AllPairsRows.open( database, costProperty, direction, types, nextHops );
+        }
+        catch ( BadInputException | IllegalStateException e )
+        {
+            return badRequest( e.getMessage() );
+        }
+        StreamingOutput output = new StreamingOutput()
+        {
+            @Override
+            public void write( OutputStream out ) throws IOException
+            {
+                try
+                {
+                    writeRows( out, rows, varint, nextHops );
+                }
+                catch ( ConcurrentModificationException e )
+                {
+                    throw new IOException( e.getMessage(), e );
+                }
+            }
+        };
+        return Response.status( Status.OK ).entity( output ).build();
+    }
+
+    private static void writeRows( OutputStream out, AllPairsRows rows, boolean varint, boolean nextHops )
+            throws IOException
+    {
+        Encoder encoder = new Encoder( out, varint );
+        int n = rows.size();
+        encoder.writeInt( n );
+        for ( int i = 0; i < n; i++ )
+        {
+            encoder.writeLong( rows.nodeId( i ) );
+        }
+        if ( nextHops )
+        {
+            int[] row = new int[n];
+            for ( int source = 0; source < n; source++ )
+            {
+                rows.nextHops( source, row );
+                for ( int hop : row )
+                {
+                    encoder.writeHop( hop );
+                }
+            }
+        }
+        else
+        {
+            double[] row = new double[n];
+            for ( int source = 0; source < n; source++ )
+            {
+                rows.distances( source, row );
+                for ( double distance : row )
+                {
+                    encoder.writeDouble( distance );
+                }
+            }
+        }
+        encoder.flush();
+        out.flush();
+    }
+
+    private static Response badRequest( String message )
+    {
+        return Response.status( Status.BAD_REQUEST ).type( MediaType.TEXT_PLAIN )
+                .entity( message.getBytes( Charset.forName( "UTF-8" ) ) ).build();
+    }
+
+    /**
+     * Writes numbers through a small little-endian buffer, so a row costs a
+     * handful of stream writes rather than one per entry.
+     */
+    private static final class Encoder
+    {
+        private final OutputStream out;
+        private final boolean varint;
+        private final ByteBuffer buffer = ByteBuffer.allocate( 8 * 1024 ).order( ByteOrder.LITTLE_ENDIAN );
+
+        Encoder( OutputStream out, boolean varint )
+        {
+            this.out = out;
+            this.varint = varint;
+        }
+
+        void writeInt( int value ) throws IOException
+        {
+            if ( varint )
+            {
+                writeVarint( value & 0xFFFFFFFFL );
+            }
+            else
+            {
+                room( 4 );
+                buffer.putInt( value );
+            }
+        }
+
+        void writeLong( long value ) throws IOException
+        {
+            if ( varint )
+            {
+                writeVarint( value );
+            }
+            else
+            {
+                room( 8 );
+                buffer.putLong( value );
+            }
+        }
+
+        void writeHop( int hop ) throws IOException
+        {
+            if ( varint )
+            {
+                writeVarint( hop + 1L );
+            }
+            else
+            {
+                room( 4 );
+                buffer.putInt( hop );
+            }
+        }
+
+        void writeDouble( double value ) throws IOException
+        {
+            room( 8 );
+            buffer.putDouble( value );
+        }
+
+        private void writeVarint( long value ) throws IOException
+        {
+            room( 10 );
+            while ( ( value & ~0x7FL ) != 0 )
+            {
+                buffer.put( (byte) ( ( value & 0x7F ) | 0x80 ) );
+                value >>>= 7;
+            }
+            buffer.put( (byte) value );
+        }
+
+        private void room( int bytes ) throws IOException
+        {
+            if ( buffer.remaining() < bytes )
+            {
+                flush();
+            }
+        }
+
+        void flush() throws IOException
+        {
+            out.write( buffer.array(), 0, buffer.position() );
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.neo4j.examples.server.plugins.ShortestPaths;
+import org.neo4j.kernel.impl.annotations.Documented;
+import org.neo4j.server.rest.domain.JsonHelper;
+import org.neo4j.server.rest.domain.JsonParseException;
+import org.neo4j.test.GraphDescription.Graph;
+
+public class ShortestPathsBatchDocIT extends AbstractPluginTestBase
+{
+    private static final String SHORTEST_PATHS_BATCH = "shortest_paths_batch";
+
+    protected String getDocumentationSectionName()
+    {
+        return "rest-api";
+    }
+
+    @Test
+    public void canFindExtension() throws Exception
+    {
+        Map<String, Object> map = getDatabaseLevelPluginMetadata( ShortestPaths.class );
+        assertThat( map.get( SHORTEST_PATHS_BATCH ), notNullValue() );
+    }
+
+    /**
+     * Get the shortest paths of many pairs at once. The result holds, for
+     * each pair in the order given, the list of its shortest paths.
+     */
+    @Documented
+    @Test
+    @Graph( { "A knows B", "B knows C", "C knows D", "A knows E", "E knows D" } )
+    public void shouldReturnShortestPathsInRequestOrder() throws JsonParseException
+    {
+        // Enough pairs to be searched in several chunks
+        String[][] pairs = { { "A", "D" }, { "A", "B" }, { "D", "A" }, { "A", "C" } };
+        int[] lengths = { 2, 1, 2, 2 };
+        int repeats = 25;
+        StringBuilder sources = new StringBuilder();
+        StringBuilder targets = new StringBuilder();
+        for ( int i = 0; i < pairs.length * repeats; i++ )
+        {
+            String separator = i == 0 ? "" : ",";
+            sources.append( separator ).append( '"' ).append( uri( pairs[i % pairs.length][0] ) ).append( '"' );
+            targets.append( separator ).append( '"' ).append( uri( pairs[i % pairs.length][1] ) ).append( '"' );
+        }
+        String body = "{\"sources\":[" + sources + "],\"targets\":[" + targets + "]}";
+
+        List<List<Map<String, Object>>> result = batch( performPost( batchUri(), body ) );
+        assertThat( result.size(), equalTo( pairs.length * repeats ) );
+        for ( int i = 0; i < result.size(); i++ )
+        {
+            List<Map<String, Object>> paths = result.get( i );
+            assertThat( "pair " + i, paths.size(), equalTo( 1 ) );
+            Map<String, Object> path = paths.get( 0 );
+            assertThat( "pair " + i, (String) path.get( "start" ), equalTo( uri( pairs[i % pairs.length][0] ) ) );
+            assertThat( "pair " + i, (String) path.get( "end" ), equalTo( uri( pairs[i % pairs.length][1] ) ) );
+            assertThat( "pair " + i, (Integer) path.get( "length" ), equalTo( lengths[i % pairs.length] ) );
+        }
+    }
+
+    /**
+     * Get the shortest paths of a batch restricted by relationship type. A
+     * pair without a path gets an empty list.
+     */
+    @Documented
+    @Test
+    @Graph( { "A knows B", "B likes C", "A knows D", "D knows E", "E knows C", "F knows G" } )
+    public void shouldReturnShortestPathsRestrictedByReltypes() throws JsonParseException
+    {
+        String body = "{\"sources\":[\"" + uri( "C" ) + "\",\"" + uri( "A" ) + "\"],"
+                + "\"targets\":[\"" + uri( "A" ) + "\",\"" + uri( "F" ) + "\"],\"types\":[\"knows\"]}";
+
+        List<List<Map<String, Object>>> result = batch( performPost( batchUri(), body ) );
+        assertThat( result.size(), equalTo( 2 ) );
+        assertThat( result.get( 0 ).size(), equalTo( 1 ) );
+        assertThat( (Integer) result.get( 0 ).get( 0 ).get( "length" ), equalTo( 3 ) );
+        assertThat( result.get( 1 ).size(), equalTo( 0 ) );
+    }
+
+    @Test
+    public void shouldReturnNothingForAnEmptyBatch() throws JsonParseException
+    {
+        List<List<Map<String, Object>>> result = batch( performPost( batchUri(), "{\"sources\":[],\"targets\":[]}" ) );
+        assertThat( result, notNullValue() );
+        assertThat( result.size(), equalTo( 0 ) );
+    }
+
+    @Test
+    @Graph( { "A knows B" } )
+    public void shouldRefuseMismatchedSourcesAndTargets() throws JsonParseException
+    {
+        String body = "{\"sources\":[\"" + uri( "A" ) + "\",\"" + uri( "B" ) + "\"],"
+                + "\"targets\":[\"" + uri( "B" ) + "\"]}";
+
+        String result = gen.get()
+                .noGraph()
+                .expectedStatus( 400 )
+                .payload( body )
+                .post( batchUri() )
+                .entity();
+        assertThat( result, containsString( "Got 2 sources but 1 targets" ) );
+    }
+
+    private String batchUri() throws JsonParseException
+    {
+        return (String) getDatabaseLevelPluginMetadata( ShortestPaths.class ).get( SHORTEST_PATHS_BATCH );
+    }
+
+    private String uri( String name )
+    {
+        return functionalTestHelper.nodeUri( data.get().get( name ).getId() );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static List<List<Map<String, Object>>> batch( String result ) throws JsonParseException
+    {
+        return (List<List<Map<String, Object>>>) JsonHelper.readJson( result );
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class AllPairsRowsTest
+{
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    private GraphDatabaseService graphDb;
+    private final Map<String,Node> nodes = new HashMap<String,Node>();
+
+    @Before
+    public void createGraph()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            relate( "a", "b", 1 );
+            relate( "b", "c", 2 );
+            relate( "a", "c", 8 );
+            relate( "d", "e", 4 );
+            tx.success();
+        }
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldReadTheDistancesAndNextHopsOfEveryRow() throws Exception
+    {
+        AllPairsRows rows = AllPairsRows.open( graphDb, null, null, null, true );
+
+        assertEquals( 5, rows.size() );
+        double[] distances = new double[rows.size()];
+        rows.distances( index( rows, "a" ), distances );
+        assertArrayEquals( new double[] { 0, 1, 3, INF, INF }, byName( rows, distances ), 0.0 );
+        int[] hops = new int[rows.size()];
+        rows.nextHops( index( rows, "a" ), hops );
+        assertEquals( index( rows, "a" ), hops[index( rows, "a" )] );
+        assertEquals( index( rows, "b" ), hops[index( rows, "b" )] );
+        assertEquals( index( rows, "b" ), hops[index( rows, "c" )] );
+        assertEquals( -1, hops[index( rows, "d" )] );
+    }
+
+    @Test
+    public void shouldLetCommitsThroughWhileRowsAreOpen() throws Exception
+    {
+        AllPairsRows rows = AllPairsRows.open( graphDb, null, null, null, false );
+        double[] row = new double[rows.size()];
+        rows.distances( 0, row );
+
+        // A reader that stalls between rows must not hold up the commits
+        Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try ( Transaction tx = graphDb.beginTx() )
+                {
+                    relate( "c", "d", 16 );
+                    tx.success();
+                }
+            }
+        };
+        writer.start();
+        writer.join( TimeUnit.SECONDS.toMillis( 10 ) );
+        assertTrue( "The commit waited for the rows", !writer.isAlive() );
+
+        try
+        {
+            rows.distances( 1, row );
+            fail( "Read a row of the changed matrix" );
+        }
+        catch ( ConcurrentModificationException e )
+        {
+            // The rows of the matrix before the commit are gone
+        }
+        AllPairsRows after = AllPairsRows.open( graphDb, null, null, null, false );
+        after.distances( index( after, "a" ), row );
+        assertEquals( 23.0, row[index( after, "e" )], 0.0 );
+    }
+
+    @Test
+    public void shouldKeepReadingRowsAfterCommitsThatLeaveTheMatrixAsItIs() throws Exception
+    {
+        AllPairsRows rows = AllPairsRows.open( graphDb, null, null, null, false );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            node( "a" ).setProperty( "name", "a" );
+            tx.success();
+        }
+
+        double[] row = new double[rows.size()];
+        rows.distances( index( rows, "b" ), row );
+        assertEquals( 2.0, row[index( rows, "c" )], 0.0 );
+    }
+
+    private int index( AllPairsRows rows, String name )
+    {
+        for ( int i = 0; i < rows.size(); i++ )
+        {
+            if ( rows.nodeId( i ) == nodes.get( name ).getId() )
+            {
+                return i;
+            }
+        }
+        throw new AssertionError( "No row for " + name );
+    }
+
+    /**
+     * @return the entries of a row in the order a, b, c, d, e.
+     */
+    private double[] byName( AllPairsRows rows, double[] row )
+    {
+        String[] names = { "a", "b", "c", "d", "e" };
+        double[] result = new double[names.length];
+        for ( int i = 0; i < names.length; i++ )
+        {
+            result[i] = row[index( rows, names[i] )];
+        }
+        return result;
+    }
+
+    private void relate( String from, String to, double cost )
+    {
+        node( from ).createRelationshipTo( node( to ), DynamicRelationshipType.withName( "knows" ) )
+                .setProperty( "cost", cost );
+    }
+
+    private Node node( String name )
+    {
+        Node node = nodes.get( name );
+        if ( node == null )
+        {
+            node = graphDb.createNode();
+            nodes.put( name, node );
+        }
+        return node;
+    }
+}
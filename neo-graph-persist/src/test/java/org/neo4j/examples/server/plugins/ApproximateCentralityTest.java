@@ -0,0 +1,155 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+/**
+ * With every node a pivot the estimates are exact, so the approximation must
+ * give the answer of centrality_report.
+ */
+public class ApproximateCentralityTest
+{
+    private GraphDatabaseService graphDb;
+    private final Centrality centrality = new Centrality();
+    private final List<Node> nodes = new ArrayList<Node>();
+
+    @Before
+    public void createDatabase()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldMatchTheReportWithEveryNodeAPivot() throws Exception
+    {
+        CentralityReportTest.createConnectedGraph( graphDb, nodes, 30, 7 );
+        for ( Direction direction : new Direction[] { Direction.OUTGOING, Direction.BOTH } )
+        {
+            assertMatchesReport( direction );
+        }
+    }
+
+    @Test
+    public void shouldMatchTheReportOnADisconnectedGraph() throws Exception
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for ( int i = 0; i < 6; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            CentralityReportTest.relate( nodes, 0, 1, 0.5 );
+            CentralityReportTest.relate( nodes, 2, 3, 10 );
+            CentralityReportTest.relate( nodes, 3, 4, 10 );
+            tx.success();
+        }
+        for ( Direction direction : new Direction[] { Direction.OUTGOING, Direction.BOTH } )
+        {
+            assertMatchesReport( direction );
+        }
+    }
+
+    @Test
+    public void shouldAnswerLikeTheReportOverRest() throws Exception
+    {
+        CentralityReportTest.createConnectedGraph( graphDb, nodes, 30, 7 );
+        Map<String,Object> report = LandmarksTest.json(
+                centrality.GetCentralityReport( graphDb, "cost", "both", null, null, 1, null ) );
+        Map<String,Object> median = LandmarksTest.json(
+                centrality.GetApproximateGraphMedian( graphDb, "cost", "both", null, 30, null, 30, 1L, 1 ) );
+        Map<String,Object> center = LandmarksTest.json(
+                centrality.GetApproximateGraphCenter( graphDb, "cost", "both", null, 30, null, 30, 1L, 1 ) );
+        assertEquals( number( report.get( "median" ) ).longValue(), number( median.get( "median" ) ).longValue() );
+        assertEquals( number( report.get( "center" ) ).longValue(), number( center.get( "center" ) ).longValue() );
+        assertEquals( number( report.get( "radius" ) ).doubleValue(),
+                number( center.get( "eccentricity" ) ).doubleValue(), 1e-9 );
+        assertEquals( 0.0, number( center.get( "eccentricityGap" ) ).doubleValue(), 0.0 );
+        assertEquals( 30, number( median.get( "pivots" ) ).intValue() );
+    }
+
+    private void assertMatchesReport( Direction direction ) throws Exception
+    {
+        GraphSnapshot snapshot;
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            snapshot = GraphSnapshots.at( graphDb ).get( graphDb, "cost", null, direction );
+            tx.success();
+        }
+        int n = snapshot.nodeCount();
+        Map<String,Object> report = LandmarksTest.json( centrality.GetCentralityReport( graphDb, "cost",
+                direction.name().toLowerCase(), null, null, 1, null ) );
+        for ( long seed = 1; seed <= 3; seed++ )
+        {
+            ApproximateCentrality approximation = ApproximateCentrality.compute( snapshot, n, 0, n, seed, 2 );
+            assertEquals( n, approximation.pivots() );
+            assertEquals( n, approximation.refined() );
+            assertEquals( number( report.get( "median" ) ).longValue(), snapshot.nodeId( approximation.median() ) );
+            assertEquals( number( report.get( "center" ) ).longValue(), snapshot.nodeId( approximation.center() ) );
+            assertEquals( 0.0, approximation.eccentricityGap(), 0.0 );
+
+            List<?> scores = (List<?>) report.get( "nodes" );
+            for ( int v = 0; v < n; v++ )
+            {
+                Map<?,?> node = (Map<?,?>) scores.get( v );
+                assertEquals( snapshot.nodeId( v ), number( node.get( "id" ) ).longValue() );
+                assertEquals( number( node.get( "reachable" ) ).doubleValue(),
+                        approximation.estimatedReachable( v ), 1e-9 );
+                assertEquals( number( node.get( "farness" ) ).doubleValue(),
+                        approximation.estimatedFarness( v ), 1e-9 );
+                assertEquals( number( node.get( "eccentricity" ) ).doubleValue(),
+                        approximation.eccentricityLowerBound( v ), 1e-9 );
+                if ( v == approximation.median() )
+                {
+                    assertEquals( number( node.get( "farness" ) ).doubleValue(), approximation.medianFarness(),
+                            1e-9 );
+                }
+                if ( v == approximation.center() )
+                {
+                    assertEquals( number( node.get( "eccentricity" ) ).doubleValue(),
+                            approximation.centerEccentricity(), 1e-9 );
+                }
+            }
+        }
+    }
+
+    private static Number number( Object value )
+    {
+        return (Number) value;
+    }
+}
@@ -0,0 +1,289 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+/**
+ * Checks {@link Betweenness} against the definition, summing the share of
+ * the shortest paths between every pair that pass each node, on small random
+ * graphs.
+ */
+public class BetweennessTest
+{
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    private GraphDatabaseService graphDb;
+
+    @Before
+    public void startDatabase()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldMatchTheDefinitionWithCosts()
+    {
+        createGraph( 30, 60, 1, 2, 1 );
+        assertMatchesDefinition( snapshot( Direction.OUTGOING ), true );
+        assertMatchesDefinition( snapshot( Direction.BOTH ), true );
+    }
+
+    @Test
+    public void shouldMatchTheDefinitionWithCostsOnLargerGraphs()
+    {
+        createGraph( 40, 90, 1, 3, 2 );
+        assertMatchesDefinition( snapshot( Direction.OUTGOING ), true );
+        createGraph( 60, 150, 1, 3, 3 );
+        assertMatchesDefinition( snapshot( Direction.INCOMING ), true );
+    }
+
+    @Test
+    public void shouldMatchTheDefinitionCountingHops()
+    {
+        // Costs, zero ones too, do not count when counting hops
+        createGraph( 40, 90, 0, 2, 4 );
+        assertMatchesDefinition( snapshot( Direction.OUTGOING ), false );
+        assertMatchesDefinition( snapshot( Direction.BOTH ), false );
+    }
+
+    @Test
+    public void shouldMatchTheDefinitionFromEverySampledSource()
+    {
+        createGraph( 30, 60, 1, 2, 5 );
+        GraphSnapshot snapshot = snapshot( Direction.OUTGOING );
+        double[] exact = new Betweenness( snapshot, true, 2 ).compute();
+        double[] sampled = new Betweenness( snapshot, true, 2 ).estimate( snapshot.nodeCount(), 1 );
+        assertArrayEquals( exact, sampled );
+    }
+
+    @Test
+    public void shouldRejectZeroCostsWhenWeighted()
+    {
+        createGraph( 30, 60, 0, 2, 6 );
+        try
+        {
+            new Betweenness( snapshot( Direction.OUTGOING ), true, 1 );
+            fail( "Accepted zero costs" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            assertEquals( "Weighted betweenness needs positive costs", e.getMessage() );
+        }
+    }
+
+    private void assertMatchesDefinition( GraphSnapshot snapshot, boolean weighted )
+    {
+        double[] expected = definition( snapshot, weighted );
+        for ( int threads : new int[] { 1, 4 } )
+        {
+            double[] actual = new Betweenness( snapshot, weighted, threads ).compute();
+            assertArrayEquals( expected, actual );
+        }
+    }
+
+    private static void assertArrayEquals( double[] expected, double[] actual )
+    {
+        assertEquals( expected.length, actual.length );
+        for ( int v = 0; v < expected.length; v++ )
+        {
+            assertEquals( "node " + v, expected[v], actual[v], 1e-9 * Math.max( 1.0, expected[v] ) );
+        }
+    }
+
+    /**
+     * The sum over the pairs s, t of the share of the shortest paths from s
+     * to t that pass v, from the distances of a Floyd-Warshall and the path
+     * counts of every source.
+     */
+    private static double[] definition( GraphSnapshot snapshot, boolean weighted )
+    {
+        int n = snapshot.nodeCount();
+        int[] offsets = snapshot.offsets();
+        int[] targets = snapshot.targets();
+        double[] costs = snapshot.costs();
+        double[][] distances = new double[n][n];
+        for ( int i = 0; i < n; i++ )
+        {
+            Arrays.fill( distances[i], INF );
+            distances[i][i] = 0.0;
+            for ( int e = offsets[i]; e < offsets[i + 1]; e++ )
+            {
+                int j = targets[e];
+                if ( j != i )
+                {
+                    distances[i][j] = Math.min( distances[i][j], weighted ? costs[e] : 1.0 );
+                }
+            }
+        }
+        for ( int k = 0; k < n; k++ )
+        {
+            for ( int i = 0; i < n; i++ )
+            {
+                for ( int j = 0; j < n; j++ )
+                {
+                    distances[i][j] = Math.min( distances[i][j], distances[i][k] + distances[k][j] );
+                }
+            }
+        }
+        double[][] paths = new double[n][];
+        for ( int s = 0; s < n; s++ )
+        {
+            paths[s] = pathCounts( snapshot, weighted, distances[s], s );
+        }
+        double[] betweenness = new double[n];
+        for ( int s = 0; s < n; s++ )
+        {
+            for ( int t = 0; t < n; t++ )
+            {
+                if ( s == t || distances[s][t] == INF )
+                {
+                    continue;
+                }
+                for ( int v = 0; v < n; v++ )
+                {
+                    if ( v != s && v != t && distances[s][v] + distances[v][t] == distances[s][t] )
+                    {
+                        betweenness[v] += paths[s][v] * paths[v][t] / paths[s][t];
+                    }
+                }
+            }
+        }
+        return betweenness;
+    }
+
+    /**
+     * The number of shortest paths from a source to every node, one edge at
+     * a time in order of distance; parallel relationships are paths of
+     * their own.
+     */
+    private static double[] pathCounts( GraphSnapshot snapshot, boolean weighted, final double[] distances,
+            int source )
+    {
+        int n = snapshot.nodeCount();
+        int[] offsets = snapshot.offsets();
+        int[] targets = snapshot.targets();
+        double[] costs = snapshot.costs();
+        List<Integer> order = new ArrayList<Integer>();
+        for ( int v = 0; v < n; v++ )
+        {
+            if ( distances[v] != INF )
+            {
+                order.add( v );
+            }
+        }
+        Collections.sort( order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare( Integer a, Integer b )
+            {
+                return Double.compare( distances[a], distances[b] );
+            }
+        } );
+        double[] paths = new double[n];
+        paths[source] = 1.0;
+        for ( int u : order )
+        {
+            for ( int e = offsets[u]; e < offsets[u + 1]; e++ )
+            {
+                int w = targets[e];
+                if ( w != u && distances[u] + ( weighted ? costs[e] : 1.0 ) == distances[w] )
+                {
+                    paths[w] += paths[u];
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Replaces the graph with a random one, with parallel relationships, a
+     * loop and a few nodes apart.
+     */
+    private void createGraph( int nodes, int relationships, int minCost, int maxCost, long seed )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for ( Node node : GlobalGraphOperations.at( graphDb ).getAllNodes() )
+            {
+                for ( Relationship relationship : node.getRelationships() )
+                {
+                    relationship.delete();
+                }
+                node.delete();
+            }
+            Random random = new Random( seed );
+            List<Node> created = new ArrayList<Node>();
+            for ( int i = 0; i < nodes; i++ )
+            {
+                created.add( graphDb.createNode() );
+            }
+            for ( int i = 0; i < relationships; i++ )
+            {
+                relate( created.get( random.nextInt( nodes - 2 ) ), created.get( random.nextInt( nodes - 2 ) ),
+                        minCost + random.nextInt( maxCost - minCost + 1 ) );
+            }
+            relate( created.get( 0 ), created.get( 1 ), maxCost );
+            relate( created.get( 0 ), created.get( 1 ), maxCost );
+            relate( created.get( 2 ), created.get( 2 ), minCost );
+            tx.success();
+        }
+    }
+
+    private GraphSnapshot snapshot( Direction direction )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            GraphSnapshot snapshot = GraphSnapshots.at( graphDb ).get( graphDb, "cost", null, direction );
+            tx.success();
+            return snapshot;
+        }
+    }
+
+    private void relate( Node from, Node to, double cost )
+    {
+        from.createRelationshipTo( to, DynamicRelationshipType.withName( "knows" ) ).setProperty( "cost", cost );
+    }
+}
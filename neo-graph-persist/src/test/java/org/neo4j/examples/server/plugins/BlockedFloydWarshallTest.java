@@ -0,0 +1,166 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public class BlockedFloydWarshallTest
+{
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    @Test
+    public void shouldMatchTheTripleLoopWhenTilesDoNotDivideTheMatrix()
+    {
+        assertMatchesTripleLoop( 97, 8, 4 );
+        assertMatchesTripleLoop( 130, BlockedFloydWarshall.DEFAULT_TILE_SIZE, 4 );
+        assertMatchesTripleLoop( 50, 7, 3 );
+    }
+
+    @Test
+    public void shouldMatchTheTripleLoopWithTilesOfOne()
+    {
+        assertMatchesTripleLoop( 41, 1, 4 );
+        assertMatchesTripleLoop( 41, 1, 1 );
+    }
+
+    @Test
+    public void shouldMatchTheTripleLoopOnOneThread()
+    {
+        assertMatchesTripleLoop( 97, 8, 1 );
+        assertMatchesTripleLoop( 64, 16, 1 );
+    }
+
+    @Test
+    public void shouldMatchTheTripleLoopWithASingleTile()
+    {
+        assertMatchesTripleLoop( 1, 8, 4 );
+        assertMatchesTripleLoop( 30, 64, 4 );
+        assertMatchesTripleLoop( 30, 0, 4 );
+    }
+
+    @Test
+    public void shouldRelaxEveryTripleExactlyOnce()
+    {
+        for ( int tileSize : new int[] { 1, 3, 5, 13 } )
+        {
+            final int n = 13;
+            final AtomicIntegerArray visits = new AtomicIntegerArray( n * n * n );
+            new BlockedFloydWarshall( n, tileSize, 4 ).run( new BlockedFloydWarshall.Relaxation()
+            {
+                @Override
+                public void relax( int k0, int k1, int i0, int i1, int j0, int j1 )
+                {
+                    for ( int k = k0; k < k1; k++ )
+                    {
+                        for ( int i = i0; i < i1; i++ )
+                        {
+                            for ( int j = j0; j < j1; j++ )
+                            {
+                                visits.incrementAndGet( ( k * n + i ) * n + j );
+                            }
+                        }
+                    }
+                }
+            } );
+            for ( int t = 0; t < visits.length(); t++ )
+            {
+                assertEquals( "tile size " + tileSize + " triple " + t, 1, visits.get( t ) );
+            }
+        }
+    }
+
+    private static void assertMatchesTripleLoop( int n, int tileSize, int threads )
+    {
+        double[] expected = randomGraph( n, new Random( n * 31 + tileSize ) );
+        final double[] actual = expected.clone();
+        for ( int k = 0; k < n; k++ )
+        {
+            for ( int i = 0; i < n; i++ )
+            {
+                for ( int j = 0; j < n; j++ )
+                {
+                    expected[i * n + j] = Math.min( expected[i * n + j], expected[i * n + k] + expected[k * n + j] );
+                }
+            }
+        }
+        new BlockedFloydWarshall( n, tileSize, threads ).run( new MinPlus( actual, n ) );
+        assertArrayEquals( "n " + n + " tile size " + tileSize + " threads " + threads, expected, actual, 0.0 );
+    }
+
+    /**
+     * A sparse directed graph with integer costs, so sums are exact in any
+     * order, and a few nodes without relationships.
+     */
+    private static double[] randomGraph( int n, Random random )
+    {
+        double[] d = new double[n * n];
+        Arrays.fill( d, INF );
+        for ( int i = 0; i < n; i++ )
+        {
+            d[i * n + i] = 0;
+            if ( i % 10 == 9 )
+            {
+                continue;
+            }
+            for ( int e = 0; e < 3; e++ )
+            {
+                int j = random.nextInt( n );
+                if ( j % 10 != 9 )
+                {
+                    d[i * n + j] = Math.min( d[i * n + j], 1 + random.nextInt( 100 ) );
+                }
+            }
+        }
+        return d;
+    }
+
+    private static final class MinPlus implements BlockedFloydWarshall.Relaxation
+    {
+        private final double[] d;
+        private final int n;
+
+        MinPlus( double[] d, int n )
+        {
+            this.d = d;
+            this.n = n;
+        }
+
+        @Override
+        public void relax( int k0, int k1, int i0, int i1, int j0, int j1 )
+        {
+            for ( int k = k0; k < k1; k++ )
+            {
+                for ( int i = i0; i < i1; i++ )
+                {
+                    for ( int j = j0; j < j1; j++ )
+                    {
+                        d[i * n + j] = Math.min( d[i * n + j], d[i * n + k] + d[k * n + j] );
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+/**
+ * Checks the widest (minimax) paths of {@link BottleneckForest},
+ * {@link WidestPaths} and {@link MinimaxFloydWarshall} against a brute-force
+ * minimax Floyd-Warshall on small random graphs.
+ */
+public class BottleneckForestTest
+{
+    private static final double INF = Double.POSITIVE_INFINITY;
+    private static final int NODES = 24;
+
+    private GraphDatabaseService graphDb;
+
+    @Before
+    public void createGraph()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            // Sparse enough to leave a few nodes apart, with repeated costs
+            // for ties, parallel relationships and a loop
+            Random random = new Random( 7 );
+            List<Node> nodes = new ArrayList<Node>();
+            for ( int i = 0; i < NODES; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            for ( int i = 0; i < NODES * 3 / 2; i++ )
+            {
+                relate( nodes.get( random.nextInt( NODES - 3 ) ), nodes.get( random.nextInt( NODES - 3 ) ),
+                        1 + random.nextInt( 6 ) );
+            }
+            relate( nodes.get( 0 ), nodes.get( 1 ), 9 );
+            relate( nodes.get( 0 ), nodes.get( 1 ), 2 );
+            relate( nodes.get( 2 ), nodes.get( 2 ), 1 );
+            relate( nodes.get( NODES - 3 ), nodes.get( NODES - 2 ), 4 );
+            tx.success();
+        }
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldMatchBruteForceBottlenecks()
+    {
+        GraphSnapshot snapshot = snapshot( Direction.BOTH );
+        BottleneckForest forest = BottleneckForest.build( snapshot );
+        double[] expected = bruteForce( snapshot );
+        int n = snapshot.nodeCount();
+        double[] row = new double[n];
+        int[] stack = new int[n];
+        Set<Integer> roots = new HashSet<Integer>();
+        for ( int i = 0; i < n; i++ )
+        {
+            forest.bottlenecksFrom( i, row, stack );
+            assertArrayEquals( "from " + i, Arrays.copyOfRange( expected, i * n, i * n + n ), row, 0.0 );
+            for ( int j = 0; j < n; j++ )
+            {
+                String pair = i + " to " + j;
+                assertEquals( pair, expected[i * n + j] != INF, forest.connected( i, j ) );
+                assertEquals( pair, expected[i * n + j], forest.bottleneck( i, j ), 0.0 );
+                int[] path = forest.path( i, j );
+                if ( expected[i * n + j] == INF )
+                {
+                    assertNull( pair, path );
+                    continue;
+                }
+                assertEquals( pair, i, path[0] );
+                assertEquals( pair, j, path[path.length - 1] );
+                assertEquals( pair, expected[i * n + j], bottleneck( snapshot, path ), 0.0 );
+            }
+            roots.add( component( expected, n, i ) );
+        }
+        assertEquals( n - roots.size(), forest.treeEdgeCount() );
+    }
+
+    @Test
+    public void shouldMatchBruteForceWidestPathsFromOneSource()
+    {
+        for ( Direction direction : Direction.values() )
+        {
+            GraphSnapshot snapshot = snapshot( direction );
+            double[] expected = bruteForce( snapshot );
+            int n = snapshot.nodeCount();
+            for ( int i = 0; i < n; i++ )
+            {
+                WidestPaths paths = WidestPaths.from( snapshot, i, -1 );
+                assertEquals( i, paths.source() );
+                for ( int j = 0; j < n; j++ )
+                {
+                    String pair = direction + " " + i + " to " + j;
+                    assertEquals( pair, expected[i * n + j], paths.bottleneck( j ), 0.0 );
+                    assertWidestPath( pair, snapshot, paths, j, expected[i * n + j] );
+                }
+                // Stopping at a target keeps what the target needs
+                for ( int j = 0; j < n; j++ )
+                {
+                    String pair = direction + " " + i + " to " + j + " only";
+                    WidestPaths toTarget = WidestPaths.from( snapshot, i, j );
+                    assertEquals( pair, expected[i * n + j], toTarget.bottleneck( j ), 0.0 );
+                    assertWidestPath( pair, snapshot, toTarget, j, expected[i * n + j] );
+                    if ( toTarget.reached( j ) )
+                    {
+                        assertEquals( pair, paths.length( j ), toTarget.length( j ) );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * s -> x -> w is a widest path with the fewest hops, but x is reached
+     * more widely through p and q, so the longer path through them is taken.
+     */
+    @Test
+    public void shouldPreferWidestPathsWhosePrefixesAreWidest()
+    {
+        Node s, x, w;
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            s = graphDb.createNode();
+            x = graphDb.createNode();
+            w = graphDb.createNode();
+            Node p = graphDb.createNode();
+            Node q = graphDb.createNode();
+            relate( s, x, 3 );
+            relate( x, w, 3 );
+            relate( s, p, 1 );
+            relate( p, q, 1 );
+            relate( q, x, 1 );
+            tx.success();
+        }
+        GraphSnapshot snapshot = snapshot( Direction.OUTGOING );
+        WidestPaths paths = WidestPaths.from( snapshot, snapshot.indexOf( s ), -1 );
+        int target = snapshot.indexOf( w );
+        assertEquals( 3.0, paths.bottleneck( target ), 0.0 );
+        assertEquals( 4, paths.length( target ) );
+        assertEquals( 1.0, paths.bottleneck( snapshot.indexOf( x ) ), 0.0 );
+    }
+
+    @Test
+    public void shouldMatchBruteForceMinimaxFloydWarshall()
+    {
+        GraphSnapshot snapshot = snapshot( Direction.OUTGOING );
+        double[] expected = bruteForce( snapshot );
+        int n = snapshot.nodeCount();
+        for ( int tileSize : new int[] { 0, 5 } )
+        {
+            MinimaxFloydWarshall.Paths paths = new MinimaxFloydWarshall( snapshot ).findAllPairsMinimaxPaths(
+                    tileSize, 2 );
+            assertEquals( n, paths.size() );
+            for ( int i = 0; i < n; i++ )
+            {
+                for ( int j = 0; j < n; j++ )
+                {
+                    String pair = tileSize + " " + i + " to " + j;
+                    if ( expected[i * n + j] == INF )
+                    {
+                        assertFalse( pair, paths.exists( i, j ) );
+                        assertEquals( pair, -1, paths.next( i, j ) );
+                        assertNull( pair, paths.path( i, j ) );
+                        continue;
+                    }
+                    assertTrue( pair, paths.exists( i, j ) );
+                    assertEquals( pair, (int) expected[i * n + j], paths.weight( i, j ) );
+                    List<Integer> path = new ArrayList<Integer>();
+                    for ( int v : paths.path( i, j ) )
+                    {
+                        path.add( v );
+                    }
+                    // Walked lazily, hop by hop
+                    assertEquals( pair, i == j ? j : (int) path.get( 1 ), paths.next( i, j ) );
+                    int[] nodes = new int[path.size()];
+                    for ( int k = 0; k < nodes.length; k++ )
+                    {
+                        nodes[k] = path.get( k );
+                    }
+                    assertEquals( pair, i, nodes[0] );
+                    assertEquals( pair, j, nodes[nodes.length - 1] );
+                    assertEquals( pair, expected[i * n + j], bottleneck( snapshot, nodes ), 0.0 );
+                }
+            }
+        }
+    }
+
+    /**
+     * A path from the source must be loop-free, of the expected bottleneck
+     * and as long as its length says.
+     */
+    private static void assertWidestPath( String pair, GraphSnapshot snapshot, WidestPaths paths, int node,
+            double expected )
+    {
+        int[] path = paths.path( node );
+        if ( expected == INF )
+        {
+            assertFalse( pair, paths.reached( node ) );
+            assertNull( pair, path );
+            assertEquals( pair, -1, paths.length( node ) );
+            return;
+        }
+        assertEquals( pair, paths.source(), path[0] );
+        assertEquals( pair, node, path[path.length - 1] );
+        assertEquals( pair, paths.length( node ), path.length - 1 );
+        assertEquals( pair, node == paths.source() ? -1 : path[path.length - 2], paths.predecessor( node ) );
+        assertEquals( pair, expected, bottleneck( snapshot, path ), 0.0 );
+    }
+
+    /**
+     * @return the largest cost on a path, taking the cheapest edge between
+     *         consecutive nodes, after checking that no node repeats.
+     */
+    private static double bottleneck( GraphSnapshot snapshot, int[] path )
+    {
+        Set<Integer> seen = new HashSet<Integer>();
+        double largest = 0.0;
+        for ( int k = 0; k < path.length; k++ )
+        {
+            assertTrue( "loop at " + path[k], seen.add( path[k] ) );
+            if ( k > 0 )
+            {
+                double step = INF;
+                for ( int e = snapshot.offsets()[path[k - 1]]; e < snapshot.offsets()[path[k - 1] + 1]; e++ )
+                {
+                    if ( snapshot.targets()[e] == path[k] )
+                    {
+                        step = Math.min( step, snapshot.costs()[e] );
+                    }
+                }
+                assertTrue( "no edge " + path[k - 1] + " to " + path[k], step != INF );
+                largest = Math.max( largest, step );
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Minimax Floyd-Warshall: d(i, j) = min(d(i, j), max(d(i, k), d(k, j))).
+     */
+    private static double[] bruteForce( GraphSnapshot snapshot )
+    {
+        int n = snapshot.nodeCount();
+        double[] d = new double[n * n];
+        Arrays.fill( d, INF );
+        for ( int u = 0; u < n; u++ )
+        {
+            d[u * n + u] = 0.0;
+            for ( int e = snapshot.offsets()[u]; e < snapshot.offsets()[u + 1]; e++ )
+            {
+                int v = snapshot.targets()[e];
+                if ( v != u )
+                {
+                    d[u * n + v] = Math.min( d[u * n + v], snapshot.costs()[e] );
+                }
+            }
+        }
+        for ( int k = 0; k < n; k++ )
+        {
+            for ( int i = 0; i < n; i++ )
+            {
+                for ( int j = 0; j < n; j++ )
+                {
+                    d[i * n + j] = Math.min( d[i * n + j], Math.max( d[i * n + k], d[k * n + j] ) );
+                }
+            }
+        }
+        return d;
+    }
+
+    /**
+     * @return the lowest node reachable from a node, naming its component.
+     */
+    private static int component( double[] bottlenecks, int n, int node )
+    {
+        for ( int j = 0; j < n; j++ )
+        {
+            if ( bottlenecks[node * n + j] != INF )
+            {
+                return j;
+            }
+        }
+        return node;
+    }
+
+    private GraphSnapshot snapshot( Direction direction )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            GraphSnapshot snapshot = GraphSnapshot.build( graphDb, CommonEvaluators.doubleCostEvaluator( "cost" ),
+                    direction );
+            tx.success();
+            return snapshot;
+        }
+    }
+
+    private static void relate( Node start, Node end, double cost )
+    {
+        start.createRelationshipTo( end, DynamicRelationshipType.withName( "ROAD" ) ).setProperty( "cost", cost );
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.server.rest.domain.JsonHelper;
+import org.neo4j.server.rest.repr.OutputFormat;
+import org.neo4j.server.rest.repr.Representation;
+import org.neo4j.server.rest.repr.formats.JsonFormat;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class CentralityRankingTest
+{
+    private GraphDatabaseService graphDb;
+    private final Centrality centrality = new Centrality();
+    private final List<Node> nodes = new ArrayList<Node>();
+
+    @Before
+    public void createDatabase()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldRankEveryNodeByFarnessThenByIndex() throws Exception
+    {
+        CentralityReportTest.createConnectedGraph( graphDb, nodes, 25, 11 );
+        GraphSnapshot snapshot = snapshot();
+        List<Entry> ranking = topK( true, 25 );
+        assertRanking( snapshot, ranking, farness( snapshot ) );
+        Node median = centrality.GetGraphMedian( graphDb, "cost", "both", null, null, 1, null );
+        assertEquals( median.getId(), ranking.get( 0 ).node );
+        assertPrefix( ranking, topK( true, 5 ) );
+    }
+
+    @Test
+    public void shouldRankEveryNodeByEccentricityThenByIndex() throws Exception
+    {
+        CentralityReportTest.createConnectedGraph( graphDb, nodes, 25, 11 );
+        GraphSnapshot snapshot = snapshot();
+        List<Entry> ranking = topK( false, 25 );
+        assertRanking( snapshot, ranking, eccentricity( snapshot ) );
+        Node center = centrality.GetGraphCenter( graphDb, "cost", "both", null, null, 1, null );
+        assertEquals( center.getId(), ranking.get( 0 ).node );
+        assertPrefix( ranking, topK( false, 5 ) );
+    }
+
+    @Test
+    public void shouldOrderTiesByNode() throws Exception
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for ( int i = 0; i < 6; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            for ( int i = 0; i < 6; i++ )
+            {
+                CentralityReportTest.relate( nodes, i, ( i + 1 ) % 6, 1 );
+            }
+            tx.success();
+        }
+        for ( boolean median : new boolean[] { true, false } )
+        {
+            List<Entry> ranking = topK( median, 6 );
+            for ( int i = 0; i < 6; i++ )
+            {
+                assertEquals( nodes.get( i ).getId(), ranking.get( i ).node );
+            }
+        }
+    }
+
+    /**
+     * Nodes that reach more nodes come first, however cheap the paths of the
+     * others are.
+     */
+    @Test
+    public void shouldRankNodesThatReachMoreFirstOnADisconnectedGraph() throws Exception
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for ( int i = 0; i < 5; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            CentralityReportTest.relate( nodes, 0, 1, 0.5 );
+            CentralityReportTest.relate( nodes, 2, 3, 10 );
+            CentralityReportTest.relate( nodes, 3, 4, 10 );
+            tx.success();
+        }
+        assertNodes( topK( true, 5 ), 3, 2, 4, 0, 1 );
+        assertNodes( topK( false, 5 ), 3, 2, 4, 0, 1 );
+        assertEquals( 20.0, topK( true, 5 ).get( 0 ).score, 0.0 );
+        assertEquals( 0.5, topK( true, 5 ).get( 3 ).score, 0.0 );
+    }
+
+    private void assertRanking( GraphSnapshot snapshot, List<Entry> ranking, double[] expected )
+    {
+        Map<Long,Integer> indexes = new HashMap<Long,Integer>();
+        for ( int i = 0; i < snapshot.nodeCount(); i++ )
+        {
+            indexes.put( snapshot.nodeId( i ), i );
+        }
+        assertEquals( snapshot.nodeCount(), ranking.size() );
+        int previous = -1;
+        double previousScore = Double.NEGATIVE_INFINITY;
+        for ( Entry entry : ranking )
+        {
+            int index = indexes.get( entry.node );
+            double score = entry.score;
+            assertEquals( expected[index], score, 1e-9 );
+            assertTrue( score > previousScore || ( score == previousScore && index > previous ) );
+            previous = index;
+            previousScore = score;
+        }
+    }
+
+    private static void assertPrefix( List<Entry> ranking, List<Entry> prefix )
+    {
+        for ( int i = 0; i < prefix.size(); i++ )
+        {
+            assertEquals( ranking.get( i ).node, prefix.get( i ).node );
+            assertEquals( ranking.get( i ).score, prefix.get( i ).score, 0.0 );
+        }
+    }
+
+    private void assertNodes( List<Entry> ranking, int... expected )
+    {
+        assertEquals( expected.length, ranking.size() );
+        for ( int i = 0; i < expected.length; i++ )
+        {
+            assertEquals( nodes.get( expected[i] ).getId(), ranking.get( i ).node );
+        }
+    }
+
+    private static double[] farness( GraphSnapshot snapshot )
+    {
+        int n = snapshot.nodeCount();
+        double[] distances = LandmarksTest.distances( snapshot );
+        double[] result = new double[n];
+        for ( int i = 0; i < n * n; i++ )
+        {
+            result[i / n] += distances[i];
+        }
+        return result;
+    }
+
+    private static double[] eccentricity( GraphSnapshot snapshot )
+    {
+        int n = snapshot.nodeCount();
+        double[] distances = LandmarksTest.distances( snapshot );
+        double[] result = new double[n];
+        for ( int i = 0; i < n * n; i++ )
+        {
+            result[i / n] = Math.max( result[i / n], distances[i] );
+        }
+        return result;
+    }
+
+    private List<Entry> topK( boolean median, int k ) throws Exception
+    {
+        Representation representation = median
+                ? centrality.GetTopKMedian( graphDb, "cost", "both", null, k, null, 1, null )
+                : centrality.GetTopKCenter( graphDb, "cost", "both", null, k, null, 1, null );
+        OutputFormat format = new OutputFormat( new JsonFormat(), new URI( "http://localhost/" ), null );
+        List<Entry> result = new ArrayList<Entry>();
+        for ( Object pair : (List<?>) JsonHelper.readJson( format.assemble( representation ) ) )
+        {
+            List<?> values = (List<?>) pair;
+            result.add( new Entry( ( (Number) values.get( 0 ) ).longValue(),
+                    ( (Number) values.get( 1 ) ).doubleValue() ) );
+        }
+        return result;
+    }
+
+    private GraphSnapshot snapshot()
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            GraphSnapshot snapshot = GraphSnapshots.at( graphDb ).get( graphDb, "cost", null, Direction.BOTH );
+            tx.success();
+            return snapshot;
+        }
+    }
+
+    /**
+     * One [nodeId, score] pair of a ranking.
+     */
+    private static final class Entry
+    {
+        final long node;
+        final double score;
+
+        Entry( long node, double score )
+        {
+            this.node = node;
+            this.score = score;
+        }
+    }
+}
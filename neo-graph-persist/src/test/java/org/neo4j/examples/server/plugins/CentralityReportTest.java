@@ -0,0 +1,226 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class CentralityReportTest
+{
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    private GraphDatabaseService graphDb;
+    private final Centrality centrality = new Centrality();
+    private final List<Node> nodes = new ArrayList<Node>();
+
+    @Before
+    public void createDatabase()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldMatchGraphMedianAndCenterOnAConnectedGraph() throws Exception
+    {
+        createConnectedGraph( 25, 11 );
+        assertMatchesGraphMedianAndCenter();
+    }
+
+    /**
+     * Every node of a cycle of equal costs is as good as any other, so the
+     * lowest index must win everywhere.
+     */
+    @Test
+    public void shouldBreakTiesTheSameWayAsGraphMedianAndCenter() throws Exception
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for ( int i = 0; i < 8; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            for ( int i = 0; i < 8; i++ )
+            {
+                relate( i, ( i + 1 ) % 8, 2 );
+            }
+            tx.success();
+        }
+        Map<String,Object> report = assertMatchesGraphMedianAndCenter();
+        assertEquals( nodes.get( 0 ).getId(), number( report.get( "median" ) ).longValue() );
+        assertEquals( nodes.get( 0 ).getId(), number( report.get( "center" ) ).longValue() );
+        assertEquals( 8.0, number( report.get( "radius" ) ).doubleValue(), 0.0 );
+        assertEquals( 8.0, number( report.get( "diameter" ) ).doubleValue(), 0.0 );
+    }
+
+    /**
+     * The report ranks nodes that reach more nodes first. graph_median adds
+     * Double.MAX_VALUE for every pair it cannot reach, which overflows to
+     * infinity as soon as two pairs are unreachable; then every sum is
+     * infinite and it keeps the first node, here one of the small piece.
+     */
+    @Test
+    public void shouldRankNodesThatReachMoreFirstOnADisconnectedGraph() throws Exception
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for ( int i = 0; i < 5; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            // A cheap pair, then a dear chain of three
+            relate( 0, 1, 0.5 );
+            relate( 2, 3, 10 );
+            relate( 3, 4, 10 );
+            tx.success();
+        }
+        Map<String,Object> report = report();
+        assertEquals( nodes.get( 3 ).getId(), number( report.get( "median" ) ).longValue() );
+        assertEquals( nodes.get( 3 ).getId(), number( report.get( "center" ) ).longValue() );
+        assertEquals( 10.0, number( report.get( "radius" ) ).doubleValue(), 0.0 );
+        assertEquals( 20.0, number( report.get( "diameter" ) ).doubleValue(), 0.0 );
+
+        Node median = centrality.GetGraphMedian( graphDb, "cost", "both", null, null, 1, null );
+        assertEquals( nodes.get( 0 ), median );
+        assertTrue( median.getId() != number( report.get( "median" ) ).longValue() );
+    }
+
+    private Map<String,Object> assertMatchesGraphMedianAndCenter() throws Exception
+    {
+        GraphSnapshot snapshot = snapshot();
+        int n = snapshot.nodeCount();
+        double[] distances = LandmarksTest.distances( snapshot );
+        double radius = INF;
+        double diameter = 0.0;
+        for ( int i = 0; i < n; i++ )
+        {
+            double eccentricity = 0.0;
+            for ( int j = 0; j < n; j++ )
+            {
+                eccentricity = Math.max( eccentricity, distances[i * n + j] );
+            }
+            radius = Math.min( radius, eccentricity );
+            diameter = Math.max( diameter, eccentricity );
+        }
+
+        Map<String,Object> report = report();
+        Node median = centrality.GetGraphMedian( graphDb, "cost", "both", null, null, 1, null );
+        Node center = centrality.GetGraphCenter( graphDb, "cost", "both", null, null, 1, null );
+        assertEquals( median.getId(), number( report.get( "median" ) ).longValue() );
+        assertEquals( center.getId(), number( report.get( "center" ) ).longValue() );
+        assertEquals( radius, number( report.get( "radius" ) ).doubleValue(), 1e-9 );
+        assertEquals( diameter, number( report.get( "diameter" ) ).doubleValue(), 1e-9 );
+        List<?> scores = (List<?>) report.get( "nodes" );
+        assertEquals( n, scores.size() );
+        for ( int i = 0; i < n; i++ )
+        {
+            Map<?,?> node = (Map<?,?>) scores.get( i );
+            double farness = 0.0;
+            for ( int j = 0; j < n; j++ )
+            {
+                farness += distances[i * n + j];
+            }
+            assertEquals( snapshot.nodeId( i ), number( node.get( "id" ) ).longValue() );
+            assertEquals( n - 1, number( node.get( "reachable" ) ).intValue() );
+            assertEquals( farness, number( node.get( "farness" ) ).doubleValue(), 1e-9 );
+        }
+        return report;
+    }
+
+    private Map<String,Object> report() throws Exception
+    {
+        return LandmarksTest.json( centrality.GetCentralityReport( graphDb, "cost", "both", null, null, 1, null ) );
+    }
+
+    /**
+     * A random graph held together by a chain, with small integer costs so
+     * that some scores tie.
+     */
+    static void createConnectedGraph( GraphDatabaseService graphDb, List<Node> nodes, int count, long seed )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            Random random = new Random( seed );
+            for ( int i = 0; i < count; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            for ( int i = 0; i + 1 < count; i++ )
+            {
+                relate( nodes, random.nextInt( i + 1 ), i + 1, 1 + random.nextInt( 3 ) );
+            }
+            for ( int i = 0; i < count; i++ )
+            {
+                relate( nodes, random.nextInt( count ), random.nextInt( count ), 1 + random.nextInt( 4 ) );
+            }
+            tx.success();
+        }
+    }
+
+    private void createConnectedGraph( int count, long seed )
+    {
+        createConnectedGraph( graphDb, nodes, count, seed );
+    }
+
+    private GraphSnapshot snapshot()
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            GraphSnapshot snapshot = GraphSnapshots.at( graphDb ).get( graphDb, "cost", null, Direction.BOTH );
+            tx.success();
+            return snapshot;
+        }
+    }
+
+    private static Number number( Object value )
+    {
+        return (Number) value;
+    }
+
+    private void relate( int start, int end, double cost )
+    {
+        relate( nodes, start, end, cost );
+    }
+
+    static void relate( List<Node> nodes, int start, int end, double cost )
+    {
+        nodes.get( start ).createRelationshipTo( nodes.get( end ), DynamicRelationshipType.withName( "ROAD" ) )
+                .setProperty( "cost", cost );
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class ContractionHierarchyTest
+{
+    private static final double INF = Double.POSITIVE_INFINITY;
+    private static final int NODES = 40;
+    private static final Direction[] DIRECTIONS = { Direction.OUTGOING, Direction.INCOMING, Direction.BOTH };
+
+    private GraphDatabaseService graphDb;
+    private final List<Node> nodes = new ArrayList<Node>();
+
+    @Before
+    public void createGraph()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            // Two pieces and a node on its own, with zero costs, parallel
+            // relationships and a loop
+            Random random = new Random( 5 );
+            for ( int i = 0; i < NODES; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            for ( int i = 0; i < NODES * 2; i++ )
+            {
+                int piece = random.nextInt( 3 ) == 0 ? 30 : 0;
+                int size = piece == 0 ? 30 : NODES - 31;
+                relate( piece + random.nextInt( size ), piece + random.nextInt( size ), random.nextInt( 6 ) );
+            }
+            relate( 1, 2, 7 );
+            relate( 1, 2, 0 );
+            relate( 3, 3, 0 );
+            tx.success();
+        }
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldRouteLikeDijkstra()
+    {
+        for ( Direction direction : DIRECTIONS )
+        {
+            GraphSnapshot snapshot = snapshot( direction );
+            assertRoutesLikeDijkstra( direction.toString(), ContractionHierarchy.build( snapshot ) );
+        }
+    }
+
+    @Test
+    public void shouldAnswerHierarchyShortestPathAndDistance() throws Exception
+    {
+        Centrality centrality = new Centrality();
+        for ( Direction direction : new Direction[] { Direction.OUTGOING, Direction.BOTH } )
+        {
+            double[] expected = LandmarksTest.distances( snapshot( direction ) );
+            for ( int x = 0; x < NODES; x += 3 )
+            {
+                for ( int y = 0; y < NODES; y += 2 )
+                {
+                    String pair = direction + " " + x + " to " + y;
+                    double distance = expected[index( direction, x ) * NODES + index( direction, y )];
+                    Map<String,Object> path = LandmarksTest.json( centrality.GetHierarchyShortestPath( node( x ),
+                            node( y ), "cost", direction.name().toLowerCase(), null ) );
+                    Map<String,Object> cost = LandmarksTest.json( centrality.GetHierarchyDistance( node( x ),
+                            node( y ), "cost", direction.name().toLowerCase(), null ) );
+                    assertEquals( pair, distance != INF, path.get( "connected" ) );
+                    assertEquals( pair, distance != INF, cost.get( "connected" ) );
+                    assertFalse( pair, cost.containsKey( "nodes" ) );
+                    if ( distance != INF )
+                    {
+                        assertEquals( pair, distance, ( (Number) path.get( "cost" ) ).doubleValue(), 1e-9 );
+                        assertEquals( pair, distance, ( (Number) cost.get( "cost" ) ).doubleValue(), 1e-9 );
+                        List<?> nodeIds = (List<?>) path.get( "nodes" );
+                        assertEquals( pair, node( x ).getId(), ( (Number) nodeIds.get( 0 ) ).longValue() );
+                        assertEquals( pair, node( y ).getId(),
+                                ( (Number) nodeIds.get( nodeIds.size() - 1 ) ).longValue() );
+                        assertEquals( pair, nodeIds.size() - 1, ( (List<?>) path.get( "relationships" ) ).size() );
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldReopenTheHierarchyFile() throws Exception
+    {
+        File path = File.createTempFile( "graph", ".ch" );
+        try
+        {
+            HierarchyFile file = new HierarchyFile( path, 7, 11 );
+            GraphSnapshot snapshot = snapshot( Direction.BOTH );
+            ContractionHierarchy written = ContractionHierarchy.load( snapshot, file );
+
+            ContractionHierarchy read = file.open( snapshot );
+            assertEquals( written.edgeCount(), read.edgeCount() );
+            assertEquals( written.shortcutCount(), read.shortcutCount() );
+            assertRoutesLikeDijkstra( "reopened", read );
+
+            // Another store or another graph
+            assertNull( new HierarchyFile( path, 8, 11 ).open( snapshot ) );
+            assertNull( new HierarchyFile( path, 7, 12 ).open( snapshot ) );
+            assertNull( file.open( snapshot( Direction.OUTGOING ) ) );
+            try ( Transaction tx = graphDb.beginTx() )
+            {
+                relate( 5, 6, 1 );
+                tx.success();
+            }
+            assertNull( file.open( snapshot( Direction.BOTH ) ) );
+            assertNull( new HierarchyFile( new File( path.getPath() + ".missing" ), 7, 11 ).open( snapshot ) );
+        }
+        finally
+        {
+            path.delete();
+        }
+    }
+
+    /**
+     * Every pair must get its SparseAllPairs distance, along edges that cost
+     * what the route says when unpacked.
+     */
+    private static void assertRoutesLikeDijkstra( String message, ContractionHierarchy hierarchy )
+    {
+        GraphSnapshot snapshot = hierarchy.snapshot();
+        double[] expected = LandmarksTest.distances( snapshot );
+        int n = snapshot.nodeCount();
+        for ( int x = 0; x < n; x++ )
+        {
+            for ( int y = 0; y < n; y++ )
+            {
+                String pair = message + " " + x + " to " + y;
+                ContractionHierarchy.Route route = hierarchy.route( x, y, true );
+                ContractionHierarchy.Route distance = hierarchy.route( x, y, false );
+                if ( expected[x * n + y] == INF )
+                {
+                    assertNull( pair, route );
+                    assertNull( pair, distance );
+                    continue;
+                }
+                assertEquals( pair, expected[x * n + y], route.cost(), 1e-9 );
+                assertEquals( pair, expected[x * n + y], distance.cost(), 1e-9 );
+                assertNull( pair, distance.nodes() );
+                int[] path = route.nodes();
+                assertEquals( pair, x, path[0] );
+                assertEquals( pair, y, path[path.length - 1] );
+                LandmarksTest.assertPathCosts( pair, snapshot, path, route.relationshipIds(), route.cost() );
+            }
+        }
+    }
+
+    private int index( Direction direction, int node )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            int index = snapshot( direction ).indexOf( node( node ) );
+            tx.success();
+            return index;
+        }
+    }
+
+    private GraphSnapshot snapshot( Direction direction )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            GraphSnapshot snapshot = GraphSnapshots.at( graphDb ).get( graphDb, "cost", null, direction );
+            tx.success();
+            return snapshot;
+        }
+    }
+
+    private Node node( int i )
+    {
+        return nodes.get( i );
+    }
+
+    private void relate( int start, int end, double cost )
+    {
+        nodes.get( start ).createRelationshipTo( nodes.get( end ), DynamicRelationshipType.withName( "ROAD" ) )
+                .setProperty( "cost", cost );
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphalgo.CostEvaluator;
+import org.neo4j.graphalgo.impl.util.DoubleAdder;
+import org.neo4j.graphalgo.impl.util.DoubleComparator;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+public class DoubleFloydWarshallTest
+{
+    /**
+     * Reads the same costs as the stock evaluator, but is not one of them.
+     */
+    private static final CostEvaluator<Double> PLAIN_COST = new CostEvaluator<Double>()
+    {
+        @Override
+        public Double getCost( Relationship relationship, Direction direction )
+        {
+            return (Double) relationship.getProperty( "cost" );
+        }
+    };
+
+    private GraphDatabaseService graphDb;
+    private final Map<String,Node> nodes = new HashMap<String,Node>();
+
+    @Before
+    public void createGraph()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            // Three weakly connected components: a cycle with chords, a
+            // cycle only entered from i, and h on its own. The costs are
+            // powers of two so every shortest path is the only one.
+            relate( "a", "b", 1 );
+            relate( "b", "c", 2 );
+            relate( "a", "c", 8 );
+            relate( "c", "d", 4 );
+            relate( "d", "a", 16 );
+            relate( "b", "d", 64 );
+            relate( "e", "f", 32 );
+            relate( "f", "g", 128 );
+            relate( "g", "e", 256 );
+            relate( "i", "e", 512 );
+            node( "h" );
+            tx.success();
+        }
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldMatchFloydWarshallFollowingOutgoingRelationships()
+    {
+        assertMatchesFloydWarshall( Direction.OUTGOING, null );
+    }
+
+    @Test
+    public void shouldMatchFloydWarshallFollowingIncomingRelationships()
+    {
+        assertMatchesFloydWarshall( Direction.INCOMING, null );
+    }
+
+    @Test
+    public void shouldMatchFloydWarshallFollowingBothDirections()
+    {
+        assertMatchesFloydWarshall( Direction.BOTH, null );
+    }
+
+    @Test
+    public void shouldMatchFloydWarshallWithEitherEngine()
+    {
+        assertMatchesFloydWarshall( Direction.OUTGOING, AllPairsEngine.FLOYD_WARSHALL );
+        assertMatchesFloydWarshall( Direction.OUTGOING, AllPairsEngine.DIJKSTRA );
+    }
+
+    @Test
+    public void shouldFindNoPathBetweenUnreachableNodes()
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            DoubleFloydWarshall fw = doubleFloydWarshall( Direction.OUTGOING, null );
+            // The same component, but against the relationships
+            assertNull( fw.getPath( node( "e" ), node( "i" ) ) );
+            assertEquals( Double.MAX_VALUE, fw.getCost( node( "e" ), node( "i" ) ), 0.0 );
+            // Different components
+            assertNull( fw.getPath( node( "a" ), node( "e" ) ) );
+            assertNull( fw.getPath( node( "h" ), node( "a" ) ) );
+            assertEquals( Double.MAX_VALUE, fw.getCost( node( "a" ), node( "h" ) ), 0.0 );
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldFindNoPathToANodeOutsideTheSnapshot()
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            DoubleFloydWarshall fw = doubleFloydWarshall( Direction.OUTGOING, null );
+            Node later = graphDb.createNode();
+            assertNull( fw.getPath( node( "a" ), later ) );
+            assertNull( fw.getPath( later, node( "a" ) ) );
+            assertEquals( Double.MAX_VALUE, fw.getCost( node( "a" ), later ), 0.0 );
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldPickThePrimitiveEngineForTheStockEvaluators()
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            assertTrue( create( CommonEvaluators.doubleCostEvaluator( "cost" ) ) instanceof DoubleFloydWarshall );
+            assertTrue( create( CommonEvaluators.doubleCostEvaluator( "cost", 1.0 ) ) instanceof DoubleFloydWarshall );
+            assertEquals( FloydWarshall.class, create( PLAIN_COST ).getClass() );
+            tx.success();
+        }
+    }
+
+    /**
+     * The generic fallback and the primitive engine, on the a-b-c-d
+     * component only, agree on the costs, the paths, the median and the
+     * center.
+     */
+    @Test
+    public void shouldMatchTheGenericFallbackOnANodeSet()
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            List<Node> component = Arrays.asList( node( "a" ), node( "b" ), node( "c" ), node( "d" ) );
+            FloydWarshall<Double> generic = DoubleFloydWarshall.create( 0.0, Double.MAX_VALUE, Direction.BOTH,
+                    PLAIN_COST, new DoubleAdder(), new DoubleComparator(), component,
+                    GlobalGraphOperations.at( graphDb ).getAllRelationships(), graphDb );
+            FloydWarshall<Double> primitive = DoubleFloydWarshall.create( 0.0, Double.MAX_VALUE, Direction.BOTH,
+                    CommonEvaluators.doubleCostEvaluator( "cost" ), new DoubleAdder(), new DoubleComparator(),
+                    component, GlobalGraphOperations.at( graphDb ).getAllRelationships(), graphDb );
+            assertEquals( 4, ( (DoubleFloydWarshall) primitive ).size() );
+            for ( Node start : component )
+            {
+                for ( Node end : component )
+                {
+                    assertEquals( generic.getCost( start, end ), primitive.getCost( start, end ) );
+                    assertEquals( generic.getPath( start, end ), primitive.getPath( start, end ) );
+                }
+            }
+            // Left out of the set, so no path leads there
+            assertNull( primitive.getPath( node( "a" ), node( "e" ) ) );
+            Centrality centrality = new Centrality();
+            assertEquals( centrality.GraphMedianAlgo( generic, component ),
+                    centrality.GraphMedianAlgo( primitive, component ) );
+            assertEquals( centrality.GraphCenterAlgo( generic, component ),
+                    centrality.GraphCenterAlgo( primitive, component ) );
+            tx.success();
+        }
+    }
+
+    @Test
+    public void shouldSupportTheInheritedMethodsOnASnapshot()
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            DoubleFloydWarshall fw = doubleFloydWarshall( Direction.OUTGOING, null );
+            fw.calculate();
+            fw.setPredecessors( true );
+            fw.reset();
+            assertEquals( Arrays.asList( node( "a" ), node( "b" ), node( "c" ) ),
+                    fw.getPath( node( "a" ), node( "c" ) ) );
+            assertEquals( 3.0, fw.getCost( node( "a" ), node( "c" ) ), 0.0 );
+            tx.success();
+        }
+    }
+
+    private FloydWarshall<Double> create( CostEvaluator<Double> costEvaluator )
+    {
+        return DoubleFloydWarshall.create( 0.0, Double.MAX_VALUE, Direction.OUTGOING, costEvaluator,
+                new DoubleAdder(), new DoubleComparator(), GlobalGraphOperations.at( graphDb ).getAllNodes(),
+                GlobalGraphOperations.at( graphDb ).getAllRelationships(), graphDb );
+    }
+
+    private void assertMatchesFloydWarshall( Direction direction, AllPairsEngine engine )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            FloydWarshall<Double> expected = new FloydWarshall<Double>( 0.0, Double.MAX_VALUE, direction,
+                    CommonEvaluators.doubleCostEvaluator( "cost" ), new DoubleAdder(), new DoubleComparator(),
+                    GlobalGraphOperations.at( graphDb ).getAllNodes(),
+                    GlobalGraphOperations.at( graphDb ).getAllRelationships(), graphDb );
+            DoubleFloydWarshall actual = doubleFloydWarshall( direction, engine );
+            for ( Map.Entry<String,Node> start : nodes.entrySet() )
+            {
+                for ( Map.Entry<String,Node> end : nodes.entrySet() )
+                {
+                    String pair = direction + " " + engine + " " + start.getKey() + " to " + end.getKey();
+                    assertEquals( pair, expected.getCost( start.getValue(), end.getValue() ),
+                            actual.getCost( start.getValue(), end.getValue() ) );
+                    List<Node> path = actual.getPath( start.getValue(), end.getValue() );
+                    assertEquals( pair, expected.getPath( start.getValue(), end.getValue() ), path );
+                }
+            }
+            tx.success();
+        }
+    }
+
+    private DoubleFloydWarshall doubleFloydWarshall( Direction direction, AllPairsEngine engine )
+    {
+        DoubleFloydWarshall fw = new DoubleFloydWarshall( GraphSnapshot.build( graphDb,
+                CommonEvaluators.doubleCostEvaluator( "cost" ), direction ), 0.0, Double.MAX_VALUE, graphDb );
+        fw.setEngine( engine );
+        return fw;
+    }
+
+    private Node node( String name )
+    {
+        Node node = nodes.get( name );
+        if ( node == null )
+        {
+            node = graphDb.createNode();
+            nodes.put( name, node );
+        }
+        return node;
+    }
+
+    private void relate( String start, String end, double cost )
+    {
+        node( start ).createRelationshipTo( node( end ), DynamicRelationshipType.withName( "ROAD" ) )
+                .setProperty( "cost", cost );
+    }
+}
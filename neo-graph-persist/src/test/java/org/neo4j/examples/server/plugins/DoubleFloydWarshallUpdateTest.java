@@ -0,0 +1,288 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+/**
+ * Updates a computed matrix with the changes of a transaction and compares
+ * it against a full recalculation of the changed graph.
+ */
+public class DoubleFloydWarshallUpdateTest
+{
+    private static final int RING = 30;
+
+    private GraphDatabaseService graphDb;
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final List<Relationship> ring = new ArrayList<Relationship>();
+    private final List<Relationship> chords = new ArrayList<Relationship>();
+    private GraphChanges changes;
+
+    @Before
+    public void createGraph()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            // A ring with random chords, and an island of two nodes. The
+            // costs are integers, so sums compare exactly.
+            for ( int i = 0; i < RING + 2; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            for ( int i = 0; i < RING; i++ )
+            {
+                ring.add( relate( i, ( i + 1 ) % RING, 10 ) );
+            }
+            Random random = new Random( 42 );
+            for ( int i = 0; i < RING * 2; i++ )
+            {
+                chords.add( relate( random.nextInt( RING ), random.nextInt( RING ), 1 + random.nextInt( 20 ) ) );
+            }
+            relate( RING, RING + 1, 3 );
+            tx.success();
+        }
+        graphDb.registerTransactionEventHandler( new TransactionEventHandler.Adapter<Void>()
+        {
+            @Override
+            public Void beforeCommit( TransactionData data )
+            {
+                changes = GraphChanges.capture( data, "cost" );
+                return null;
+            }
+        } );
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldUpdateACheaperRelationship()
+    {
+        for ( Direction direction : Direction.values() )
+        {
+            DoubleFloydWarshall fw = calculated( direction );
+            try ( Transaction tx = graphDb.beginTx() )
+            {
+                chords.get( 3 ).setProperty( "cost", 1.0 );
+                ring.get( 7 ).setProperty( "cost", 2.0 );
+                tx.success();
+            }
+            assertUpdated( fw, direction );
+        }
+    }
+
+    @Test
+    public void shouldUpdateAMoreExpensiveRelationship()
+    {
+        for ( Direction direction : Direction.values() )
+        {
+            DoubleFloydWarshall fw = calculated( direction );
+            try ( Transaction tx = graphDb.beginTx() )
+            {
+                ring.get( 12 ).setProperty( "cost", 40.0 + direction.ordinal() );
+                tx.success();
+            }
+            assertUpdated( fw, direction );
+        }
+    }
+
+    @Test
+    public void shouldUpdateAnInsertedRelationship()
+    {
+        for ( Direction direction : Direction.values() )
+        {
+            DoubleFloydWarshall fw = calculated( direction );
+            try ( Transaction tx = graphDb.beginTx() )
+            {
+                relate( 2, 17 + direction.ordinal(), 1 );
+                tx.success();
+            }
+            assertUpdated( fw, direction );
+        }
+    }
+
+    @Test
+    public void shouldUpdateADeletedRelationship()
+    {
+        for ( Direction direction : Direction.values() )
+        {
+            DoubleFloydWarshall fw = calculated( direction );
+            try ( Transaction tx = graphDb.beginTx() )
+            {
+                ring.get( 20 + direction.ordinal() ).delete();
+                tx.success();
+            }
+            assertUpdated( fw, direction );
+        }
+    }
+
+    @Test
+    public void shouldUpdateSeveralChangesAtOnce()
+    {
+        DoubleFloydWarshall fw = calculated( Direction.BOTH );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            ring.get( 25 ).setProperty( "cost", 11.0 );
+            chords.get( 9 ).delete();
+            relate( 5, 25, 2 );
+            relate( 25, 5, 30 );
+            tx.success();
+        }
+        assertUpdated( fw, Direction.BOTH );
+    }
+
+    @Test
+    public void shouldIgnoreOtherProperties()
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            ring.get( 0 ).setProperty( "name", "first" );
+            tx.success();
+        }
+        assertNull( changes );
+    }
+
+    @Test
+    public void shouldRecalculateWhenNodesChange()
+    {
+        DoubleFloydWarshall fw = calculated( Direction.OUTGOING );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            graphDb.createNode();
+            tx.success();
+        }
+        assertNotNull( changes );
+        assertTrue( changes.nodesChanged() );
+        assertFalse( fw.update( changes, null ) );
+    }
+
+    @Test
+    public void shouldRecalculateWhenComponentsJoin()
+    {
+        DoubleFloydWarshall fw = calculated( Direction.OUTGOING );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            relate( 0, RING, 1 );
+            tx.success();
+        }
+        assertFalse( fw.update( changes, null ) );
+    }
+
+    private DoubleFloydWarshall calculated( Direction direction )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            DoubleFloydWarshall fw = new DoubleFloydWarshall( GraphSnapshot.build( graphDb,
+                    CommonEvaluators.doubleCostEvaluator( "cost" ), direction ), 0.0, Double.MAX_VALUE, graphDb );
+            // Computed with predecessors, or getPath would recalculate
+            fw.setPredecessors( true );
+            fw.calculate();
+            tx.success();
+            return fw;
+        }
+    }
+
+    /**
+     * Applies the captured changes and compares every cost against a full
+     * recalculation. The paths may differ on ties, so they are checked to
+     * cost what the matrix says.
+     */
+    private void assertUpdated( DoubleFloydWarshall fw, Direction direction )
+    {
+        assertNotNull( changes );
+        assertTrue( direction + " updated", fw.update( changes, null ) );
+        DoubleFloydWarshall expected = calculated( direction );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for ( Node start : nodes )
+            {
+                for ( Node end : nodes )
+                {
+                    String pair = direction + " " + start.getId() + " to " + end.getId();
+                    Double cost = expected.getCost( start, end );
+                    assertEquals( pair, cost, fw.getCost( start, end ) );
+                    List<Node> path = fw.getPath( start, end );
+                    if ( cost == Double.MAX_VALUE )
+                    {
+                        assertNull( pair, path );
+                    }
+                    else
+                    {
+                        assertEquals( pair, start, path.get( 0 ) );
+                        assertEquals( pair, end, path.get( path.size() - 1 ) );
+                        assertEquals( pair, cost, cost( path, direction ), 0.0 );
+                    }
+                }
+            }
+            tx.success();
+        }
+    }
+
+    private static double cost( List<Node> path, Direction direction )
+    {
+        double sum = 0;
+        for ( int i = 1; i < path.size(); i++ )
+        {
+            double step = Double.MAX_VALUE;
+            for ( Relationship relationship : path.get( i - 1 ).getRelationships( direction ) )
+            {
+                if ( relationship.getOtherNode( path.get( i - 1 ) ).equals( path.get( i ) ) )
+                {
+                    step = Math.min( step, ( (Number) relationship.getProperty( "cost" ) ).doubleValue() );
+                }
+            }
+            sum += step;
+        }
+        return sum;
+    }
+
+    private Relationship relate( int start, int end, double cost )
+    {
+        Relationship relationship = nodes.get( start ).createRelationshipTo( nodes.get( end ),
+                DynamicRelationshipType.withName( "ROAD" ) );
+        relationship.setProperty( "cost", cost );
+        return relationship;
+    }
+}
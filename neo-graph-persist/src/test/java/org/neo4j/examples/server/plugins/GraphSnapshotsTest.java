@@ -0,0 +1,186 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class GraphSnapshotsTest
+{
+    private static final int NODES = 200;
+
+    private GraphDatabaseService graphDb;
+    private final List<Node> nodes = new ArrayList<Node>();
+
+    @Before
+    public void createGraph()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for ( int i = 0; i < NODES; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            // Every node points at the next one and back at the first, so
+            // the pass meets relationships to nodes both before and after
+            for ( int i = 0; i < NODES; i++ )
+            {
+                relate( nodes.get( i ), nodes.get( ( i + 1 ) % NODES ), i + 1 );
+                relate( nodes.get( NODES - 1 - i ), nodes.get( 0 ), 1 );
+            }
+            tx.success();
+        }
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldIndexNodesInStoreOrder()
+    {
+        GraphSnapshot snapshot = snapshot();
+        assertEquals( NODES, snapshot.nodeCount() );
+        for ( int i = 0; i < NODES; i++ )
+        {
+            assertEquals( nodes.get( i ).getId(), snapshot.nodeId( i ) );
+            int next = ( i + 1 ) % NODES;
+            boolean found = false;
+            for ( int e = snapshot.offsets()[i]; e < snapshot.offsets()[i + 1]; e++ )
+            {
+                if ( snapshot.targets()[e] == next && snapshot.costs()[e] == i + 1 )
+                {
+                    found = true;
+                }
+            }
+            assertTrue( "" + i, found );
+            assertEquals( "" + i, 2, snapshot.offsets()[i + 1] - snapshot.offsets()[i] );
+        }
+    }
+
+    @Test
+    public void shouldBuildOnceForConcurrentCallers() throws Exception
+    {
+        int threads = 8;
+        final CountDownLatch start = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try
+        {
+            List<Future<GraphSnapshot>> results = new ArrayList<Future<GraphSnapshot>>();
+            for ( int i = 0; i < threads; i++ )
+            {
+                results.add( executor.submit( new Callable<GraphSnapshot>()
+                {
+                    @Override
+                    public GraphSnapshot call() throws Exception
+                    {
+                        start.await();
+                        return snapshot();
+                    }
+                } ) );
+            }
+            start.countDown();
+            GraphSnapshot first = results.get( 0 ).get( 10, TimeUnit.SECONDS );
+            for ( Future<GraphSnapshot> result : results )
+            {
+                assertSame( first, result.get( 10, TimeUnit.SECONDS ) );
+            }
+            assertSame( first, snapshot() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldNotKeepSnapshotsBuiltWhileCommitting() throws Exception
+    {
+        final int commits = 20;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<?> writer = executor.submit( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = 0; i < commits; i++ )
+                    {
+                        try ( Transaction tx = graphDb.beginTx() )
+                        {
+                            relate( nodes.get( i ), nodes.get( i + 2 ), 1 );
+                            tx.success();
+                        }
+                    }
+                }
+            } );
+            while ( !writer.isDone() )
+            {
+                snapshot();
+            }
+            writer.get( 10, TimeUnit.SECONDS );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        // Nothing stale was kept from the builds that raced the commits
+        GraphSnapshot snapshot = snapshot();
+        assertEquals( 2 * NODES + commits, snapshot.targets().length );
+    }
+
+    private GraphSnapshot snapshot()
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            GraphSnapshot snapshot = GraphSnapshots.at( graphDb ).get( graphDb, "cost", null, Direction.OUTGOING );
+            tx.success();
+            return snapshot;
+        }
+    }
+
+    private static void relate( Node start, Node end, double cost )
+    {
+        start.createRelationshipTo( end, DynamicRelationshipType.withName( "ROAD" ) ).setProperty( "cost", cost );
+    }
+}
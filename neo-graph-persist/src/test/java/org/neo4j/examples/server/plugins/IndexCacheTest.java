@@ -0,0 +1,280 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.server.rest.repr.Representation;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class IndexCacheTest
+{
+    private GraphDatabaseService graphDb;
+    private IndexCache<String,Built> cache;
+    private GraphSnapshot before;
+    private GraphSnapshot after;
+    private final AtomicInteger builds = new AtomicInteger();
+
+    @Before
+    public void takeSnapshots()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        before = relate();
+        after = relate();
+        assertNotSame( before, after );
+        cache = new IndexCache<String,Built>( Jobs.at( graphDb ), 100 );
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldServeThePreviousIndexWhileTheNewOneIsBuilt() throws Exception
+    {
+        Built old = cache.get( "a", before, build( before, 10, null ), false );
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        assertSame( old, cache.get( "a", after, build( after, 10, release ), false ) );
+        assertSame( old, cache.get( "a", after, build( after, 10, null ), false ) );
+
+        release.countDown();
+        Built fresh = await( "a", after );
+        assertSame( after, fresh.snapshot() );
+        assertEquals( 2, builds.get() );
+    }
+
+    @Test
+    public void shouldWaitForTheIndexOfTheSnapshotWhenAskedForTheCurrentOne()
+    {
+        cache.get( "a", before, build( before, 10, null ), false );
+
+        Built fresh = cache.get( "a", after, build( after, 10, null ), true );
+
+        assertSame( after, fresh.snapshot() );
+        assertSame( fresh, cache.get( "a", after, build( after, 10, null ), false ) );
+        assertEquals( 2, builds.get() );
+    }
+
+    @Test
+    public void shouldNotHoldUpOtherKeysWhileTheFirstIndexOfOneIsBuilt() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AtomicReference<Built> first = new AtomicReference<Built>();
+        Thread waiting = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                first.set( cache.get( "a", before, build( before, 10, release ), false ) );
+            }
+        };
+        waiting.start();
+        while ( builds.get() == 0 )
+        {
+            Thread.sleep( 1 );
+        }
+
+        assertSame( before, cache.get( "b", before, build( before, 10, null ), false ).snapshot() );
+
+        release.countDown();
+        waiting.join();
+        assertSame( before, first.get().snapshot() );
+    }
+
+    @Test
+    public void shouldRebuildWhileEveryJobSlotIsTaken() throws Exception
+    {
+        Built old = cache.get( "a", before, build( before, 10, null ), false );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        Jobs jobs = Jobs.at( graphDb );
+        try
+        {
+            for ( int i = 0; i < Jobs.THREADS + Jobs.QUEUE_SIZE; i++ )
+            {
+                jobs.submit( "blocking", "blocking " + i, new Jobs.Task()
+                {
+                    @Override
+                    public Representation run( Jobs.Job job ) throws InterruptedException
+                    {
+                        release.await( 10, TimeUnit.SECONDS );
+                        return null;
+                    }
+                } );
+            }
+
+            assertSame( old, cache.get( "a", after, build( after, 10, null ), false ) );
+            assertSame( after, await( "a", after ).snapshot() );
+            // And the rebuild took no room from the jobs
+            try
+            {
+                jobs.submit( "blocking", "one too many", null );
+                fail( "The job queue should still be full" );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                // expected
+            }
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedIndexesOverTheBudget()
+    {
+        Built a = cache.get( "a", before, build( before, 40, null ), false );
+        cache.get( "b", before, build( before, 40, null ), false );
+        assertSame( a, cache.get( "a", before, build( before, 40, null ), false ) );
+
+        cache.get( "c", before, build( before, 40, null ), false );
+
+        assertSame( a, cache.get( "a", before, build( before, 40, null ), false ) );
+        assertEquals( 3, builds.get() );
+        cache.get( "b", before, build( before, 40, null ), false );
+        assertEquals( 4, builds.get() );
+    }
+
+    @Test
+    public void shouldReportThatTheIndexOfTheCurrentSnapshotCanNotBeBuilt() throws Exception
+    {
+        cache.get( "a", before, build( before, 10, null ), false );
+        Callable<Built> failing = new Callable<Built>()
+        {
+            @Override
+            public Built call()
+            {
+                throw new IllegalArgumentException( "negative" );
+            }
+        };
+
+        cache.get( "a", after, failing, false );
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( System.currentTimeMillis() < deadline )
+        {
+            try
+            {
+                cache.get( "a", after, failing, false );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                assertEquals( "negative", e.getMessage() );
+                return;
+            }
+            Thread.sleep( 1 );
+        }
+        fail( "The failed build was never reported" );
+    }
+
+    private Built await( String key, GraphSnapshot snapshot ) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( System.currentTimeMillis() < deadline )
+        {
+            Built built = cache.get( key, snapshot, build( snapshot, 10, null ), false );
+            if ( built.snapshot() == snapshot )
+            {
+                return built;
+            }
+            Thread.sleep( 1 );
+        }
+        fail( "The index of the snapshot was never built" );
+        return null;
+    }
+
+    private Callable<Built> build( final GraphSnapshot snapshot, final long bytes, final CountDownLatch release )
+    {
+        return new Callable<Built>()
+        {
+            @Override
+            public Built call() throws InterruptedException
+            {
+                builds.incrementAndGet();
+                if ( release != null && !release.await( 10, TimeUnit.SECONDS ) )
+                {
+                    fail( "Never released" );
+                }
+                return new Built( snapshot, bytes );
+            }
+        };
+    }
+
+    private GraphSnapshot relate()
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            Node node = graphDb.createNode();
+            node.createRelationshipTo( graphDb.createNode(), DynamicRelationshipType.withName( "knows" ) )
+                    .setProperty( "cost", 1.0 );
+            tx.success();
+        }
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            GraphSnapshot snapshot = GraphSnapshots.at( graphDb ).get( graphDb, "cost", null, Direction.OUTGOING );
+            tx.success();
+            return snapshot;
+        }
+    }
+
+    private static final class Built implements IndexCache.Index
+    {
+        private final GraphSnapshot snapshot;
+        private final long bytes;
+
+        Built( GraphSnapshot snapshot, long bytes )
+        {
+            this.snapshot = snapshot;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public GraphSnapshot snapshot()
+        {
+            return snapshot;
+        }
+
+        @Override
+        public long bytes()
+        {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.server.rest.repr.Representation;
+import org.neo4j.server.rest.repr.ValueRepresentation;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class JobsTest
+{
+    private GraphDatabaseService graphDb;
+    private Jobs jobs;
+
+    @Before
+    public void createDatabase()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        jobs = Jobs.at( graphDb );
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldShareAJobWithTheSameKeyWhileItIsInFlight() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch( 1 );
+        AtomicInteger runs = new AtomicInteger();
+        Jobs.Job first = jobs.submit( "test", "test:a", blocking( release, runs ) );
+        Jobs.Job second = jobs.submit( "test", "test:a", blocking( release, runs ) );
+        Jobs.Job other = jobs.submit( "test", "test:b", blocking( release, runs ) );
+        assertSame( first, second );
+        assertNotSame( first, other );
+
+        release.countDown();
+        awaitFinished( first );
+        awaitFinished( other );
+        assertEquals( 2, runs.get() );
+        assertEquals( Jobs.Status.DONE, first.status() );
+        assertEquals( 1.0, first.progress(), 0.0 );
+        assertNotNull( first.result() );
+
+        // Once finished, the same key starts a new job
+        Jobs.Job again = jobs.submit( "test", "test:a", blocking( release, runs ) );
+        assertNotSame( first, again );
+        awaitFinished( again );
+        assertEquals( 3, runs.get() );
+    }
+
+    @Test
+    public void shouldDropTheOldestFinishedJobsBeyondTheRetainedCount() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch( 1 );
+        Jobs.Job running = jobs.submit( "test", "test:running", blocking( release, new AtomicInteger() ) );
+        List<Jobs.Job> finished = new ArrayList<Jobs.Job>();
+        for ( int i = 0; i < Jobs.RETAINED + 5; i++ )
+        {
+            Jobs.Job job = jobs.submit( "test", "test:" + i, blocking( new CountDownLatch( 0 ), new AtomicInteger() ) );
+            awaitFinished( job );
+            finished.add( job );
+        }
+        for ( int i = 0; i < finished.size(); i++ )
+        {
+            Jobs.Job job = finished.get( i );
+            if ( i < 5 )
+            {
+                assertNull( jobs.get( job.id() ) );
+            }
+            else
+            {
+                assertSame( job, jobs.get( job.id() ) );
+            }
+        }
+        // The oldest job of all is kept while it runs
+        assertSame( running, jobs.get( running.id() ) );
+        release.countDown();
+        awaitFinished( running );
+        assertSame( running, jobs.get( running.id() ) );
+        assertNull( jobs.get( finished.get( 5 ).id() ) );
+    }
+
+    @Test
+    public void shouldMarkAJobFailedOnAnError() throws Exception
+    {
+        Jobs.Job job = jobs.submit( "test", "test:error", new Jobs.Task()
+        {
+            @Override
+            public Representation run( Jobs.Job job )
+            {
+                throw new OutOfMemoryError( "Java heap space" );
+            }
+        } );
+        awaitFinished( job );
+        assertEquals( Jobs.Status.FAILED, job.status() );
+        assertEquals( "Java heap space", job.error() );
+        assertEquals( "failed", job.phase() );
+        assertNull( job.result() );
+
+        // The pool replaces the worker that died, and the key is free again
+        Jobs.Job next = jobs.submit( "test", "test:error", blocking( new CountDownLatch( 0 ), new AtomicInteger() ) );
+        assertNotSame( job, next );
+        awaitFinished( next );
+        assertEquals( Jobs.Status.DONE, next.status() );
+    }
+
+    @Test
+    public void shouldMarkAJobFailedOnAnException() throws Exception
+    {
+        Jobs.Job job = jobs.submit( "test", "test:exception", new Jobs.Task()
+        {
+            @Override
+            public Representation run( Jobs.Job job ) throws Exception
+            {
+                throw new IllegalStateException( "Negative cycle" );
+            }
+        } );
+        awaitFinished( job );
+        assertEquals( Jobs.Status.FAILED, job.status() );
+        assertEquals( "Negative cycle", job.error() );
+    }
+
+    private static Jobs.Task blocking( final CountDownLatch release, final AtomicInteger runs )
+    {
+        return new Jobs.Task()
+        {
+            @Override
+            public Representation run( Jobs.Job job ) throws Exception
+            {
+                runs.incrementAndGet();
+                assertTrue( release.await( 10, TimeUnit.SECONDS ) );
+                return ValueRepresentation.number( job.id() );
+            }
+        };
+    }
+
+    private static void awaitFinished( Jobs.Job job ) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( job.status() != Jobs.Status.DONE && job.status() != Jobs.Status.FAILED )
+        {
+            assertTrue( "Job " + job.id() + " never finished", System.currentTimeMillis() < deadline );
+            Thread.sleep( 1 );
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.server.rest.domain.JsonHelper;
+import org.neo4j.server.rest.repr.OutputFormat;
+import org.neo4j.server.rest.repr.Representation;
+import org.neo4j.server.rest.repr.formats.JsonFormat;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class LandmarksTest
+{
+    private static final double INF = Double.POSITIVE_INFINITY;
+    private static final int NODES = 40;
+    private static final Direction[] DIRECTIONS = { Direction.OUTGOING, Direction.INCOMING, Direction.BOTH };
+
+    private GraphDatabaseService graphDb;
+    private final List<Node> nodes = new ArrayList<Node>();
+
+    @Before
+    public void createGraph()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            // Two pieces and a node on its own, with zero costs, parallel
+            // relationships and a loop
+            Random random = new Random( 5 );
+            for ( int i = 0; i < NODES; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            for ( int i = 0; i < NODES * 2; i++ )
+            {
+                int piece = random.nextInt( 3 ) == 0 ? 30 : 0;
+                int size = piece == 0 ? 30 : NODES - 31;
+                relate( piece + random.nextInt( size ), piece + random.nextInt( size ), random.nextInt( 6 ) );
+            }
+            relate( 1, 2, 7 );
+            relate( 1, 2, 0 );
+            relate( 3, 3, 0 );
+            tx.success();
+        }
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldRouteLikeDijkstra()
+    {
+        for ( Direction direction : DIRECTIONS )
+        {
+            GraphSnapshot snapshot = snapshot( direction );
+            double[] expected = distances( snapshot );
+            int n = snapshot.nodeCount();
+            for ( int count : new int[] { 0, 1, Landmarks.DEFAULT_COUNT } )
+            {
+                Landmarks landmarks = Landmarks.build( snapshot, count, 2 );
+                for ( int x = 0; x < n; x++ )
+                {
+                    for ( int y = 0; y < n; y++ )
+                    {
+                        String pair = direction + " " + count + " " + x + " to " + y;
+                        Landmarks.Route route = landmarks.route( x, y );
+                        if ( expected[x * n + y] == INF )
+                        {
+                            assertNull( pair, route );
+                            continue;
+                        }
+                        assertEquals( pair, expected[x * n + y], route.cost(), 1e-9 );
+                        assertPathCosts( pair, snapshot, route.nodes(), route.relationshipIds(), route.cost() );
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldAnswerWeightedShortestPath() throws Exception
+    {
+        Centrality centrality = new Centrality();
+        for ( Direction direction : new Direction[] { Direction.OUTGOING, Direction.BOTH } )
+        {
+            double[] expected = distances( snapshot( direction ) );
+            for ( int x = 0; x < NODES; x += 3 )
+            {
+                for ( int y = 0; y < NODES; y += 2 )
+                {
+                    String pair = direction + " " + x + " to " + y;
+                    Map<String,Object> answer = json( centrality.GetWeightedShortestPath( node( x ), node( y ),
+                            "cost", direction.name().toLowerCase(), null ) );
+                    double distance = expected[index( direction, x ) * NODES + index( direction, y )];
+                    assertEquals( pair, distance != INF, answer.get( "connected" ) );
+                    if ( distance != INF )
+                    {
+                        assertEquals( pair, distance, ( (Number) answer.get( "cost" ) ).doubleValue(), 1e-9 );
+                        List<?> path = (List<?>) answer.get( "nodes" );
+                        assertEquals( pair, node( x ).getId(), ( (Number) path.get( 0 ) ).longValue() );
+                        assertEquals( pair, node( y ).getId(),
+                                ( (Number) path.get( path.size() - 1 ) ).longValue() );
+                        assertEquals( pair, path.size() - 1, ( (List<?>) answer.get( "relationships" ) ).size() );
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldBoundTheExactDistance()
+    {
+        for ( Direction direction : DIRECTIONS )
+        {
+            GraphSnapshot snapshot = snapshot( direction );
+            double[] expected = distances( snapshot );
+            int n = snapshot.nodeCount();
+            for ( int count : new int[] { 1, Landmarks.DEFAULT_COUNT } )
+            {
+                Landmarks landmarks = Landmarks.build( snapshot, count, 2 );
+                for ( int x = 0; x < n; x++ )
+                {
+                    for ( int y = 0; y < n; y++ )
+                    {
+                        String pair = direction + " " + count + " " + x + " to " + y;
+                        double distance = expected[x * n + y];
+                        double lower = landmarks.lowerBound( x, y );
+                        double upper = landmarks.upperBound( x, y );
+                        assertTrue( pair + " " + lower + " > " + distance, lower <= distance + 1e-9 );
+                        assertTrue( pair + " " + upper + " < " + distance, upper >= distance - 1e-9 );
+                        if ( x == y )
+                        {
+                            assertEquals( pair, 0.0, upper, 0.0 );
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldAnswerApproximateDistance() throws Exception
+    {
+        Centrality centrality = new Centrality();
+        for ( Direction direction : new Direction[] { Direction.OUTGOING, Direction.BOTH } )
+        {
+            double[] expected = distances( snapshot( direction ) );
+            for ( int x = 0; x < NODES; x += 3 )
+            {
+                for ( int y = 0; y < NODES; y += 2 )
+                {
+                    String pair = direction + " " + x + " to " + y;
+                    Map<String,Object> answer = json( centrality.GetApproximateDistance( node( x ), node( y ),
+                            "cost", direction.name().toLowerCase(), null ) );
+                    double distance = expected[index( direction, x ) * NODES + index( direction, y )];
+                    double lower = answer.containsKey( "lowerBound" )
+                            ? ( (Number) answer.get( "lowerBound" ) ).doubleValue() : INF;
+                    double upper = answer.containsKey( "upperBound" )
+                            ? ( (Number) answer.get( "upperBound" ) ).doubleValue() : INF;
+                    assertTrue( pair, lower <= distance + 1e-9 );
+                    assertTrue( pair, upper >= distance - 1e-9 );
+                    if ( answer.containsKey( "connected" ) )
+                    {
+                        assertEquals( pair, distance != INF, answer.get( "connected" ) );
+                    }
+                    assertEquals( pair, lower == upper, answer.get( "exact" ) );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldReopenTheLandmarkFile() throws Exception
+    {
+        File path = File.createTempFile( "graph", ".landmarks" );
+        try
+        {
+            LandmarkFile file = new LandmarkFile( path, 7, 11 );
+            GraphSnapshot snapshot = snapshot( Direction.OUTGOING );
+            Landmarks written = Landmarks.load( snapshot, 4, 2, file );
+
+            Landmarks read = file.open( snapshot, 4 );
+            assertEquals( written.count(), read.count() );
+            assertArrayEquals( written.landmarks(), read.landmarks() );
+            assertArrayEquals( written.from(), read.from(), 0.0 );
+            assertArrayEquals( written.to(), read.to(), 0.0 );
+            assertArrayEquals( written.landmarks(), Landmarks.load( snapshot, 4, 2, file ).landmarks() );
+
+            // Another count, another store or another graph
+            assertNull( file.open( snapshot, 5 ) );
+            assertNull( new LandmarkFile( path, 8, 11 ).open( snapshot, 4 ) );
+            assertNull( new LandmarkFile( path, 7, 12 ).open( snapshot, 4 ) );
+            assertNull( file.open( snapshot( Direction.BOTH ), 4 ) );
+            try ( Transaction tx = graphDb.beginTx() )
+            {
+                relate( 5, 6, 1 );
+                tx.success();
+            }
+            assertNull( file.open( snapshot( Direction.OUTGOING ), 4 ) );
+            assertNull( new LandmarkFile( new File( path.getPath() + ".missing" ), 7, 11 ).open( snapshot, 4 ) );
+        }
+        finally
+        {
+            path.delete();
+        }
+    }
+
+    /**
+     * The path must follow edges of the snapshot, by the relationships it
+     * names, and cost what it says.
+     */
+    static void assertPathCosts( String pair, GraphSnapshot snapshot, int[] path, long[] relationshipIds,
+            double cost )
+    {
+        assertEquals( pair, path.length - 1, relationshipIds.length );
+        double sum = 0.0;
+        for ( int i = 0; i + 1 < path.length; i++ )
+        {
+            double cheapest = INF;
+            for ( int e = snapshot.offsets()[path[i]]; e < snapshot.offsets()[path[i] + 1]; e++ )
+            {
+                if ( snapshot.targets()[e] == path[i + 1] && snapshot.relationshipId( e ) == relationshipIds[i] )
+                {
+                    cheapest = Math.min( cheapest, snapshot.costs()[e] );
+                }
+            }
+            assertTrue( pair + " hop " + i, cheapest != INF );
+            sum += cheapest;
+        }
+        assertEquals( pair, cost, sum, 1e-9 );
+    }
+
+    /**
+     * @return the exact distances between all pairs, row-major by snapshot
+     *         index.
+     */
+    static double[] distances( GraphSnapshot snapshot )
+    {
+        int n = snapshot.nodeCount();
+        double[] costs = new double[n * n];
+        Arrays.fill( costs, INF );
+        new SparseAllPairs( snapshot, 1 ).run( costs, null, 0.0 );
+        return costs;
+    }
+
+    static Map<String,Object> json( Representation representation ) throws Exception
+    {
+        OutputFormat format = new OutputFormat( new JsonFormat(), new URI( "http://localhost/" ), null );
+        return JsonHelper.jsonToMap( format.assemble( representation ) );
+    }
+
+    private int index( Direction direction, int node )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            int index = snapshot( direction ).indexOf( node( node ) );
+            tx.success();
+            return index;
+        }
+    }
+
+    private GraphSnapshot snapshot( Direction direction )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            GraphSnapshot snapshot = GraphSnapshots.at( graphDb ).get( graphDb, "cost", null, direction );
+            tx.success();
+            return snapshot;
+        }
+    }
+
+    private Node node( int i )
+    {
+        return nodes.get( i );
+    }
+
+    private void relate( int start, int end, double cost )
+    {
+        nodes.get( start ).createRelationshipTo( nodes.get( end ), DynamicRelationshipType.withName( "ROAD" ) )
+                .setProperty( "cost", cost );
+    }
+}
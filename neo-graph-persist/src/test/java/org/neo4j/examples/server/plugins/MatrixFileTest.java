@@ -0,0 +1,241 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class MatrixFileTest
+{
+    private static final double INF = Double.MAX_VALUE;
+    private static final int NODES = 30;
+
+    private GraphDatabaseService graphDb;
+    private final List<Node> nodes = new ArrayList<Node>();
+    private File path;
+    private MatrixFile file;
+
+    @Before
+    public void createGraph() throws Exception
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            // Two pieces and a node on its own, so the file holds several
+            // blocks
+            Random random = new Random( 3 );
+            for ( int i = 0; i < NODES; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            for ( int i = 0; i < NODES * 2; i++ )
+            {
+                int piece = random.nextInt( 2 ) * 20;
+                int size = piece == 0 ? 20 : NODES - 21;
+                relate( piece + random.nextInt( size ), piece + random.nextInt( size ), 1 + random.nextInt( 9 ) );
+            }
+            tx.success();
+        }
+        path = File.createTempFile( "graph", ".apsp" );
+        path.delete();
+        file = new MatrixFile( path, 7, 11 );
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+        path.delete();
+    }
+
+    @Test
+    public void shouldReopenWithAMatchingFingerprint() throws Exception
+    {
+        GraphSnapshot snapshot = snapshot( Direction.OUTGOING );
+        DistanceMatrix computed = matrix( snapshot );
+        assertMatrixEquals( computed, file.write( snapshot, computed, INF ) );
+
+        assertMatrixEquals( computed, file.open( snapshot, true, INF ) );
+        assertNotNull( file.open( snapshot, false, INF ) );
+        // And from a snapshot of the same graph taken afresh
+        assertMatrixEquals( computed, file.open( build( Direction.OUTGOING ), true, INF ) );
+    }
+
+    @Test
+    public void shouldRejectAMismatchedFile() throws Exception
+    {
+        GraphSnapshot snapshot = snapshot( Direction.OUTGOING );
+        file.write( snapshot, matrix( snapshot ), INF );
+
+        assertNull( new MatrixFile( path, 8, 11 ).open( snapshot, false, INF ) );
+        assertNull( new MatrixFile( path, 7, 12 ).open( snapshot, false, INF ) );
+        assertNull( file.open( snapshot( Direction.BOTH ), false, INF ) );
+        assertNull( new MatrixFile( new File( path.getPath() + ".missing" ), 7, 11 ).open( snapshot, false,
+                INF ) );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            relate( 0, 25, 1 );
+            tx.success();
+        }
+        assertNull( file.open( snapshot( Direction.OUTGOING ), false, INF ) );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            graphDb.createNode();
+            tx.success();
+        }
+        assertNull( file.open( snapshot( Direction.OUTGOING ), false, INF ) );
+    }
+
+    @Test
+    public void shouldRejectAFileWithoutPredecessorsWhenAskedForThem() throws Exception
+    {
+        GraphSnapshot snapshot = snapshot( Direction.OUTGOING );
+        DoubleFloydWarshall fw = new DoubleFloydWarshall( snapshot, 0.0, INF, graphDb );
+        file.write( snapshot, fw.matrix(), INF );
+
+        assertNull( file.open( snapshot, true, INF ) );
+        assertNotNull( file.open( snapshot, false, INF ) );
+    }
+
+    @Test
+    public void shouldRejectAStaleOrTruncatedFile() throws Exception
+    {
+        GraphSnapshot snapshot = snapshot( Direction.OUTGOING );
+        DistanceMatrix matrix = file.write( snapshot, matrix( snapshot ), INF );
+
+        file.markStale();
+        assertNull( file.open( snapshot, false, INF ) );
+        file.markCurrent( snapshot, matrix );
+        assertMatrixEquals( matrix, file.open( snapshot, true, INF ) );
+
+        try ( RandomAccessFile raf = new RandomAccessFile( path, "rw" ) )
+        {
+            raf.setLength( raf.length() - 1 );
+        }
+        assertNull( file.open( snapshot, true, INF ) );
+    }
+
+    @Test
+    public void shouldRoundTripBothPredecessorWidths() throws Exception
+    {
+        GraphSnapshot snapshot = snapshot( Direction.BOTH );
+        DistanceMatrix narrow = matrix( snapshot );
+        assertEquals( 2, narrow.predecessorWidth() );
+        DistanceMatrix reopened = roundTrip( snapshot, narrow );
+        assertEquals( 2, reopened.predecessorWidth() );
+        assertMatrixEquals( narrow, reopened );
+
+        // Only components over Short.MAX_VALUE nodes get ints, so the wide
+        // copy is made by hand
+        Components components = narrow.components();
+        int cells = (int) components.cells();
+        DistanceMatrix wide = new DistanceMatrix( components, INF, cells,
+                new DoubleBuffer[] { DoubleBuffer.allocate( cells ) }, new IntBuffer[] { IntBuffer.allocate( cells ) },
+                null );
+        for ( int i = 0; i < narrow.size(); i++ )
+        {
+            for ( int j = 0; j < narrow.size(); j++ )
+            {
+                wide.setCost( i, j, narrow.cost( i, j ) );
+                wide.setPredecessor( i, j, narrow.predecessor( i, j ) );
+            }
+        }
+        assertEquals( 4, wide.predecessorWidth() );
+        reopened = roundTrip( snapshot, wide );
+        assertEquals( 4, reopened.predecessorWidth() );
+        assertMatrixEquals( narrow, reopened );
+    }
+
+    private DistanceMatrix roundTrip( GraphSnapshot snapshot, DistanceMatrix matrix ) throws Exception
+    {
+        file.write( snapshot, matrix, INF );
+        DistanceMatrix reopened = file.open( snapshot, true, INF );
+        assertNotNull( reopened );
+        return reopened;
+    }
+
+    private static void assertMatrixEquals( DistanceMatrix expected, DistanceMatrix actual )
+    {
+        assertNotNull( actual );
+        assertEquals( expected.size(), actual.size() );
+        for ( int i = 0; i < expected.size(); i++ )
+        {
+            for ( int j = 0; j < expected.size(); j++ )
+            {
+                String pair = i + " to " + j;
+                assertEquals( pair, expected.cost( i, j ), actual.cost( i, j ), 0.0 );
+                assertEquals( pair, expected.predecessor( i, j ), actual.predecessor( i, j ) );
+            }
+        }
+    }
+
+    private DistanceMatrix matrix( GraphSnapshot snapshot )
+    {
+        DoubleFloydWarshall fw = new DoubleFloydWarshall( snapshot, 0.0, INF, graphDb );
+        fw.setPredecessors( true );
+        return fw.matrix();
+    }
+
+    private GraphSnapshot snapshot( Direction direction )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            GraphSnapshot snapshot = GraphSnapshots.at( graphDb ).get( graphDb, "cost", null, direction );
+            tx.success();
+            return snapshot;
+        }
+    }
+
+    private GraphSnapshot build( Direction direction )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            GraphSnapshot snapshot = GraphSnapshot.build( graphDb,
+                    CommonEvaluators.doubleCostEvaluator( "cost" ), direction );
+            tx.success();
+            return snapshot;
+        }
+    }
+
+    private void relate( int start, int end, double cost )
+    {
+        nodes.get( start ).createRelationshipTo( nodes.get( end ), DynamicRelationshipType.withName( "ROAD" ) )
+                .setProperty( "cost", cost );
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+/**
+ * The median and center of a matrix are computed once for all concurrent
+ * callers, published until a commit changes the matrix, and retried after a
+ * failure.
+ */
+public class MedianAndCenterTest
+{
+    private static final int CALLERS = 8;
+
+    private GraphDatabaseService graphDb;
+    private final Centrality centrality = new Centrality();
+    private final List<Node> nodes = new ArrayList<Node>();
+    private ExecutorService callers;
+
+    @Before
+    public void createDatabase()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        callers = Executors.newFixedThreadPool( CALLERS );
+        // A path of five nodes, with its median and center in the middle
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            for ( int i = 0; i < 5; i++ )
+            {
+                nodes.add( graphDb.createNode() );
+            }
+            for ( int i = 0; i + 1 < 5; i++ )
+            {
+                relate( i, i + 1 );
+            }
+            tx.success();
+        }
+    }
+
+    @After
+    public void shutdown() throws Exception
+    {
+        callers.shutdownNow();
+        callers.awaitTermination( 10, TimeUnit.SECONDS );
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldWaitOnTheComputationUnderWay() throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        final long answer = nodes.get( 4 ).getId();
+        FutureTask<Centrality.MedianAndCenter> computation = new FutureTask<Centrality.MedianAndCenter>(
+                new Callable<Centrality.MedianAndCenter>()
+                {
+                    @Override
+                    public Centrality.MedianAndCenter call()
+                    {
+                        runs.incrementAndGet();
+                        return new Centrality.MedianAndCenter( answer, answer );
+                    }
+                } );
+        matrix().medianAndCenter.set( computation );
+
+        // Only this computation gives the last node, and it runs here
+        List<Future<Node>> medians = callMedian( null );
+        computation.run();
+        for ( Future<Node> median : medians )
+        {
+            assertEquals( nodes.get( 4 ), median.get( 10, TimeUnit.SECONDS ) );
+        }
+        assertEquals( 1, runs.get() );
+        assertSame( computation, matrix().medianAndCenter.get() );
+    }
+
+    @Test
+    public void shouldPublishOneAnswerForConcurrentCallers() throws Exception
+    {
+        CyclicBarrier start = new CyclicBarrier( CALLERS );
+        List<Future<Node>> medians = callMedian( start );
+        for ( Future<Node> median : medians )
+        {
+            assertEquals( nodes.get( 2 ), median.get( 10, TimeUnit.SECONDS ) );
+        }
+        FutureTask<Centrality.MedianAndCenter> published = matrix().medianAndCenter.get();
+        assertNotNull( published );
+        assertTrue( published.isDone() );
+
+        // Later callers read the published answer rather than computing again
+        assertEquals( nodes.get( 2 ), median() );
+        assertEquals( nodes.get( 2 ), centrality.GetGraphCenter( graphDb, null, "both", null, null, 1, null ) );
+        assertSame( published, matrix().medianAndCenter.get() );
+    }
+
+    @Test
+    public void shouldDropThePublishedAnswerOnACommit() throws Exception
+    {
+        assertEquals( nodes.get( 2 ), median() );
+        assertNotNull( matrix().medianAndCenter.get() );
+
+        // Two more nodes at the end move the middle of the path along
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            nodes.add( graphDb.createNode() );
+            nodes.add( graphDb.createNode() );
+            relate( 4, 5 );
+            relate( 5, 6 );
+            tx.success();
+        }
+        assertNull( matrix().medianAndCenter.get() );
+        assertEquals( nodes.get( 3 ), median() );
+        assertEquals( nodes.get( 3 ), centrality.GetGraphCenter( graphDb, null, "both", null, null, 1, null ) );
+    }
+
+    @Test
+    public void shouldLetTheNextCallerRetryAfterAFailure() throws Exception
+    {
+        FutureTask<Centrality.MedianAndCenter> failing = new FutureTask<Centrality.MedianAndCenter>(
+                new Callable<Centrality.MedianAndCenter>()
+                {
+                    @Override
+                    public Centrality.MedianAndCenter call()
+                    {
+                        throw new IllegalStateException( "Negative cycle" );
+                    }
+                } );
+        failing.run();
+        matrix().medianAndCenter.set( failing );
+        try
+        {
+            median();
+            fail( "Expected the failure of the computation" );
+        }
+        catch ( IllegalStateException e )
+        {
+            assertEquals( "Negative cycle", e.getMessage() );
+        }
+        assertNull( matrix().medianAndCenter.get() );
+        assertEquals( nodes.get( 2 ), median() );
+    }
+
+    /**
+     * Calls graph_median from every caller thread, all at once if there is a
+     * barrier.
+     */
+    private List<Future<Node>> callMedian( final CyclicBarrier start )
+    {
+        List<Future<Node>> medians = new ArrayList<Future<Node>>();
+        for ( int i = 0; i < CALLERS; i++ )
+        {
+            medians.add( callers.submit( new Callable<Node>()
+            {
+                @Override
+                public Node call() throws Exception
+                {
+                    if ( start != null )
+                    {
+                        start.await( 10, TimeUnit.SECONDS );
+                    }
+                    return median();
+                }
+            } ) );
+        }
+        return medians;
+    }
+
+    private Node median() throws Exception
+    {
+        return centrality.GetGraphMedian( graphDb, null, "both", null, null, 1, null );
+    }
+
+    private AllPairsMatrices.Matrix matrix() throws Exception
+    {
+        return AllPairsMatrices.at( graphDb ).matrix( Centrality.key( null, "both", null, null ) );
+    }
+
+    private void relate( int start, int end )
+    {
+        nodes.get( start ).createRelationshipTo( nodes.get( end ), DynamicRelationshipType.withName( "ROAD" ) )
+                .setProperty( "cost", 1.0 );
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MinimaxFloydWarshallTest
+{
+    @Test
+    public void shouldFindNoLoopsInTheGraphThatUsedToProduceThem()
+    {
+        List<Map<Integer,Integer>> links = MinimaxFloydWarshall.loopingGraph();
+        MinimaxFloydWarshall minimax = new MinimaxFloydWarshall( links );
+        assertNull( MinimaxFloydWarshall.firstBadPath( links, minimax.findAllPairsMinimaxPaths() ) );
+        assertNull( MinimaxFloydWarshall.firstBadPath( links, minimax.findAllPairsMinimaxPaths( 8, 4 ) ) );
+    }
+
+    /**
+     * 0 -> 1 -> 3 is a minimax path from 0 to 3 with the fewest hops, but 1
+     * has a lighter path of its own to 3, so its suffix is not a minimax
+     * path and the longer 0 -> 1 -> 2 -> 3 is returned.
+     */
+    @Test
+    public void shouldPreferPathsWhoseSuffixesAreMinimaxPaths()
+    {
+        List<Map<Integer,Integer>> links = links( 4 );
+        links.get( 0 ).put( 1, 5 );
+        links.get( 1 ).put( 3, 3 );
+        links.get( 1 ).put( 2, 1 );
+        links.get( 2 ).put( 3, 1 );
+        MinimaxFloydWarshall.Paths paths = new MinimaxFloydWarshall( links ).findAllPairsMinimaxPaths();
+        assertEquals( 5, paths.weight( 0, 3 ) );
+        assertEquals( Arrays.asList( 0, 1, 2, 3 ), list( paths.path( 0, 3 ) ) );
+        assertEquals( 1, paths.weight( 1, 3 ) );
+        assertEquals( Arrays.asList( 1, 2, 3 ), list( paths.path( 1, 3 ) ) );
+    }
+
+    @Test
+    public void shouldPreferFewerHopsAmongEquallyWidePaths()
+    {
+        List<Map<Integer,Integer>> links = links( 5 );
+        links.get( 0 ).put( 1, 2 );
+        links.get( 1 ).put( 2, 2 );
+        links.get( 2 ).put( 4, 2 );
+        links.get( 0 ).put( 3, 2 );
+        links.get( 3 ).put( 4, 2 );
+        MinimaxFloydWarshall.Paths paths = new MinimaxFloydWarshall( links ).findAllPairsMinimaxPaths();
+        assertEquals( Arrays.asList( 0, 3, 4 ), list( paths.path( 0, 4 ) ) );
+        assertNull( paths.path( 4, 0 ) );
+        assertEquals( Integer.MAX_VALUE, paths.weight( 4, 0 ) );
+    }
+
+    @Test
+    public void shouldSumShortestPaths()
+    {
+        List<Map<Integer,Integer>> links = links( 4 );
+        links.get( 0 ).put( 1, 5 );
+        links.get( 1 ).put( 3, 3 );
+        links.get( 1 ).put( 2, 1 );
+        links.get( 2 ).put( 3, 1 );
+        MinimaxFloydWarshall.Paths paths = new MinimaxFloydWarshall( links ).findAllPairsShortestPaths( 2, 2 );
+        assertEquals( 7, paths.weight( 0, 3 ) );
+        assertEquals( Arrays.asList( 0, 1, 2, 3 ), list( paths.path( 0, 3 ) ) );
+        assertEquals( Arrays.asList( 2 ), list( paths.path( 2, 2 ) ) );
+    }
+
+    private static List<Map<Integer,Integer>> links( int n )
+    {
+        List<Map<Integer,Integer>> links = new ArrayList<Map<Integer,Integer>>( n );
+        for ( int i = 0; i < n; i++ )
+        {
+            links.add( new HashMap<Integer,Integer>() );
+        }
+        return links;
+    }
+
+    private static List<Integer> list( Iterable<Integer> path )
+    {
+        List<Integer> result = new ArrayList<Integer>();
+        for ( int v : path )
+        {
+            result.add( v );
+        }
+        return result;
+    }
+}
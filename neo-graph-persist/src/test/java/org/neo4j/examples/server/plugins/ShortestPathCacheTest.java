@@ -0,0 +1,269 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class ShortestPathCacheTest
+{
+    private static final String[] KNOWS = { "knows" };
+    private static final String[] LIKES = { "likes" };
+
+    private GraphDatabaseService graphDb;
+    private ShortestPathCache cache;
+    private final ShortestPath plugin = new ShortestPath();
+    private final Map<String,Node> nodes = new HashMap<String,Node>();
+
+    @Before
+    public void createGraph()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            relate( "a", "b", "knows" );
+            relate( "b", "c", "knows" );
+            relate( "x", "y", "knows" );
+            relate( "d", "e", "knows" );
+            node( "z" );
+            tx.success();
+        }
+        cache = ShortestPathCache.at( graphDb );
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldServeARepeatedSearchFromTheCache()
+    {
+        List<Path> paths = search( "a", "c", null );
+        assertEquals( 1, paths.size() );
+        List<Path> cached = search( "a", "c", null );
+        assertEquals( paths, cached );
+        assertSame( cached, search( "a", "c", null ) );
+        assertEquals( 2, cache.hits() );
+        assertEquals( 1, cache.misses() );
+        // The order of the types does not matter
+        search( "a", "c", new String[] { "knows", "likes" } );
+        search( "a", "c", new String[] { "likes", "knows", "likes" } );
+        assertEquals( 3, cache.hits() );
+    }
+
+    @Test
+    public void shouldEvictTheResultsOverADeletedRelationship()
+    {
+        search( "a", "c", null );
+        search( "x", "y", null );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            node( "d" ).getSingleRelationship( DynamicRelationshipType.withName( "knows" ),
+                    Direction.OUTGOING ).delete();
+            tx.success();
+        }
+        // Not on any cached path
+        assertEquals( 2, cache.size() );
+        assertEquals( 0, cache.invalidations() );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            node( "b" ).getSingleRelationship( DynamicRelationshipType.withName( "knows" ),
+                    Direction.OUTGOING ).delete();
+            tx.success();
+        }
+        assertEquals( 1, cache.size() );
+        assertEquals( 1, cache.invalidations() );
+        assertEquals( 0, search( "a", "c", null ).size() );
+        assertEquals( 1, search( "x", "y", null ).size() );
+        assertEquals( 1, cache.hits() );
+    }
+
+    @Test
+    public void shouldEvictTheResultsEndingAtADeletedNode()
+    {
+        // No path, cached all the same
+        assertEquals( 0, search( "a", "z", null ).size() );
+        assertEquals( 0, search( "z", "x", null ).size() );
+        search( "a", "c", null );
+        assertEquals( 3, cache.size() );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            node( "z" ).delete();
+            tx.success();
+        }
+        assertEquals( 1, cache.size() );
+        assertEquals( 2, cache.invalidations() );
+    }
+
+    @Test
+    public void shouldEvictOnlyTheResultsFollowingACreatedType()
+    {
+        search( "a", "c", KNOWS );
+        search( "a", "c", LIKES );
+        search( "a", "c", null );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            relate( "x", "z", "likes" );
+            tx.success();
+        }
+        assertEquals( 1, cache.size() );
+        assertEquals( 2, cache.invalidations() );
+        search( "a", "c", KNOWS );
+        assertEquals( 1, cache.hits() );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            relate( "x", "z", "knows" );
+            tx.success();
+        }
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void shouldKeepTheResultsOnPropertyChanges()
+    {
+        search( "a", "c", null );
+        long generation = cache.generation();
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            node( "b" ).setProperty( "name", "b" );
+            tx.success();
+        }
+        assertEquals( 1, cache.size() );
+        assertEquals( generation, cache.generation() );
+    }
+
+    @Test
+    public void shouldExpireResultsAfterTheirTimeToLive() throws InterruptedException
+    {
+        ShortestPathCache shortLived = new ShortestPathCache( 10, 50 );
+        ShortestPathCache.Key key = key( "a", "c", null );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            shortLived.put( key, shortLived.generation(), new ArrayList<Path>() );
+            tx.success();
+        }
+        assertNotNull( shortLived.get( key ) );
+        Thread.sleep( 100 );
+        assertNull( shortLived.get( key ) );
+        assertEquals( 0, shortLived.size() );
+        assertEquals( 1, shortLived.evictions() );
+        assertEquals( 1, shortLived.misses() );
+    }
+
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedBeyondCapacity()
+    {
+        ShortestPathCache small = new ShortestPathCache( 2, 60000 );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            small.put( key( "a", "b", null ), small.generation(), new ArrayList<Path>() );
+            small.put( key( "a", "c", null ), small.generation(), new ArrayList<Path>() );
+            small.get( key( "a", "b", null ) );
+            small.put( key( "x", "y", null ), small.generation(), new ArrayList<Path>() );
+            tx.success();
+        }
+        assertEquals( 2, small.size() );
+        assertNull( small.get( key( "a", "c", null ) ) );
+        assertNotNull( small.get( key( "a", "b", null ) ) );
+        assertEquals( 1, small.evictions() );
+    }
+
+    @Test
+    public void shouldRefuseAResultSearchedBeforeACommit()
+    {
+        long generation = cache.generation();
+        List<Path> paths;
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            paths = new ArrayList<Path>();
+            for ( Path path : plugin.shortestPath( node( "a" ), node( "c" ), null, 1 ) )
+            {
+                paths.add( path );
+            }
+            tx.success();
+        }
+        // A commit lands between the search and the put
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            relate( "a", "c", "knows" );
+            tx.success();
+        }
+        assertFalse( generation == cache.generation() );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            cache.put( key( "a", "c", null ), generation, paths );
+            tx.success();
+        }
+        assertNull( cache.get( key( "a", "c", null ) ) );
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            cache.put( key( "a", "c", null ), cache.generation(), paths );
+            tx.success();
+        }
+        assertNotNull( cache.get( key( "a", "c", null ) ) );
+    }
+
+    private List<Path> search( String source, String target, String[] types )
+    {
+        return (List<Path>) plugin.shortestPath( node( source ), node( target ), types, null );
+    }
+
+    private ShortestPathCache.Key key( String source, String target, String[] types )
+    {
+        return new ShortestPathCache.Key( node( source ).getId(), node( target ).getId(), types, 4 );
+    }
+
+    private Node node( String name )
+    {
+        Node node = nodes.get( name );
+        if ( node == null )
+        {
+            node = graphDb.createNode();
+            nodes.put( name, node );
+        }
+        return node;
+    }
+
+    private Relationship relate( String start, String end, String type )
+    {
+        return node( start ).createRelationshipTo( node( end ), DynamicRelationshipType.withName( type ) );
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Licensed to Neo Technology under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Neo Technology licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.neo4j.examples.server.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphalgo.CommonEvaluators;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class SparseAllPairsTest
+{
+    private static final double INF = Double.MAX_VALUE;
+
+    private GraphDatabaseService graphDb;
+
+    @Before
+    public void createDatabase()
+    {
+        graphDb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void shutdown()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void shouldMatchFloydWarshallWithNegativeCosts()
+    {
+        GraphSnapshot snapshot = snapshot( Direction.OUTGOING, new double[][] {
+                { 0, 1, 4 }, { 0, 2, 2 }, { 2, 1, -3 }, { 1, 3, 2 }, { 2, 3, 5 }, { 3, 4, -1 },
+                { 4, 5, 3 }, { 0, 5, 10 }, { 5, 0, 1 }, { 6, 7, -2 }, { 7, 8, 4 }, { 6, 8, 1.5 } } );
+        assertTrue( snapshot.hasNegativeCosts() );
+        for ( int threads : new int[] { 1, 4 } )
+        {
+            int n = snapshot.nodeCount();
+            double[] costs = new double[n * n];
+            Arrays.fill( costs, INF );
+            int[] predecessors = new int[n * n];
+            Arrays.fill( predecessors, -1 );
+            new SparseAllPairs( snapshot, threads ).run( costs, predecessors, 0.0 );
+
+            assertArrayEquals( "threads " + threads, tripleLoop( snapshot ), costs, 1e-9 );
+            assertPredecessorsFollowEdges( snapshot, costs, predecessors );
+        }
+    }
+
+    @Test
+    public void shouldMatchFloydWarshallThroughEitherEngine()
+    {
+        GraphSnapshot snapshot = snapshot( Direction.OUTGOING, new double[][] {
+                { 0, 1, 3 }, { 1, 2, -2 }, { 2, 0, 4 }, { 2, 3, -1 }, { 4, 3, 2 }, { 5, 6, 1 } } );
+        DoubleFloydWarshall floydWarshall = new DoubleFloydWarshall( snapshot, 0.0, INF, graphDb );
+        floydWarshall.setEngine( AllPairsEngine.FLOYD_WARSHALL );
+        DoubleFloydWarshall johnson = new DoubleFloydWarshall( snapshot, 0.0, INF, graphDb );
+        johnson.setEngine( AllPairsEngine.DIJKSTRA );
+        floydWarshall.calculate();
+        johnson.calculate();
+        for ( int i = 0; i < snapshot.nodeCount(); i++ )
+        {
+            for ( int j = 0; j < snapshot.nodeCount(); j++ )
+            {
+                assertEquals( i + " to " + j, floydWarshall.cost( i, j ), johnson.cost( i, j ), 1e-9 );
+            }
+        }
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            assertEquals( johnson.getPath( johnson.nodeAt( 0 ), johnson.nodeAt( 3 ) ),
+                    floydWarshall.getPath( floydWarshall.nodeAt( 0 ), floydWarshall.nodeAt( 3 ) ) );
+            assertNull( johnson.getPath( johnson.nodeAt( 3 ), johnson.nodeAt( 0 ) ) );
+            tx.success();
+        }
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldRefuseANegativeCycle()
+    {
+        GraphSnapshot snapshot = snapshot( Direction.OUTGOING, new double[][] {
+                { 0, 1, 1 }, { 1, 2, -3 }, { 2, 0, 1 }, { 2, 3, 1 } } );
+        int n = snapshot.nodeCount();
+        double[] costs = new double[n * n];
+        Arrays.fill( costs, INF );
+        new SparseAllPairs( snapshot, 1 ).run( costs, null, 0.0 );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void shouldRefuseANegativeRelationshipFollowedBothWays()
+    {
+        GraphSnapshot snapshot = snapshot( Direction.BOTH, new double[][] { { 0, 1, 2 }, { 1, 2, -1 } } );
+        DoubleFloydWarshall johnson = new DoubleFloydWarshall( snapshot, 0.0, INF, graphDb );
+        johnson.setEngine( AllPairsEngine.DIJKSTRA );
+        johnson.calculate();
+    }
+
+    @Test
+    public void shouldPlanDijkstraForSparseGraphs()
+    {
+        assertEquals( AllPairsEngine.FLOYD_WARSHALL, AllPairsEngine.plan( 0, 0 ) );
+        assertEquals( AllPairsEngine.FLOYD_WARSHALL, AllPairsEngine.plan( 100, 5000 ) );
+        assertEquals( AllPairsEngine.DIJKSTRA, AllPairsEngine.plan( 1000, 5000 ) );
+        assertEquals( AllPairsEngine.DIJKSTRA, AllPairsEngine.plan( 100, 99 ) );
+        assertEquals( AllPairsEngine.FLOYD_WARSHALL, AllPairsEngine.plan( 100, 100 ) );
+    }
+
+    @Test
+    public void shouldParseEngineNames()
+    {
+        assertNull( AllPairsEngine.parse( null ) );
+        assertNull( AllPairsEngine.parse( "Auto" ) );
+        assertEquals( AllPairsEngine.FLOYD_WARSHALL, AllPairsEngine.parse( "floyd-warshall" ) );
+        assertEquals( AllPairsEngine.DIJKSTRA, AllPairsEngine.parse( "dijkstra" ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldRefuseUnknownEngineNames()
+    {
+        AllPairsEngine.parse( "bellman_ford" );
+    }
+
+    /**
+     * @param relationships
+     *            start, end and cost of every relationship, with the start
+     *            and end as indexes into the created nodes.
+     */
+    private GraphSnapshot snapshot( Direction direction, double[][] relationships )
+    {
+        try ( Transaction tx = graphDb.beginTx() )
+        {
+            int count = 0;
+            for ( double[] relationship : relationships )
+            {
+                count = Math.max( count, (int) Math.max( relationship[0], relationship[1] ) + 1 );
+            }
+            Node[] nodes = new Node[count];
+            for ( int i = 0; i < count; i++ )
+            {
+                nodes[i] = graphDb.createNode();
+            }
+            for ( double[] relationship : relationships )
+            {
+                nodes[(int) relationship[0]].createRelationshipTo( nodes[(int) relationship[1]],
+                        DynamicRelationshipType.withName( "ROAD" ) ).setProperty( "cost", relationship[2] );
+            }
+            GraphSnapshot snapshot = GraphSnapshot.build( graphDb, CommonEvaluators.doubleCostEvaluator( "cost" ),
+                    direction );
+            tx.success();
+            return snapshot;
+        }
+    }
+
+    private static double[] tripleLoop( GraphSnapshot snapshot )
+    {
+        int n = snapshot.nodeCount();
+        double[] d = new double[n * n];
+        Arrays.fill( d, INF );
+        for ( int u = 0; u < n; u++ )
+        {
+            d[u * n + u] = 0;
+            for ( int e = snapshot.offsets()[u]; e < snapshot.offsets()[u + 1]; e++ )
+            {
+                int v = snapshot.targets()[e];
+                d[u * n + v] = Math.min( d[u * n + v], snapshot.costs()[e] );
+            }
+        }
+        for ( int k = 0; k < n; k++ )
+        {
+            for ( int i = 0; i < n; i++ )
+            {
+                for ( int j = 0; j < n; j++ )
+                {
+                    if ( d[i * n + k] != INF && d[k * n + j] != INF )
+                    {
+                        d[i * n + j] = Math.min( d[i * n + j], d[i * n + k] + d[k * n + j] );
+                    }
+                }
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Every reachable pair must end in an edge from its predecessor that
+     * accounts for the last step of the distance.
+     */
+    private static void assertPredecessorsFollowEdges( GraphSnapshot snapshot, double[] costs, int[] predecessors )
+    {
+        int n = snapshot.nodeCount();
+        for ( int i = 0; i < n; i++ )
+        {
+            for ( int j = 0; j < n; j++ )
+            {
+                int p = predecessors[i * n + j];
+                if ( i == j || costs[i * n + j] == INF )
+                {
+                    assertEquals( i + " to " + j, -1, p );
+                    continue;
+                }
+                double step = INF;
+                for ( int e = snapshot.offsets()[p]; e < snapshot.offsets()[p + 1]; e++ )
+                {
+                    if ( snapshot.targets()[e] == j )
+                    {
+                        step = Math.min( step, snapshot.costs()[e] );
+                    }
+                }
+                assertEquals( i + " to " + j, costs[i * n + j], costs[i * n + p] + step, 1e-9 );
+            }
+        }
+    }
+}